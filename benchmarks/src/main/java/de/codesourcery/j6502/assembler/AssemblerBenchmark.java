@@ -0,0 +1,79 @@
+package de.codesourcery.j6502.assembler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.j6502.assembler.parser.Lexer;
+import de.codesourcery.j6502.assembler.parser.Parser;
+import de.codesourcery.j6502.assembler.parser.Scanner;
+import de.codesourcery.j6502.assembler.parser.ast.AST;
+import de.codesourcery.j6502.utils.SourceHelper;
+
+/**
+ * Measures parsing and assembling a large generated source file (10 lines per block).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssemblerBenchmark
+{
+    @Param({"100","1000"})
+    public int blocks;
+
+    private String source;
+    private AST ast;
+
+    @Setup
+    public void setup()
+    {
+        final StringBuilder buffer = new StringBuilder("*= $1000\n");
+        for ( int i = 0 ; i < blocks ; i++ )
+        {
+            buffer.append("block").append(i).append(": ldx #$10\n");
+            buffer.append("loop").append(i).append(": lda data").append(i).append(",x\n");
+            buffer.append("  sta $0400,x\n");
+            buffer.append("  adc ($fb),y\n");
+            buffer.append("  sta data").append(i).append("+1\n");
+            buffer.append("  dex\n");
+            buffer.append("  bne loop").append(i).append("\n");
+            buffer.append("  jsr block").append( ( i + 1 ) % blocks ).append("\n");
+            buffer.append("  rts\n");
+            buffer.append("data").append(i).append(": .byte 1,2,3,4,5,6,7,8\n");
+        }
+        source = buffer.toString();
+        ast = parse();
+    }
+
+    private AST parse() {
+        return new Parser( new Lexer( new Scanner( source ) ) ).parse();
+    }
+
+    @Benchmark
+    public AST parseOnly() {
+        return parse();
+    }
+
+    @Benchmark
+    public byte[] assemble() {
+        return new Assembler().assemble( ast , new SourceHelper( source ) );
+    }
+
+    @Benchmark
+    public byte[] parseAndAssemble() {
+        return new Assembler().assemble( parse() , new SourceHelper( source ) );
+    }
+}
@@ -0,0 +1,44 @@
+package de.codesourcery.j6502.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks.
+ *
+ * <p>Accepts the regular JMH command-line options but writes results in JSON format to <code>jmh-result.json</code>
+ * unless <code>-rf</code> / <code>-rff</code> say otherwise, so that results of different commits can be compared
+ * by tools.</p>
+ *
+ * <pre>
+ * java -jar benchmarks.jar -rff jmh-result-$(git rev-parse --short HEAD).json [regex]
+ * </pre>
+ */
+public class BenchmarkRunner
+{
+    public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception
+    {
+        final CommandLineOptions commandLine = new CommandLineOptions( args );
+        if ( commandLine.shouldHelp() ) {
+            commandLine.showHelp();
+            return;
+        }
+        if ( commandLine.shouldList() ) {
+            new Runner( commandLine ).list();
+            return;
+        }
+        final ChainedOptionsBuilder options = new OptionsBuilder().parent( commandLine );
+        if ( ! commandLine.getResultFormat().hasValue() ) {
+            options.resultFormat( ResultFormatType.JSON );
+        }
+        if ( ! commandLine.getResult().hasValue() ) {
+            options.result( DEFAULT_RESULT_FILE );
+        }
+        new Runner( options.build() ).run();
+    }
+}
@@ -0,0 +1,124 @@
+package de.codesourcery.j6502.emulator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.j6502.assembler.Assembler;
+import de.codesourcery.j6502.assembler.parser.Lexer;
+import de.codesourcery.j6502.assembler.parser.Parser;
+import de.codesourcery.j6502.assembler.parser.Scanner;
+
+/**
+ * Measures {@link CPUImpl#executeInstruction()} without any other chips being ticked.
+ *
+ * Workloads:
+ * <ul>
+ * <li>kernal - whatever the KERNAL/BASIC ROM does after booting (cursor blinking / keyboard polling)</li>
+ * <li>arithmetic - ALU-heavy loop</li>
+ * <li>memcopy - copies pages using indirect indexed addressing</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CPUBenchmark
+{
+    private static final int INSTRUCTIONS = 10_000;
+
+    private static final String ARITHMETIC = "*= $c000\n"+
+            "start: sei\n"+
+            "clc\n"+
+            "loop: lda #$12\n"+
+            "adc #$34\n"+
+            "sbc $fb\n"+
+            "asl\n"+
+            "rol $fc\n"+
+            "eor #$ff\n"+
+            "and $fb\n"+
+            "ora #$81\n"+
+            "sta $fb\n"+
+            "inx\n"+
+            "dey\n"+
+            "cmp #$40\n"+
+            "bne loop\n"+
+            "jmp loop\n";
+
+    private static final String MEMCOPY = "*= $c000\n"+
+            "start: sei\n"+
+            "lda #$00\n"+
+            "sta $fb\n"+
+            "sta $fd\n"+
+            "lda #$20\n"+
+            "sta $fc\n"+
+            "lda #$40\n"+
+            "sta $fe\n"+
+            "copy: ldy #$00\n"+
+            "loop: lda ($fb),y\n"+
+            "sta ($fd),y\n"+
+            "iny\n"+
+            "bne loop\n"+
+            "jmp copy\n";
+
+    @Param({"kernal","arithmetic","memcopy"})
+    public String workload;
+
+    private Emulator emulator;
+    private CPUImpl cpu;
+
+    @Setup
+    public void setup()
+    {
+        emulator = new Emulator();
+        emulator.reset();
+        switch( workload )
+        {
+            case "kernal":
+                for ( int i = 0 ; i < 2_000_000 ; i++ ) {
+                    emulator.doOneCycle( null );
+                }
+                break;
+            case "arithmetic":
+                load( ARITHMETIC );
+                break;
+            case "memcopy":
+                load( MEMCOPY );
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown workload: "+workload);
+        }
+        cpu = new CPUImpl( emulator.getCPU() , emulator.getMemory() );
+    }
+
+    private void load(String source)
+    {
+        final Assembler assembler = new Assembler();
+        final byte[] executable = assembler.assemble( new Parser( new Lexer( new Scanner( source ) ) ).parse() );
+        emulator.getMemory().bulkWrite( assembler.getOrigin() , executable , 0 , executable.length );
+        emulator.getCPU().pc( assembler.getOrigin() );
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public long executeInstruction()
+    {
+        for ( int i = 0 ; i < INSTRUCTIONS ; i++ ) {
+            cpu.executeInstruction();
+        }
+        return emulator.getCPU().cycles;
+    }
+}
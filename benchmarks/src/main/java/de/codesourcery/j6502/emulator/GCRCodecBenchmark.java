@@ -0,0 +1,50 @@
+package de.codesourcery.j6502.emulator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures decoding one sector's worth of GCR data (256 data bytes plus block id , checksum and padding).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GCRCodecBenchmark
+{
+    private static final int SECTOR_BYTES = 260;
+
+    private final byte[] encoded = new byte[ GCRCodec.getEncodedSize( SECTOR_BYTES ) ];
+    private final byte[] decoded = new byte[ SECTOR_BYTES ];
+
+    @Setup
+    public void setup()
+    {
+        final byte[] data = new byte[ SECTOR_BYTES ];
+        new Random( 0xdeadbeef ).nextBytes( data );
+        GCRCodec.encode( data , 0 , encoded , 0 , SECTOR_BYTES );
+    }
+
+    @Benchmark
+    public int decodeSector() {
+        return GCRCodec.decode( encoded , 0 , decoded , 0 , SECTOR_BYTES );
+    }
+
+    @Benchmark
+    public int encodeSector() {
+        return GCRCodec.encode( decoded , 0 , encoded , 0 , SECTOR_BYTES );
+    }
+}
@@ -0,0 +1,81 @@
+package de.codesourcery.j6502.emulator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link MemorySubsystem#readByte(int)} and {@link MemorySubsystem#writeByte(int, byte)} for
+ * different bank layouts (value written to the processor port at $01).
+ *
+ * <ul>
+ * <li>37 - BASIC , KERNAL and I/O visible (default)</li>
+ * <li>36 - KERNAL and I/O visible</li>
+ * <li>35 - only I/O visible</li>
+ * <li>33 - KERNAL and character ROM visible</li>
+ * <li>30 - all RAM</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryBenchmark
+{
+    // writes skip the processor port and the I/O area so they don't change the bank layout or chip state
+    private static final int WRITE_RANGE1_START = 0x0200;
+    private static final int WRITE_RANGE1_END = 0xd000;
+    private static final int WRITE_RANGE2_START = 0xe000;
+    private static final int WRITE_RANGE2_END = 0x10000;
+    private static final int WRITES = ( WRITE_RANGE1_END - WRITE_RANGE1_START ) + ( WRITE_RANGE2_END - WRITE_RANGE2_START );
+
+    @Param({"37","36","35","33","30"})
+    public String bankLayout;
+
+    private MemorySubsystem memory;
+
+    @Setup
+    public void setup()
+    {
+        final Emulator emulator = new Emulator();
+        emulator.reset();
+        memory = emulator.getMemory();
+        memory.writeByte( 0x01 , (byte) Integer.parseInt( bankLayout , 16 ) );
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(65536)
+    public int readByte()
+    {
+        int sum = 0;
+        for ( int adr = 0 ; adr < 65536 ; adr++ ) {
+            sum += memory.readByte( adr );
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WRITES)
+    public void writeByte()
+    {
+        for ( int adr = WRITE_RANGE1_START ; adr < WRITE_RANGE1_END ; adr++ ) {
+            memory.writeByte( adr , (byte) adr );
+        }
+        for ( int adr = WRITE_RANGE2_START ; adr < WRITE_RANGE2_END ; adr++ ) {
+            memory.writeByte( adr , (byte) adr );
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package de.codesourcery.j6502.emulator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link VIC#tick(CPU, boolean)} for one full PAL frame per graphics mode , with and without all 8 sprites enabled.
+ *
+ * Results are per cycle (both clock phases).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VICBenchmark
+{
+    private static final int CYCLES_PER_FRAME = 312*63;
+
+    @Param({"text","multicolor_text","extended_color_text","bitmap","multicolor_bitmap"})
+    public String graphicsMode;
+
+    @Param({"false","true"})
+    public boolean sprites;
+
+    private VIC vic;
+    private CPU cpu;
+
+    @Setup
+    public void setup()
+    {
+        final Emulator emulator = new Emulator();
+        emulator.reset();
+        // boot so that screen RAM holds the BASIC start-up message
+        for ( int i = 0 ; i < 2_000_000 ; i++ ) {
+            emulator.doOneCycle( null );
+        }
+
+        final MemorySubsystem memory = emulator.getMemory();
+        int d011 = 0x1b;
+        int d016 = 0xc8;
+        switch( graphicsMode )
+        {
+            case "text":
+                break;
+            case "multicolor_text":
+                d016 |= 0x10;
+                break;
+            case "extended_color_text":
+                d011 |= 0x40;
+                break;
+            case "bitmap":
+                d011 |= 0x20;
+                break;
+            case "multicolor_bitmap":
+                d011 |= 0x20;
+                d016 |= 0x10;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown graphics mode: "+graphicsMode);
+        }
+        memory.writeByte( 0xd011 , (byte) d011 );
+        memory.writeByte( 0xd016 , (byte) d016 );
+
+        if ( sprites )
+        {
+            for ( int i = 0 ; i < 8 ; i++ )
+            {
+                memory.writeByte( 0x07f8 + i , (byte) ( 0x80 + i ) ); // sprite data @ $2000
+                memory.writeByte( 0xd000 + 2*i , (byte) ( 24 + i*30 ) );
+                memory.writeByte( 0xd001 + 2*i , (byte) ( 50 + i*20 ) );
+                memory.writeByte( 0xd027 + i , (byte) ( i + 1 ) );
+            }
+            for ( int adr = 0x2000 ; adr < 0x2000 + 8*64 ; adr++ ) {
+                memory.writeByte( adr , (byte) 0x5a );
+            }
+            memory.writeByte( 0xd01c , (byte) 0x0f ); // half of them multi-color
+            memory.writeByte( 0xd015 , (byte) 0xff );
+        }
+
+        vic = emulator.getVIC();
+        cpu = emulator.getCPU();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES_PER_FRAME)
+    public void tickFrame()
+    {
+        for ( int i = 0 ; i < CYCLES_PER_FRAME ; i++ )
+        {
+            vic.tick( cpu , false );
+            vic.tick( cpu , true );
+        }
+    }
+}
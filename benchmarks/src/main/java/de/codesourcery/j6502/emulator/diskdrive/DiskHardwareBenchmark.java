@@ -0,0 +1,100 @@
+package de.codesourcery.j6502.emulator.diskdrive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.j6502.emulator.Emulator;
+import de.codesourcery.j6502.emulator.G64File;
+import de.codesourcery.j6502.emulator.IECBus;
+import de.codesourcery.j6502.emulator.SerialDevice;
+
+/**
+ * Measures {@link DiskHardware#tick(Emulator, IECBus)} while the drive is reading a track.
+ *
+ * The setup boots the C64 , inserts a disk and issues a LOAD command , the C64 side is frozen
+ * once the drive motor started and only the drive gets ticked afterwards.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiskHardwareBenchmark
+{
+    private static final int CYCLES = 10_000;
+
+    private static final int MAX_SETUP_CYCLES = 30_000_000;
+
+    private Emulator emulator;
+    private IECBus bus;
+    private DiskHardware drive;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        emulator = new Emulator();
+        emulator.reset();
+        bus = emulator.getBus();
+        for ( SerialDevice device : bus.getDevices() )
+        {
+            if ( device instanceof DiskHardware ) {
+                drive = (DiskHardware) device;
+            }
+        }
+        if ( drive == null ) {
+            throw new IllegalStateException("No disk drive on the IEC bus ?");
+        }
+        try ( InputStream in = DiskHardwareBenchmark.class.getResourceAsStream( "/disks/pitfall.g64" ) ) {
+            drive.loadDisk( new G64File( in , "pitfall.g64" ) );
+        }
+
+        run( 2_000_000 ); // boot
+        // put LOAD"*",8 + RETURN into the KERNAL's keyboard buffer
+        final byte[] command = "LOAD\"*\",8\r".getBytes( StandardCharsets.US_ASCII );
+        for ( int i = 0 ; i < command.length ; i++ ) {
+            emulator.getMemory().writeByte( 0x0277 + i , command[i] );
+        }
+        emulator.getMemory().writeByte( 0xc6 , (byte) command.length );
+
+        int cycles = 0;
+        while ( ! drive.motorsRunning )
+        {
+            if ( ++cycles > MAX_SETUP_CYCLES ) {
+                throw new IllegalStateException("Drive motor did not start");
+            }
+            emulator.doOneCycle( null );
+        }
+        run( 500_000 ); // let the head settle on the track
+    }
+
+    private void run(int cycles)
+    {
+        for ( int i = 0 ; i < cycles ; i++ ) {
+            emulator.doOneCycle( null );
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public void tick()
+    {
+        for ( int i = 0 ; i < CYCLES ; i++ ) {
+            drive.tick( emulator , bus );
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package de.codesourcery.j6502.utils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures reading a full track (speed zone 1 , 7692 bytes) from a {@link BitStream}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitStreamBenchmark
+{
+    private static final int TRACK_BYTES = 7692;
+
+    // bytes per readBits() call , the size of an encoded sector's data block
+    private static final int CHUNK_BYTES = 325;
+
+    private BitStream stream;
+    private final byte[] buffer = new byte[ CHUNK_BYTES ];
+
+    @Setup
+    public void setup()
+    {
+        final byte[] track = new byte[ TRACK_BYTES ];
+        new Random( 0xdeadbeef ).nextBytes( track );
+        stream = new BitStream( track );
+        stream.advance( 3 ); // don't start byte-aligned
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRACK_BYTES*8)
+    public int readBit()
+    {
+        int sum = 0;
+        for ( int i = TRACK_BYTES*8 ; i > 0 ; i-- ) {
+            sum += stream.readBit();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRACK_BYTES)
+    public int readByte()
+    {
+        int sum = 0;
+        for ( int i = TRACK_BYTES ; i > 0 ; i-- ) {
+            sum += stream.readByte();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation((TRACK_BYTES / CHUNK_BYTES) * CHUNK_BYTES)
+    public byte[] readBits()
+    {
+        for ( int i = TRACK_BYTES / CHUNK_BYTES ; i > 0 ; i-- ) {
+            stream.readBits( buffer , CHUNK_BYTES*8 );
+        }
+        return buffer;
+    }
+}
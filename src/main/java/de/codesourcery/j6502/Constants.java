@@ -21,13 +21,58 @@ public class Constants
     public static final boolean DISKDRIVE_TRACK_JOBQUEUE = true; /* PERFORMANCE RELEVANT */
     
     /**
-     * Careful, this interval is also used to re-calibrate the CPU's delay loop.
-     * Setting it to a larger value will make the emulation worse at keeping
-     * to the true clock speed.
+     * Number of cycles between invocations of the EmulatorDriver's tick() callback.
      */
     public static final long EMULATORDRIVER_CALLBACK_INVOKE_CYCLES = 300_000; /* PERFORMANCE RELEVANT */
     public static final boolean EMULATORDRIVER_PRINT_SPEED = false;
 
+    /**
+     * Clock speed (Hz) the emulation is throttled to when running at true speed (PAL C64).
+     */
+    public static final int EMULATORDRIVER_TRUE_SPEED_HZ = 985_248;
+
+    /**
+     * Number of cycles executed in one go before sleeping when running at true speed.
+     *
+     * One PAL frame (312 raster lines * 63 cycles).
+     */
+    public static final int EMULATORDRIVER_TRUE_SPEED_BATCH_CYCLES = 312*63;
+
+    // RewindBuffer class constants
+    /**
+     * Number of cycles between two consecutive snapshots recorded by the rewind buffer (one PAL frame).
+     */
+    public static final int REWIND_CYCLES_PER_FRAME = 312*63;
+
+    /**
+     * Max. number of bytes the rewind buffer may occupy.
+     */
+    public static final long REWIND_MAX_BYTES = 64*1024*1024;
+
+    /**
+     * Max. number of seconds the rewind buffer keeps.
+     */
+    public static final int REWIND_MAX_SECONDS = 60;
+
+    /**
+     * Number of frames between two full snapshots in the rewind buffer.
+     */
+    public static final int REWIND_KEYFRAME_INTERVAL = 50;
+
+    // InstructionTracer class constants
+    /**
+     * Number of instructions kept by traces started from the debugger (16 bytes each).
+     */
+    public static final int TRACE_CAPACITY = 16*1024*1024;
+
+    // EmulatorMetrics class constants
+    /**
+     * Number of cycles between two cycles whose per-chip execution time gets measured.
+     *
+     * Prime so that samples do not keep hitting the same raster position.
+     */
+    public static final int METRICS_SAMPLE_INTERVAL = 1021;
+
     // CPUImpl constants
     public static final boolean CPUIMPL_TRACK_INSTRUCTION_DURATION = false;
     public static final boolean CPUIMPL_DEBUG_TAPE = false;       
@@ -1,42 +1,124 @@
 package de.codesourcery.j6502.assembler;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 
+import org.apache.commons.lang.Validate;
+
 import de.codesourcery.j6502.assembler.exceptions.ParseException;
 import de.codesourcery.j6502.assembler.exceptions.ValueUnavailableException;
+import de.codesourcery.j6502.assembler.parser.Equ;
+import de.codesourcery.j6502.assembler.parser.Identifier;
 import de.codesourcery.j6502.assembler.parser.ast.AST;
+import de.codesourcery.j6502.assembler.parser.ast.EquNode;
 import de.codesourcery.j6502.assembler.parser.ast.IASTNode;
 import de.codesourcery.j6502.assembler.parser.ast.ICompilationContextAware;
 import de.codesourcery.j6502.assembler.parser.ast.IValueNode;
+import de.codesourcery.j6502.assembler.parser.ast.IdentifierReferenceNode;
+import de.codesourcery.j6502.assembler.parser.ast.LabelNode;
 import de.codesourcery.j6502.utils.HexDump;
 import de.codesourcery.j6502.utils.ITextRegion;
 import de.codesourcery.j6502.utils.SourceHelper;
 import de.codesourcery.j6502.utils.SourceHelper.TextLocation;
 
 
-
+/**
+ * Turns an AST into machine code.
+ *
+ * Assembly happens in three stages:
+ *
+ * <ol>
+ * <li>pass #0 defines all symbols and lays out the code assuming that every value that is not known yet
+ * requires the largest encoding (absolute instead of zero-page addressing)</li>
+ * <li>afterwards only statements that reference a symbol whose value changed get evaluated again , moving
+ * labels that follow statements which changed their size , until neither values nor sizes change anymore</li>
+ * <li>the final pass generates the binary into a buffer of exactly the size determined by the layout</li>
+ * </ol>
+ */
 public class Assembler
 {
 	protected static final boolean DEBUG_ENABLED = false;
 
+	/**
+	 * Version of the code generator , needs to be incremented whenever the same source
+	 * assembles to different code than before so that {@link BuildCache} entries become stale.
+	 */
+	public static final int VERSION = 2;
+
+	// sizes that are still changing after this many passes are oscillating
+	protected static final int MAX_PASSES = 64;
+
 	protected DefaultContext context;
 
+	private int presetOrigin = -1;
+	private final Map<Identifier,Integer> externalSymbols = new HashMap<>();
+	private final Set<Identifier> unresolvedSymbols = new HashSet<>();
+
+	/**
+	 * Location and size of the code generated by a top-level statement , along with the symbols
+	 * it defines.
+	 */
+	protected static final class StatementLayout
+	{
+		public final IASTNode statement;
+		public final int index;
+		// write offset of the first byte generated by this statement
+		public int offset;
+		public int size;
+		// labels defined by this statement along with their offset relative to the statement
+		public final List<LabelNode> labels = new ArrayList<>(1);
+		public int[] labelOffsets;
+		public final List<ISymbol<Integer>> equs = new ArrayList<>(0);
+		// whether the statement needs to be evaluated again
+		public boolean dirty;
+
+		public StatementLayout(IASTNode statement,int index) {
+			this.statement = statement;
+			this.index = index;
+		}
+	}
+
 	protected final class DefaultContext implements ICompilationContext
 	{
-		protected byte[] buffer = new byte[1024];
+		protected byte[] buffer;
 		protected int currentWriteOffset;
 		protected int origin;
 		protected int currentAddress;
 		protected int currentPassNo = 0;
+		protected boolean finalPass;
 
 		private final SourceMap sourceMap = new SourceMap();
 		private final SourceHelper sourceHelper;
 		private final ISymbolTable symbolTable = new SymbolTable();
 
 		private boolean originSet = false;
+		// index of the statement that sets the origin , -1 if none did
+		private int originStatement = -1;
+		// origin set up-front , -1 if the source needs to set it
+		private final int presetOrigin;
+
+		private final Consumer<IASTNode> visitor = this::visit;
 
-		public DefaultContext(SourceHelper sourceHelper) {
+		public DefaultContext(SourceHelper sourceHelper,int presetOrigin)
+		{
 			this.sourceHelper = sourceHelper;
+			this.presetOrigin = presetOrigin;
+			resetOrigin();
+		}
+
+		private void resetOrigin()
+		{
+			originSet = false;
+			currentAddress = 0;
+			if ( presetOrigin != -1 ) {
+				setOrigin( (short) presetOrigin );
+			}
 		}
 
 		@Override
@@ -59,10 +141,14 @@ public class Assembler
 				throw new IllegalStateException("Origin not set");
 			}
 
-			if ( currentWriteOffset  >= buffer.length ) {
-				expandBuffer();
+			if ( finalPass )
+			{
+				if ( currentWriteOffset  >= buffer.length ) {
+					expandBuffer();
+				}
+				buffer[currentWriteOffset] = b;
 			}
-			buffer[currentWriteOffset++] = b;
+			currentWriteOffset++;
 			currentAddress++;
 		}
 
@@ -73,7 +159,7 @@ public class Assembler
 			byte value;
 			if ( ! lit.isValueAvailable() )
 			{
-				if ( getPassNo() != 0 ) {
+				if ( finalPass ) {
 					throw new ValueUnavailableException(lit);
 				}
 				value = (byte) 0xff;
@@ -99,12 +185,16 @@ public class Assembler
 				throw new IllegalStateException("Origin not set");
 			}
 
-			if ( currentWriteOffset >= buffer.length ) {
-				expandBuffer();
+			if ( finalPass )
+			{
+				if ( currentWriteOffset + 1 >= buffer.length ) {
+					expandBuffer();
+				}
+				// 6502 uses little-endian => low-byte first
+				buffer[currentWriteOffset] = (byte) (b & 0xff );
+				buffer[currentWriteOffset+1] = (byte) (( b & 0xff00) >> 8);
 			}
-			// 6502 uses little-endian => low-byte first
-			buffer[currentWriteOffset++] = (byte) (b & 0xff );
-			buffer[currentWriteOffset++] = (byte) (( b & 0xff00) >> 8);
+			currentWriteOffset += 2;
 			currentAddress += 2;
 		}
 
@@ -115,7 +205,7 @@ public class Assembler
 			short value;
 			if ( ! lit.isValueAvailable() )
 			{
-				if ( getPassNo() != 0 ) {
+				if ( finalPass ) {
 					throw new ValueUnavailableException(lit);
 				}
 				value = (short) 0xffff;
@@ -141,72 +231,93 @@ public class Assembler
 			}
 		}
 
-		public void onePass(AST ast)
+		private void visit(IASTNode n)
 		{
-			originSet = false;
-			currentAddress = 0;
-			currentWriteOffset = 0;
-			buffer = new byte[1024];
-			sourceMap.clear();
+			if ( n instanceof ICompilationContextAware)
+			{
+				final int start = currentAddress;
+				((ICompilationContextAware) n).visit( this );
+				final int end = currentAddress;
+
+				if ( finalPass && start != end && sourceHelper != null ) {
+					addToSourceMap( n , start , end );
+				}
+			}
+			// assert that all symbols have been resolved
+			if ( finalPass && n instanceof IValueNode && ! ((IValueNode) n).isValueAvailable() ) {
+				throw new RuntimeException("Value unavailable for "+n);
+			}
+		}
 
-			final Consumer<IASTNode> visitor1 = n ->
+		private void addToSourceMap(IASTNode n,int start,int end)
+		{
+			ITextRegion region = n.getTextRegion();
+			if ( region == null ) {
+				region = n.getTextRegionIncludingChildren();
+			}
+			if ( region != null )
 			{
-				if ( n instanceof ICompilationContextAware)
+				TextLocation loc = sourceHelper.getLocation( region.getStartingOffset() );
+				if ( loc != null )
 				{
-					final int start = currentAddress;
-					((ICompilationContextAware) n).visit( this );
-					final int end = currentAddress;
-
-					if ( start != end && sourceHelper != null )
+					try {
+						sourceMap.addAddressRange( start  , end-start , loc.lineNumber );
+					}
+					catch(IllegalArgumentException e)
 					{
-						ITextRegion region = n.getTextRegion();
-						if ( region == null ) {
-							region = n.getTextRegionIncludingChildren();
-						}
-						if ( region != null )
-						{
-							TextLocation loc = sourceHelper.getLocation( region.getStartingOffset() );
-							if ( loc != null )
-							{
-								try {
-									sourceMap.addAddressRange( start  , end-start , loc.lineNumber );
-								}
-								catch(IllegalArgumentException e)
-								{
-									throw new IllegalArgumentException("Error with location "+loc+" (offset: "+region.getStartingOffset()+")",e);
-								}
-							}
-						}
+						throw new IllegalArgumentException("Error with location "+loc+" (offset: "+region.getStartingOffset()+")",e);
 					}
 				}
-			};
+			}
+		}
 
-			ast.visitParentFirst( visitor1);
+		/**
+		 * Lays out a statement during pass #0 , directly after its predecessor.
+		 */
+		public void firstPass(StatementLayout stmt)
+		{
+			stmt.offset = currentWriteOffset;
+			final boolean hadOrigin = originSet;
+			stmt.statement.visitParentFirst( visitor );
+			if ( ! hadOrigin && originSet ) {
+				originStatement = stmt.index;
+			}
+			stmt.size = currentWriteOffset - stmt.offset;
+		}
+
+		/**
+		 * Evaluates a single statement again at its current address.
+		 */
+		public void layout(StatementLayout stmt)
+		{
+			originSet = presetOrigin != -1 || ( originStatement != -1 && stmt.index > originStatement );
+			currentWriteOffset = stmt.offset;
+			currentAddress = ( origin + stmt.offset ) & 0xffff;
+			stmt.statement.visitParentFirst( visitor );
+			if ( stmt.index == originStatement && ! originSet ) {
+				throw new IllegalStateException("Origin not set");
+			}
+			stmt.size = currentWriteOffset - stmt.offset;
+		}
 
-			final Consumer<IASTNode> visitor2 = n ->
+		/**
+		 * Generates the binary.
+		 */
+		public void finalPass(StatementLayout[] layout,int size)
+		{
+			finalPass = true;
+			resetOrigin();
+			currentWriteOffset = 0;
+			buffer = new byte[ size ];
+			sourceMap.clear();
+
+			for ( StatementLayout stmt : layout )
 			{
-				if ( n instanceof ICompilationContextAware)
-				{
-					((ICompilationContextAware) n).passFinished( this );
+				stmt.statement.visitParentFirst( visitor );
+				if ( currentWriteOffset - stmt.offset != stmt.size ) {
+					throw new RuntimeException("Internal error, size of '"+stmt.statement+"' changed in final pass");
 				}
-			};
-
-			ast.visitParentFirst( visitor2 );
-			
-			// assert that all symbols have been resolved
-			if ( currentPassNo > 0 ) {
-			    
-			    final Consumer<IASTNode> sanityCheck = node -> 
-			    {
-			      if ( node instanceof IValueNode && ! ((IValueNode) node).isValueAvailable() ) 
-			      {
-			          throw new RuntimeException("Value unavailable for "+node);
-			      }
-			    };
-                ast.visitParentFirst( sanityCheck );
 			}
-
-			currentPassNo++;
 		}
 
 		@Override
@@ -224,13 +335,21 @@ public class Assembler
 			return currentPassNo;
 		}
 
+		@Override
+		public boolean isFinalPass() {
+			return finalPass;
+		}
+
 		private void expandBuffer() {
-			final byte[] newBuffer = new byte[buffer.length*2];
+			final byte[] newBuffer = new byte[ Math.max( 1024 , buffer.length*2 ) ];
 			System.arraycopy( buffer, 0 , newBuffer , 0 , buffer.length );
 			buffer = newBuffer;
 		}
 
 		public byte[] getBytes() {
+			if ( buffer.length == currentWriteOffset ) {
+				return buffer;
+			}
 			final byte[] result = new byte[currentWriteOffset];
 			if ( currentWriteOffset > 0 ) {
 				System.arraycopy( buffer , 0 , result , 0 , currentWriteOffset );
@@ -248,6 +367,54 @@ public class Assembler
 		return context.origin;
 	}
 
+	/**
+	 * Returns the number of passes the last invocation of {@link #assemble(AST, SourceHelper)} needed ,
+	 * including the final pass.
+	 *
+	 * @return
+	 */
+	public int getPassCount() {
+		return context.currentPassNo+1;
+	}
+
+	/**
+	 * Sets the origin up-front , for sources that do not set it themselves.
+	 *
+	 * Sources that contain a '*=' will fail to assemble.
+	 *
+	 * @param address origin or -1 to require the source to set it
+	 */
+	public void setOrigin(int address)
+	{
+		if ( address < -1 || address > 0xffff ) {
+			throw new IllegalArgumentException("Origin out of range: "+address);
+		}
+		this.presetOrigin = address;
+	}
+
+	/**
+	 * Defines a global symbol with a fixed value that is not part of the source ,
+	 * used to import symbols from other compilation units.
+	 *
+	 * @param identifier
+	 * @param value
+	 */
+	public void defineExternalSymbol(Identifier identifier,int value)
+	{
+		Validate.notNull(identifier, "identifier must not be NULL");
+		externalSymbols.put( identifier , value );
+	}
+
+	/**
+	 * Returns identifiers that could not be resolved during the last invocation of
+	 * {@link #assemble(AST, SourceHelper)} or {@link #computeSize(AST, SourceHelper)}.
+	 *
+	 * @return
+	 */
+	public Set<Identifier> getUnresolvedSymbols() {
+		return unresolvedSymbols;
+	}
+
 	public byte[] assemble(AST ast)
 	{
 		return assemble(ast,null);
@@ -255,12 +422,237 @@ public class Assembler
 
 	public byte[] assemble(AST ast,SourceHelper helper)
 	{
-		context = new DefaultContext( helper);
-		context.onePass( ast );
-		context.onePass( ast );
+		final StatementLayout[] layout = layout( ast , helper );
+
+		context.currentPassNo++;
+		context.finalPass( layout , getSize( layout ) );
 		return context.getBytes();
 	}
 
+	/**
+	 * Determines the size of the generated code without generating it.
+	 *
+	 * Unlike {@link #assemble(AST, SourceHelper)} this does not fail on identifiers that can't be resolved ,
+	 * they are assumed to need the largest encoding and can be retrieved using {@link #getUnresolvedSymbols()}.
+	 *
+	 * @param ast
+	 * @param helper
+	 * @return size in bytes
+	 */
+	public int computeSize(AST ast,SourceHelper helper)
+	{
+		return getSize( layout( ast , helper ) );
+	}
+
+	private static int getSize(StatementLayout[] layout) {
+		return layout.length == 0 ? 0 : layout[layout.length-1].offset + layout[layout.length-1].size;
+	}
+
+	private StatementLayout[] layout(AST ast,SourceHelper helper)
+	{
+		context = new DefaultContext( helper , presetOrigin );
+		unresolvedSymbols.clear();
+		for ( Map.Entry<Identifier,Integer> entry : externalSymbols.entrySet() )
+		{
+			final Equ equ = new Equ( entry.getKey() );
+			equ.setValue( entry.getValue() );
+			context.symbolTable.defineSymbol( equ );
+		}
+
+		final Map<ISymbol<?>,List<StatementLayout>> dependencies = new IdentityHashMap<>();
+		final StatementLayout[] layout = firstPass( ast , dependencies );
+
+		// re-evaluate statements whose inputs changed until the layout is stable
+		boolean dirty = updateAddresses( layout , dependencies );
+		while ( dirty )
+		{
+			context.currentPassNo++;
+			if ( context.currentPassNo >= MAX_PASSES ) {
+				throw new RuntimeException("Addresses did not settle after "+MAX_PASSES+" passes , check for symbols that depend on their own address");
+			}
+			for ( StatementLayout stmt : layout )
+			{
+				if ( stmt.dirty )
+				{
+					stmt.dirty = false;
+					layoutStatement( stmt , dependencies );
+				}
+			}
+			dirty = updateAddresses( layout , dependencies );
+		}
+		return layout;
+	}
+
+	/**
+	 * Pass #0 , defines all symbols and lays out all statements.
+	 *
+	 * Identifiers that refer to an already defined global symbol get resolved before their statement is
+	 * visited so backward references yield proper values right away. All other identifiers are resolved
+	 * once all symbols are defined , statements using them are marked dirty.
+	 *
+	 * @param dependencies receives the statements referencing each symbol
+	 */
+	private StatementLayout[] firstPass(AST ast,Map<ISymbol<?>,List<StatementLayout>> dependencies)
+	{
+		final StatementLayout[] layout = new StatementLayout[ ast.getChildCount() ];
+		final List<IdentifierReferenceNode> unresolved = new ArrayList<>();
+		final List<StatementLayout> unresolvedStatements = new ArrayList<>();
+		final List<EquNode> equNodes = new ArrayList<>();
+		for ( int i = 0 ; i < layout.length ; i++ )
+		{
+			final StatementLayout stmt = new StatementLayout( ast.child( i ) , i );
+			layout[i] = stmt;
+			stmt.statement.visitParentFirst( node ->
+			{
+				if ( node instanceof IdentifierReferenceNode )
+				{
+					final IdentifierReferenceNode ref = (IdentifierReferenceNode) node;
+					// the AST may have been assembled before (see IncrementalAssembler) , forget symbols resolved back then
+					ref.clearSymbol();
+					if ( ref.resolveIfDefinedGlobally( context ) )
+					{
+						addDependency( ref.getSymbol() , stmt , dependencies );
+						stmt.dirty |= ! ref.isValueAvailable();
+					} else {
+						unresolved.add( ref );
+						unresolvedStatements.add( stmt );
+					}
+				}
+				else if ( node instanceof LabelNode ) {
+					stmt.labels.add( (LabelNode) node );
+				}
+				else if ( node instanceof EquNode ) {
+					equNodes.add( (EquNode) node );
+				}
+			});
+
+			context.firstPass( stmt );
+
+			if ( ! equNodes.isEmpty() )
+			{
+				for ( EquNode node : equNodes )
+				{
+					@SuppressWarnings("unchecked")
+					final ISymbol<Integer> equ = (ISymbol<Integer>) context.symbolTable.getSymbol( node.getIdentifier() , null );
+					stmt.equs.add( equ );
+					stmt.dirty |= ! equ.hasValue();
+				}
+				equNodes.clear();
+			}
+			if ( ! stmt.labels.isEmpty() )
+			{
+				stmt.labelOffsets = new int[ stmt.labels.size() ];
+				updateLabelOffsets( stmt );
+			}
+		}
+
+		// forward references and references to local labels
+		for ( int i = 0 , len = unresolved.size() ; i < len ; i++ )
+		{
+			final IdentifierReferenceNode ref = unresolved.get(i);
+			ref.passFinished( context );
+			if ( ref.getSymbol() != null )
+			{
+				final StatementLayout stmt = unresolvedStatements.get(i);
+				addDependency( ref.getSymbol() , stmt , dependencies );
+				stmt.dirty = true;
+			} else {
+				unresolvedSymbols.add( ref.identifier );
+			}
+		}
+		return layout;
+	}
+
+	private static void addDependency(ISymbol<?> symbol,StatementLayout stmt,Map<ISymbol<?>,List<StatementLayout>> dependencies)
+	{
+		final List<StatementLayout> list = dependencies.computeIfAbsent( symbol , key -> new ArrayList<>(2) );
+		if ( list.isEmpty() || list.get( list.size() -1 ) != stmt ) {
+			list.add( stmt );
+		}
+	}
+
+	/**
+	 * Evaluates a statement again , statements depending on EQUs whose value changed get marked dirty.
+	 */
+	private void layoutStatement(StatementLayout stmt,Map<ISymbol<?>,List<StatementLayout>> dependencies)
+	{
+		final int labelCount = stmt.labels.size();
+		final int equCount = stmt.equs.size();
+		final Integer[] oldValues = new Integer[ labelCount + equCount ];
+		for ( int i = 0 ; i < labelCount ; i++ ) {
+			oldValues[i] = stmt.labels.get(i).symbol.getValue();
+		}
+		for ( int i = 0 ; i < equCount ; i++ ) {
+			oldValues[labelCount+i] = stmt.equs.get(i).getValue();
+		}
+
+		context.layout( stmt );
+		updateLabelOffsets( stmt );
+
+		// labels get their new addresses in updateAddresses() , which needs the old ones to detect changes
+		for ( int i = 0 ; i < labelCount ; i++ ) {
+			stmt.labels.get(i).symbol.setValue( oldValues[i] );
+		}
+		for ( int i = 0 ; i < equCount ; i++ )
+		{
+			final ISymbol<Integer> equ = stmt.equs.get(i);
+			if ( equ.hasValue() && ! equ.getValue().equals( oldValues[labelCount+i] ) ) {
+				markDirty( equ , dependencies );
+			}
+		}
+	}
+
+	private void updateLabelOffsets(StatementLayout stmt)
+	{
+		for ( int i = 0 , len = stmt.labels.size() ; i < len ; i++ ) {
+			stmt.labelOffsets[i] = stmt.labels.get(i).symbol.getValue() - context.origin - stmt.offset;
+		}
+	}
+
+	/**
+	 * Moves statements according to the sizes of their predecessors and assigns new addresses to labels ,
+	 * statements depending on labels that moved get marked dirty.
+	 *
+	 * @return whether any statement needs to be evaluated again
+	 */
+	private boolean updateAddresses(StatementLayout[] layout,Map<ISymbol<?>,List<StatementLayout>> dependencies)
+	{
+		int offset = 0;
+		for ( StatementLayout stmt : layout )
+		{
+			stmt.offset = offset;
+			offset += stmt.size;
+			for ( int i = 0 , len = stmt.labels.size() ; i < len ; i++ )
+			{
+				final Label label = stmt.labels.get(i).symbol;
+				final int newValue = context.origin + stmt.offset + stmt.labelOffsets[i];
+				if ( label.getValue() != newValue )
+				{
+					label.setValue( newValue );
+					markDirty( label , dependencies );
+				}
+			}
+		}
+		for ( StatementLayout stmt : layout )
+		{
+			if ( stmt.dirty ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void markDirty(ISymbol<?> symbol,Map<ISymbol<?>,List<StatementLayout>> dependencies)
+	{
+		final List<StatementLayout> list = dependencies.get( symbol );
+		if ( list != null )
+		{
+			for ( StatementLayout stmt : list ) {
+				stmt.dirty = true;
+			}
+		}
+	}
+
 	public ISymbolTable getSymbolTable() {
 		return context.symbolTable;
 	}
@@ -268,4 +660,4 @@ public class Assembler
 	public SourceMap getSourceMap() {
 		return context.sourceMap;
 	}
-}
\ No newline at end of file
+}
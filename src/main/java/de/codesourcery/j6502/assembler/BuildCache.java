@@ -0,0 +1,350 @@
+package de.codesourcery.j6502.assembler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang.Validate;
+
+import de.codesourcery.j6502.assembler.parser.Equ;
+import de.codesourcery.j6502.assembler.parser.Identifier;
+
+/**
+ * On-disk cache of assembled {@link CompilationUnit}s , used by the {@link Linker} to skip
+ * lexing , parsing and assembling units that did not change since the last build.
+ *
+ * Entries are keyed by a SHA-256 hash of everything the outcome depends on: the source text , the
+ * {@link Assembler#VERSION assembler version} , the address the unit gets assembled at and the
+ * values of all symbols it imports from other units. An entry never needs to be invalidated explicitly ,
+ * any change to one of these inputs yields a different key. Stale entries are never deleted ,
+ * just remove the cache directory to reclaim the space.
+ *
+ * There are two kinds of entries: a <i>layout</i> only holds the size and symbols of a unit as determined
+ * before any imports are known , an <i>object</i> additionally holds the generated code and source map.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class BuildCache
+{
+    private static final int MAGIC = 0x4a434f31; // 'JCO1'
+
+    private static final int TYPE_LABEL = 0;
+    private static final int TYPE_EQU = 1;
+
+    private final File directory;
+
+    /**
+     * A cached compilation unit.
+     */
+    public static final class Entry
+    {
+        public final boolean relocatable;
+        /** Address the unit was assembled at. */
+        public final int address;
+        public final int size;
+        /** Symbols the unit uses but does not define. */
+        public final Set<Identifier> imports;
+        public final ISymbolTable symbolTable;
+        /** Generated code , <code>null</code> for layouts. */
+        public final byte[] code;
+        /** Source map , <code>null</code> for layouts. */
+        public final SourceMap sourceMap;
+
+        public Entry(boolean relocatable, int address, int size, Set<Identifier> imports, ISymbolTable symbolTable, byte[] code, SourceMap sourceMap)
+        {
+            Validate.notNull( imports , "imports must not be NULL" );
+            Validate.notNull( symbolTable , "symbolTable must not be NULL" );
+            Validate.isTrue( ( code == null ) == ( sourceMap == null ) , "code and source map must either both be set or both be NULL" );
+            this.relocatable = relocatable;
+            this.address = address;
+            this.size = size;
+            this.imports = imports;
+            this.symbolTable = symbolTable;
+            this.code = code;
+            this.sourceMap = sourceMap;
+        }
+    }
+
+    public BuildCache(File directory)
+    {
+        Validate.notNull( directory , "directory must not be NULL" );
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the key of the layout of a unit.
+     *
+     * @param unit
+     * @param loadAddress address the unit gets sized at if it does not set its origin
+     * @return
+     */
+    public static String layoutKey(CompilationUnit unit,int loadAddress)
+    {
+        return hash( "layout" , unit , loadAddress , Collections.emptyMap() );
+    }
+
+    /**
+     * Returns the key of the code of a unit.
+     *
+     * @param unit
+     * @param address address the unit gets assembled at
+     * @param importValues values of all symbols the unit imports
+     * @return
+     */
+    public static String objectKey(CompilationUnit unit,int address,Map<Identifier,Integer> importValues)
+    {
+        return hash( "object" , unit , address , importValues );
+    }
+
+    private static String hash(String kind,CompilationUnit unit,int address,Map<Identifier,Integer> importValues)
+    {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance( "SHA-256" );
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE has to support SHA-256
+            throw new RuntimeException( e );
+        }
+
+        final StringBuilder header = new StringBuilder();
+        header.append( MAGIC ).append( '/' ).append( Assembler.VERSION ).append( '/' ).append( kind ).append( '/' ).append( address ).append( '\n' );
+        final Map<String,Integer> sorted = new TreeMap<>();
+        for ( Map.Entry<Identifier,Integer> entry : importValues.entrySet() ) {
+            sorted.put( entry.getKey().value , entry.getValue() );
+        }
+        for ( Map.Entry<String,Integer> entry : sorted.entrySet() ) {
+            header.append( entry.getKey() ).append( '=' ).append( entry.getValue() ).append( '\n' );
+        }
+        header.append( unit.source.length() ).append( '\n' );
+        digest.update( header.toString().getBytes( StandardCharsets.UTF_8 ) );
+        digest.update( unit.source.getBytes( StandardCharsets.UTF_8 ) );
+
+        final StringBuilder result = new StringBuilder();
+        for ( byte b : digest.digest() ) {
+            result.append( Character.forDigit( ( b >> 4 ) & 0x0f , 16 ) ).append( Character.forDigit( b & 0x0f , 16 ) );
+        }
+        return result.toString();
+    }
+
+    private File file(String key) {
+        return new File( directory , key+".obj" );
+    }
+
+    /**
+     * Looks up an entry.
+     *
+     * Entries that cannot be read or are corrupted are treated as not being cached.
+     *
+     * @param key
+     * @return
+     */
+    public Optional<Entry> get(String key)
+    {
+        final byte[] data;
+        try {
+            data = Files.readAllBytes( file( key ).toPath() );
+        }
+        catch(NoSuchFileException e) {
+            return Optional.empty();
+        }
+        catch(IOException e)
+        {
+            System.err.println("Failed to read cached object "+file( key ).getAbsolutePath()+": "+e.getMessage());
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.ofNullable( read( data ) );
+        }
+        catch(IOException | RuntimeException e)
+        {
+            System.err.println("Ignoring corrupted cached object "+file( key ).getAbsolutePath()+": "+e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores an entry.
+     *
+     * Failing to write the cache is not fatal , the next build just has to assemble the unit again.
+     *
+     * @param key
+     * @param entry
+     */
+    public void put(String key,Entry entry)
+    {
+        Validate.notNull( entry , "entry must not be NULL" );
+        final File target = file( key );
+        File tmpFile = null;
+        try
+        {
+            final byte[] payload = write( entry );
+            final CRC32 crc = new CRC32();
+            crc.update( payload );
+
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream( payload.length + 16 );
+            final DataOutputStream out = new DataOutputStream( buffer );
+            out.writeInt( MAGIC );
+            out.writeInt( payload.length );
+            out.write( payload );
+            out.writeLong( crc.getValue() );
+            out.flush();
+
+            Files.createDirectories( directory.toPath() );
+            // units with identical source get stored concurrently , each writer needs its own file
+            tmpFile = File.createTempFile( key , ".tmp" , directory );
+            Files.write( tmpFile.toPath() , buffer.toByteArray() );
+            try {
+                Files.move( tmpFile.toPath() , target.toPath() , StandardCopyOption.REPLACE_EXISTING , StandardCopyOption.ATOMIC_MOVE );
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move( tmpFile.toPath() , target.toPath() , StandardCopyOption.REPLACE_EXISTING );
+            }
+        }
+        catch(IOException e)
+        {
+            System.err.println("Failed to write cached object "+target.getAbsolutePath()+": "+e.getMessage());
+            if ( tmpFile != null ) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    private static byte[] write(Entry entry) throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream( buffer );
+        out.writeBoolean( entry.relocatable );
+        out.writeInt( entry.address );
+        out.writeInt( entry.size );
+
+        out.writeInt( entry.imports.size() );
+        for ( Identifier identifier : entry.imports ) {
+            out.writeUTF( identifier.value );
+        }
+
+        final List<ISymbol<?>> symbols = new ArrayList<>();
+        for ( ISymbol<?> global : entry.symbolTable.getGlobalSymbols() )
+        {
+            if ( global != null )
+            {
+                symbols.add( global );
+                for ( ISymbol<?> local : entry.symbolTable.getLocalSymbols( global.getIdentifier() ) )
+                {
+                    if ( local != null ) {
+                        symbols.add( local );
+                    }
+                }
+            }
+        }
+        out.writeInt( symbols.size() );
+        for ( ISymbol<?> symbol : symbols )
+        {
+            out.writeByte( symbol.hasType( ISymbol.Type.LABEL ) ? TYPE_LABEL : TYPE_EQU );
+            out.writeUTF( symbol.getIdentifier().value );
+            out.writeBoolean( symbol.getParentIdentifier() != null );
+            if ( symbol.getParentIdentifier() != null ) {
+                out.writeUTF( symbol.getParentIdentifier().value );
+            }
+            out.writeBoolean( symbol.hasValue() );
+            if ( symbol.hasValue() ) {
+                out.writeInt( ((Number) symbol.getValue()).intValue() );
+            }
+        }
+
+        out.writeBoolean( entry.code != null );
+        if ( entry.code != null )
+        {
+            out.writeInt( entry.code.length );
+            out.write( entry.code );
+            entry.sourceMap.write( out );
+        }
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    private static Entry read(byte[] data) throws IOException
+    {
+        final DataInputStream in = new DataInputStream( new ByteArrayInputStream( data ) );
+        if ( in.readInt() != MAGIC ) {
+            throw new IOException("Bad magic");
+        }
+        final int length = in.readInt();
+        if ( length < 0 || length != data.length - 16 ) {
+            throw new IOException("Bad length");
+        }
+        final CRC32 crc = new CRC32();
+        crc.update( data , 8 , length );
+        in.skipBytes( length );
+        if ( in.readLong() != crc.getValue() ) {
+            throw new IOException("Checksum mismatch");
+        }
+
+        final DataInputStream payload = new DataInputStream( new ByteArrayInputStream( data , 8 , length ) );
+        final boolean relocatable = payload.readBoolean();
+        final int address = payload.readInt();
+        final int size = payload.readInt();
+
+        final Set<Identifier> imports = new HashSet<>();
+        for ( int count = payload.readInt() ; count > 0 ; count-- ) {
+            imports.add( Identifier.of( payload.readUTF() ) );
+        }
+
+        // globals are written before their locals , parents always get defined first
+        final SymbolTable symbolTable = new SymbolTable();
+        for ( int count = payload.readInt() ; count > 0 ; count-- )
+        {
+            final int type = payload.readByte();
+            final Identifier identifier = Identifier.of( payload.readUTF() );
+            final Identifier parent = payload.readBoolean() ? Identifier.of( payload.readUTF() ) : null;
+            final ISymbol<Integer> symbol;
+            switch( type )
+            {
+                case TYPE_LABEL:
+                    symbol = parent == null ? new Label( identifier ) : new Label( identifier , parent );
+                    break;
+                case TYPE_EQU:
+                    symbol = new Equ( identifier );
+                    break;
+                default:
+                    throw new IOException("Unknown symbol type "+type);
+            }
+            if ( payload.readBoolean() ) {
+                symbol.setValue( payload.readInt() );
+            }
+            symbolTable.defineSymbol( symbol );
+        }
+
+        byte[] code = null;
+        SourceMap sourceMap = null;
+        if ( payload.readBoolean() )
+        {
+            code = new byte[ payload.readInt() ];
+            payload.readFully( code );
+            sourceMap = SourceMap.read( payload );
+        }
+        return new Entry( relocatable , address , size , imports , symbolTable , code , sourceMap );
+    }
+}
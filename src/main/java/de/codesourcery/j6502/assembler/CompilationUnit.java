@@ -0,0 +1,36 @@
+package de.codesourcery.j6502.assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A source file that gets assembled on its own and then combined with others by the {@link Linker}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class CompilationUnit
+{
+    public final String name;
+    public final String source;
+
+    public CompilationUnit(String name, String source)
+    {
+        Validate.notEmpty( name , "name must not be NULL or empty" );
+        Validate.notNull( source , "source must not be NULL" );
+        this.name = name;
+        this.source = source;
+    }
+
+    public static CompilationUnit fromFile(File file) throws IOException
+    {
+        return new CompilationUnit( file.getName() , new String( Files.readAllBytes( file.toPath() ) ) );
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -20,5 +20,15 @@ public interface ICompilationContext
 
 	public int getPassNo();
 
+	/**
+	 * Whether this pass emits the final binary.
+	 *
+	 * All addresses are known during the final pass , earlier passes only determine the size
+	 * of the generated code and may use placeholders for values that are not available yet.
+	 *
+	 * @return
+	 */
+	public boolean isFinalPass();
+
 	public void debug(IASTNode node,String msg);
 }
\ No newline at end of file
@@ -0,0 +1,318 @@
+package de.codesourcery.j6502.assembler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
+
+import de.codesourcery.j6502.assembler.exceptions.ParseException;
+import de.codesourcery.j6502.assembler.parser.Lexer;
+import de.codesourcery.j6502.assembler.parser.Parser;
+import de.codesourcery.j6502.assembler.parser.ast.AST;
+import de.codesourcery.j6502.assembler.parser.ast.IASTNode;
+import de.codesourcery.j6502.assembler.parser.ast.LabelNode;
+import de.codesourcery.j6502.utils.ITextRegion;
+import de.codesourcery.j6502.utils.SourceHelper;
+import de.codesourcery.j6502.utils.TextRegion;
+
+/**
+ * Assembles successive versions of the same source , re-parsing only the lines that changed in between.
+ *
+ * The statements of each line are cached together with the global label that was in scope when the
+ * line got parsed (local labels are parsed relative to it). When a new version of the source comes in,
+ * lines at the start and end that did not change keep their AST nodes (the text regions of lines that
+ * moved get shifted) , only the lines in between plus any following lines whose enclosing global label
+ * changed get parsed again.
+ *
+ * Parsing regularly checks for cancellation , a cancelled run leaves the cache untouched.
+ *
+ * Macros and repeat blocks span several lines and get expanded by the parser , sources that use them
+ * are always parsed as a whole.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class IncrementalAssembler
+{
+    private static final int CANCEL_CHECK_INTERVAL = 64;
+
+    private static final BooleanSupplier NEVER_CANCELLED = () -> false;
+
+    // .macro/.rept at the start of a statement (optionally preceded by a label) , ignores occurrences in comments and strings
+    private static final Pattern BLOCK_DIRECTIVE = Pattern.compile( "^[ \t]*(?:\\.?[_a-zA-Z][_a-zA-Z0-9]*(?:[ \t]*:[ \t]*|[ \t]+))?\\.(macro|rept)\\b" ,
+            Pattern.CASE_INSENSITIVE | Pattern.MULTILINE );
+
+    private List<Line> lines = new ArrayList<>();
+    private int sourceLength;
+
+    private static final class Line
+    {
+        public final String text;
+        public int startOffset;
+        public final List<IASTNode> statements;
+        public final ParseException error;
+        // global labels in scope before/after this line
+        public final LabelNode globalLabelBefore;
+        public final LabelNode globalLabelAfter;
+
+        public Line(String text, int startOffset, List<IASTNode> statements, ParseException error, LabelNode globalLabelBefore, LabelNode globalLabelAfter)
+        {
+            this.text = text;
+            this.startOffset = startOffset;
+            this.statements = statements;
+            this.error = error;
+            this.globalLabelBefore = globalLabelBefore;
+            this.globalLabelAfter = globalLabelAfter;
+        }
+
+        public void shift(int delta)
+        {
+            startOffset += delta;
+            for ( IASTNode statement : statements )
+            {
+                statement.visitParentFirst( node ->
+                {
+                    final ITextRegion region = node.getTextRegion();
+                    if ( region != null ) {
+                        region.shift( delta );
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Outcome of assembling one version of the source.
+     */
+    public static final class Result
+    {
+        /** AST of the whole source , incomplete if there was a parse error. */
+        public final AST ast;
+        /** Generated binary or <code>null</code> if there was an error. */
+        public final byte[] binary;
+        public final int origin;
+        public final ISymbolTable symbolTable;
+        public final SourceMap sourceMap;
+        public final SourceHelper sourceHelper;
+        /** The first parse error or the error that made assembly fail , <code>null</code> on success. */
+        public final Exception error;
+        /** Part of the source whose AST nodes got rebuilt , may be empty. */
+        public final ITextRegion changedRegion;
+        public final int linesParsed;
+
+        private Result(AST ast,byte[] binary,int origin,ISymbolTable symbolTable,SourceMap sourceMap,SourceHelper sourceHelper,Exception error,ITextRegion changedRegion,int linesParsed)
+        {
+            this.ast = ast;
+            this.binary = binary;
+            this.origin = origin;
+            this.symbolTable = symbolTable;
+            this.sourceMap = sourceMap;
+            this.sourceHelper = sourceHelper;
+            this.error = error;
+            this.changedRegion = changedRegion;
+            this.linesParsed = linesParsed;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    public Result assemble(String source)
+    {
+        return assemble( source , NEVER_CANCELLED );
+    }
+
+    /**
+     * Assembles a new version of the source.
+     *
+     * @param source
+     * @param isCancelled polled while parsing , the run gets aborted as soon as this returns <code>true</code>
+     * @return
+     * @throws CancellationException if the run got cancelled
+     */
+    public synchronized Result assemble(String source,BooleanSupplier isCancelled) throws CancellationException
+    {
+        if ( BLOCK_DIRECTIVE.matcher( source ).find() ) {
+            return assembleAll( source , isCancelled );
+        }
+
+        final List<String> newTexts = splitLines( source );
+        final List<Line> oldLines = this.lines;
+
+        // find lines that did not change at the start and end of the text
+        final int maxCommon = Math.min( oldLines.size() , newTexts.size() );
+        int prefix = 0;
+        while ( prefix < maxCommon && oldLines.get( prefix ).text.equals( newTexts.get( prefix ) ) ) {
+            prefix++;
+        }
+        int suffix = 0;
+        while ( suffix < maxCommon - prefix &&
+                oldLines.get( oldLines.size() - 1 - suffix ).text.equals( newTexts.get( newTexts.size() - 1 - suffix ) ) )
+        {
+            suffix++;
+        }
+
+        final List<Line> newLines = new ArrayList<>( newTexts.size() );
+        newLines.addAll( oldLines.subList( 0 , prefix ) );
+
+        int offset = prefix == 0 ? 0 : oldLines.get( prefix-1 ).startOffset + oldLines.get( prefix - 1 ).text.length() + 1;
+        LabelNode globalLabel = prefix == 0 ? null : oldLines.get( prefix-1 ).globalLabelAfter;
+
+        int linesParsed = 0;
+        int lastParsedLine = -1;
+        final int firstSuffixLine = newTexts.size() - suffix;
+        // text after the change is the same , so unchanged lines at the end move by the difference in length
+        final int suffixDelta = source.length() - sourceLength;
+        final List<Line> shiftedLines = new ArrayList<>();
+        for ( int i = prefix ; i < newTexts.size() ; i++ )
+        {
+            if ( ( i - prefix ) % CANCEL_CHECK_INTERVAL == 0 && isCancelled.getAsBoolean() ) {
+                throw new CancellationException();
+            }
+
+            final String text = newTexts.get( i );
+            Line line = null;
+            if ( i >= firstSuffixLine )
+            {
+                final Line existing = oldLines.get( oldLines.size() - newTexts.size() + i );
+                // lines need to be parsed again if the enclosing global label changed or if they carry an error with a now stale offset
+                if ( existing.error == null && sameLabel( existing.globalLabelBefore , globalLabel ) )
+                {
+                    line = existing;
+                    if ( suffixDelta != 0 ) {
+                        shiftedLines.add( existing );
+                    }
+                }
+            }
+            if ( line == null )
+            {
+                line = parse( text , offset , globalLabel );
+                linesParsed++;
+                lastParsedLine = i;
+            }
+            newLines.add( line );
+            globalLabel = line.globalLabelAfter;
+            offset += text.length() + 1;
+        }
+
+        // past this point the run can no longer be cancelled
+        for ( Line line : shiftedLines ) {
+            line.shift( suffixDelta );
+        }
+        this.lines = newLines;
+        this.sourceLength = source.length();
+
+        final ITextRegion changedRegion;
+        if ( lastParsedLine == -1 ) {
+            final int start = prefix < newLines.size() ? newLines.get( prefix ).startOffset : source.length();
+            changedRegion = new TextRegion( start , 0 );
+        } else {
+            final Line last = newLines.get( lastParsedLine );
+            final int start = newLines.get( prefix ).startOffset;
+            changedRegion = new TextRegion( start , last.startOffset + last.text.length() - start );
+        }
+
+        final AST ast = new AST();
+        ParseException firstError = null;
+        for ( Line line : newLines )
+        {
+            if ( line.error != null && firstError == null ) {
+                firstError = line.error;
+            }
+            for ( IASTNode statement : line.statements ) {
+                ast.addChild( statement );
+            }
+        }
+
+        final SourceHelper sourceHelper = new SourceHelper( source );
+        if ( firstError != null ) {
+            return new Result( ast , null , 0 , null , null , sourceHelper , firstError , changedRegion , linesParsed );
+        }
+
+        return assemble( ast , sourceHelper , changedRegion , linesParsed );
+    }
+
+    private Result assembleAll(String source,BooleanSupplier isCancelled) throws CancellationException
+    {
+        if ( isCancelled.getAsBoolean() ) {
+            throw new CancellationException();
+        }
+
+        // cached lines would not know about macros , start from scratch once the blocks are gone
+        this.lines = new ArrayList<>();
+        this.sourceLength = 0;
+
+        final SourceHelper sourceHelper = new SourceHelper( source );
+        final ITextRegion changedRegion = new TextRegion( 0 , source.length() );
+        final int lineCount = splitLines( source ).size();
+        final AST ast;
+        try {
+            ast = new Parser( new Lexer( source ) ).parse();
+        }
+        catch(RuntimeException e)
+        {
+            final ParseException error = e instanceof ParseException ? (ParseException) e : new ParseException( e.getMessage() , 0 , e );
+            return new Result( new AST() , null , 0 , null , null , sourceHelper , error , changedRegion , lineCount );
+        }
+        return assemble( ast , sourceHelper , changedRegion , lineCount );
+    }
+
+    private static Result assemble(AST ast,SourceHelper sourceHelper,ITextRegion changedRegion,int linesParsed)
+    {
+        final Assembler assembler = new Assembler();
+        try
+        {
+            final byte[] binary = assembler.assemble( ast , sourceHelper );
+            return new Result( ast , binary , assembler.getOrigin() , assembler.getSymbolTable() , assembler.getSourceMap() , sourceHelper , null , changedRegion , linesParsed );
+        }
+        catch(Exception e)
+        {
+            return new Result( ast , null , 0 , null , null , sourceHelper , e , changedRegion , linesParsed );
+        }
+    }
+
+    private static boolean sameLabel(LabelNode a,LabelNode b)
+    {
+        if ( a == null || b == null ) {
+            return a == b;
+        }
+        return Objects.equals( a.identifier , b.identifier );
+    }
+
+    private static Line parse(String text,int offset,LabelNode globalLabel)
+    {
+        final Parser parser = new Parser( new Lexer( text , offset ) , globalLabel );
+        try
+        {
+            final AST ast = parser.parse();
+            final List<IASTNode> statements = ast.hasChildren() ? new ArrayList<>( ast.getChildren() ) : Collections.emptyList();
+            return new Line( text , offset , statements , null , globalLabel , parser.getPreviousGlobalLabel() );
+        }
+        catch(ParseException e)
+        {
+            return new Line( text , offset , Collections.emptyList() , e , globalLabel , globalLabel );
+        }
+        catch(RuntimeException e)
+        {
+            final ParseException error = new ParseException( e.getMessage() , offset , e );
+            return new Line( text , offset , Collections.emptyList() , error , globalLabel , globalLabel );
+        }
+    }
+
+    private static List<String> splitLines(String source)
+    {
+        final List<String> result = new ArrayList<>();
+        int start = 0;
+        int end;
+        while ( ( end = source.indexOf( '\n' , start ) ) != -1 )
+        {
+            result.add( source.substring( start , end ) );
+            start = end + 1;
+        }
+        result.add( source.substring( start ) );
+        return result;
+    }
+}
@@ -0,0 +1,510 @@
+package de.codesourcery.j6502.assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang.Validate;
+
+import de.codesourcery.j6502.assembler.parser.Identifier;
+import de.codesourcery.j6502.assembler.parser.Lexer;
+import de.codesourcery.j6502.assembler.parser.Parser;
+import de.codesourcery.j6502.assembler.parser.ast.AST;
+import de.codesourcery.j6502.assembler.parser.ast.IASTNode;
+import de.codesourcery.j6502.assembler.parser.ast.SetOriginNode;
+import de.codesourcery.j6502.utils.HexDump;
+import de.codesourcery.j6502.utils.SourceHelper;
+
+/**
+ * Assembles several {@link CompilationUnit}s in parallel and links them into a single binary.
+ *
+ * Units that set their origin ('*=') get placed at that address , all other units are relocatable and
+ * get placed one after another (in the order they were passed in) starting at the linker's load address.
+ * Global labels and EQUs of a unit are visible to all other units , identifiers a unit does not define
+ * itself get imported from the unit that does.
+ *
+ * Linking happens in three steps:
+ * <ol>
+ * <li>all units get parsed and sized in parallel , references to other units are assumed to need the largest encoding</li>
+ * <li>segments get placed , giving each exported symbol its final value</li>
+ * <li>all units get assembled in parallel at their final address with the imported symbols bound</li>
+ * </ol>
+ * The last two steps repeat if a unit changed its size (for example because an imported symbol turned out to be
+ * in the zero page). The ASTs are kept in memory so a unit gets relocated by generating its code again at the
+ * final address , relocation records would not cover every operator expressions may use.
+ *
+ * If a {@link BuildCache} is set , units whose source , address and imported symbol values did not change since
+ * an earlier build are taken from the cache and do not even get parsed.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class Linker
+{
+    private static final int MAX_ROUNDS = 16;
+
+    private final int loadAddress;
+    private final ForkJoinPool pool;
+    private volatile BuildCache cache;
+
+    /**
+     * Address range occupied by the code of a compilation unit.
+     */
+    public static final class Segment
+    {
+        public final CompilationUnit unit;
+        public final int start;
+        public final int size;
+
+        public Segment(CompilationUnit unit, int start, int size)
+        {
+            this.unit = unit;
+            this.start = start;
+            this.size = size;
+        }
+
+        public int end() {
+            return start + size;
+        }
+
+        public boolean contains(int address) {
+            return start <= address && address < end();
+        }
+
+        @Override
+        public String toString() {
+            return "'"+unit+"' at "+HexDump.toAdr( start )+"-"+HexDump.toAdr( end() );
+        }
+    }
+
+    /**
+     * Outcome of linking.
+     */
+    public static final class Result
+    {
+        /** Address of the first byte of the binary. */
+        public final int loadAddress;
+        /** Code of all units , gaps between segments are filled with zeros. */
+        public final byte[] binary;
+        /** Segments ordered by address. */
+        public final List<Segment> segments;
+        /** Source map of all units , use {@link #getSegment(int)} to find the unit a line number belongs to. */
+        public final SourceMap sourceMap;
+        /** Symbol tables by unit. */
+        public final Map<CompilationUnit,ISymbolTable> symbolTables;
+
+        private Result(int loadAddress, byte[] binary, List<Segment> segments, SourceMap sourceMap, Map<CompilationUnit,ISymbolTable> symbolTables)
+        {
+            this.loadAddress = loadAddress;
+            this.binary = binary;
+            this.segments = segments;
+            this.sourceMap = sourceMap;
+            this.symbolTables = symbolTables;
+        }
+
+        public Optional<Segment> getSegment(int address)
+        {
+            return segments.stream().filter( s -> s.contains( address ) ).findFirst();
+        }
+
+        /**
+         * Returns the binary in C64 .prg format (load address followed by the data).
+         *
+         * @return
+         */
+        public byte[] toPRG()
+        {
+            final byte[] result = new byte[ 2 + binary.length ];
+            result[0] = (byte) loadAddress;
+            result[1] = (byte) ( loadAddress >> 8 );
+            System.arraycopy( binary , 0 , result , 2 , binary.length );
+            return result;
+        }
+
+        /**
+         * Writes the binary in .prg format along with the source map (using the same name but a '.map' extension).
+         *
+         * @param file
+         * @throws IOException
+         * @see SourceMap#getFileFor(File)
+         */
+        public void writePRG(File file) throws IOException
+        {
+            Files.write( file.toPath() , toPRG() );
+            sourceMap.save( SourceMap.getFileFor( file ) );
+        }
+    }
+
+    /**
+     * A unit while it is being linked.
+     */
+    private static final class ObjectCode
+    {
+        public final CompilationUnit unit;
+        public final int index;
+        // only parsed if the unit is not cached
+        private AST ast;
+        private SourceHelper sourceHelper;
+        public boolean relocatable;
+        // symbols defined by other units along with the unit defining them
+        public final Map<Identifier,ObjectCode> imports = new HashMap<>();
+        public final Map<Identifier,Integer> importValues = new HashMap<>();
+
+        // outcome of the last assembly
+        public int address;
+        public int size;
+        public ISymbolTable symbolTable;
+        public byte[] code;
+        public SourceMap sourceMap;
+
+        public ObjectCode(CompilationUnit unit,int index) {
+            this.unit = unit;
+            this.index = index;
+        }
+
+        public AST getAST()
+        {
+            if ( ast == null ) {
+                ast = new Parser( new Lexer( unit.source ) ).parse();
+                sourceHelper = new SourceHelper( unit.source );
+            }
+            return ast;
+        }
+
+        public SourceHelper getSourceHelper()
+        {
+            getAST();
+            return sourceHelper;
+        }
+
+        /**
+         * Returns the value of a global symbol defined by this unit.
+         *
+         * @param identifier
+         * @param placedAt address this unit will be placed at , labels get moved accordingly
+         * @return value or <code>null</code> if the symbol has no value yet
+         */
+        public Integer getValue(Identifier identifier,int placedAt)
+        {
+            final ISymbol<?> symbol = symbolTable.getSymbol( identifier , null );
+            if ( ! symbol.hasValue() ) {
+                return null;
+            }
+            final int value = ((Number) symbol.getValue()).intValue();
+            return symbol.hasType( ISymbol.Type.LABEL ) ? value - address + placedAt : value;
+        }
+    }
+
+    /**
+     * Creates a linker that uses the common fork-join pool.
+     *
+     * @param loadAddress address where the first relocatable unit gets placed
+     */
+    public Linker(int loadAddress) {
+        this( loadAddress , ForkJoinPool.commonPool() );
+    }
+
+    public Linker(int loadAddress,ForkJoinPool pool)
+    {
+        Validate.isTrue( loadAddress >= 0 && loadAddress <= 0xffff , "load address out of range" );
+        Validate.notNull( pool , "pool must not be NULL" );
+        this.loadAddress = loadAddress;
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the cache to look up and store assembled units.
+     *
+     * @param cache cache or <code>null</code> to always assemble all units
+     */
+    public void setCache(BuildCache cache) {
+        this.cache = cache;
+    }
+
+    public Result link(List<CompilationUnit> units)
+    {
+        Validate.notNull( units , "units must not be NULL" );
+
+        final List<ObjectCode> objects = new ArrayList<>( units.size() );
+        for ( CompilationUnit unit : units ) {
+            objects.add( new ObjectCode( unit , objects.size() ) );
+        }
+
+        runParallel( objects , this::parseAndSize );
+        resolveImports( objects );
+
+        for ( int round = 0 ; round < MAX_ROUNDS ; round++ )
+        {
+            final int[] addresses = place( objects );
+            final int[] sizes = new int[ objects.size() ];
+            for ( int i = 0 ; i < sizes.length ; i++ )
+            {
+                final ObjectCode object = objects.get(i);
+                sizes[i] = object.size;
+                object.importValues.clear();
+                object.importValues.putAll( importValues( object , addresses ) );
+            }
+
+            runParallel( objects , object -> assemble( object , addresses[ object.index ] ) );
+
+            boolean settled = true;
+            for ( int i = 0 ; settled && i < sizes.length ; i++ )
+            {
+                final ObjectCode object = objects.get(i);
+                settled = object.code != null && object.size == sizes[i] && object.importValues.equals( importValues( object , addresses ) );
+            }
+            if ( settled ) {
+                return createResult( objects );
+            }
+        }
+        throw new RuntimeException("Segment sizes did not settle after "+MAX_ROUNDS+" rounds");
+    }
+
+    private void runParallel(List<ObjectCode> objects,Consumer<ObjectCode> action)
+    {
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>( objects.size() );
+        for ( ObjectCode object : objects )
+        {
+            tasks.add( pool.submit( () ->
+            {
+                try {
+                    action.accept( object );
+                }
+                catch(RuntimeException e) {
+                    throw new RuntimeException("Failed to assemble '"+object.unit+"': "+e.getMessage() , e );
+                }
+            }));
+        }
+
+        // wait for all units before reporting the first error
+        RuntimeException error = null;
+        for ( ForkJoinTask<?> task : tasks )
+        {
+            try {
+                task.join();
+            }
+            catch(RuntimeException e)
+            {
+                if ( error == null ) {
+                    error = e;
+                }
+            }
+        }
+        if ( error != null ) {
+            throw error;
+        }
+    }
+
+    private void parseAndSize(ObjectCode object)
+    {
+        final BuildCache cache = this.cache;
+        final String key = cache == null ? null : BuildCache.layoutKey( object.unit , loadAddress );
+        final Optional<BuildCache.Entry> cached = cache == null ? Optional.empty() : cache.get( key );
+        if ( cached.isPresent() )
+        {
+            final BuildCache.Entry entry = cached.get();
+            object.relocatable = entry.relocatable;
+            object.size = entry.size;
+            object.address = entry.address;
+            object.symbolTable = entry.symbolTable;
+            for ( Identifier identifier : entry.imports ) {
+                object.imports.put( identifier , null );
+            }
+            return;
+        }
+
+        object.relocatable = ! setsOrigin( object.getAST() );
+
+        final Assembler assembler = new Assembler();
+        if ( object.relocatable ) {
+            assembler.setOrigin( loadAddress );
+        }
+        object.size = assembler.computeSize( object.getAST() , object.getSourceHelper() );
+        object.address = assembler.getOrigin();
+        object.symbolTable = assembler.getSymbolTable();
+        for ( Identifier identifier : assembler.getUnresolvedSymbols() ) {
+            object.imports.put( identifier , null );
+        }
+
+        if ( cache != null ) {
+            cache.put( key , new BuildCache.Entry( object.relocatable , object.address , object.size , object.imports.keySet() , object.symbolTable , null , null ) );
+        }
+    }
+
+    private static boolean setsOrigin(AST ast)
+    {
+        for ( IASTNode statement : ast.getChildren() )
+        {
+            for ( IASTNode node : statement.getChildren() )
+            {
+                if ( node instanceof SetOriginNode ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void resolveImports(List<ObjectCode> objects)
+    {
+        final Map<Identifier,List<ObjectCode>> definedBy = new HashMap<>();
+        for ( ObjectCode object : objects )
+        {
+            for ( ISymbol<?> symbol : object.symbolTable.getGlobalSymbols() )
+            {
+                if ( symbol != null ) {
+                    definedBy.computeIfAbsent( symbol.getIdentifier() , key -> new ArrayList<>(1) ).add( object );
+                }
+            }
+        }
+
+        for ( ObjectCode object : objects )
+        {
+            for ( Map.Entry<Identifier,ObjectCode> entry : object.imports.entrySet() )
+            {
+                final List<ObjectCode> candidates = definedBy.get( entry.getKey() );
+                if ( candidates == null ) {
+                    throw new RuntimeException("Unresolved symbol '"+entry.getKey()+"' in '"+object.unit+"'");
+                }
+                if ( candidates.size() > 1 ) {
+                    throw new RuntimeException("Symbol '"+entry.getKey()+"' used by '"+object.unit+"' is defined in more than one unit: "+candidates.stream().map( c -> c.unit.name ).reduce( (a,b) -> a+", "+b ).get() );
+                }
+                entry.setValue( candidates.get(0) );
+            }
+        }
+    }
+
+    /**
+     * Assigns addresses to all units.
+     *
+     * @return start address by unit index
+     */
+    private int[] place(List<ObjectCode> objects)
+    {
+        final int[] result = new int[ objects.size() ];
+        final List<Segment> segments = new ArrayList<>( objects.size() );
+        int nextAddress = loadAddress;
+        for ( int i = 0 ; i < result.length ; i++ )
+        {
+            final ObjectCode object = objects.get(i);
+            if ( object.relocatable )
+            {
+                result[i] = nextAddress;
+                nextAddress += object.size;
+            } else {
+                result[i] = object.address;
+            }
+            final Segment segment = new Segment( object.unit , result[i] , object.size );
+            if ( segment.end() > 0x10000 ) {
+                throw new RuntimeException("Segment "+segment+" exceeds the address space");
+            }
+            segments.add( segment );
+        }
+
+        Collections.sort( segments , Comparator.comparingInt( s -> s.start ) );
+        for ( int i = 1 ; i < segments.size() ; i++ )
+        {
+            if ( segments.get(i).start < segments.get(i-1).end() ) {
+                throw new RuntimeException("Segment "+segments.get(i-1)+" overlaps with "+segments.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the values of all symbols a unit imports that have a value.
+     */
+    private static Map<Identifier,Integer> importValues(ObjectCode object,int[] addresses)
+    {
+        final Map<Identifier,Integer> result = new HashMap<>();
+        for ( Map.Entry<Identifier,ObjectCode> entry : object.imports.entrySet() )
+        {
+            final ObjectCode from = entry.getValue();
+            final Integer value = from.getValue( entry.getKey() , addresses[ from.index ] );
+            if ( value != null ) {
+                result.put( entry.getKey() , value );
+            }
+        }
+        return result;
+    }
+
+    private void assemble(ObjectCode object,int address)
+    {
+        final BuildCache cache = this.cache;
+        final boolean complete = object.importValues.size() == object.imports.size();
+        final String key = cache == null || ! complete ? null : BuildCache.objectKey( object.unit , address , object.importValues );
+        final Optional<BuildCache.Entry> cached = key == null ? Optional.empty() : cache.get( key );
+        if ( cached.isPresent() )
+        {
+            final BuildCache.Entry entry = cached.get();
+            object.code = entry.code;
+            object.size = entry.size;
+            object.sourceMap = entry.sourceMap;
+            object.address = entry.address;
+            object.symbolTable = entry.symbolTable;
+            return;
+        }
+
+        final Assembler assembler = new Assembler();
+        if ( object.relocatable ) {
+            assembler.setOrigin( address );
+        }
+        for ( Map.Entry<Identifier,Integer> entry : object.importValues.entrySet() ) {
+            assembler.defineExternalSymbol( entry.getKey() , entry.getValue() );
+        }
+
+        if ( complete )
+        {
+            object.code = assembler.assemble( object.getAST() , object.getSourceHelper() );
+            object.size = object.code.length;
+            object.sourceMap = assembler.getSourceMap();
+        }
+        else
+        {
+            // some EQUs this unit imports depend on symbols that did not have a value in the last round
+            object.code = null;
+            object.size = assembler.computeSize( object.getAST() , object.getSourceHelper() );
+        }
+        object.address = assembler.getOrigin();
+        object.symbolTable = assembler.getSymbolTable();
+
+        if ( key != null ) {
+            cache.put( key , new BuildCache.Entry( object.relocatable , object.address , object.size , object.imports.keySet() , object.symbolTable , object.code , object.sourceMap ) );
+        }
+    }
+
+    private Result createResult(List<ObjectCode> objects)
+    {
+        final List<Segment> segments = new ArrayList<>( objects.size() );
+        final SourceMap sourceMap = new SourceMap();
+        final Map<CompilationUnit,ISymbolTable> symbolTables = new HashMap<>();
+        for ( ObjectCode object : objects )
+        {
+            segments.add( new Segment( object.unit , object.address , object.size ) );
+            sourceMap.addAll( object.sourceMap );
+            symbolTables.put( object.unit , object.symbolTable );
+        }
+        Collections.sort( segments , Comparator.comparingInt( s -> s.start ) );
+
+        final int start = segments.isEmpty() ? loadAddress : segments.get(0).start;
+        int end = start;
+        for ( Segment segment : segments ) {
+            end = Math.max( end , segment.end() );
+        }
+
+        final byte[] binary = new byte[ end - start ];
+        for ( ObjectCode object : objects ) {
+            System.arraycopy( object.code , 0 , binary , object.address - start , object.code.length );
+        }
+        return new Result( start , binary , Collections.unmodifiableList( segments ) , sourceMap , symbolTables );
+    }
+}
@@ -1,47 +1,288 @@
 package de.codesourcery.j6502.assembler;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
 import de.codesourcery.j6502.emulator.AddressRange;
 
+/**
+ * Maps addresses to the source lines that generated them and vice versa.
+ *
+ * Each address range is packed into a single <code>long</code> (start address , end address , line number).
+ * Ranges get sorted by address on the first lookup after ranges were added out of order (the assembler adds
+ * them in ascending order , so usually they already are) , looking up an address is a binary search that
+ * does not allocate anything. Ranges generated by the assembler never overlap , if they do anyway the range
+ * that starts last wins.
+ */
 public class SourceMap
 {
-	private final List<RangeWithLine> ranges = new ArrayList<>();
+	private static final int FILE_MAGIC = 0x4a534d31; // 'JSM1'
 
-	protected static final class RangeWithLine
+	// packing of ranges by address: start (16 bits) | end (17 bits) | line number (30 bits)
+	private static final int START_SHIFT = 47;
+	private static final int END_SHIFT = 30;
+	private static final long END_MASK = 0x1ffff;
+	private static final long LINE_MASK = 0x3fffffff;
+
+	// packing of ranges by line number: line number (30 bits) | start (16 bits) | end (17 bits)
+	private static final int BY_LINE_LINE_SHIFT = 33;
+	private static final int BY_LINE_START_SHIFT = 17;
+
+	private long[] ranges = new long[16];
+	private int size;
+	private volatile boolean sorted = true;
+	private boolean overlapping;
+	// ranges ordered by line number , built on first use
+	private volatile long[] rangesByLine;
+
+	public void clear()
 	{
-		public final AddressRange range;
-		public final int lineNo;
+		size = 0;
+		sorted = true;
+		overlapping = false;
+		rangesByLine = null;
+	}
 
-		public RangeWithLine(AddressRange range, int lineNo) {
-			this.range = range;
-			this.lineNo = lineNo;
-		}
+	/**
+	 * Returns the number of address ranges.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
 
-		@Override
-		public String toString() {
-			return "Line no. "+lineNo+" is at "+range;
+	public void addAddressRange(int start,int len, int lineNo)
+	{
+		final int startAddress = start & 0xffff;
+		if ( len < 0 || startAddress + len > 65536 ) {
+			throw new IllegalArgumentException("Address range out-of-range: "+startAddress+" , "+len+" bytes");
+		}
+		if ( lineNo < 0 || lineNo > LINE_MASK ) {
+			throw new IllegalArgumentException("Line number out-of-range: "+lineNo);
 		}
+		if ( len == 0 ) {
+			return;
+		}
+		add( pack( startAddress , startAddress + len , lineNo ) );
 	}
 
-	public void clear() {
-		ranges.clear();
+	private void add(long range)
+	{
+		if ( size == ranges.length ) {
+			ranges = Arrays.copyOf( ranges , size * 2 );
+		}
+		if ( size > 0 && sorted )
+		{
+			final long previous = ranges[ size - 1 ];
+			if ( start( range ) < start( previous ) ) {
+				sorted = false;
+			} else if ( start( range ) < end( previous ) ) {
+				overlapping = true;
+			}
+		}
+		ranges[ size++ ] = range;
+		rangesByLine = null;
 	}
 
-	public void addAddressRange(int start,int len, int lineNo)
+	/**
+	 * Adds all address ranges of another source map.
+	 *
+	 * @param other
+	 */
+	public void addAll(SourceMap other)
 	{
-		ranges.add( new RangeWithLine( new AddressRange(start & 0xffff,len) , lineNo ) );
+		for ( int i = 0 ; i < other.size ; i++ ) {
+			add( other.ranges[i] );
+		}
 	}
 
 	public Optional<Integer> getLineNumberForAddress(int adr)
 	{
-		for ( RangeWithLine r : ranges ) {
-			if ( r.range.contains( adr ) ) {
-				return Optional.of( r.lineNo );
+		final int line = getLineNumber( adr );
+		return line == -1 ? Optional.empty() : Optional.of( line );
+	}
+
+	/**
+	 * Returns the line number that generated the byte at an address , without allocating anything.
+	 *
+	 * @param adr
+	 * @return line number or -1 if the address is not part of any range
+	 */
+	public int getLineNumber(int adr)
+	{
+		if ( ! sorted ) {
+			sort();
+		}
+
+		// find the last range starting at or before the address
+		final int address = adr & 0xffff;
+		int low = 0;
+		int high = size - 1;
+		int found = -1;
+		while ( low <= high )
+		{
+			final int mid = ( low + high ) >>> 1;
+			if ( start( ranges[mid] ) <= address ) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		for ( int i = found ; i >= 0 ; i-- )
+		{
+			if ( address < end( ranges[i] ) ) {
+				return line( ranges[i] );
+			}
+			if ( ! overlapping ) {
+				break;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the address ranges generated by a source line.
+	 *
+	 * @param lineNo
+	 * @return ranges ordered by address , empty if the line did not generate any code
+	 */
+	public List<AddressRange> getAddressRanges(int lineNo)
+	{
+		long[] byLine = rangesByLine;
+		if ( byLine == null ) {
+			byLine = sortByLine();
+		}
+
+		// find the first range of the line
+		int low = 0;
+		int high = byLine.length;
+		while ( low < high )
+		{
+			final int mid = ( low + high ) >>> 1;
+			if ( ( byLine[mid] >>> BY_LINE_LINE_SHIFT ) < lineNo ) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		final List<AddressRange> result = new ArrayList<>( 1 );
+		for ( int i = low ; i < byLine.length && ( byLine[i] >>> BY_LINE_LINE_SHIFT ) == lineNo ; i++ )
+		{
+			final int start = (int) ( ( byLine[i] >>> BY_LINE_START_SHIFT ) & 0xffff );
+			final int end = (int) ( byLine[i] & END_MASK );
+			result.add( new AddressRange( start , end - start ) );
+		}
+		return result;
+	}
+
+	private synchronized void sort()
+	{
+		if ( sorted ) {
+			return;
+		}
+		Arrays.sort( ranges , 0 , size );
+		overlapping = false;
+		for ( int i = 1 ; i < size && ! overlapping ; i++ ) {
+			overlapping = start( ranges[i] ) < end( ranges[i-1] );
+		}
+		sorted = true;
+	}
+
+	private synchronized long[] sortByLine()
+	{
+		if ( rangesByLine == null )
+		{
+			final long[] byLine = new long[ size ];
+			for ( int i = 0 ; i < size ; i++ ) {
+				byLine[i] = ( (long) line( ranges[i] ) << BY_LINE_LINE_SHIFT ) | ( start( ranges[i] ) << BY_LINE_START_SHIFT ) | end( ranges[i] );
+			}
+			Arrays.sort( byLine );
+			rangesByLine = byLine;
+		}
+		return rangesByLine;
+	}
+
+	private static long pack(int start,int end,int lineNo) {
+		return ( (long) start << START_SHIFT ) | ( (long) end << END_SHIFT ) | lineNo;
+	}
+
+	private static long start(long range) {
+		return range >>> START_SHIFT;
+	}
+
+	private static long end(long range) {
+		return ( range >>> END_SHIFT ) & END_MASK;
+	}
+
+	private static int line(long range) {
+		return (int) ( range & LINE_MASK );
+	}
+
+	public void write(DataOutputStream out) throws IOException
+	{
+		out.writeInt( size );
+		for ( int i = 0 ; i < size ; i++ )
+		{
+			final long range = ranges[i];
+			out.writeShort( (int) start( range ) );
+			out.writeInt( (int) ( end( range ) - start( range ) ) );
+			out.writeInt( line( range ) );
+		}
+	}
+
+	public static SourceMap read(DataInputStream in) throws IOException
+	{
+		final SourceMap result = new SourceMap();
+		for ( int count = in.readInt() ; count > 0 ; count-- ) {
+			result.addAddressRange( in.readUnsignedShort() , in.readInt() , in.readInt() );
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the file a source map gets stored in next to a .prg file.
+	 *
+	 * @param prgFile
+	 * @return file with the same name but a <code>.map</code> extension
+	 */
+	public static File getFileFor(File prgFile)
+	{
+		final String name = prgFile.getName();
+		final int dot = name.lastIndexOf( '.' );
+		return new File( prgFile.getParentFile() , ( dot > 0 ? name.substring( 0 , dot ) : name )+".map" );
+	}
+
+	public void save(File file) throws IOException
+	{
+		try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) ) )
+		{
+			out.writeInt( FILE_MAGIC );
+			write( out );
+		}
+	}
+
+	public static SourceMap load(File file) throws IOException
+	{
+		try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+		{
+			if ( in.readInt() != FILE_MAGIC ) {
+				throw new IOException("Not a source map: "+file.getAbsolutePath());
 			}
+			return read( in );
 		}
-		return Optional.empty();
 	}
 }
@@ -2,53 +2,154 @@ package de.codesourcery.j6502.assembler;
 
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 
 import de.codesourcery.j6502.assembler.exceptions.DuplicateSymbolException;
 import de.codesourcery.j6502.assembler.exceptions.UnknownSymbolException;
 import de.codesourcery.j6502.assembler.parser.Identifier;
+import de.codesourcery.j6502.utils.IntMap;
 
+/**
+ * Symbol table keyed by interned identifier ids.
+ *
+ * Symbols that have only been declared are stored as <code>null</code> and skipped
+ * by {@link #getGlobalSymbols()} / {@link #getLocalSymbols(Identifier)} , both of which
+ * return live views instead of copies.
+ */
 public class SymbolTable implements ISymbolTable {
 
-	private final Map<Identifier,ISymbol<?>> globalSymbols = new HashMap<>();
-	private final Map<Identifier,Map<Identifier,ISymbol<?>>> localSymbols = new HashMap<>();
+	private static final Iterable<ISymbol<?>> EMPTY = new Slots( new IntMap<Slot>(0) );
+
+	private final IntMap<Slot> globalSymbols = new IntMap<>();
+
+	private final Iterable<ISymbol<?>> globalsView = new Slots( globalSymbols );
+
+	protected static final class Slot
+	{
+		public final Identifier identifier;
+		public ISymbol<?> symbol;
+		// local symbols of a global symbol , lazily created
+		public IntMap<Slot> locals;
+		public Iterable<ISymbol<?>> localsView;
+
+		public Slot(Identifier identifier) {
+			this.identifier = identifier;
+		}
+
+		public Slot local(Identifier identifier)
+		{
+			if ( locals == null ) {
+				locals = new IntMap<>(4);
+				localsView = new Slots( locals );
+			}
+			Slot result = locals.get( identifier.id );
+			if ( result == null ) {
+				result = new Slot( identifier );
+				locals.put( identifier.id , result );
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Non-copying view of the defined symbols in a map of slots.
+	 */
+	private static final class Slots implements Iterable<ISymbol<?>>
+	{
+		private final IntMap<Slot> slots;
+
+		public Slots(IntMap<Slot> slots) {
+			this.slots = slots;
+		}
+
+		@Override
+		public void forEach(Consumer<? super ISymbol<?>> action)
+		{
+			slots.values().forEach( slot ->
+			{
+				if ( slot.symbol != null ) {
+					action.accept( slot.symbol );
+				}
+			});
+		}
+
+		@Override
+		public Iterator<ISymbol<?>> iterator()
+		{
+			final Iterator<Slot> it = slots.values().iterator();
+			return new Iterator<ISymbol<?>>()
+			{
+				private ISymbol<?> next = advance();
+
+				private ISymbol<?> advance()
+				{
+					while ( it.hasNext() )
+					{
+						final ISymbol<?> symbol = it.next().symbol;
+						if ( symbol != null ) {
+							return symbol;
+						}
+					}
+					return null;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return next != null;
+				}
+
+				@Override
+				public ISymbol<?> next()
+				{
+					if ( next == null ) {
+						throw new NoSuchElementException();
+					}
+					final ISymbol<?> result = next;
+					next = advance();
+					return result;
+				}
+			};
+		}
+	}
 
 	@Override
 	public Iterable<ISymbol<?>> getGlobalSymbols()
 	{
-		return new ArrayList<>( globalSymbols.values() );
+		return globalsView;
 	}
 
 	@Override
 	public Iterable<ISymbol<?>> getLocalSymbols(Identifier globalSybol)
 	{
-		final Map<Identifier, ISymbol<?>> map = localSymbols.get( globalSybol );
-		if ( map == null ) {
-			return new ArrayList<ISymbol<?>>();
+		final Slot global = globalSymbols.get( globalSybol.id );
+		if ( global == null || global.localsView == null ) {
+			return EMPTY;
 		}
-		return new ArrayList<>( map.values() );
+		return global.localsView;
+	}
+
+	private static List<Slot> sorted(IntMap<Slot> map)
+	{
+		final List<Slot> result = new ArrayList<>( map.size() );
+		map.values().forEach( result::add );
+		result.sort( Comparator.comparing( slot -> slot.identifier.value ) );
+		return result;
 	}
 
 	@Override
 	public String toString() {
 		StringBuilder buffer = new StringBuilder("=== Symbol table ===\n\n");
 
-		final List<Identifier> globalKeys = globalSymbols.keySet().stream().sorted( Comparator.comparing( n -> n.value ) ).collect(Collectors.toList());
-		for ( Identifier globalIdentifier : globalKeys )
+		for ( Slot global : sorted( globalSymbols ) )
 		{
-			ISymbol<?> symbol = globalSymbols.get( globalIdentifier );
-			buffer.append("\n").append( globalIdentifier ).append(" : ").append( symbol == null ? "<undefined>" : symbol.toString() );
-			Map<Identifier, ISymbol<?>> localSyms = localSymbols.get( globalIdentifier );
-			if ( localSyms != null && ! localSyms.isEmpty() )
+			buffer.append("\n").append( global.identifier ).append(" : ").append( global.symbol == null ? "<undefined>" : global.symbol.toString() );
+			if ( global.locals != null && ! global.locals.isEmpty() )
 			{
-				final List<Identifier> localKeys = localSyms.keySet().stream().sorted( Comparator.comparing( n -> n.value ) ).collect(Collectors.toList());
-				for ( Identifier localIdentifier : localKeys )
-				{
-					symbol = localSyms.get( localIdentifier );
-					buffer.append("\n    ").append( localIdentifier ).append(" : ").append( symbol == null ? "<undefined>" : symbol.toString() );
+				for ( Slot local : sorted( global.locals ) ) {
+					buffer.append("\n    ").append( local.identifier ).append(" : ").append( local.symbol == null ? "<undefined>" : local.symbol.toString() );
 				}
 			}
 			buffer.append("\n");
@@ -57,85 +158,71 @@ public class SymbolTable implements ISymbolTable {
 		return buffer.toString();
 	}
 
+	private Slot global(Identifier identifier)
+	{
+		Slot result = globalSymbols.get( identifier.id );
+		if ( result == null ) {
+			result = new Slot( identifier );
+			globalSymbols.put( identifier.id , result );
+		}
+		return result;
+	}
+
 	@Override
 	public void declareSymbol(Identifier identifier, Identifier parentIdentifier)
 	{
 		if ( parentIdentifier== null ) { // global symbol
-			if ( globalSymbols.containsKey( parentIdentifier ) ) // already declared/defined
-			{
-				return;
-			}
-			globalSymbols.put( identifier , null );
+			global( identifier );
 			return;
 		}
 
 		// local symbol
-		if ( ! globalSymbols.containsKey( parentIdentifier ) ) {
-			globalSymbols.put( parentIdentifier , null );
-		}
-		Map<Identifier, ISymbol<?>> syms = localSymbols.get( parentIdentifier );
-		if ( syms == null ) {
-			syms = new HashMap<>();
-			localSymbols.put( parentIdentifier , syms );
-		}
-		if ( ! syms.containsKey( identifier ) ) {
-			syms.put( identifier , null );
-		}
+		global( parentIdentifier ).local( identifier );
 	}
 
 	@Override
 	public void defineSymbol(ISymbol<?> id)
 	{
 		if ( id.getParentIdentifier() == null ) { // global symbol
-			if ( globalSymbols.containsKey( id.getIdentifier() ) )
-			{
-				if ( globalSymbols.get( id.getIdentifier() ) != null ) {
-					throw new DuplicateSymbolException( id );
-				}
+			final Slot slot = global( id.getIdentifier() );
+			if ( slot.symbol != null ) {
+				throw new DuplicateSymbolException( id );
 			}
-			globalSymbols.put( id.getIdentifier() , id );
+			slot.symbol = id;
 			return;
 		}
 
 		// local symbol
-		final ISymbol<?> parent = globalSymbols.get( id.getParentIdentifier() );
-		if ( parent == null ) {
+		final Slot parent = globalSymbols.get( id.getParentIdentifier().id );
+		if ( parent == null || parent.symbol == null ) {
 			throw new UnknownSymbolException( id.getParentIdentifier() , null );
 		}
-		Map<Identifier, ISymbol<?>> syms = localSymbols.get( parent.getIdentifier() );
-		if ( syms == null ) {
-			syms = new HashMap<>();
-			localSymbols.put( parent.getIdentifier() , syms );
+		final Slot slot = parent.local( id.getIdentifier() );
+		if ( slot.symbol != null ) {
+			throw new DuplicateSymbolException( id );
 		}
-		if ( syms.containsKey( id.getIdentifier() ) )
-		{
-			if ( syms.get( id.getIdentifier() ) != null ) {
-				throw new DuplicateSymbolException( id );
-			}
-		}
-		syms.put( id.getIdentifier() , id );
+		slot.symbol = id;
 	}
 
 	@Override
 	public ISymbol<?> getSymbol(Identifier identifier, Identifier parentIdentifier)
 	{
 		if ( parentIdentifier == null ) {
-			final ISymbol<?> result = globalSymbols.get( identifier );
-			if ( result == null ) {
+			final Slot slot = globalSymbols.get( identifier.id );
+			if ( slot == null || slot.symbol == null ) {
 				throw new UnknownSymbolException( identifier ,parentIdentifier);
 			}
-			return result;
+			return slot.symbol;
 		}
-		final ISymbol<?> parent = globalSymbols.get( parentIdentifier );
-		if ( parent == null ) {
+		final Slot parent = globalSymbols.get( parentIdentifier.id );
+		if ( parent == null || parent.symbol == null ) {
 			throw new UnknownSymbolException( parentIdentifier , null);
 		}
-		final Map<Identifier,ISymbol<?>> syms = localSymbols.get( parentIdentifier );
-		if ( syms != null )
+		if ( parent.locals != null )
 		{
-			final ISymbol<?> result = syms.get( identifier );
-			if ( result != null ) {
-				return result;
+			final Slot slot = parent.locals.get( identifier.id );
+			if ( slot != null && slot.symbol != null ) {
+				return slot.symbol;
 			}
 		}
 		throw new UnknownSymbolException( identifier , parentIdentifier );
@@ -145,12 +232,14 @@ public class SymbolTable implements ISymbolTable {
 	public boolean isDefined(Identifier identifier,Identifier parentIdentifier)
 	{
 		if ( parentIdentifier == null ) {
-			return globalSymbols.get( identifier ) != null;
+			final Slot slot = globalSymbols.get( identifier.id );
+			return slot != null && slot.symbol != null;
 		}
-		final Map<Identifier, ISymbol<?>> map = localSymbols.get( parentIdentifier );
-		if ( map == null ) {
+		final Slot parent = globalSymbols.get( parentIdentifier.id );
+		if ( parent == null || parent.locals == null ) {
 			return false;
 		}
-		return map.get( identifier ) != null;
+		final Slot slot = parent.locals.get( identifier.id );
+		return slot != null && slot.symbol != null;
 	}
-}
\ No newline at end of file
+}
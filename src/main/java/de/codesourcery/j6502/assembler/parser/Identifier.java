@@ -1,19 +1,99 @@
 package de.codesourcery.j6502.assembler.parser;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
+/**
+ * An identifier.
+ *
+ * Identifiers are interned , every distinct name gets a non-negative {@link #id} that
+ * symbol tables use as key. Comparing two identifiers only compares their ids.
+ *
+ * The pool only holds identifiers weakly , so names that are no longer referenced (for example the
+ * prefixes of a label typed in the editor) do not accumulate. Once an identifier has been garbage
+ * collected , its id is handed out again. Ids are therefore only unique among identifiers that are
+ * still reachable , anything keyed by id must also keep a reference to the identifier itself
+ * (like {@link de.codesourcery.j6502.assembler.SymbolTable} does).
+ */
 public final class Identifier {
 
 	private static final Pattern PATTERN =Pattern.compile("^[_a-zA-Z]{1}[a-zA-Z0-9]+[_0-9a-zA-Z]*");
 
+	private static final ConcurrentHashMap<String,Ref> POOL = new ConcurrentHashMap<>();
+	private static final ReferenceQueue<Identifier> QUEUE = new ReferenceQueue<>();
+
+	// guarded by POOL
+	private static int nextId;
+	private static int[] freeIds = new int[16];
+	private static int freeIdCount;
+
 	public final String value;
+	public final int id;
+
+	private static final class Ref extends WeakReference<Identifier>
+	{
+		public final String value;
+		public final int id;
+
+		public Ref(Identifier identifier)
+		{
+			super( identifier , QUEUE );
+			this.value = identifier.value;
+			this.id = identifier.id;
+		}
+	}
+
+	private Identifier(String s,int id) {
+		this.value = s;
+		this.id = id;
+	}
 
-	public Identifier(String s)
+	/**
+	 * Returns the canonical instance for an identifier.
+	 *
+	 * @param s
+	 * @return
+	 * @throws IllegalArgumentException if the string is not a valid identifier
+	 */
+	public static Identifier of(String s)
 	{
+		final Ref ref = POOL.get( s == null ? "" : s );
+		final Identifier existing = ref != null ? ref.get() : null;
+		if ( existing != null ) {
+			return existing;
+		}
 		if ( ! isValidIdentifier(s) ) {
 			throw new IllegalArgumentException("Not a valid identifier");
 		}
-		this.value = s;
+		synchronized( POOL )
+		{
+			expungeStaleEntries();
+			final Ref current = POOL.get( s );
+			final Identifier result = current != null ? current.get() : null;
+			if ( result != null ) {
+				return result;
+			}
+			final Identifier identifier = new Identifier( s , freeIdCount > 0 ? freeIds[ --freeIdCount ] : nextId++ );
+			POOL.put( s , new Ref( identifier ) );
+			return identifier;
+		}
+	}
+
+	// must be called while holding the lock on POOL
+	private static void expungeStaleEntries()
+	{
+		Ref ref;
+		while ( ( ref = (Ref) QUEUE.poll() ) != null )
+		{
+			POOL.remove( ref.value , ref );
+			if ( freeIdCount == freeIds.length ) {
+				freeIds = Arrays.copyOf( freeIds , freeIdCount * 2 );
+			}
+			freeIds[ freeIdCount++ ] = ref.id;
+		}
 	}
 
 	public static final boolean isValidIdentifier(String s) 
@@ -39,13 +119,13 @@ public final class Identifier {
 
 	@Override
 	public int hashCode() {
-		return 31 + value.hashCode();
+		return id;
 	}
 
 	@Override
 	public boolean equals(Object obj) {
 		if ( obj instanceof Identifier) {
-			return this.value.equals( ((Identifier) obj).value );
+			return this.id == ((Identifier) obj).id;
 		}
 		return false;
 	}
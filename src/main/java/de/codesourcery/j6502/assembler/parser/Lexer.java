@@ -1,52 +1,106 @@
 package de.codesourcery.j6502.assembler.parser;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import de.codesourcery.j6502.assembler.exceptions.ParseException;
 
+/**
+ * Turns source text into {@link Token}s.
+ *
+ * The input is scanned through a <code>char[]</code> with an index cursor and tokens are produced on demand,
+ * one at a time. Pending tokens (lookahead and tokens handed back via {@link #push(Token)}) are kept
+ * in a ring buffer so that consuming a token is O(1).
+ *
+ * Single-character tokens and operators share constant text strings , only identifiers,numbers
+ * and whitespace runs allocate a new string.
+ */
 public class Lexer {
 
-    private final Scanner scanner;
+    private static final String EOF_TEXT = "";
 
-    private final List<Token> tokens = new ArrayList<>();
+    private final char[] input;
+    private final int length;
+    private int index;
 
-    private final StringBuilder buffer = new StringBuilder();
+    // ring buffer of pending tokens, capacity is always a power of two
+    private Token[] tokens = new Token[16];
+    private int head;
+    private int size;
 
     private boolean eof;
 
     private boolean skipWhitespace = true;
 
+    // added to all offsets , used when lexing a snippet of a larger source
+    private final int baseOffset;
+
     public Lexer(Scanner scanner) {
-        this.scanner = scanner;
+        this( scanner.input() , scanner.currentOffset() , 0 );
+    }
+
+    public Lexer(CharSequence input) {
+        this( input , 0 , 0 );
+    }
+
+    /**
+     * Creates a lexer for a snippet taken from a larger source.
+     *
+     * @param input snippet to lex
+     * @param baseOffset offset of the snippet in the larger source , added to all token offsets
+     */
+    public Lexer(CharSequence input,int baseOffset) {
+        this( input , 0 , baseOffset );
+    }
+
+    private Lexer(CharSequence input,int startIndex,int baseOffset)
+    {
+        if ( input == null ) {
+            throw new IllegalArgumentException("input must not be NULL");
+        }
+        this.input = input instanceof String ? ((String) input).toCharArray() : input.toString().toCharArray();
+        this.length = this.input.length;
+        this.index = startIndex;
+        this.baseOffset = baseOffset;
     }
 
     public int currentOffset()
     {
         if ( eof() ) {
-            return scanner.currentOffset();
+            return baseOffset + index;
         }
-        return tokens.get(0).offset;
+        return tokens[head].offset;
     }
 
     public void setSkipWhitespace(boolean skip)
     {
         this.skipWhitespace = skip;
-        if ( skip ) {
-            tokens.removeIf( token -> token.hasType(TokenType.WHITESPACE ) );
+        if ( skip && size > 0 )
+        {
+            // drop pending whitespace tokens , compacting in place
+            final int mask = tokens.length - 1;
+            int kept = 0;
+            for ( int i = 0 ; i < size ; i++ )
+            {
+                final Token token = tokens[ (head + i) & mask ];
+                if ( token.type != TokenType.WHITESPACE ) {
+                    tokens[ (head + kept++) & mask ] = token;
+                }
+            }
+            for ( int i = kept ; i < size ; i++ ) {
+                tokens[ (head + i) & mask ] = null;
+            }
+            size = kept;
         }
     }
 
     public boolean eof()
     {
-        if ( ! tokens.isEmpty() ) {
+        if ( size > 0 ) {
             return false;
         }
         if ( eof ) {
             return true;
         }
         parse();
-        return tokens.isEmpty();
+        return size == 0;
     }
 
     public Token peek()
@@ -54,7 +108,7 @@ public class Lexer {
         if ( eof() ) {
             throw new IllegalStateException("Already at EOF");
         }
-        return tokens.get(0);
+        return tokens[head];
     }
 
     public boolean peek(TokenType expected)
@@ -62,7 +116,7 @@ public class Lexer {
         if ( eof() ) {
             return false;
         }
-        return tokens.get(0).hasType(expected);
+        return tokens[head].type == expected;
     }
 
     public Token next()
@@ -70,202 +124,164 @@ public class Lexer {
         if ( eof() ) {
             throw new IllegalStateException("Already at EOF");
         }
-        return tokens.remove(0);
+        final Token result = tokens[head];
+        tokens[head] = null;
+        head = (head + 1) & (tokens.length - 1);
+        size--;
+        return result;
     }
 
+    /**
+     * Scans exactly one token (or the final EOF token) and appends it to the ring buffer.
+     */
     private void parse()
     {
-        int start = scanner.currentOffset();
-        buffer.setLength(0);
+        while ( ! scanToken() ) {
+            // skipped a separator , try again
+        }
+    }
+
+    /**
+     * @return <code>false</code> if only a separator got consumed and no token was produced
+     */
+    private boolean scanToken()
+    {
+        if ( index >= length )
+        {
+            eof = true;
+            addToken( TokenType.EOF , EOF_TEXT , index );
+            return true;
+        }
+
+        final int start = index;
 
-        // consume whitespace
-        while( ! scanner.eof() )
+        // consume whitespace (line breaks are tokens on their own)
+        char c = input[index];
+        while ( c != '\r' && c != '\n' && Character.isWhitespace( c ) )
         {
-            final char c = scanner.peek();
-            if ( c == '\r' || c == '\n' || ! Character.isWhitespace( c ) ) {
+            if ( ++index == length ) {
                 break;
             }
-            if ( skipWhitespace ) {
-                scanner.next();
-            } else {
-                buffer.append( scanner.next() );
-            }
+            c = input[index];
         }
-
-        if ( ! skipWhitespace && buffer.length() > 0 )
+        if ( index != start )
         {
-            addToken(TokenType.WHITESPACE,buffer.toString(), start );
-            return;
+            if ( ! skipWhitespace ) {
+                addToken( TokenType.WHITESPACE , new String( input , start , index - start ) , start );
+                return true;
+            }
+            if ( index == length ) {
+                return false;
+            }
         }
 
-        start = scanner.currentOffset();
-        while( ! scanner.eof() )
+        final int tokenStart = index;
+        switch( c )
         {
-            final char c = scanner.peek();
-
-            if ( buffer.length() == 0 )
-            {
-                if ( Operator.isValidOperator( Character.toString( c ) ) )
-                {
-                    buffer.append( scanner.next() );
-                    continue;
+            case '%':  addSingle( TokenType.PERCENTAGE   , "%"  ); return true;
+            case '\n': addSingle( TokenType.EOL          , "\n" ); return true;
+            case ';':  addSingle( TokenType.SEMICOLON    , ";"  ); return true;
+            case '=':  addSingle( TokenType.EQUALS       , "="  ); return true;
+            case '(':  addSingle( TokenType.PARENS_OPEN  , "("  ); return true;
+            case ')':  addSingle( TokenType.PARENS_CLOSE , ")"  ); return true;
+            case '$':  addSingle( TokenType.DOLLAR       , "$"  ); return true;
+            case '#':  addSingle( TokenType.HASH         , "#"  ); return true;
+            case ':':  addSingle( TokenType.COLON        , ":"  ); return true;
+            case ',':  addSingle( TokenType.COMMA        , ","  ); return true;
+            case '.':  addSingle( TokenType.DOT          , "."  ); return true;
+            case '\'': addSingle( TokenType.SINGLE_QUOTE , "'"  ); return true;
+            case '"':  addSingle( TokenType.DOUBLE_QUOTE , "\"" ); return true;
+            case '\r':
+                index++;
+                if ( index < length && input[index] == '\n' ) {
+                    index++;
+                    addToken( TokenType.EOL , "\r\n" , tokenStart );
+                    return true;
                 }
-            }
-            else if ( Operator.isValidOperator( buffer.toString() ) )
-            {
-                if ( Operator.isValidOperator( buffer.toString()+Character.toString( c ) ) )
-                {
-                    buffer.append( scanner.next() );
-                    continue;
+                // a lone CR is just a separator
+                return false;
+            case '+': addOperator( Operator.BINARY_PLUS      ); return true;
+            case '-': addOperator( Operator.BINARY_MINUS     ); return true;
+            case '~': addOperator( Operator.BITWISE_NEGATION ); return true;
+            case '&': addOperator( Operator.BITWISE_AND      ); return true;
+            case '|': addOperator( Operator.BITWISE_OR       ); return true;
+            case '*': addOperator( Operator.MULTIPLY         ); return true;
+            case '/': addOperator( Operator.DIVIDE           ); return true;
+            case '<':
+                if ( index + 1 < length && input[index+1] == '<' ) {
+                    addOperator( Operator.SHIFT_LEFT );
+                } else {
+                    addOperator( Operator.LOWER_BYTE );
                 }
-                // buffer contains a valid operator but <buffer+current char> no longer yields a valid operator
-                parseBuffer(start);
-                return;
-            }
-            else if ( Operator.isValidOperator( Character.toString( c ) ) )
-            {
-                // buffer.length >0 but no valid operator already in buffer
-                parseBuffer(start);
-                return;
-            }
+                return true;
+            case '>':
+                if ( index + 1 < length && input[index+1] == '>' ) {
+                    addOperator( Operator.SHIFT_RIGHT );
+                } else {
+                    addOperator( Operator.UPPER_BYTE );
+                }
+                return true;
+            default:
+                // fall-through
+        }
 
-            switch( c )
-            {
-                case '%':
-                    parseBuffer(start);
-                    start = scanner.currentOffset();
-                    addToken(TokenType.PERCENTAGE, scanner.next() , start );
-                    return;
-                case '\r':
-                    scanner.next(); // consume CR
-                    if ( ! scanner.eof() && scanner.peek() == '\n' ) {
-                        scanner.next();
-                        parseBuffer(start);
-                        start = scanner.currentOffset();
-                        addToken(TokenType.EOL, "\r\n" , start-2 );
-                        return;
-                    }
-                    break;
-                case '\n':
-                    parseBuffer(start);
-                    start = scanner.currentOffset();
-                    addToken(TokenType.EOL, scanner.next() , start );
-                    return;
-                case ';':
-                    parseBuffer(start);
-                    start = scanner.currentOffset();
-                    addToken(TokenType.SEMICOLON, scanner.next() , start );
-                    return;
-                case '=':
-                    parseBuffer(start);
-                    start = scanner.currentOffset();
-                    addToken(TokenType.EQUALS, scanner.next() , start );
-                    return;
-                case '(':
-                    parseBuffer(start);
-                    start = scanner.currentOffset();
-                    addToken(TokenType.PARENS_OPEN, scanner.next() , start );
-                    return;
-                case ')':
-                    parseBuffer(start);
-                    start = scanner.currentOffset();
-                    addToken(TokenType.PARENS_CLOSE, scanner.next() , start );
-                    return;
-                case '$':
-                    parseBuffer(start);
-                    start = scanner.currentOffset();
-                    addToken(TokenType.DOLLAR, scanner.next() , start );
-                    return;
-                case '#':
-                    parseBuffer(start);
-                    start = scanner.currentOffset();
-                    addToken(TokenType.HASH, scanner.next() , start );
-                    return;
-                case ':':
-                    parseBuffer(start);
-                    start = scanner.currentOffset();
-                    addToken(TokenType.COLON, scanner.next() , start );
-                    return;
-                case ',':
-                    parseBuffer(start);
-                    start = scanner.currentOffset();
-                    addToken(TokenType.COMMA, scanner.next() , start );
-                    return;
-                case '.':
-                    parseBuffer(start);
-                    start = scanner.currentOffset();
-                    addToken(TokenType.DOT, scanner.next() , start );
-                    return;                    
-                case '\'':
-                    parseBuffer(start);
-                    start = scanner.currentOffset();
-                    addToken(TokenType.SINGLE_QUOTE, scanner.next() , start );
-                    return;
-                case '\"':
-                    parseBuffer(start);
-                    start = scanner.currentOffset();
-                    addToken(TokenType.DOUBLE_QUOTE, scanner.next() , start );
-                    return;
-                default:
-                    // fall-through
+        // identifier or number , runs until whitespace , an operator or a single-character token
+        boolean isNumber = true;
+        do
+        {
+            if ( isNumber && ! Character.isDigit( c ) ) {
+                isNumber = false;
             }
-
-            if ( Character.isWhitespace( c ) ) {
+            if ( ++index == length ) {
                 break;
             }
-            buffer.append( scanner.next() );
-        }
+            c = input[index];
+        } while ( ! isDelimiter( c ) );
 
-        parseBuffer(start);
-
-        if ( scanner.eof() )
-        {
-            eof = true;
-            addToken(TokenType.EOF,"",scanner.currentOffset());
-        }
+        addToken( isNumber ? TokenType.DIGITS : TokenType.CHARACTERS , new String( input , tokenStart , index - tokenStart ) , tokenStart );
+        return true;
     }
 
-    private void parseBuffer(int bufferStartOffset) {
-
-        String s = buffer.toString();
-        if ( s.length() == 0 ) {
-            return;
-        }
-        
-        if ( Operator.isValidOperator( s ) )
+    private static boolean isDelimiter(char c)
+    {
+        switch( c )
         {
-            final List<Operator> operators = Operator.getMatchingOperators( s );
-            if ( operators.size() != 1 ) {
-                throw new RuntimeException("Internal error,expected exactly 1 operator for symbol '"+s+"' but got "+operators);
-            }
-            addToken(TokenType.OPERATOR , s , bufferStartOffset );
-            return;
+            case '%': case '\r': case '\n': case ';': case '=': case '(': case ')':
+            case '$': case '#': case ':': case ',': case '.': case '\'': case '"':
+            case '+': case '-': case '~': case '&': case '|': case '*': case '/': case '<': case '>':
+                return true;
+            default:
+                return Character.isWhitespace( c );
         }
+    }
 
-        boolean isNumber = true;
-        for ( int i = 0 , len = s.length() ; i < len ; i++ ) {
-            if ( ! Character.isDigit( s.charAt(i) ) )
-            {
-                isNumber = false;
-                break;
-            }
-        }
-        if ( isNumber ) {
-            addToken(TokenType.DIGITS , s , bufferStartOffset );
-            return;
-        }
+    private void addSingle(TokenType t,String text) {
+        addToken( t , text , index++ );
+    }
 
-        if ( s.length() > 0 ) {
-            addToken(TokenType.CHARACTERS, s , bufferStartOffset );
-        }
+    private void addOperator(Operator op)
+    {
+        addToken( TokenType.OPERATOR , op.symbol , index );
+        index += op.symbol.length();
     }
 
-    private void addToken(TokenType t,char c,int offset) {
-        this.tokens.add( new Token(t,Character.toString(c) ,offset) );
+    private void addToken(TokenType t,String text,int offset)
+    {
+        if ( size == tokens.length ) {
+            grow();
+        }
+        tokens[ (head + size) & (tokens.length - 1) ] = new Token(t,text,baseOffset+offset);
+        size++;
     }
 
-    private void addToken(TokenType t,String text,int offset) {
-        this.tokens.add( new Token(t,text,offset) );
+    private void grow()
+    {
+        final Token[] tmp = new Token[ tokens.length * 2 ];
+        for ( int i = 0 ; i < size ; i++ ) {
+            tmp[i] = tokens[ (head + i) & (tokens.length - 1) ];
+        }
+        tokens = tmp;
+        head = 0;
     }
 
     public Token next(TokenType expected)
@@ -279,13 +295,18 @@ public class Lexer {
     @Override
     public String toString()
     {
-        return tokens.isEmpty() ? "<no token>" : tokens.get(0).toString();
+        return size == 0 ? "<no token>" : tokens[head].toString();
     }
 
     public void push(Token tok) {
         if (tok == null) {
             throw new IllegalArgumentException("token must not be NULL");
         }
-        tokens.add( 0 , tok );
+        if ( size == tokens.length ) {
+            grow();
+        }
+        head = (head - 1) & (tokens.length - 1);
+        tokens[head] = tok;
+        size++;
     }
 }
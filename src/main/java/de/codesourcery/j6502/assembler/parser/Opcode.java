@@ -1,5 +1,8 @@
 package de.codesourcery.j6502.assembler.parser;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import de.codesourcery.j6502.assembler.AddressingMode;
 import de.codesourcery.j6502.assembler.ICompilationContext;
 import de.codesourcery.j6502.assembler.exceptions.BranchTargetOutOfRangeException;
@@ -530,7 +533,8 @@ public enum Opcode
 	private static byte getRelativeOffset(InstructionNode ins, ICompilationContext writer)
 	{
 		final IValueNode lit = (IValueNode) ins.child(0).child(0);
-		if ( ! lit.isValueAvailable() ) {
+		// a branch is always two bytes , no need to check the target before it has its final address
+		if ( ! lit.isValueAvailable() || ! writer.isFinalPass() ) {
 			return 0;
 		}
 
@@ -552,13 +556,30 @@ public enum Opcode
 
 	public static Opcode getOpcode(String s)
 	{
-		final String up = s.toUpperCase();
-		for ( final Opcode op : values() ) {
-			if ( op.mnemonic.equals( up ) ) {
-				return op;
+		if ( s.length() != 3 ) { // all mnemonics have 3 characters
+			return null;
+		}
+		final Opcode result = Mnemonics.BY_NAME.get( s );
+		if ( result != null ) {
+			return result;
+		}
+		return Mnemonics.BY_NAME.get( s.toUpperCase() );
+	}
+
+	// enum constants may not access static fields of their own type during initialization , hence the holder class
+	private static final class Mnemonics
+	{
+		// upper- and lower-case spelling so that the usual spellings don't need toUpperCase()
+		private static final Map<String,Opcode> BY_NAME = new HashMap<>();
+
+		static
+		{
+			for ( final Opcode op : values() )
+			{
+				BY_NAME.put( op.mnemonic , op );
+				BY_NAME.put( op.mnemonic.toLowerCase() , op );
 			}
 		}
-		return null;
 	}
 
 	@Override
@@ -1,7 +1,9 @@
 package de.codesourcery.j6502.assembler.parser;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public enum Operator
 {
@@ -162,24 +164,38 @@ public enum Operator
 
 	public static boolean isValidOperator(String s)
 	{
-		for ( Operator op : values () )
-		{
-			if ( op.canBeParsed() && s.equals( op.symbol ) ) {
-				return true;
-			}
-		}
-		return false;
+		return ParsableOperators.BY_SYMBOL.containsKey( s );
 	}
 
 	public static List<Operator> getMatchingOperators(String s)
 	{
-		final List<Operator> operator = new ArrayList<>();
-		for ( Operator op : values () )
+		final Operator op = ParsableOperators.BY_SYMBOL.get( s );
+		return op == null ? Collections.emptyList() : Collections.singletonList( op );
+	}
+
+	/**
+	 * Returns the operator a lexer token with the given text stands for.
+	 *
+	 * @param s
+	 * @return operator or <code>null</code>
+	 */
+	public static Operator getParsableOperator(String s) {
+		return ParsableOperators.BY_SYMBOL.get( s );
+	}
+
+	// enum constants may not access static fields of their own type during initialization , hence the holder class
+	private static final class ParsableOperators
+	{
+		private static final Map<String,Operator> BY_SYMBOL = new HashMap<>();
+
+		static
 		{
-			if ( op.canBeParsed() && s.equals( op.symbol ) ) {
-				operator.add( op );
+			for ( Operator op : values() )
+			{
+				if ( op.canBeParsed() && BY_SYMBOL.put( op.symbol , op ) != null ) {
+					throw new RuntimeException("Internal error, more than one parsable operator for symbol '"+op.symbol+"'");
+				}
 			}
 		}
-		return operator;
 	}
 }
@@ -1,9 +1,16 @@
 package de.codesourcery.j6502.assembler.parser;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 import de.codesourcery.j6502.assembler.exceptions.ParseException;
 import de.codesourcery.j6502.assembler.parser.ExpressionToken.ExpressionTokenType;
@@ -13,6 +20,7 @@ import de.codesourcery.j6502.assembler.parser.ast.AbsoluteOperand;
 import de.codesourcery.j6502.assembler.parser.ast.CommentNode;
 import de.codesourcery.j6502.assembler.parser.ast.EquNode;
 import de.codesourcery.j6502.assembler.parser.ast.IASTNode;
+import de.codesourcery.j6502.assembler.parser.ast.IValueNode;
 import de.codesourcery.j6502.assembler.parser.ast.IdentifierReferenceNode;
 import de.codesourcery.j6502.assembler.parser.ast.ImmediateOperand;
 import de.codesourcery.j6502.assembler.parser.ast.IncludeBinaryNode;
@@ -27,16 +35,34 @@ import de.codesourcery.j6502.assembler.parser.ast.NumberLiteral;
 import de.codesourcery.j6502.assembler.parser.ast.NumberLiteral.Notation;
 import de.codesourcery.j6502.assembler.parser.ast.OperatorNode;
 import de.codesourcery.j6502.assembler.parser.ast.RegisterReference;
+import de.codesourcery.j6502.assembler.parser.ast.RepeatNode;
 import de.codesourcery.j6502.assembler.parser.ast.SetOriginNode;
 import de.codesourcery.j6502.assembler.parser.ast.Statement;
 import de.codesourcery.j6502.assembler.parser.ast.StringLiteralNode;
 import de.codesourcery.j6502.utils.ITextRegion;
 import de.codesourcery.j6502.utils.TextRegion;
 
+/**
+ * Turns tokens into an AST.
+ *
+ * Macros (<code>.macro name param1 , param2 ... .endm</code>) and repeat blocks (<code>.rept count [, counter] ... .endr</code>)
+ * get expanded right here , the AST only contains the resulting statements. Their bodies are parsed once into a template
+ * that gets copied for each expansion , replacing parameters (or the counter) with the argument expressions. Labels and
+ * EQUs defined inside a body get renamed for each expansion (<code>loop</code> becomes <code>loop__&lt;n&gt;</code> , user-defined
+ * labels must not end with this suffix) and
+ * are local to the global label in scope where the block is expanded , so a block may be expanded any number of times.
+ * Macros need to be defined before they are used , repeat counts need to be constant (number literals or EQUs of those).
+ */
 public class Parser
 {
-    private static final String[] META_COMMANDS = {"incbin" , "byte" , "word" , "equ" };
-    
+    private static final String[] META_COMMANDS = {"incbin" , "byte" , "word" , "equ" , "macro" , "endm" , "rept" , "endr" };
+
+    // upper limit for .rept counts , anything larger would not fit into memory anyway
+    private static final int MAX_REPEAT_COUNT = 65536;
+
+    // suffix of labels renamed by macro/.rept expansions , not allowed in labels written by the user so that they cannot collide
+    private static final Pattern EXPANSION_SUFFIX = Pattern.compile( "__[0-9]+$" );
+
     private final Lexer lexer;
 
     private final AST ast = new AST();
@@ -45,25 +71,104 @@ public class Parser
     private LabelNode previousGlobalLabel = null;
     private ASTNode currentNode = null;
 
+    private final Map<String,MacroDefinition> macros = new HashMap<>();
+    // values of EQUs that only depend on number literals , used to evaluate .rept counts
+    private final Map<Identifier,Integer> constants = new HashMap<>();
+    // number of .macro/.rept blocks the current line is part of
+    private int blockDepth;
+    private int expansionCount;
+    // statements generated by a macro invocation or .rept block on the current line
+    private List<IASTNode> expansion = Collections.emptyList();
+
+    private static final class MacroDefinition
+    {
+        public final String name;
+        public final List<Identifier> parameters;
+        public final List<IASTNode> body;
+
+        public MacroDefinition(String name, List<Identifier> parameters, List<IASTNode> body)
+        {
+            this.name = name;
+            this.parameters = parameters;
+            this.body = body;
+        }
+    }
+
     public Parser(Lexer lexer) {
         this.lexer = lexer;
     }
 
+    /**
+     * Creates a parser for a snippet of a larger source.
+     *
+     * @param lexer
+     * @param previousGlobalLabel global label in scope at the start of the snippet (parent of local labels) , may be <code>null</code>
+     */
+    public Parser(Lexer lexer,LabelNode previousGlobalLabel) {
+        this.lexer = lexer;
+        this.previousGlobalLabel = previousGlobalLabel;
+    }
+
+    /**
+     * Returns the global label that is in scope after everything parsed so far.
+     *
+     * @return label or <code>null</code>
+     */
+    public LabelNode getPreviousGlobalLabel() {
+        return previousGlobalLabel;
+    }
+
     public AST parse()
     {
-        while ( ! lexer.peek( TokenType.EOF ) )
+        parseStatements( null , ast::addChild );
+        lexer.next(TokenType.EOF);
+        return ast;
+    }
+
+    /**
+     * Parses statements until EOF or the end of the current block.
+     *
+     * @param terminator directive that ends the block (without the leading dot) , <code>null</code> to parse until EOF
+     * @param sink
+     */
+    private void parseStatements(String terminator,Consumer<IASTNode> sink)
+    {
+        while ( true )
         {
             // skip newlines
             while ( lexer.peek(TokenType.EOL ) ) {
                 lexer.next();
             }
 
-            if ( parseStatement() ) {
-                ast.addChild( currentNode );
+            if ( lexer.peek( TokenType.EOF ) )
+            {
+                if ( terminator != null ) {
+                    fail("Missing ."+terminator);
+                }
+                return;
+            }
+
+            if ( terminator != null && lexer.peek( TokenType.DOT ) )
+            {
+                final Token dot = lexer.next();
+                if ( lexer.peek().isCharacters( terminator ) )
+                {
+                    lexer.next();
+                    currentNode = new Statement(); // comments after the terminator are dropped
+                    parseComment();
+                    return;
+                }
+                lexer.push( dot );
+            }
+
+            if ( parseStatement() )
+            {
+                if ( currentNode.hasChildren() ) {
+                    sink.accept( currentNode );
+                }
+                expansion.forEach( sink );
             }
         }
-        lexer.next(TokenType.EOF);
-        return ast;
     }
 
     private void fail(String msg,int offset)
@@ -107,6 +212,7 @@ public class Parser
     private boolean parseStatement()
     {
         labelOnCurrentLine = null;
+        expansion = Collections.emptyList();
 
         currentNode = new Statement();
 
@@ -133,6 +239,14 @@ public class Parser
         final Token insToken = lexer.peek();
         if ( insToken.hasType(TokenType.CHARACTERS ) )
         {
+            final MacroDefinition macro = macros.get( insToken.text );
+            if ( macro != null )
+            {
+                lexer.next();
+                parseMacroInvocation( macro , insToken );
+                return true;
+            }
+
             final Opcode op = Opcode.getOpcode( insToken.text );
             if ( op != null )
             {
@@ -179,10 +293,13 @@ public class Parser
 
         if ( lexer.peek( TokenType.CHARACTERS ) && Identifier.isValidIdentifier( lexer.peek().text ) )
         {
-            if ( localLabelDot != null || Opcode.getOpcode( lexer.peek().text ) == null )
+            if ( localLabelDot != null || ( Opcode.getOpcode( lexer.peek().text ) == null && ! macros.containsKey( lexer.peek().text ) ) )
             {
                 final Token idToken = lexer.next();
-                final Identifier id = new Identifier( idToken.text );
+                if ( EXPANSION_SUFFIX.matcher( idToken.text ).find() ) {
+                    fail("Label names ending with __<number> are reserved for labels generated by .macro/.rept expansions" , idToken.offset );
+                }
+                final Identifier id = Identifier.of( idToken.text );
                 if( localLabelDot != null ) // local label
                 {
                     if ( previousGlobalLabel == null )
@@ -302,15 +419,361 @@ public class Parser
 
                 node.addChild( exprNode );
                 currentNode.addChild( node );
+
+                if ( blockDepth == 0 )
+                {
+                    final Integer value = evaluateConstant( exprNode );
+                    if ( value != null ) {
+                        constants.put( node.getIdentifier() , value );
+                    }
+                }
                 return true;
             }
-            
+
+            if ( lexer.peek().isCharacters("macro") ) // .macro name param1 , param2 , ...
+            {
+                lexer.next();
+                parseMacroDefinition();
+                return true;
+            }
+
+            if ( lexer.peek().isCharacters("rept") ) // .rept count [, counter]
+            {
+                lexer.next();
+                parseRepeat( dot );
+                return true;
+            }
+
+            if ( lexer.peek().isCharacters("endm") || lexer.peek().isCharacters("endr") ) {
+                fail("."+lexer.peek().text+" without matching ."+( lexer.peek().isCharacters("endm") ? "macro" : "rept" ) );
+            }
+
             lexer.push(dot);
         }
 
         return false;
     }
 
+    private void parseMacroDefinition()
+    {
+        if ( blockDepth > 0 ) {
+            fail("Macros cannot be defined inside .macro or .rept blocks");
+        }
+        if ( labelOnCurrentLine != null ) {
+            fail("Labels are not allowed in front of .macro");
+        }
+
+        final Token nameToken = lexer.peek();
+        if ( ! nameToken.hasType( TokenType.CHARACTERS ) || ! Identifier.isValidIdentifier( nameToken.text ) || Opcode.getOpcode( nameToken.text ) != null ) {
+            fail(".macro requires a name");
+        }
+        if ( macros.containsKey( nameToken.text ) ) {
+            fail("Duplicate macro '"+nameToken.text+"'");
+        }
+        lexer.next();
+
+        final List<Identifier> parameters = new ArrayList<>();
+        while ( lexer.peek( TokenType.CHARACTERS ) )
+        {
+            final Token token = lexer.next();
+            if ( ! Identifier.isValidIdentifier( token.text ) || Opcode.getOpcode( token.text ) != null ) {
+                fail("Not a valid parameter name: "+token.text , token.offset );
+            }
+            final Identifier parameter = Identifier.of( token.text );
+            if ( parameters.contains( parameter ) ) {
+                fail("Duplicate parameter '"+token.text+"'" , token.offset );
+            }
+            parameters.add( parameter );
+            if ( ! lexer.peek( TokenType.COMMA ) ) {
+                break;
+            }
+            lexer.next();
+        }
+        parseEndOfLine();
+
+        final List<IASTNode> body = parseBlock( "endm" , Identifier.of( nameToken.text ) );
+        for ( Identifier symbol : definedSymbols( body ) )
+        {
+            if ( parameters.contains( symbol ) ) {
+                fail("Macro '"+nameToken.text+"' defines a label with the same name as parameter '"+symbol+"'" , nameToken.offset );
+            }
+        }
+        macros.put( nameToken.text , new MacroDefinition( nameToken.text , parameters , body ) );
+    }
+
+    private void parseMacroInvocation(MacroDefinition macro,Token nameToken)
+    {
+        final List<IASTNode> arguments = new ArrayList<>();
+        if ( ! ( lexer.peek( TokenType.EOF ) || lexer.peek( TokenType.EOL ) || lexer.peek( TokenType.SEMICOLON ) ) )
+        {
+            do
+            {
+                final IASTNode argument = parseExpression();
+                if ( argument == null ) {
+                    fail("Expected a macro argument");
+                }
+                arguments.add( argument );
+                if ( ! lexer.peek( TokenType.COMMA ) ) {
+                    break;
+                }
+                lexer.next(); // consume comma
+            } while ( true );
+        }
+
+        if ( arguments.size() != macro.parameters.size() ) {
+            fail("Macro '"+macro.name+"' expects "+macro.parameters.size()+" arguments but got "+arguments.size() , nameToken.offset );
+        }
+
+        final Map<Identifier,IASTNode> bindings = new HashMap<>();
+        for ( int i = 0 ; i < arguments.size() ; i++ ) {
+            bindings.put( macro.parameters.get(i) , arguments.get(i) );
+        }
+        expansion = new ArrayList<>();
+        instantiate( macro.body , bindings , previousGlobalLabel , expansion );
+    }
+
+    private void parseRepeat(Token dot)
+    {
+        final IASTNode count = parseExpression();
+        if ( count == null ) {
+            fail(".rept requires a count");
+        }
+
+        Identifier counter = null;
+        if ( lexer.peek( TokenType.COMMA ) )
+        {
+            lexer.next();
+            final Token token = lexer.peek();
+            if ( ! token.hasType( TokenType.CHARACTERS ) || ! Identifier.isValidIdentifier( token.text ) || Opcode.getOpcode( token.text ) != null ) {
+                fail(".rept requires a valid counter name after the comma");
+            }
+            counter = Identifier.of( lexer.next().text );
+        }
+        final RepeatNode node = new RepeatNode( counter , new TextRegion( dot.offset , lexer.currentOffset() - dot.offset ) );
+        parseEndOfLine();
+
+        node.addChild( count );
+        node.addChildren( parseBlock( "endr" , Identifier.of( "rept" ) ) );
+
+        if ( blockDepth > 0 ) {
+            // count may depend on macro parameters or an enclosing counter , expanded along with the enclosing block
+            currentNode.addChild( node );
+        } else {
+            expansion = new ArrayList<>();
+            repeat( node , previousGlobalLabel , expansion );
+        }
+    }
+
+    private void parseEndOfLine()
+    {
+        parseComment();
+        if ( ! ( lexer.peek( TokenType.EOL ) || lexer.peek( TokenType.EOF ) ) ) {
+            fail("Syntax error");
+        }
+    }
+
+    /**
+     * Parses the body of a .macro or .rept block.
+     *
+     * @param terminator
+     * @param scope name of the global label that labels inside the body get parsed relative to
+     * @return statements of the body
+     */
+    private List<IASTNode> parseBlock(String terminator,Identifier scope)
+    {
+        final ASTNode savedNode = currentNode;
+        final LabelNode savedLabel = labelOnCurrentLine;
+        final LabelNode savedGlobalLabel = previousGlobalLabel;
+
+        final List<IASTNode> body = new ArrayList<>();
+        previousGlobalLabel = new LabelNode( scope , null );
+        blockDepth++;
+        try {
+            parseStatements( terminator , body::add );
+        }
+        finally
+        {
+            blockDepth--;
+            currentNode = savedNode;
+            labelOnCurrentLine = savedLabel;
+            previousGlobalLabel = savedGlobalLabel;
+            expansion = Collections.emptyList();
+        }
+        return body;
+    }
+
+    /**
+     * Expands a block template.
+     *
+     * @param statements statements of the template
+     * @param bindings expressions to replace identifiers with
+     * @param scope global label that labels defined by the template become local labels of ,
+     * <code>null</code> if they should become global labels
+     * @param result
+     */
+    private void instantiate(List<IASTNode> statements,Map<Identifier,IASTNode> bindings,LabelNode scope,List<IASTNode> result)
+    {
+        // labels and EQUs get unique names for each expansion
+        final Set<Identifier> symbols = definedSymbols( statements );
+        final Map<Identifier,IASTNode> values;
+        if ( symbols.isEmpty() ) {
+            values = bindings;
+        }
+        else
+        {
+            values = new HashMap<>( bindings );
+            expansionCount++;
+            for ( Identifier symbol : symbols ) {
+                values.put( symbol , new IdentifierReferenceNode( Identifier.of( symbol.value+"__"+expansionCount ) , null ) );
+            }
+        }
+
+        for ( IASTNode statement : statements )
+        {
+            final IASTNode copy = copy( statement , values , scope );
+            RepeatNode repeat = null;
+            if ( blockDepth == 0 )
+            {
+                for ( IASTNode child : copy.getChildren() )
+                {
+                    if ( child instanceof RepeatNode ) {
+                        repeat = (RepeatNode) child;
+                    }
+                }
+                if ( repeat != null ) {
+                    copy.removeChild( repeat );
+                }
+            }
+            if ( copy.hasChildren() ) {
+                result.add( copy );
+            }
+            if ( repeat != null ) {
+                repeat( repeat , scope , result );
+            }
+        }
+    }
+
+    private void repeat(RepeatNode node,LabelNode scope,List<IASTNode> result)
+    {
+        final Integer count = evaluateConstant( node.getCount() );
+        if ( count == null ) {
+            throw new ParseException(".rept count needs to be a constant expression" , node.getCount().getTextRegionIncludingChildren() );
+        }
+        if ( count < 0 || count > MAX_REPEAT_COUNT ) {
+            throw new ParseException(".rept count out of range: "+count , node.getCount().getTextRegionIncludingChildren() );
+        }
+
+        final List<IASTNode> body = node.getBody();
+        for ( int i = 0 ; i < count ; i++ )
+        {
+            final Map<Identifier,IASTNode> bindings;
+            if ( node.counter != null ) {
+                bindings = Collections.singletonMap( node.counter , new NumberLiteral( i , Notation.DECIMAL , node.getTextRegion() ) );
+            } else {
+                bindings = Collections.emptyMap();
+            }
+            instantiate( body , bindings , scope , result );
+        }
+    }
+
+    /**
+     * Returns the labels and EQUs defined by some statements (not including nested blocks).
+     */
+    private static Set<Identifier> definedSymbols(List<IASTNode> statements)
+    {
+        final Set<Identifier> result = new LinkedHashSet<>();
+        for ( IASTNode statement : statements )
+        {
+            for ( IASTNode child : statement.getChildren() )
+            {
+                if ( child instanceof LabelNode ) {
+                    result.add( ((LabelNode) child).identifier );
+                } else if ( child instanceof EquNode ) {
+                    result.add( ((EquNode) child).getIdentifier() );
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deep-copies a node , replacing identifiers.
+     *
+     * @param node
+     * @param values replacements for identifier references , labels and EQUs get renamed to the identifier they map to
+     * @param scope global label that copied labels become local labels of , <code>null</code> to make them global labels
+     * @return
+     */
+    private static IASTNode copy(IASTNode node,Map<Identifier,IASTNode> values,LabelNode scope)
+    {
+        if ( node instanceof IdentifierReferenceNode )
+        {
+            final IASTNode value = values.get( ((IdentifierReferenceNode) node).identifier );
+            if ( value != null ) {
+                return value.createCopy( true );
+            }
+            return node.createCopy( false );
+        }
+
+        if ( node instanceof LabelNode )
+        {
+            final LabelNode label = (LabelNode) node;
+            final Identifier identifier = rename( label.identifier , values );
+            return scope == null ? new LabelNode( identifier , label.getTextRegion() ) : new LabelNode( identifier , scope , label.getTextRegion() );
+        }
+
+        final IASTNode result;
+        if ( node instanceof EquNode ) {
+            result = new EquNode( rename( ((EquNode) node).getIdentifier() , values ) , node.getTextRegion() );
+        } else {
+            result = node.createCopy( false );
+        }
+        for ( IASTNode child : node.getChildren() ) {
+            result.addChild( copy( child , values , scope ) );
+        }
+        return result;
+    }
+
+    private static Identifier rename(Identifier identifier,Map<Identifier,IASTNode> values)
+    {
+        final IASTNode value = values.get( identifier );
+        return value instanceof IdentifierReferenceNode ? ((IdentifierReferenceNode) value).identifier : identifier;
+    }
+
+    /**
+     * Evaluates an expression that only consists of number literals and EQUs defined earlier that have a constant value.
+     *
+     * @param expression
+     * @return value or <code>null</code> if the value cannot be determined while parsing
+     */
+    private Integer evaluateConstant(IASTNode expression)
+    {
+        final Map<Identifier,IASTNode> values = new HashMap<>();
+        final boolean[] isConstant = { true };
+        expression.visitParentFirst( node ->
+        {
+            if ( node instanceof IdentifierReferenceNode )
+            {
+                final Identifier identifier = ((IdentifierReferenceNode) node).identifier;
+                final Integer value = constants.get( identifier );
+                if ( value == null ) {
+                    isConstant[0] = false;
+                } else {
+                    values.put( identifier , new NumberLiteral( value , Notation.DECIMAL , node.getTextRegion() ) );
+                }
+            }
+        });
+        if ( ! isConstant[0] ) {
+            return null;
+        }
+
+        final IASTNode copy = values.isEmpty() ? expression : copy( expression , values , null );
+        if ( ! ( copy instanceof IValueNode ) || ! ((IValueNode) copy).isValueAvailable() ) {
+            return null;
+        }
+        return ((IValueNode) copy).evaluate();
+    }
+
     private StringLiteralNode parseString() 
     {
         if ( ! lexer.peek( TokenType.DOUBLE_QUOTE ) )
@@ -488,14 +951,9 @@ public class Parser
 
             if ( lexer.peek( TokenType.OPERATOR ) )
             {
-                final List<Operator> operators = Operator.getMatchingOperators( lexer.peek().text );
-                if ( operators.size() == 1 )
-                {
-                    final OperatorNode opNode = new OperatorNode( operators.get(0), lexer.next().region() );
-                    yard.pushOperator( new ExpressionToken( ExpressionTokenType.OPERATOR, opNode ) );
-                    continue;
-                }
-                throw new RuntimeException("Internal error, lexer returned token that lex'ed to "+operators.size()+" operators ? "+lexer.peek());
+                final OperatorNode opNode = new OperatorNode( lexer.peek().operator() , lexer.next().region() );
+                yard.pushOperator( new ExpressionToken( ExpressionTokenType.OPERATOR, opNode ) );
+                continue;
             }
 
             if ( lexer.peek( TokenType.PARENS_OPEN ) )
@@ -535,7 +993,7 @@ public class Parser
             final Token tok = lexer.peek();
             if ( Identifier.isValidIdentifier( tok.text ) ) {
                 lexer.next();
-                return new IdentifierReferenceNode( new Identifier( tok.text ) , tok.region() );
+                return new IdentifierReferenceNode( Identifier.of( tok.text ) , tok.region() );
             }
         }
         return null;
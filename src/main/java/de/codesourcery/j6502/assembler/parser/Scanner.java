@@ -13,6 +13,10 @@ public final class Scanner {
 		return index >= input.length();
 	}
 
+	String input() {
+		return input;
+	}
+
 	public int currentOffset() {
 		return index;
 	}
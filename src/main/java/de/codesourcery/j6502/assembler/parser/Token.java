@@ -1,7 +1,5 @@
 package de.codesourcery.j6502.assembler.parser;
 
-import java.util.List;
-
 import de.codesourcery.j6502.utils.ITextRegion;
 import de.codesourcery.j6502.utils.TextRegion;
 
@@ -47,10 +45,10 @@ public final class Token {
 		if ( ! hasType(TokenType.OPERATOR ) ) {
 			throw new UnsupportedOperationException("You may not invoke operator() on a token of type "+type+",offending token: "+this);
 		}
-		final List<Operator> operators = Operator.getMatchingOperators( this.text );
-		if ( operators.size() != 1 ) {
-			throw new RuntimeException("Internal error, expected exactly one operator for token "+this+" but got "+operators);
+		final Operator op = Operator.getParsableOperator( this.text );
+		if ( op == null ) {
+			throw new RuntimeException("Internal error, expected exactly one operator for token "+this);
 		}
-		return operators.get(0);
+		return op;
 	}
 }
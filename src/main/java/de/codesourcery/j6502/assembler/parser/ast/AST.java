@@ -13,4 +13,9 @@ public class AST extends ASTNode {
 	{
 		return StringUtils.join( children , "\n" );
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new AST();
+	}
 }
@@ -142,4 +142,25 @@ public abstract class ASTNode implements IASTNode {
 	public void setParent(IASTNode parent) {
 		this.parent = parent;
 	}
+
+	@Override
+	public final IASTNode createCopy(boolean deep)
+	{
+		final ASTNode copy = copyNode();
+		copy.textRegion = textRegion == null ? null : textRegion.createCopy();
+		if ( deep )
+		{
+			for ( final IASTNode child : children ) {
+				copy.addChild( child.createCopy( true ) );
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Returns a new node of the same type and with the same properties as this one , but without children.
+	 *
+	 * @return
+	 */
+	protected abstract ASTNode copyNode();
 }
\ No newline at end of file
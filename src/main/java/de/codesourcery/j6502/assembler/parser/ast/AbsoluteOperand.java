@@ -11,4 +11,9 @@ public class AbsoluteOperand extends ASTNode {
 	public String toString() {
 		return child(0).toString();
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new AbsoluteOperand();
+	}
 }
@@ -15,4 +15,9 @@ public class CommentNode extends ASTNode {
 	public String toString() {
 		return "; "+comment;
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new CommentNode( comment , getTextRegion() );
+	}
 }
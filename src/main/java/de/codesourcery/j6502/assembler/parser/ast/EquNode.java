@@ -5,6 +5,7 @@ import org.apache.commons.lang.Validate;
 import de.codesourcery.j6502.assembler.ICompilationContext;
 import de.codesourcery.j6502.assembler.exceptions.DuplicateSymbolException;
 import de.codesourcery.j6502.assembler.exceptions.ParseException;
+import de.codesourcery.j6502.assembler.exceptions.ValueUnavailableException;
 import de.codesourcery.j6502.assembler.parser.Equ;
 import de.codesourcery.j6502.assembler.parser.Identifier;
 import de.codesourcery.j6502.utils.ITextRegion;
@@ -27,24 +28,38 @@ public class EquNode extends ASTNode implements ICompilationContextAware
 	@Override
 	public void visit(ICompilationContext context)
 	{
+		final Equ equ;
 		if ( context.getPassNo() == 0 )
 		{
+			equ = new Equ( identifier );
 			try
 			{
-				context.getSymbolTable().defineSymbol( new Equ( identifier ) );
+				context.getSymbolTable().defineSymbol( equ );
 			} catch(DuplicateSymbolException e) {
 				throw new ParseException( e.getMessage() , getTextRegion() ,e );
 			}
+		} else {
+			equ = (Equ) context.getSymbolTable().getSymbol( identifier , null );
 		}
-		else
+
+		final IValueNode child = (IValueNode) child(0);
+		if ( ! child.isValueAvailable() )
 		{
-			final Equ equ = (Equ) context.getSymbolTable().getSymbol( identifier , null );
-			final int value = ((IValueNode) child(0)).getWordValue();
-			equ.setValue( value );
+			// may depend on a symbol that has not been assigned yet , will be evaluated again once it is
+			if ( context.isFinalPass() ) {
+				throw new ValueUnavailableException( child );
+			}
+			return;
 		}
+		equ.setValue( (int) child.getWordValue() );
 	}
 
 	@Override
 	public void passFinished(ICompilationContext context) {
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new EquNode( identifier , getTextRegion() );
+	}
 }
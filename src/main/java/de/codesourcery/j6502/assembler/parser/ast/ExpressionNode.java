@@ -32,4 +32,9 @@ public class ExpressionNode extends ASTNode implements IValueNode {
 	public boolean isValueAvailable() {
 		return hasChildren();
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new ExpressionNode( getTextRegion() );
+	}
 }
\ No newline at end of file
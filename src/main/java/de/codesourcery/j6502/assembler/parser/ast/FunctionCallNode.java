@@ -16,4 +16,9 @@ public class FunctionCallNode extends ASTNode
 		Validate.notNull(identifier, "identifier must not be NULL");
 		this.identifier = identifier;
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new FunctionCallNode( identifier , getTextRegion() );
+	}
 }
@@ -45,4 +45,15 @@ public interface IASTNode extends Iterable<IASTNode> {
 
 	public void visitParentFirst(Consumer<IASTNode> visitor);
 
+	/**
+	 * Creates a copy of this node.
+	 *
+	 * Copies do not share state with the original , symbols etc. get resolved again
+	 * when a copy is assembled.
+	 *
+	 * @param deep whether to copy all child nodes as well , shallow copies have no children
+	 * @return
+	 */
+	public IASTNode createCopy(boolean deep);
+
 }
\ No newline at end of file
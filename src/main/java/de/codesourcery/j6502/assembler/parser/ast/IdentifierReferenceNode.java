@@ -89,12 +89,28 @@ public class IdentifierReferenceNode extends ASTNode implements IValueNode , ICo
 		return findPreviousGlobalLabel(parent);
 	}
 
+	/**
+	 * Returns the symbol this identifier got resolved to.
+	 *
+	 * @return symbol or <code>null</code> if the identifier has not been resolved (yet)
+	 */
+	public ISymbol<? extends Number> getSymbol() {
+		return symbol;
+	}
+
+	/**
+	 * Forgets the symbol this identifier got resolved to , required before
+	 * assembling an AST a second time.
+	 */
+	public void clearSymbol() {
+		this.symbol = null;
+	}
+
 	@Override
 	public void visit(ICompilationContext context)
 	{
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public void passFinished(ICompilationContext context)
 	{
@@ -120,18 +136,45 @@ public class IdentifierReferenceNode extends ASTNode implements IValueNode , ICo
 		if ( symbol != null )
 		{
 			context.debug( this , "Resolved identifier to "+symbol);
-			switch( symbol.getType() )
-			{
-				case EQU:
-				case LABEL:
-					context.debug( this , "Identifier "+this.identifier+" resolves to: "+symbol);
-					this.symbol = (ISymbol<? extends Number>) symbol;
-					return;
-				default:
-					throw new RuntimeException("Internal error, don't know how to get value from "+symbol);
-			}
+			setSymbol( symbol );
 		} else {
 			context.debug( this , "Failed to resolve identifier "+this.identifier);
 		}
 	}
+
+	/**
+	 * Resolves this identifier right away if it refers to a global symbol that is already defined.
+	 *
+	 * Global symbols take precedence over local labels , so the outcome is the same as when resolving
+	 * the identifier after all symbols have been defined.
+	 *
+	 * @param context
+	 * @return whether this identifier is resolved
+	 */
+	public boolean resolveIfDefinedGlobally(ICompilationContext context)
+	{
+		if ( this.symbol == null && context.getSymbolTable().isDefined( identifier , null ) ) {
+			setSymbol( context.getSymbolTable().getSymbol( identifier , null ) );
+		}
+		return this.symbol != null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void setSymbol(ISymbol<?> symbol)
+	{
+		switch( symbol.getType() )
+		{
+			case EQU:
+			case LABEL:
+				this.symbol = (ISymbol<? extends Number>) symbol;
+				return;
+			default:
+				throw new RuntimeException("Internal error, don't know how to get value from "+symbol);
+		}
+	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new IdentifierReferenceNode( identifier , getTextRegion() );
+	}
 }
\ No newline at end of file
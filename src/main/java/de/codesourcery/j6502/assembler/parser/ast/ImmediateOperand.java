@@ -11,4 +11,9 @@ public class ImmediateOperand extends ASTNode {
 	public String toString() {
 		return "#"+child(0).toString();
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new ImmediateOperand();
+	}
 }
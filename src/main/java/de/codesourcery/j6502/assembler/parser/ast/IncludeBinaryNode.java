@@ -41,4 +41,9 @@ public class IncludeBinaryNode extends ASTNode implements ICompilationContextAwa
 	@Override
 	public void passFinished(ICompilationContext context) {
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new IncludeBinaryNode( path , getTextRegion() );
+	}
 }
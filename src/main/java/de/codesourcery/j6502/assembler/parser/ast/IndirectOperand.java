@@ -7,4 +7,9 @@ public class IndirectOperand extends ASTNode {
 	public IndirectOperand() {
 		super(null);
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new IndirectOperand();
+	}
 }
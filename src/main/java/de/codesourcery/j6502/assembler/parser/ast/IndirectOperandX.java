@@ -4,4 +4,9 @@ public class IndirectOperandX extends ASTNode {
 	public IndirectOperandX() {
 		super(null);
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new IndirectOperandX();
+	}
 }
@@ -4,4 +4,9 @@ public class IndirectOperandY extends ASTNode {
 	public IndirectOperandY() {
 		super(null);
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new IndirectOperandY();
+	}
 }
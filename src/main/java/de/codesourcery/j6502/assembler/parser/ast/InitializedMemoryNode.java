@@ -1,7 +1,6 @@
 package de.codesourcery.j6502.assembler.parser.ast;
 
 import de.codesourcery.j6502.assembler.ICompilationContext;
-import de.codesourcery.j6502.assembler.exceptions.ValueUnavailableException;
 import de.codesourcery.j6502.utils.CharsetConverter;
 import de.codesourcery.j6502.utils.ITextRegion;
 
@@ -37,23 +36,17 @@ public class InitializedMemoryNode extends ASTNode implements ICompilationContex
 		    } 
 		    else if ( child instanceof IValueNode)
 			{
-				final IValueNode value = (IValueNode) child;
-				if ( value.isValueAvailable() ) {
-					switch( type )
-					{
-						case BYTES:
-							context.writeByte( value.getByteValue() );
-							break;
-						case WORDS:
-						    context.writeWord( value.getWordValue() );
-						    break;
-						default:
-							throw new RuntimeException("Internal error,unhandled type "+type);
-					}
-				}
-				else if ( context.getPassNo() > 0 )
+				// context substitutes a placeholder for values that are not available yet
+				switch( type )
 				{
-					throw new ValueUnavailableException( value );
+					case BYTES:
+						context.writeByte( child );
+						break;
+					case WORDS:
+						context.writeWord( child );
+						break;
+					default:
+						throw new RuntimeException("Internal error,unhandled type "+type);
 				}
 			} else {
 			    throw new RuntimeException("Internal error,unhandled child node: "+child); 
@@ -64,4 +57,9 @@ public class InitializedMemoryNode extends ASTNode implements ICompilationContex
 	@Override
 	public void passFinished(ICompilationContext context) {
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new InitializedMemoryNode( getTextRegion() , type );
+	}
 }
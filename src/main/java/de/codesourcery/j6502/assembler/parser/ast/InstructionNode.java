@@ -129,4 +129,9 @@ public class InstructionNode extends ASTNode implements ICompilationContextAware
 	@Override
 	public void passFinished(ICompilationContext context) {
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new InstructionNode( opcode , getTextRegion() );
+	}
 }
\ No newline at end of file
@@ -69,4 +69,9 @@ public class LabelNode extends ASTNode implements ICompilationContextAware
 	@Override
 	public void passFinished(ICompilationContext context) {
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new LabelNode( identifier , parentIdentifier , getTextRegion() );
+	}
 }
\ No newline at end of file
@@ -92,4 +92,9 @@ public class NumberLiteral extends ASTNode implements IValueNode
 	public int evaluate() throws IllegalStateException {
 		return value & 0xffff;
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new NumberLiteral( value , notation , getTextRegion() );
+	}
 }
\ No newline at end of file
@@ -92,4 +92,8 @@ public class OperatorNode extends ASTNode implements IValueNode
 		}
 	}
 
+	@Override
+	protected ASTNode copyNode() {
+		return new OperatorNode( operator , getTextRegion() );
+	}
 }
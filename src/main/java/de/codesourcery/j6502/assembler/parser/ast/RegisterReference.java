@@ -16,4 +16,9 @@ public class RegisterReference extends ASTNode {
 	public String toString() {
 		return register.name();
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new RegisterReference( register , getTextRegion() );
+	}
 }
@@ -0,0 +1,42 @@
+package de.codesourcery.j6502.assembler.parser.ast;
+
+import java.util.List;
+
+import de.codesourcery.j6502.assembler.parser.Identifier;
+import de.codesourcery.j6502.utils.ITextRegion;
+
+/**
+ * A <code>.rept</code> block nested inside a macro or another <code>.rept</code> block.
+ *
+ * The first child is the repeat count , the remaining children are the statements to repeat. These
+ * blocks only exist in macro/repeat templates , they get expanded by the parser so ASTs handed to the assembler
+ * never contain this node.
+ */
+public class RepeatNode extends ASTNode
+{
+	/** Identifier bound to the number of the current repetition (starting at zero) , may be <code>null</code>. */
+	public final Identifier counter;
+
+	public RepeatNode(Identifier counter,ITextRegion region) {
+		super(region);
+		this.counter = counter;
+	}
+
+	public IASTNode getCount() {
+		return child(0);
+	}
+
+	public List<IASTNode> getBody() {
+		return children.subList( 1 , children.size() );
+	}
+
+	@Override
+	public String toString() {
+		return ".rept "+getCount()+( counter != null ? " , "+counter : "" );
+	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new RepeatNode( counter , getTextRegion() );
+	}
+}
@@ -18,7 +18,7 @@ public class SetOriginNode extends ASTNode implements ICompilationContextAware {
 		if ( child.isValueAvailable() ) {
 			context.debug( this , "Setting origin to $"+HexDump.toHexBigEndian( child.getWordValue() ) );
 			context.setOrigin( child.getWordValue() );
-		} else if ( context.getPassNo() > 0 ) {
+		} else if ( context.isFinalPass() ) {
 			throw new ValueUnavailableException( child );
 		}
 	}
@@ -26,4 +26,9 @@ public class SetOriginNode extends ASTNode implements ICompilationContextAware {
 	@Override
 	public void passFinished(ICompilationContext context) {
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new SetOriginNode( getTextRegion() );
+	}
 }
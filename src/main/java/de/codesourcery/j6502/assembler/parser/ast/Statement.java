@@ -13,4 +13,9 @@ public class Statement extends ASTNode {
 	{
 		return StringUtils.join( children , " " );
 	}
+
+	@Override
+	protected ASTNode copyNode() {
+		return new Statement();
+	}
 }
@@ -10,4 +10,9 @@ public class StringLiteralNode extends ASTNode
         super(region);
         this.value=value;
     }
+
+    @Override
+    protected ASTNode copyNode() {
+        return new StringLiteralNode( value , getTextRegion() );
+    }
 }
\ No newline at end of file
@@ -7,8 +7,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 
-import org.apache.commons.lang.StringUtils;
-
 import de.codesourcery.j6502.emulator.AddressRange;
 import de.codesourcery.j6502.emulator.CPU;
 import de.codesourcery.j6502.emulator.CPUImpl;
@@ -50,6 +48,9 @@ public class Disassembler
 		public final String arguments;
 		public final String comment;
 
+		// cached result of getAsString()
+		private String asString;
+
 		public Line(short address,String instruction,String comment)
 		{
 			this.address = address;
@@ -74,17 +75,33 @@ public class Disassembler
 
 		public String getAsString()
 		{
-			String adrCol = EMPTY_STRING;
-			final String insCol = instruction;
-			final String argsCol = arguments;
-			final String commentCol = comment;
+			if ( asString == null ) {
+				asString = format();
+			}
+			return asString;
+		}
+
+		private String format()
+		{
+			final StringBuilder buffer = new StringBuilder( 48 );
 			if ( writeAddresses )
 			{
-				adrCol = HexDump.toHexBigEndian( address )+":  ";
+				HexDump.appendHex16( buffer , address );
+				buffer.append(":  ");
 			}
-			final String paddedArgs = StringUtils.rightPad( argsCol , 14 );
-			return (adrCol+StringUtils.rightPad(insCol,6)+" "+paddedArgs+commentCol).trim();
+			pad( buffer.append( instruction ) , buffer.length() - instruction.length() + 6 ).append(' ');
+			final int argsStart = buffer.length();
+			pad( buffer.append( arguments ) , argsStart + 14 ).append( comment );
+			return buffer.toString().trim();
+		}
+	}
+
+	private static StringBuilder pad(StringBuilder buffer,int length)
+	{
+		while ( buffer.length() < length ) {
+			buffer.append(' ');
 		}
+		return buffer;
 	}
 
 	public Disassembler setAnnotate(boolean annotate) {
@@ -0,0 +1,168 @@
+package de.codesourcery.j6502.disassembler;
+
+import java.nio.CharBuffer;
+
+import de.codesourcery.j6502.disassembler.OpcodeTable.Descriptor;
+import de.codesourcery.j6502.emulator.IMemoryRegion;
+import de.codesourcery.j6502.utils.HexDump;
+
+/**
+ * Disassembles single instructions into caller-supplied buffers without allocating any objects.
+ *
+ * The output is the same as the text of a {@link Disassembler.Line} without address and annotations ,
+ * for example <code>LDA    ($fb) , Y</code>. Meant for decoding large amounts of instructions ,
+ * like instruction traces.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class FastDisassembler
+{
+	/** Maximum number of characters a single instruction is printed with. */
+	public static final int MAX_CHARS = 16;
+
+	// column the operand starts at , same as in Disassembler.Line
+	private static final int OPERAND_COLUMN = 7;
+
+	private final char[] buffer = new char[ MAX_CHARS ];
+
+	/**
+	 * Disassembles an instruction.
+	 *
+	 * @param pc address of the instruction , used to print branch targets
+	 * @param opcode
+	 * @param operand1 first byte after the opcode (ignored if the instruction has no operand)
+	 * @param operand2 second byte after the opcode (ignored if the instruction has less than two operand bytes)
+	 * @param out
+	 * @return length of the instruction in bytes
+	 */
+	public int disassemble(int pc,int opcode,int operand1,int operand2,StringBuilder out)
+	{
+		out.append( buffer , 0 , disassemble( pc , opcode , operand1 , operand2 , buffer , 0 ) );
+		return OpcodeTable.get( opcode ).length;
+	}
+
+	/**
+	 * Disassembles an instruction.
+	 *
+	 * @param pc address of the instruction , used to print branch targets
+	 * @param opcode
+	 * @param operand1 first byte after the opcode (ignored if the instruction has no operand)
+	 * @param operand2 second byte after the opcode (ignored if the instruction has less than two operand bytes)
+	 * @param out buffer with at least {@link #MAX_CHARS} characters remaining
+	 * @return length of the instruction in bytes
+	 */
+	public int disassemble(int pc,int opcode,int operand1,int operand2,CharBuffer out)
+	{
+		out.put( buffer , 0 , disassemble( pc , opcode , operand1 , operand2 , buffer , 0 ) );
+		return OpcodeTable.get( opcode ).length;
+	}
+
+	/**
+	 * Disassembles the instruction at an address.
+	 *
+	 * Reading does not trigger any memory-mapped I/O side-effects.
+	 *
+	 * @param memory
+	 * @param pc
+	 * @param out
+	 * @return length of the instruction in bytes
+	 */
+	public int disassemble(IMemoryRegion memory,int pc,StringBuilder out)
+	{
+		return disassemble( pc ,
+				memory.readByteNoSideEffects( pc & 0xffff ) ,
+				memory.readByteNoSideEffects( ( pc + 1 ) & 0xffff ) ,
+				memory.readByteNoSideEffects( ( pc + 2 ) & 0xffff ) , out );
+	}
+
+	/**
+	 * Disassembles an instruction into a character array.
+	 *
+	 * @param pc address of the instruction , used to print branch targets
+	 * @param opcode
+	 * @param operand1 first byte after the opcode (ignored if the instruction has no operand)
+	 * @param operand2 second byte after the opcode (ignored if the instruction has less than two operand bytes)
+	 * @param buffer array with at least {@link #MAX_CHARS} characters available after <code>offset</code>
+	 * @param offset
+	 * @return offset after the last character written
+	 */
+	public static int disassemble(int pc,int opcode,int operand1,int operand2,char[] buffer,int offset)
+	{
+		final Descriptor descriptor = OpcodeTable.get( opcode );
+
+		final char[] mnemonic = descriptor.mnemonicChars;
+		int ptr = offset;
+		for ( int i = 0 ; i < mnemonic.length ; i++ ) {
+			buffer[ ptr++ ] = mnemonic[i];
+		}
+
+		switch( descriptor.mode )
+		{
+			case IMPLIED:
+			case ACCUMULATOR:
+			case IGNORED_BYTE:
+			case IGNORED_WORD:
+				return ptr;
+			default:
+		}
+
+		while ( ptr - offset < OPERAND_COLUMN ) {
+			buffer[ ptr++ ] = ' ';
+		}
+
+		final int word = ( operand2 & 0xff ) << 8 | ( operand1 & 0xff );
+		switch( descriptor.mode )
+		{
+			case IMMEDIATE:
+				buffer[ ptr++ ] = '#';
+				return putByte( buffer , ptr , operand1 );
+			case ZERO_PAGE:
+				return putByte( buffer , ptr , operand1 );
+			case ZERO_PAGE_X:
+				return put( buffer , putByte( buffer , ptr , operand1 ) , " , X" );
+			case ZERO_PAGE_Y:
+				return put( buffer , putByte( buffer , ptr , operand1 ) , " , Y" );
+			case ABSOLUTE:
+				return putWord( buffer , ptr , word );
+			case ABSOLUTE_X:
+				return put( buffer , putWord( buffer , ptr , word ) , " , X" );
+			case ABSOLUTE_Y:
+				return put( buffer , putWord( buffer , ptr , word ) , " , Y" );
+			case INDIRECT:
+				buffer[ ptr++ ] = '(';
+				ptr = putWord( buffer , ptr , word );
+				buffer[ ptr++ ] = ')';
+				return ptr;
+			case INDEXED_INDIRECT_X:
+				buffer[ ptr++ ] = '(';
+				return put( buffer , putByte( buffer , ptr , operand1 ) , " , X)" );
+			case INDIRECT_INDEXED_Y:
+				buffer[ ptr++ ] = '(';
+				return put( buffer , putByte( buffer , ptr , operand1 ) , ") , Y" );
+			case RELATIVE:
+				return putWord( buffer , ptr , pc + 2 + (byte) operand1 ); // +2 bytes for opcode + branch distance byte
+			default:
+				throw new RuntimeException("Unhandled addressing mode "+descriptor.mode);
+		}
+	}
+
+	private static int putByte(char[] buffer,int offset,int value)
+	{
+		buffer[ offset ] = '$';
+		return HexDump.putHex8( buffer , offset + 1 , value );
+	}
+
+	private static int putWord(char[] buffer,int offset,int value)
+	{
+		buffer[ offset ] = '$';
+		return HexDump.putHex16( buffer , offset + 1 , value );
+	}
+
+	private static int put(char[] buffer,int offset,String s)
+	{
+		s.getChars( 0 , s.length() , buffer , offset );
+		return offset + s.length();
+	}
+}
@@ -0,0 +1,94 @@
+package de.codesourcery.j6502.disassembler;
+
+import de.codesourcery.j6502.emulator.AddressRange;
+import de.codesourcery.j6502.emulator.CPU;
+import de.codesourcery.j6502.emulator.CPUImpl;
+import de.codesourcery.j6502.emulator.IMemoryRegion;
+import de.codesourcery.j6502.emulator.IMemoryRegion.MemoryType;
+import de.codesourcery.j6502.emulator.Memory;
+
+/**
+ * Precomputed description (mnemonic , addressing mode , length , cycles) of all 256 opcodes.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class OpcodeTable
+{
+	/**
+	 * How the operand of an instruction is printed.
+	 */
+	public static enum Mode
+	{
+		IMPLIED(0),
+		ACCUMULATOR(0),
+		IMMEDIATE(1),
+		ZERO_PAGE(1),
+		ZERO_PAGE_X(1),
+		ZERO_PAGE_Y(1),
+		ABSOLUTE(2),
+		ABSOLUTE_X(2),
+		ABSOLUTE_Y(2),
+		INDIRECT(2),
+		INDEXED_INDIRECT_X(1),
+		INDIRECT_INDEXED_Y(1),
+		RELATIVE(1),
+		/** Illegal opcode that reads and ignores one operand byte. */
+		IGNORED_BYTE(1),
+		/** Illegal opcode that reads and ignores an operand word. */
+		IGNORED_WORD(2);
+
+		/** Number of operand bytes. */
+		public final int operandBytes;
+
+		private Mode(int operandBytes) {
+			this.operandBytes = operandBytes;
+		}
+	}
+
+	public static final class Descriptor
+	{
+		public final int opcode;
+		public final String mnemonic;
+		public final Mode mode;
+		/** Number of bytes (opcode + operand). */
+		public final int length;
+		/** Minimum number of cycles. */
+		public final int cycles;
+
+		// mnemonic as characters , saves a call to String#charAt() per character when printing
+		final char[] mnemonicChars;
+
+		private Descriptor(int opcode, String mnemonic, Mode mode, int cycles)
+		{
+			this.opcode = opcode;
+			this.mnemonic = mnemonic;
+			this.mode = mode;
+			this.length = 1 + mode.operandBytes;
+			this.cycles = cycles;
+			this.mnemonicChars = mnemonic.toCharArray();
+		}
+
+		@Override
+		public String toString() {
+			return mnemonic+" ("+mode+" , "+length+" bytes , "+cycles+" cycles)";
+		}
+	}
+
+	private static final Descriptor[] TABLE = new Descriptor[256];
+
+	static
+	{
+		final IMemoryRegion memory = new Memory("dummy", MemoryType.RAM,AddressRange.range(0,65535) );
+		final CPUImpl cpu = new CPUImpl( new CPU( memory ) , memory );
+		for ( int opcode = 0 ; opcode < 256 ; opcode++ ) {
+			TABLE[ opcode ] = new Descriptor( opcode , CPUImpl.getMnemonic( opcode ) , cpu.getAddressingMode( opcode ) , CPUImpl.getMinimumCycles( opcode ) );
+		}
+	}
+
+	private OpcodeTable() {
+	}
+
+	public static Descriptor get(int opcode) {
+		return TABLE[ opcode & 0xff ];
+	}
+}
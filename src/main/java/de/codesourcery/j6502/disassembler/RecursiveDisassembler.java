@@ -0,0 +1,349 @@
+package de.codesourcery.j6502.disassembler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import de.codesourcery.j6502.disassembler.Disassembler.Line;
+import de.codesourcery.j6502.disassembler.OpcodeTable.Descriptor;
+import de.codesourcery.j6502.emulator.IMemoryRegion;
+import de.codesourcery.j6502.utils.HexDump;
+
+/**
+ * Disassembler that separates code from data by following the control flow from a set of entry points.
+ *
+ * Starting at each entry point , instructions are decoded until an unconditional change of control flow
+ * (JMP , RTS , RTI , BRK , HLT) is reached , targets of branches , JSR and JMP are followed as well. Every byte
+ * that is not reached this way is considered data and printed as <code>.byte</code>.
+ *
+ * Disassembled lines are cached per 256-byte page. A page is only decoded again when its contents
+ * (or the contents of the following page , the last instruction may extend into it) changed or
+ * the code/data classification of its bytes changed. Changes are detected using {@link IMemoryRegion#getPageVersion(int)} ,
+ * for regions that do not track writes a checksum of the page contents is used instead.
+ *
+ * Addresses are offsets into the memory region.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class RecursiveDisassembler
+{
+	// flag bits for each address
+	private static final byte CODE = 1; // byte is part of an instruction
+	private static final byte INSTRUCTION = 2; // byte is the opcode of an instruction
+
+	private static final int DATA_BYTES_PER_LINE = 8;
+
+	private final IMemoryRegion memory;
+	private final Disassembler disassembler;
+
+	private byte[] flags = new byte[65536];
+	private byte[] previousFlags = new byte[65536];
+
+	private final boolean[] isEntryPoint = new boolean[65536];
+	private int[] entryPoints = new int[16];
+	private int entryPointCount;
+
+	private int[] worklist = new int[64];
+	private int worklistSize;
+
+	// page versions at the time of the last traversal
+	private final int[] analyzedVersions = new int[256];
+	private final boolean[] pageHasCode = new boolean[256];
+	// incremented whenever the code/data classification of a page changes
+	private final int[] classifications = new int[256];
+
+	private final Page[] pages = new Page[256];
+
+	private static final class Page
+	{
+		public final int version;
+		public final int nextPageVersion;
+		public final int classification;
+		public final List<Line> lines;
+
+		public Page(int version, int nextPageVersion, int classification, List<Line> lines)
+		{
+			this.version = version;
+			this.nextPageVersion = nextPageVersion;
+			this.classification = classification;
+			this.lines = lines;
+		}
+	}
+
+	public RecursiveDisassembler(IMemoryRegion memory) {
+		this( memory , new Disassembler() );
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param memory memory to disassemble
+	 * @param disassembler disassembler used to format instructions
+	 */
+	public RecursiveDisassembler(IMemoryRegion memory,Disassembler disassembler)
+	{
+		if ( memory == null ) {
+			throw new IllegalArgumentException("memory must not be NULL");
+		}
+		if ( disassembler == null ) {
+			throw new IllegalArgumentException("disassembler must not be NULL");
+		}
+		this.memory = memory;
+		this.disassembler = disassembler;
+	}
+
+	/**
+	 * Adds the targets of the NMI , RESET and IRQ vectors as entry points.
+	 */
+	public void addInterruptVectors()
+	{
+		addEntryPoint( memory.readWord( 0xfffa ) );
+		addEntryPoint( memory.readWord( 0xfffc ) );
+		addEntryPoint( memory.readWord( 0xfffe ) );
+	}
+
+	/**
+	 * Marks an address as the start of code.
+	 *
+	 * @param address
+	 */
+	public void addEntryPoint(int address)
+	{
+		final int adr = address & 0xffff;
+		if ( isEntryPoint[ adr ] ) {
+			return;
+		}
+		isEntryPoint[ adr ] = true;
+		if ( entryPointCount == entryPoints.length ) {
+			entryPoints = Arrays.copyOf( entryPoints , entryPointCount * 2 );
+		}
+		entryPoints[ entryPointCount++ ] = adr;
+
+		if ( ! update() && ( flags[ adr ] & INSTRUCTION ) == 0 )
+		{
+			// not analyzed again , just follow the new entry point
+			beginTraversal( false );
+			traverse( adr );
+			endTraversal();
+		}
+	}
+
+	public boolean isCode(int address) {
+		update();
+		return ( flags[ address & 0xffff ] & CODE ) != 0;
+	}
+
+	public boolean isInstruction(int address) {
+		update();
+		return ( flags[ address & 0xffff ] & INSTRUCTION ) != 0;
+	}
+
+	/**
+	 * Returns the disassembled lines of a 256-byte page.
+	 *
+	 * An instruction that starts in the previous page is not part of the result ,
+	 * even if some of its bytes are part of the requested page.
+	 *
+	 * @param page page number (address >> 8)
+	 * @return disassembled lines ordered by address , must not be modified
+	 */
+	public List<Line> getLines(int page)
+	{
+		update();
+
+		final int pageNo = page & 0xff;
+		final int version = version( pageNo );
+		final int nextPageVersion = version( ( pageNo + 1 ) & 0xff );
+		final Page cached = pages[ pageNo ];
+		if ( cached != null && cached.version == version && cached.nextPageVersion == nextPageVersion && cached.classification == classifications[ pageNo ] ) {
+			return cached.lines;
+		}
+		final List<Line> lines = Collections.unmodifiableList( disassemble( pageNo ) );
+		pages[ pageNo ] = new Page( version , nextPageVersion , classifications[ pageNo ] , lines );
+		return lines;
+	}
+
+	/**
+	 * Passes all lines that start within an address range to a consumer.
+	 *
+	 * @param startAddress
+	 * @param len number of bytes
+	 * @param consumer
+	 */
+	public void getLines(int startAddress,int len,Consumer<Line> consumer)
+	{
+		if ( len <= 0 ) {
+			return;
+		}
+		final int start = startAddress & 0xffff;
+		final int firstPage = start >>> 8;
+		final int pageCount = Math.min( 256 , ( ( start + len - 1 ) >>> 8 ) - firstPage + 1 );
+		for ( int i = 0 ; i < pageCount ; i++ )
+		{
+			for ( Line line : getLines( firstPage + i ) )
+			{
+				if ( ( ( line.address - start ) & 0xffff ) < len ) {
+					consumer.accept( line );
+				}
+			}
+		}
+	}
+
+	private List<Line> disassemble(int page)
+	{
+		final List<Line> result = new ArrayList<>();
+		final int base = memory.getAddressRange().getStartAddress();
+		final int end = ( page + 1 ) << 8;
+		int adr = page << 8;
+		while ( adr < end )
+		{
+			final int flag = flags[ adr ];
+			if ( ( flag & INSTRUCTION ) != 0 )
+			{
+				final int len = OpcodeTable.get( memory.readByteNoSideEffects( adr ) ).length;
+				disassembler.disassemble( memory , adr , len , result::add );
+				adr += len;
+			}
+			else if ( ( flag & CODE ) != 0 )
+			{
+				adr++; // operand of an instruction that started on the previous page
+			}
+			else
+			{
+				final StringBuilder args = new StringBuilder();
+				final int start = adr;
+				do
+				{
+					if ( adr != start ) {
+						args.append(',');
+					}
+					HexDump.appendHex8( args.append('$') , memory.readByteNoSideEffects( adr ) );
+					adr++;
+				} while ( adr < end && adr - start < DATA_BYTES_PER_LINE && ( flags[ adr ] & CODE ) == 0 );
+				result.add( disassembler.new Line( (short) ( base + start ) , ".byte" , args.toString() , Disassembler.EMPTY_STRING ) );
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Analyzes the code again if a page containing code has been modified since the last traversal.
+	 *
+	 * @return <code>true</code> if the code has been analyzed again
+	 */
+	private boolean update()
+	{
+		for ( int page = 0 ; page < 256 ; page++ )
+		{
+			if ( pageHasCode[ page ] && version( page ) != analyzedVersions[ page ] )
+			{
+				beginTraversal( true );
+				for ( int i = 0 ; i < entryPointCount ; i++ ) {
+					traverse( entryPoints[i] );
+				}
+				endTraversal();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void beginTraversal(boolean fromScratch)
+	{
+		final byte[] tmp = previousFlags;
+		previousFlags = flags;
+		flags = tmp;
+		if ( fromScratch ) {
+			Arrays.fill( flags , (byte) 0 );
+		} else {
+			System.arraycopy( previousFlags , 0 , flags , 0 , flags.length );
+		}
+	}
+
+	private void endTraversal()
+	{
+		for ( int page = 0 ; page < 256 ; page++ )
+		{
+			final int start = page << 8;
+			boolean hasCode = false;
+			boolean changed = false;
+			for ( int adr = start , end = start + 256 ; adr < end ; adr++ )
+			{
+				hasCode |= flags[ adr ] != 0;
+				changed |= flags[ adr ] != previousFlags[ adr ];
+			}
+			if ( changed ) {
+				classifications[ page ]++;
+			}
+			pageHasCode[ page ] = hasCode;
+			if ( hasCode ) {
+				analyzedVersions[ page ] = version( page );
+			}
+		}
+	}
+
+	private void push(int address)
+	{
+		if ( worklistSize == worklist.length ) {
+			worklist = Arrays.copyOf( worklist , worklistSize * 2 );
+		}
+		worklist[ worklistSize++ ] = address & 0xffff;
+	}
+
+	private void traverse(int entryPoint)
+	{
+		push( entryPoint );
+		while ( worklistSize > 0 )
+		{
+			int adr = worklist[ --worklistSize ];
+			while ( ( flags[ adr ] & INSTRUCTION ) == 0 )
+			{
+				final int opcode = memory.readByteNoSideEffects( adr );
+				final Descriptor descriptor = OpcodeTable.get( opcode );
+				if ( "HLT".equals( descriptor.mnemonic ) ) {
+					break; // jams the CPU , most likely data
+				}
+				final int len = descriptor.length;
+				flags[ adr ] |= INSTRUCTION | CODE;
+				for ( int i = 1 ; i < len ; i++ ) {
+					flags[ ( adr + i ) & 0xffff ] |= CODE;
+				}
+				final int next = ( adr + len ) & 0xffff;
+				if ( opcode == 0x20 ) // JSR
+				{
+					push( memory.readWord( ( adr + 1 ) & 0xffff ) );
+				}
+				else if ( opcode == 0x4c ) // JMP absolute
+				{
+					adr = memory.readWord( ( adr + 1 ) & 0xffff ) & 0xffff;
+					continue;
+				}
+				else if ( opcode == 0x6c || opcode == 0x60 || opcode == 0x40 || opcode == 0x00 ) // JMP indirect , RTS , RTI , BRK
+				{
+					break;
+				}
+				else if ( ( opcode & 0x1f ) == 0x10 ) // conditional branch
+				{
+					final byte offset = (byte) memory.readByteNoSideEffects( ( adr + 1 ) & 0xffff );
+					push( next + offset );
+				}
+				adr = next;
+			}
+		}
+	}
+
+	private int version(int page)
+	{
+		final int version = memory.getPageVersion( page );
+		if ( version != -1 ) {
+			return version;
+		}
+		int checksum = 1;
+		for ( int adr = page << 8 , end = adr + 256 ; adr < end ; adr++ ) {
+			checksum = 31 * checksum + memory.readByteNoSideEffects( adr );
+		}
+		return checksum;
+	}
+}
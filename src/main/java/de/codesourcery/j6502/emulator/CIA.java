@@ -46,6 +46,11 @@ public abstract class CIA extends Memory implements IStatefulPart
     public static final int IRQ_UNDERFLOW_TIMER_B = 1<<1;
     public static final int IRQ_FLAG_PIN = 1<<4;    
 
+    // RTC increases in 1/10 of a second intervals , C64 runs at ~985 Khz
+    private static final int TOD_TICKS = 98500;
+
+    private static final long NO_EVENT = Long.MAX_VALUE;
+
     /*
 ----
 $DC00
@@ -344,11 +349,28 @@ CRB 	Control Timer B 	see CIA 1
     private boolean timerARunning = false;
     private boolean timerBRunning = false;
 
-    public int timerAValue;
-    public int timerALatch;
+    /*
+     * Timers are not decremented on every tick. While a timer is
+     * counting system cycles, timerXValue holds the value the timer had
+     * at tick timerXStart and the current value is derived from tickCounter.
+     */
+    private int timerAValue;
+    private long timerAStart;
+    private int timerALatch;
+
+    private int timerBValue;
+    private long timerBStart;
+    private int timerBLatch;
 
-    public int timerBValue;
-    public int timerBLatch;
+    // tick when the next timer underflow / TOD increment happens
+    private long timerAEvent = NO_EVENT;
+    private long timerBEvent = NO_EVENT;
+    private long todEvent = TOD_TICKS;
+    private long nextEvent = NO_EVENT;
+
+    // copies of the control registers, saves going through the memory breakpoint checks on every tick
+    private int cra;
+    private int crb;
 
     protected final void saveState(OutputStream out) throws IOException
     {
@@ -381,10 +403,10 @@ CRB 	Control Timer B 	see CIA 1
         writeBoolean( timerARunning, out );
         writeBoolean( timerBRunning, out );     
 
-        writeInt( timerAValue, out );
+        writeInt( readTimerA(), out );
         writeInt( timerALatch, out );
 
-        writeInt( timerBValue, out );
+        writeInt( readTimerB(), out );
         writeInt( timerBLatch, out );        
     }
 
@@ -423,6 +445,13 @@ CRB 	Control Timer B 	see CIA 1
 
         timerBValue = readInt( in );
         timerBLatch = readInt( in );  
+
+        cra = super.readByteNoSideEffects( CIA_CRA );
+        crb = super.readByteNoSideEffects( CIA_CRB );
+        timerAStart = tickCounter;
+        timerBStart = tickCounter;
+        todEvent = ( tickCounter / TOD_TICKS + 1 ) * TOD_TICKS;
+        scheduleEvents();
     }    
 
     public CIA(String identifier, AddressRange range)
@@ -438,8 +467,7 @@ CRB 	Control Timer B 	see CIA 1
         
         try 
         {
-            saveFieldsHook( out );
-            saveState( out );
+            saveFields( out );
             
             entry = new EmulationStateEntry(fieldType,(byte)1 , out.toByteArray() );
             state.add( entry );
@@ -455,13 +483,38 @@ CRB 	Control Timer B 	see CIA 1
         final EmulationStateEntry entry = state.getEntry( fieldType );
         final ByteArrayInputStream in = entry.toByteArrayInputStream();
         try {
-            loadFieldsHook( in );
-            loadState( in );  
-            afterLoadState();
+            restoreFields( in );
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Writes all internal state except the register contents.
+     * 
+     * @param out
+     * @throws IOException
+     */
+    protected final void saveFields(OutputStream out) throws IOException 
+    {
+        saveFieldsHook( out );
+        saveState( out );
+    }
+
+    /**
+     * Restores internal state written by {@link #saveFields(OutputStream)}.
+     * 
+     * Register contents must've been restored before calling this method.
+     *  
+     * @param in
+     * @throws IOException
+     */
+    protected final void restoreFields(InputStream in) throws IOException 
+    {
+        loadFieldsHook( in );
+        loadState( in );  
+        afterLoadState();
+    }
     protected abstract void saveFieldsHook(OutputStream out) throws IOException;
     
     protected abstract void loadFieldsHook(InputStream out) throws IOException;
@@ -481,15 +534,40 @@ CRB 	Control Timer B 	see CIA 1
 
         this.rtcAlarmIRQEnabled = false;
 
-        this.timeOfDay = hour >= 12 ? TimeOfDay.PM : TimeOfDay.AM;
         this.todAlarmTimeOfDay = TimeOfDay.AM;
 
+        setTimeOfDay( hour , minute , second , tenths );
+
+        this.todRunning = true;
+    }
+
+    /**
+     * Returns the current value of the real-time clock.
+     *
+     * @return hours (0-23) in bits 24-31, minutes in bits 16-23, seconds in bits 8-15, tenths of seconds in bits 0-7
+     */
+    final int getTimeOfDay() 
+    {
+        final int hour = timeOfDay == TimeOfDay.PM ? todHours + 12 : todHours;
+        return hour << 24 | todMinutes << 16 | todSeconds << 8 | tod10s;
+    }
+
+    /**
+     * Sets the real-time clock.
+     *
+     * @param value time as returned by {@link #getTimeOfDay()}
+     */
+    final void setTimeOfDay(int value) {
+        setTimeOfDay( ( value >>> 24 ) & 0xff , ( value >>> 16 ) & 0xff , ( value >>> 8 ) & 0xff , value & 0xff );
+    }
+
+    private void setTimeOfDay(int hour,int minute,int second,int tenths) 
+    {
+        this.timeOfDay = hour >= 12 ? TimeOfDay.PM : TimeOfDay.AM;
         this.tod10s = tenths;
         this.todSeconds = second;
         this.todMinutes = minute;
         this.todHours = hour >=12 ? hour-12 : hour;
-
-        this.todRunning = true;
     }
 
     @Override
@@ -522,6 +600,11 @@ CRB 	Control Timer B 	see CIA 1
 
         timerBValue = 0x0;
         timerBLatch = 0xffff;
+
+        cra = 0;
+        crb = 0;
+        todEvent = TOD_TICKS;
+        scheduleEvents();
     }
 
     @Override
@@ -619,13 +702,13 @@ CRB 	Control Timer B
         Bit 7: Source bit. 0 = set bits 0..4 are clearing the according mask bit. 1 = set bits 0..4 are setting the according mask bit. If all bits 0..4 are cleared, there will be no change to the mask.
                  */
             case CIA_TALO:
-                return timerAValue & 0xff;
+                return readTimerA() & 0xff;
             case CIA_TAHI:
-                return (timerAValue >>> 8 ) & 0xff;
+                return (readTimerA() >>> 8 ) & 0xff;
             case CIA_TBLO:
-                return timerBValue & 0xff;
+                return readTimerB() & 0xff;
             case CIA_TBHI:
-                return (timerBValue >>> 8 ) & 0xff;
+                return (readTimerB() >>> 8 ) & 0xff;
                 // ======== return ToD ====
             case CIA_TOD_10THS: //  = 0x08;
                 this.todRunning = false; //  Writing CIA1_TOD_10TS register stops TOD, until register 8 (TOD 10THS) is read.
@@ -729,6 +812,7 @@ CRB 	Control Timer B
                 if ( ! timerARunning ) 
                 {
                     reloadTimerA = true;
+                    scheduleEvents();
                 }
                 break;
             case CIA_TBLO:
@@ -738,6 +822,7 @@ CRB 	Control Timer B
                 timerBLatch = ( timerBLatch & 0x00ff) | (( value & 0xff) <<8);
                 if ( ! timerBRunning ) {
                     reloadTimerB = true;
+                    scheduleEvents();
                 }
                 break;
             case CIA_CRA:
@@ -755,6 +840,10 @@ CRB 	Control Timer B
                 {
                     throw new RuntimeException("Counting CNT slopes is not supported for "+this+" , Timer A");
                 }
+                timerAValue = readTimerA();
+                timerAStart = tickCounter;
+                cra = value & 0xff;
+
                 boolean oldState = timerARunning;
                 timerARunning = ( value & 1) != 0;
                 if ( Constants.CIA_DEBUG_VERBOSE ) {
@@ -765,6 +854,7 @@ CRB 	Control Timer B
                 if ( ( value & 1 << 4) != 0 ) {
                     timerAValue = timerALatch;
                 }
+                scheduleEvents();
                 break;
             case CIA_CRB:
                 /* Timer control B
@@ -794,6 +884,10 @@ CRB 	Control Timer B
                     case 0b11: // Timer counts underflow of timer A if the CNT-pin is high
                         throw new RuntimeException("Unsupported timer mode for "+this+", timer B: %"+Integer.toBinaryString( value) );
                 }
+                timerBValue = readTimerB();
+                timerBStart = tickCounter;
+                crb = value & 0xff;
+
                 oldState = timerBRunning;
                 timerBRunning = ( value & 1) != 0;
                 if ( Constants.CIA_DEBUG_VERBOSE ) {
@@ -809,10 +903,49 @@ CRB 	Control Timer B
                     }					
                     timerBValue = timerBLatch;
                 }
+                scheduleEvents();
                 break;
         }
     }
 
+    private int readTimerA()
+    {
+        if ( timerARunning ) {
+            return (int) ( timerAValue - ( tickCounter - timerAStart ) ) & 0xffff;
+        }
+        return timerAValue;
+    }
+
+    private int readTimerB()
+    {
+        if ( timerBRunning && isTimerBCountingCycles() ) {
+            return (int) ( timerBValue - ( tickCounter - timerBStart ) ) & 0xffff;
+        }
+        return timerBValue;
+    }
+
+    private boolean isTimerBCountingCycles() {
+        return (crb & 0b1100000) == 0b0000000;
+    }
+
+    private boolean isTimerBCountingTimerA() {
+        return (crb & 0b1100000) == 0b1000000;
+    }
+
+    private void scheduleEvents()
+    {
+        // a timer that starts counting at zero wraps around to $ffff first
+        timerAEvent = timerARunning ? timerAStart + ( timerAValue == 0 ? 0x10000 : timerAValue ) : NO_EVENT;
+        timerBEvent = timerBRunning && isTimerBCountingCycles() ? timerBStart + ( timerBValue == 0 ? 0x10000 : timerBValue ) : NO_EVENT;
+
+        long next = Math.min( todEvent , Math.min( timerAEvent , timerBEvent ) );
+        if ( reloadTimerA || reloadTimerB ) {
+            // reload from latch happens on the next tick
+            next = Math.min( next , tickCounter+1 );
+        }
+        nextEvent = next;
+    }
+
     private void increaseRTC(CPU cpu)
     {
         this.tod10s++;
@@ -858,29 +991,43 @@ CRB 	Control Timer B
             raiseIRQ = 0;
         }
 
-        if ( reloadTimerA ) {
-            // System.out.println("Reloading "+this+" , timer A = "+timerALatch);
-            timerAValue = timerALatch;
-            reloadTimerA = false;
-        }
-
-        if ( reloadTimerB ) {
-            // System.out.println("Reloading "+this+" , timer B = "+timerBLatch);
-            timerBValue = timerBLatch;
-            reloadTimerB = false;
-        }
-
         // call BEFORE bumping tickCounter because this method needs to know when it's called the first time after a reset
         handleCassette( cpu ); 
 
         /*
          * Method must ONLY be called when ph2 == HIGH
          */
-        tickCounter++;
+        if ( ++tickCounter >= nextEvent ) {
+            processEvents( cpu );
+        }
+    }
 
-        if ( todRunning & ( tickCounter % 98500) == 0 ) // RTC increases in 1/10 of a second intervals , C64 runs at ~985 Khz
+    private void processEvents(CPU cpu)
+    {
+        final long now = tickCounter;
+
+        // latches get loaded on the tick following an underflow, a running timer counts down during the same tick
+        if ( reloadTimerA || reloadTimerB )
         {
-            increaseRTC( cpu );
+            if ( reloadTimerA ) {
+                timerAValue = timerALatch;
+                timerAStart = now-1;
+                reloadTimerA = false;
+            }
+            if ( reloadTimerB ) {
+                timerBValue = timerBLatch;
+                timerBStart = now-1;
+                reloadTimerB = false;
+            }
+            scheduleEvents();
+        }
+
+        if ( now >= todEvent )
+        {
+            if ( todRunning ) {
+                increaseRTC( cpu );
+            }
+            todEvent += TOD_TICKS;
         }
 
         /* $DC0E   CRA
@@ -893,26 +1040,18 @@ CRB 	Control Timer B
         Bit 6: Direction of the serial shift register, 0 = SP-pin is input (read), 1 = SP-pin is output (write)
         Bit 7: Real Time Clock, 0 = 60 Hz, 1 = 50 Hz
          */
-        final int cra = readByte( CIA_CRA ); // Control Register A
-        final int crb = readByte( CIA_CRB ); // Control Register B
-        if ( timerARunning )
+        if ( timerARunning && now >= timerAEvent )
         {
-            if ( ( cra & (1<<5) ) == 0 ) // timer counts system cycles
-            {
-                timerAValue = (timerAValue-1) & 0xffff;
-                if ( timerAValue == 0 )
-                {
-                    handleTimerAUnderflow(cra , cpu );
+            timerAValue = 0;
+            timerAStart = now;
+            handleTimerAUnderflow( cra , cpu );
 
-                    if ( timerBRunning && (crb & 0b1100000) == 0b1000000) { // timerB counts timerA underflow
-                        timerBValue = (timerBValue-1) & 0xffff;
-                        if ( timerBValue == 0 ) {
-                            handleTimerBUnderflow( crb , cpu );
-                        }
-                    }
+            if ( timerBRunning && isTimerBCountingTimerA() ) 
+            {
+                timerBValue = (timerBValue-1) & 0xffff;
+                if ( timerBValue == 0 ) {
+                    handleTimerBUnderflow( crb , cpu );
                 }
-            } else {
-                throw new RuntimeException("Unsupported timer A mode: "+cra);
             }
         }
 
@@ -932,22 +1071,13 @@ CRB 	Control Timer B
          *
          * Bit 7: 0 = Writing into the TOD register sets the clock time, 1 = Writing into the TOD register sets the alarm time.
          */
-        if ( timerBRunning )
+        if ( timerBRunning && isTimerBCountingCycles() && now >= timerBEvent )
         {
-            if ( (crb & 0b1100000) == 0b0000000 ) { // Timer B counts System cycles
-                timerBValue = (timerBValue-1) & 0xffff;
-                if ( timerBValue == 0 )
-                {
-                    handleTimerBUnderflow(crb,cpu);
-                }
-            }  
-            else if ( (crb & 0b0110_0000) == 0b0100_0000 ) {
-                // ok, counts Timer A underflows
-            }
-            else {
-                throw new RuntimeException("Unsupported timer B mode: "+crb);
-            }
+            timerBValue = 0;
+            timerBStart = now;
+            handleTimerBUnderflow( crb , cpu );
         }
+        scheduleEvents();
     }
 
     protected void handleCassette(CPU cpu) 
@@ -969,12 +1099,12 @@ CRB 	Control Timer B
                 if ( (irqMask & 1<<4) != 0 ) { // IRQ mask: Bit 4: 1 = Interrupt release if a positive slope occurs at the FLAG-Pin.
                     if ( Constants.CIA_DEBUG_TAPE_SLOPE ) {
                         long delta = tickCounter - debugPreviousTapeSignalChangeTick;
-                        System.out.println("Detected positive slope #"+tapeSlopeCounter+" on /FLAG (IRQ enabled) - tick "+tickCounter+" (delta: "+delta+"), timerA: "+timerAValue+" , timerB: "+timerBValue);
+                        System.out.println("Detected positive slope #"+tapeSlopeCounter+" on /FLAG (IRQ enabled) - tick "+tickCounter+" (delta: "+delta+"), timerA: "+readTimerA()+" , timerB: "+readTimerB());
                     }	    	        
                     raiseIRQ |= IRQ_FLAG_PIN;
                 } else if ( Constants.CIA_DEBUG_TAPE_SLOPE ) {
                     final long delta = tickCounter - debugPreviousTapeSignalChangeTick;	            	
-                    System.out.println("Detected positive slope # "+tapeSlopeCounter+" on /FLAG (IRQ disabled) - tick "+tickCounter+" (delta: "+delta+") , timerA: "+timerAValue+" , timerB: "+timerBValue);
+                    System.out.println("Detected positive slope # "+tapeSlopeCounter+" on /FLAG (IRQ disabled) - tick "+tickCounter+" (delta: "+delta+") , timerA: "+readTimerA()+" , timerB: "+readTimerB());
                 }	    
                 debugPreviousTapeSignalChangeTick = tickCounter;
             }
@@ -1031,6 +1161,6 @@ CRB 	Control Timer B
 
     private boolean isSetRTCAlarmTime()
     {
-        return (readByte( CIA_CRB ) & 1<<7) != 0;
+        return (crb & 1<<7) != 0;
     }    
 }
\ No newline at end of file
@@ -5,6 +5,8 @@ import static de.codesourcery.j6502.emulator.SerializationHelper.*;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Collection;
@@ -67,49 +69,39 @@ public class CPU
     
     public void restoreState(byte[] data) 
     {
-        final ByteArrayInputStream in = new ByteArrayInputStream(data);
         try 
         {
-            interruptQueued = IRQType.fromIdentifier( readInt( in ) );
-            populateIntArray( backtraceRingBuffer , in );
-            backtraceRingBufferElements = readInt( in );
-            cycles = readLong( in );
-            pc = readInt( in );
-            accumulator = readInt( in );
-            x = readInt( in );
-            y = readInt( in );
-            sp = readShort( in );
-            flags = (byte) readByte( in );
-            lastInsDuration = readInt( in );
-            breakOnInterrupt = readBoolean(in);
-            breakpointReached = readBoolean(in);
+            restoreState( new ByteArrayInputStream(data) );
         } 
         catch (IOException e) 
         {
             throw new RuntimeException(e);
         }
     }
+
+    public void restoreState(InputStream in) throws IOException
+    {
+        interruptQueued = IRQType.fromIdentifier( readInt( in ) );
+        populateIntArray( backtraceRingBuffer , in );
+        backtraceRingBufferElements = readInt( in );
+        cycles = readLong( in );
+        pc = readInt( in );
+        accumulator = readInt( in );
+        x = readInt( in );
+        y = readInt( in );
+        sp = readShort( in );
+        flags = (byte) readByte( in );
+        lastInsDuration = readInt( in );
+        breakOnInterrupt = readBoolean(in);
+        breakpointReached = readBoolean(in);
+    }
     
     public byte[] getState() 
     {
         final ByteArrayOutputStream out = new ByteArrayOutputStream();
         try 
         {
-            writeInt( interruptQueued.identifier , out );
-            writeIntArray( backtraceRingBuffer , out );
-            writeInt( backtraceRingBufferElements , out );
-            writeLong( cycles , out );
-            writeInt( pc , out );
-            writeInt( accumulator , out );
-            writeInt( x , out );
-            writeInt( y , out );
-            writeShort( sp , out );
-            writeByte( flags , out );
-            
-            writeInt( lastInsDuration , out );
-            writeBoolean(breakOnInterrupt , out );
-            writeBoolean( breakpointReached , out );
-            
+            saveState( out );
             return out.toByteArray();
         } 
         catch (IOException e) 
@@ -117,6 +109,24 @@ public class CPU
             throw new RuntimeException(e);
         }
     }
+
+    public void saveState(OutputStream out) throws IOException
+    {
+        writeInt( interruptQueued.identifier , out );
+        writeIntArray( backtraceRingBuffer , out );
+        writeInt( backtraceRingBufferElements , out );
+        writeLong( cycles , out );
+        writeInt( pc , out );
+        writeInt( accumulator , out );
+        writeInt( x , out );
+        writeInt( y , out );
+        writeShort( sp , out );
+        writeByte( flags , out );
+
+        writeInt( lastInsDuration , out );
+        writeBoolean(breakOnInterrupt , out );
+        writeBoolean( breakpointReached , out );
+    }
     
 	public static enum Flag
 	{
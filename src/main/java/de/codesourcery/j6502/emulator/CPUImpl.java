@@ -9,6 +9,7 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import de.codesourcery.j6502.Constants;
+import de.codesourcery.j6502.disassembler.OpcodeTable.Mode;
 import de.codesourcery.j6502.emulator.CPU.Flag;
 import de.codesourcery.j6502.emulator.exceptions.HLTException;
 import de.codesourcery.j6502.utils.HexDump;
@@ -1358,45 +1359,43 @@ public final class CPUImpl
     }
 
     private interface InstructionPrinter {
-        public String getOperand(ByteProvider provider);
+        public void printOperand(ByteProvider provider,StringBuilder buffer);
     }
 
-    protected static final  InstructionPrinter pacc = provider -> "";
-    protected static final  InstructionPrinter prel = provider ->
+    protected static final  InstructionPrinter pacc = (provider,buffer) -> {};
+    protected static final  InstructionPrinter prel = (provider,buffer) ->
     {
         if ( provider.availableBytes() >= 1 )
         {
             byte offset = (byte) provider.readByte();
-            return toWordString( provider.toAbsoluteAddress( offset+2 ) & 0xffff ); // +2 bytes for opcode + branch distance byte
+            appendWord( provider.toAbsoluteAddress( offset+2 ) & 0xffff , buffer ); // +2 bytes for opcode + branch distance byte
+        } else {
+            buffer.append( "< 1 byte missing >" );
         }
-        return "< 1 byte missing >";
     };
 
-    protected static final  InstructionPrinter pigb  = provider -> { toByteString( provider ); return ""; };
-    protected static final  InstructionPrinter pigw  = provider -> { toWordString( provider ); return ""; };
+    protected static final  InstructionPrinter pigb  = (provider,buffer) -> { if ( provider.availableBytes() >= 1 ) { provider.readByte(); } };
+    protected static final  InstructionPrinter pigw  = (provider,buffer) -> { if ( provider.availableBytes() >= 2 ) { provider.readWord(); } };
 
-    protected static final  InstructionPrinter pimm  = provider -> "#"+toByteString( provider );
-    protected static final  InstructionPrinter pzp   = provider -> toByteString( provider );
-    protected static final  InstructionPrinter pzpx  = provider -> toByteString( provider )+" , X";
-    protected static final  InstructionPrinter pzpy  = provider -> toByteString( provider )+" , Y";
-    protected static final  InstructionPrinter pabs  = provider -> toWordString( provider );
-    protected static final  InstructionPrinter pabsx = provider -> toWordString( provider )+" , X";
-    protected static final  InstructionPrinter pabsy = provider -> toWordString( provider )+" , Y";
-    protected static final  InstructionPrinter pindx = provider -> "("+toByteString( provider )+" , X)";
-    protected static final  InstructionPrinter pindy = provider -> "("+toByteString( provider )+") , Y";
-    protected static final  InstructionPrinter pimp  = provider -> "";
-    protected static final  InstructionPrinter pind  = provider -> "("+toWordString(provider)+")";
+    protected static final  InstructionPrinter pimm  = (provider,buffer) -> { buffer.append('#'); appendByte( provider , buffer ); };
+    protected static final  InstructionPrinter pzp   = (provider,buffer) -> appendByte( provider , buffer );
+    protected static final  InstructionPrinter pzpx  = (provider,buffer) -> { appendByte( provider , buffer ); buffer.append(" , X"); };
+    protected static final  InstructionPrinter pzpy  = (provider,buffer) -> { appendByte( provider , buffer ); buffer.append(" , Y"); };
+    protected static final  InstructionPrinter pabs  = (provider,buffer) -> appendWord( provider , buffer );
+    protected static final  InstructionPrinter pabsx = (provider,buffer) -> { appendWord( provider , buffer ); buffer.append(" , X"); };
+    protected static final  InstructionPrinter pabsy = (provider,buffer) -> { appendWord( provider , buffer ); buffer.append(" , Y"); };
+    protected static final  InstructionPrinter pindx = (provider,buffer) -> { buffer.append('('); appendByte( provider , buffer ); buffer.append(" , X)"); };
+    protected static final  InstructionPrinter pindy = (provider,buffer) -> { buffer.append('('); appendByte( provider , buffer ); buffer.append(") , Y"); };
+    protected static final  InstructionPrinter pimp  = (provider,buffer) -> {};
+    protected static final  InstructionPrinter pind  = (provider,buffer) -> { buffer.append('('); appendWord( provider , buffer ); buffer.append(')'); };
 
     public boolean disassemble(  StringBuilder operandBuffer,StringBuilder argsBuffer , ByteProvider byteProvider)
     {
         if ( byteProvider.availableBytes() > 0 )
         {
             final int op = byteProvider.readByte() & 0xff;
-            final String mnemonic = MNEMONICS_TABLE[ op ];
-            final String operand = getInstructionPrinter( op ).getOperand( byteProvider );
-
-            operandBuffer.append( mnemonic );
-            argsBuffer.append( operand );
+            operandBuffer.append( MNEMONICS_TABLE[ op ] );
+            getInstructionPrinter( op ).printOperand( byteProvider , argsBuffer );
         }
         return byteProvider.availableBytes()>0;
     }
@@ -1406,95 +1405,118 @@ public final class CPUImpl
         if ( byteProvider.availableBytes() > 0 )
         {
             final int op = byteProvider.readByte() & 0xff;
-            final String mnemonic = MNEMONICS_TABLE[ op ];
-            final String operand = getInstructionPrinter( op ).getOperand( byteProvider );
-            operandBuffer.append("[").append( getMinimumCycles( op ) ).append("] ").append( mnemonic );
-            argsBuffer.append( operand );
+            operandBuffer.append("[").append( getMinimumCycles( op ) ).append("] ").append( MNEMONICS_TABLE[ op ] );
+            getInstructionPrinter( op ).printOperand( byteProvider , argsBuffer );
         }
         return byteProvider.availableBytes()>0;
     }	
 
     private InstructionPrinter getInstructionPrinter(int opcode)
     {
-        final AbstractRunnable adrMode = adrModeTable[ opcode ];
+        switch( getAddressingMode( opcode ) )
+        {
+            case IGNORED_BYTE:       return pigb;
+            case IGNORED_WORD:       return pigw;
+            case IMMEDIATE:          return pimm;
+            case RELATIVE:           return prel;
+            case ACCUMULATOR:        return pacc;
+            case ZERO_PAGE:          return pzp;
+            case ZERO_PAGE_X:        return pzpx;
+            case ZERO_PAGE_Y:        return pzpy;
+            case ABSOLUTE:           return pabs;
+            case ABSOLUTE_X:         return pabsx;
+            case ABSOLUTE_Y:         return pabsy;
+            case INDEXED_INDIRECT_X: return pindx;
+            case INDIRECT_INDEXED_Y: return pindy;
+            case IMPLIED:            return pimp;
+            case INDIRECT:           return pind;
+            default:
+                throw new RuntimeException("Unhandled addressing mode for opcode $"+HexDump.toHex( (byte) opcode ) );
+        }
+    }
+
+    /**
+     * Returns the addressing mode of an opcode.
+     *
+     * @param opcode
+     * @return
+     */
+    public Mode getAddressingMode(int opcode)
+    {
+        final AbstractRunnable adrMode = adrModeTable[ opcode & 0xff ];
 
         if ( adrMode == igb ) {
-            return pigb;
+            return Mode.IGNORED_BYTE;
         }
         if ( adrMode == igw ) {
-            return pigw;
+            return Mode.IGNORED_WORD;
         }
         if ( adrMode == imm ) {
-            return pimm;
+            return Mode.IMMEDIATE;
         }
         if ( adrMode == rel ) {
-            return prel;
+            return Mode.RELATIVE;
         }
         if ( adrMode == acc ) {
-            return pacc;
+            return Mode.ACCUMULATOR;
         }
         if ( adrMode == zp   ) {
-            return pzp;
+            return Mode.ZERO_PAGE;
         }
         if ( adrMode == zpx  ) {
-            return pzpx;
+            return Mode.ZERO_PAGE_X;
         }
         if ( adrMode == zpy  ) {
-            return pzpy;
+            return Mode.ZERO_PAGE_Y;
         }
         if ( adrMode == abso  )
         {
-            return pabs;
+            return Mode.ABSOLUTE;
         }
         if ( adrMode == absx ) {
-            return pabsx;
+            return Mode.ABSOLUTE_X;
         }
         if ( adrMode == absy ) {
-            return pabsy;
+            return Mode.ABSOLUTE_Y;
         }
         if ( adrMode == indx ) {
-            return pindx;
+            return Mode.INDEXED_INDIRECT_X;
         }
         if ( adrMode == indy ) {
-            return pindy;
+            return Mode.INDIRECT_INDEXED_Y;
         }
         if ( adrMode == imp  ) {
-            return pimp;
+            return Mode.IMPLIED;
         }
         if ( adrMode == ind || adrMode == indJmp  ) {
-            return pind;
+            return Mode.INDIRECT;
         }
         throw new RuntimeException("Unhandled addressing mode for opcode $"+HexDump.toHex( (byte) opcode ) );
     }
 
-    protected static String toByteString(ByteProvider provider)
+    private static void appendByte(ByteProvider provider,StringBuilder buffer)
     {
         if ( provider.availableBytes() < 1 ) {
-            return "< 1 byte missing>";
+            buffer.append( "< 1 byte missing>" );
+            return;
         }
-        final int v = provider.readByte() & 0xff;
-        String result = Integer.toHexString( v ).toLowerCase();
-        while ( result.length() < 2 ) {
-            result = "0"+result;
-        }
-        return "$"+result;
+        buffer.append('$');
+        HexDump.appendHex8( buffer , provider.readByte() );
     }
 
-    protected static String toWordString(int v)
+    private static void appendWord(int v,StringBuilder buffer)
     {
-        String result = Integer.toHexString( v ).toLowerCase();
-        while ( result.length() < 4 ) {
-            result = "0"+result;
-        }
-        return "$"+result;
+        buffer.append('$');
+        HexDump.appendHex16( buffer , v );
     }
 
-    protected static String toWordString(ByteProvider provider)
+    private static void appendWord(ByteProvider provider,StringBuilder buffer)
     {
         if ( provider.availableBytes() < 2 ) {
-            return "<"+(2 - provider.availableBytes())+" byte(s) missing>";
+            buffer.append('<').append( 2 - provider.availableBytes() ).append(" byte(s) missing>");
+            return;
         }
-        return toWordString( provider.readWord() & 0xffff );
+        appendWord( provider.readWord() & 0xffff , buffer );
     }
 
     protected boolean isAccumulatorImmediate;
@@ -1586,6 +1608,21 @@ public final class CPUImpl
         return TICK_TABLE[ opcode ];
     }
 
+    public static String getMnemonic(int opcode) {
+        return MNEMONICS_TABLE[ opcode & 0xff ];
+    }
+
+    /**
+     * Returns the number of bytes (opcode + operand) an instruction occupies.
+     *
+     * @param opcode
+     * @return 1 to 3
+     */
+    public int getInstructionLength(int opcode)
+    {
+        return 1 + getAddressingMode( opcode ).operandBytes;
+    }
+
     public static void main(String[] args) {
 
         final Set<String> mnemonics = Arrays.stream( MNEMONICS_TABLE ).collect( Collectors.toSet() );
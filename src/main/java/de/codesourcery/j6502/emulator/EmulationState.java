@@ -6,6 +6,11 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -13,19 +18,61 @@ import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import static de.codesourcery.j6502.emulator.SerializationHelper.*;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.Validate;
 
 import de.codesourcery.j6502.utils.Misc;
 
+/**
+ * A set of typed, versioned binary entries describing the emulation state.
+ *
+ * Two file formats are supported:
+ * 
+ * <ul>
+ * <li>Version 1: A sequence of (type , version , checksum , length , payload) records,
+ * the first one being a {@link EntryType#HEADER} holding a magic and the number of entries.</li>
+ * <li>Version 2: A fixed-size header and a table of contents followed by the payloads, each
+ * payload is compressed individually and protected by a CRC32. The table of contents allows reading
+ * a single entry without touching the rest of the file, see {@link #readEntry(Path, EntryType)}.
+ * 
+ * <pre>
+ * magic           4 bytes ("J6ST")
+ * format version  1 byte (2)
+ * entry count     4 bytes
+ * TOC             entry count * {@link #V2_TOC_ENTRY_SIZE} bytes:
+ *                   type (1) , version (1) , flags (1) , file offset (8) ,
+ *                   stored length (4) , payload length (4) , CRC32 of stored bytes (4)
+ * payloads        stored bytes of all entries
+ * </pre>
+ * </li>
+ * </ul>
+ * 
+ * All multi-byte values are big-endian. Both formats can be read, new files are always written in version 2.
+ */
 public class EmulationState
 {
     private static final byte[] MAGIC = { (byte) 0xde,(byte) 0xad,(byte) 0xbe,(byte) 0xef };
 
     private static final byte FILEFORMAT_VERSION = 1;
 
+    private static final byte[] MAGIC_V2 = { 'J' , '6' , 'S' , 'T' };
+
+    private static final byte FILEFORMAT_VERSION_V2 = 2;
+
+    private static final int V2_HEADER_SIZE = MAGIC_V2.length + 1 + 4;
+
+    private static final int V2_TOC_ENTRY_SIZE = 1 + 1 + 1 + 8 + 4 + 4 + 4;
+
+    // TOC entry flag: payload is stored deflated
+    private static final int FLAG_DEFLATED = 1<<0;
+
     public static enum EntryType 
     {
         HEADER((byte) 1),
@@ -271,7 +318,202 @@ public class EmulationState
         }
     }
 
+    /**
+     * Reads emulation state in any supported file format.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
     public static EmulationState read(InputStream in) throws IOException 
+    {
+        final PushbackInputStream pushback = new PushbackInputStream( in , 1 );
+        final int firstByte = pushback.read();
+        if ( firstByte == -1 ) {
+            throw new EOFException("File is empty");
+        }
+        pushback.unread( firstByte );
+        if ( firstByte == MAGIC_V2[0] ) {
+            return readV2( ByteBuffer.wrap( IOUtils.toByteArray( pushback ) ) );
+        }
+        return readV1( pushback );
+    }
+
+    /**
+     * Reads emulation state in any supported file format.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static EmulationState read(Path file) throws IOException 
+    {
+        try ( FileChannel channel = FileChannel.open( file , StandardOpenOption.READ ) ) 
+        {
+            final long size = channel.size();
+            if ( size > Integer.MAX_VALUE ) {
+                throw new IOException("File too large: "+file);
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate( (int) size );
+            readFully( channel , buffer , 0 );
+            buffer.flip();
+            if ( buffer.hasRemaining() && buffer.get( 0 ) == MAGIC_V2[0] ) {
+                return readV2( buffer );
+            }
+            return readV1( new ByteArrayInputStream( buffer.array() , 0 , buffer.limit() ) );
+        }
+    }
+
+    /**
+     * Reads a single entry from a file.
+     *
+     * Only the table of contents and the entry itself are read for version 2 files.
+     *
+     * @param file
+     * @param type
+     * @return
+     * @throws IOException
+     * @throws NoSuchElementException if the file contains no entry of the given type
+     */
+    public static EmulationStateEntry readEntry(Path file,EntryType type) throws IOException 
+    {
+        try ( FileChannel channel = FileChannel.open( file , StandardOpenOption.READ ) ) 
+        {
+            final ByteBuffer header = ByteBuffer.allocate( V2_HEADER_SIZE );
+            readFully( channel , header , 0 );
+            header.flip();
+            if ( header.remaining() < V2_HEADER_SIZE || ! isV2Magic( header ) ) {
+                return read( file ).getEntry( type );
+            }
+            final int count = header.getInt( MAGIC_V2.length + 1 );
+            final ByteBuffer toc = ByteBuffer.allocate( count * V2_TOC_ENTRY_SIZE );
+            readFully( channel , toc , V2_HEADER_SIZE );
+            toc.flip();
+            for ( int i = 0 ; i < count ; i++ ) 
+            {
+                final int tocOffset = i * V2_TOC_ENTRY_SIZE;
+                if ( toc.get( tocOffset ) == type.typeId ) 
+                {
+                    final long fileOffset = toc.getLong( tocOffset + 3 );
+                    final int storedLength = toc.getInt( tocOffset + 11 );
+                    final ByteBuffer data = ByteBuffer.allocate( storedLength );
+                    readFully( channel , data , fileOffset );
+                    data.flip();
+                    return readV2Entry( toc , tocOffset , data.array() , 0 , new Inflater() , new CRC32() );
+                }
+            }
+            throw new NoSuchElementException("Found no entry with type "+type );
+        }
+    }
+
+    private static void readFully(FileChannel channel,ByteBuffer buffer,long position) throws IOException 
+    {
+        long offset = position;
+        while ( buffer.hasRemaining() ) 
+        {
+            final int bytesRead = channel.read( buffer , offset );
+            if ( bytesRead == -1 ) {
+                break;
+            }
+            offset += bytesRead;
+        }
+    }
+
+    private static boolean isV2Magic(ByteBuffer buffer) 
+    {
+        for ( int i = 0 ; i < MAGIC_V2.length ; i++ ) 
+        {
+            if ( buffer.get( i ) != MAGIC_V2[i] ) {
+                return false;
+            }
+        }
+        return buffer.get( MAGIC_V2.length ) == FILEFORMAT_VERSION_V2;
+    }
+
+    private static EmulationState readV2(ByteBuffer file) throws IOException 
+    {
+        if ( file.remaining() < V2_HEADER_SIZE || ! isV2Magic( file ) ) {
+            throw new IOException("File magic not recognized");
+        }
+        final int count = file.getInt( MAGIC_V2.length + 1 );
+        final int tocSize = count * V2_TOC_ENTRY_SIZE;
+        if ( count < 0 || V2_HEADER_SIZE + tocSize > file.limit() ) {
+            throw new IOException("File corrupted - bad entry count "+count);
+        }
+        final ByteBuffer toc = ByteBuffer.wrap( file.array() , V2_HEADER_SIZE , tocSize ).slice();
+
+        final EmulationState result = new EmulationState();
+        final Inflater inflater = new Inflater();
+        try 
+        {
+            final CRC32 crc = new CRC32();
+            for ( int i = 0 ; i < count ; i++ ) 
+            {
+                final int tocOffset = i * V2_TOC_ENTRY_SIZE;
+                final long fileOffset = toc.getLong( tocOffset + 3 );
+                final int storedLength = toc.getInt( tocOffset + 11 );
+                if ( fileOffset < 0 || fileOffset + storedLength > file.limit() ) {
+                    throw new IOException("File corrupted - entry #"+i+" is out of bounds");
+                }
+                result.add( readV2Entry( toc , tocOffset , file.array() , (int) fileOffset , inflater , crc ) );
+            }
+        } 
+        finally {
+            inflater.end();
+        }
+        validate( result );
+        return result;
+    }
+
+    private static EmulationStateEntry readV2Entry(ByteBuffer toc,int tocOffset,byte[] data,int dataOffset,Inflater inflater,CRC32 crc) throws IOException 
+    {
+        final EntryType type = EntryType.fromTypeId( toc.get( tocOffset ) );
+        final byte version = toc.get( tocOffset + 1 );
+        final int flags = toc.get( tocOffset + 2 );
+        final int storedLength = toc.getInt( tocOffset + 11 );
+        final int payloadLength = toc.getInt( tocOffset + 15 );
+        final int expectedCRC = toc.getInt( tocOffset + 19 );
+
+        crc.reset();
+        crc.update( data , dataOffset , storedLength );
+        if ( (int) crc.getValue() != expectedCRC ) {
+            throw new IOException("File corrupted - checksum violation on entry "+type);
+        }
+
+        final byte[] payload;
+        if ( ( flags & FLAG_DEFLATED ) != 0 ) 
+        {
+            payload = new byte[ payloadLength ];
+            inflater.reset();
+            inflater.setInput( data , dataOffset , storedLength );
+            try 
+            {
+                int len = 0;
+                while ( len < payloadLength && ! inflater.finished() ) 
+                {
+                    final int inflated = inflater.inflate( payload , len , payloadLength - len );
+                    if ( inflated == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) ) {
+                        break;
+                    }
+                    len += inflated;
+                }
+                if ( len != payloadLength ) {
+                    throw new IOException("File corrupted - entry "+type+" has bad length");
+                }
+            } 
+            catch (DataFormatException e) {
+                throw new IOException("File corrupted - failed to decompress entry "+type,e);
+            }
+        } else {
+            payload = Arrays.copyOfRange( data , dataOffset , dataOffset + storedLength );
+        }
+
+        final EmulationStateEntry result = new EmulationStateEntry( type , version , payload );
+        result.setChecksum( result.calcChecksum() );
+        return result;
+    }
+
+    private static EmulationState readV1(InputStream in) throws IOException 
     {
         final EmulationState result = new EmulationState();
         EmulationStateEntry entry=null;
@@ -280,6 +522,12 @@ public class EmulationState
             result.add( entry );
         }
 
+        validate( result );
+        return result;
+    }
+
+    private static void validate(EmulationState result) throws IOException 
+    {
         if ( ! result.hasEntries() ) {
             throw new EOFException("File is empty");
         }
@@ -304,8 +552,6 @@ public class EmulationState
         if ( headerCount != result.entries.size() ) {
             throw new IOException("Expected "+headerCount+" header entries but got only "+result.entries.size());
         }
-
-        return result;
     }
 
     private static EmulationStateEntry readEntry(InputStream in) throws IOException 
@@ -319,9 +565,14 @@ public class EmulationState
         final int checksum = readIntNoTag( in );
         final int payloadLength = readIntNoTag( in );
         final byte[] payload = new byte[ payloadLength ];
-        for ( int i = 0 ; i < payloadLength ; i++ ) 
+        int offset = 0;
+        while ( offset < payloadLength ) 
         {
-            payload[i] = (byte) readByteNoTag( in ); 
+            final int bytesRead = in.read( payload , offset , payloadLength - offset );
+            if ( bytesRead == -1 ) {
+                throw new EOFException("Premature end of file");
+            }
+            offset += bytesRead;
         }
 
         final EmulationStateEntry result = new EmulationStateEntry( type , version , payload );
@@ -344,6 +595,16 @@ public class EmulationState
             checksum = 31*checksum + index * ( b & 0xff );
         }
 
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            int value = checksum;
+            for ( int i = off , end = off + len ; i < end ; i++ ) {
+                value = 31*value + index * ( b[i] & 0xff );
+            }
+            checksum = value;
+        }
+
         public void reset() {
             checksum = 0;
             index = 1;
@@ -376,7 +637,7 @@ public class EmulationState
     }
 
 
-    public void write(OutputStream out) throws IOException 
+    private void updateChecksums() 
     {
         @SuppressWarnings("resource")
         final ChecksumCalculator chksum = new ChecksumCalculator(); 
@@ -388,7 +649,114 @@ public class EmulationState
                 setHeaderCount( entry , entries.size() );
             }
             entry.setChecksum( entry.calcChecksum( chksum ).checksum );
+        }
+    }
 
+    /**
+     * Writes this state using the current (version 2) file format.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void write(OutputStream out) throws IOException 
+    {
+        for ( ByteBuffer buffer : toV2Buffers() ) {
+            out.write( buffer.array() , buffer.arrayOffset() + buffer.position() , buffer.remaining() );
+        }
+    }
+
+    /**
+     * Writes this state to a file using the current (version 2) file format.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException 
+    {
+        final ByteBuffer[] buffers = toV2Buffers();
+        try ( FileChannel channel = FileChannel.open( file , StandardOpenOption.CREATE , StandardOpenOption.TRUNCATE_EXISTING , StandardOpenOption.WRITE ) ) 
+        {
+            long remaining = 0;
+            for ( ByteBuffer buffer : buffers ) {
+                remaining += buffer.remaining();
+            }
+            while ( remaining > 0 ) {
+                remaining -= channel.write( buffers );
+            }
+        }
+    }
+
+    private ByteBuffer[] toV2Buffers() 
+    {
+        updateChecksums();
+
+        final int count = entries.size();
+        final ByteBuffer[] result = new ByteBuffer[ 1 + count ];
+        final ByteBuffer toc = ByteBuffer.allocate( V2_HEADER_SIZE + count * V2_TOC_ENTRY_SIZE );
+        toc.put( MAGIC_V2 ).put( FILEFORMAT_VERSION_V2 ).putInt( count );
+
+        final Deflater deflater = new Deflater();
+        try 
+        {
+            final CRC32 crc = new CRC32();
+            long fileOffset = toc.capacity();
+            for ( int i = 0 ; i < count ; i++ ) 
+            {
+                final EmulationStateEntry entry = entries.get(i);
+                final byte[] payload = entry.payload == null ? new byte[0] : entry.payload;
+                byte[] stored = deflate( payload , deflater );
+                final int flags = stored != null ? FLAG_DEFLATED : 0;
+                if ( stored == null ) {
+                    stored = payload;
+                }
+                crc.reset();
+                crc.update( stored , 0 , stored.length );
+
+                toc.put( entry.type.typeId ).put( entry.version ).put( (byte) flags ).putLong( fileOffset );
+                toc.putInt( stored.length ).putInt( payload.length ).putInt( (int) crc.getValue() );
+                fileOffset += stored.length;
+                result[ 1 + i ] = ByteBuffer.wrap( stored );
+            }
+        } 
+        finally {
+            deflater.end();
+        }
+        toc.flip();
+        result[0] = toc;
+        return result;
+    }
+
+    /**
+     * 
+     * @param payload
+     * @param deflater
+     * @return compressed data or <code>null</code> if compression would not reduce the size
+     */
+    private static byte[] deflate(byte[] payload,Deflater deflater) 
+    {
+        deflater.reset();
+        deflater.setInput( payload );
+        deflater.finish();
+        final byte[] buffer = new byte[ payload.length ];
+        int len = 0;
+        while ( ! deflater.finished() && len < buffer.length ) {
+            len += deflater.deflate( buffer , len , buffer.length - len );
+        }
+        return deflater.finished() && len < payload.length ? Arrays.copyOf( buffer , len ) : null;
+    }
+
+    /**
+     * Writes this state using the legacy (version 1) file format.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeV1(OutputStream out) throws IOException 
+    {
+        updateChecksums();
+
+        for ( EmulationStateEntry entry : entries ) 
+        {
             out.write( entry.type.typeId );
             out.write( entry.version );
             writeIntNoTag( entry.checksum , out );
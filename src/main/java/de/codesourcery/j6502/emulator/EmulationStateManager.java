@@ -3,6 +3,7 @@ package de.codesourcery.j6502.emulator;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
 
 import org.apache.commons.lang.Validate;
 
@@ -20,39 +21,62 @@ public class EmulationStateManager
     }
 
     public void restoreEmulationState(InputStream in ) throws IOException {
+        restoreEmulationState( EmulationState.read( in ) );
+    }
 
-        driver.invokeAndWait(emulator -> 
-        {
-            final EmulationState state = EmulationState.read( in );
-            emulator.reset();
+    public void restoreEmulationState(Path file) throws IOException {
+        restoreEmulationState( EmulationState.read( file ) );
+    }
 
-            // restore C64 memory
-            emulator.getMemory().restoreState( state );
+    private void restoreEmulationState(EmulationState state) throws IOException {
 
-            // restore C64 CPU state
-            final EmulationStateEntry entry = state.getEntry( EntryType.C64_CPU );
-            emulator.cpu.restoreState( entry.getPayload() );
+        driver.invokeAndWait(emulator -> applyEmulationState( emulator , state ) );
+    }
+
+    static void applyEmulationState(Emulator emulator,EmulationState state) 
+    {
+        emulator.reset();
 
-            // FIXME: restore floppy state as well
-        });
+        // restore C64 memory
+        emulator.getMemory().restoreState( state );
+
+        // restore C64 CPU state
+        final EmulationStateEntry entry = state.getEntry( EntryType.C64_CPU );
+        emulator.cpu.restoreState( entry.getPayload() );
+
+        // FIXME: restore floppy state as well
     }
 
     public void saveEmulationState(OutputStream out) throws IOException 
     {
-        driver.invokeAndWait(emulator -> 
-        {
-            final EmulationState state = EmulationState.newInstance();
-            // save C64 memory
-            emulator.getMemory().saveState( state );
-
-            // save C64 CPU state
-            final EmulationStateEntry entry = new EmulationStateEntry( EntryType.C64_CPU , (byte) 1 );
-            entry.setPayload( emulator.cpu.getState() );
-            state.add( entry );
-
-            // FIXME: save floppy state            
-            state.write( out );
-            System.out.println("=============\nState\n==========="+state);
-        });
+        captureEmulationState().write( out );
+    }
+
+    public void saveEmulationState(Path file) throws IOException 
+    {
+        captureEmulationState().write( file );
+    }
+
+    private EmulationState captureEmulationState() throws IOException 
+    {
+        final EmulationState[] state = { null };
+        driver.invokeAndWait(emulator -> state[0] = captureEmulationState( emulator ) );
+        System.out.println("=============\nState\n==========="+state[0]);
+        return state[0];
+    }
+
+    static EmulationState captureEmulationState(Emulator emulator) 
+    {
+        final EmulationState state = EmulationState.newInstance();
+        // save C64 memory
+        emulator.getMemory().saveState( state );
+
+        // save C64 CPU state
+        final EmulationStateEntry entry = new EmulationStateEntry( EntryType.C64_CPU , (byte) 1 );
+        entry.setPayload( emulator.cpu.getState() );
+        state.add( entry );
+
+        // FIXME: save floppy state            
+        return state;
     }
 }
\ No newline at end of file
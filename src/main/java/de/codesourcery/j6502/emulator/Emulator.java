@@ -29,6 +29,13 @@ public class Emulator
 	
 	private final CPUImpl cpuImpl;
 
+	private InputLog.Recorder inputRecorder;
+	private InputLog.Player inputPlayer;
+
+	private InstructionTracer instructionTracer;
+	private Profiler profiler;
+	private EmulatorMetrics metrics;
+
 	public Emulator() {
 		cpuImpl = new CPUImpl( cpu , memory );
 	}
@@ -66,6 +73,9 @@ public class Emulator
 
 	public void reset()
 	{
+	    if ( inputRecorder != null ) {
+	        inputRecorder.beforeReset();
+	    }
 	    externalHwBreakpointReached = false;
 	    
 		memory.reset();
@@ -82,10 +92,20 @@ public class Emulator
 		cpu.reset();
 		
 		totalCycles = 0;
+
+		if ( inputRecorder != null ) {
+		    inputRecorder.afterReset();
+		}
 	}
 
 	public void doOneCycle(EmulatorDriver driver)
 	{
+	    if ( inputRecorder != null ) {
+	        inputRecorder.tick();
+	    } else if ( inputPlayer != null ) {
+	        inputPlayer.tick();
+	    }
+
         /* First (low) half of clock cycle.
          *
          * One period of this signal corresponds to one clock cycle consisting
@@ -94,7 +114,12 @@ public class Emulator
          * the bus in the second (HIGH) clock phase, the VIC normally only in the
          * first (LOW) phase.
          */
-        memory.tick( this , this.cpu , false ); // clock == LOW
+        final EmulatorMetrics sampler = metrics != null && metrics.isSampleCycle() ? metrics : null;
+        if ( sampler == null ) {
+            memory.tick( this , this.cpu , false ); // clock == LOW
+        } else {
+            memory.ioArea.tickSampled( this , this.cpu , false , sampler );
+        }
 
         /*
          * Second (high) half of clock cycle.
@@ -103,10 +128,14 @@ public class Emulator
         boolean internalHwBreakpointReached = false;
         if ( --this.cpu.cycles == 0 ) // wait until current command has 'finished' executing
         {
+            final long cpuStartTime = sampler == null ? 0 : System.nanoTime();
             internalHwBreakpointReached = cpu.isBreakpointReached(); 
             
             if ( this.cpu.handleInterrupt() ) {
                 this.cpu.cycles+=7; // delay executing first IRQ routine instruction by 7 clock cycles , that's how long the 6510 takes to jump to an IRQ
+                if ( profiler != null ) {
+                    profiler.interruptTaken( cpu , 7 );
+                }
             } 
             else
             {
@@ -131,15 +160,35 @@ public class Emulator
                     });
                 }
     
-                cpuImpl.executeInstruction();
+                if ( instructionTracer != null ) {
+                    instructionTracer.trace( cpu , memory , memory.ioArea.cia1.tickCounter );
+                }
+                if ( profiler == null ) {
+                    cpuImpl.executeInstruction();
+                } 
+                else 
+                {
+                    final int pc = cpu.pc();
+                    final int opcode = memory.readByteNoSideEffects( pc );
+                    final int sp = cpu.getSP();
+                    cpuImpl.executeInstruction();
+                    profiler.instructionExecuted( pc , opcode , sp , cpu );
+                }
     
                 if ( PRINT_DISASSEMBLY ) {
                     System.out.println( cpu );
                 }
             }
+            if ( sampler != null ) {
+                sampler.addChipTime( EmulatorMetrics.Chip.CPU , System.nanoTime() - cpuStartTime );
+            }
         }
 
-        memory.tick( this , cpu , true ); // clock == HIGH
+        if ( sampler == null ) {
+            memory.tick( this , cpu , true ); // clock == HIGH
+        } else {
+            memory.ioArea.tickSampled( this , cpu , true , sampler );
+        }
         
         if ( internalHwBreakpointReached || externalHwBreakpointReached ) 
         {
@@ -160,6 +209,82 @@ public class Emulator
 		return memory.ioArea.iecBus;
 	}
 
+    /**
+     * Starts or stops recording external input.
+     * 
+     * @param recorder recorder or <code>null</code> to stop recording
+     * @see InputLog
+     */
+    public void setInputRecorder(InputLog.Recorder recorder) 
+    {
+        if ( recorder != null && inputPlayer != null ) {
+            throw new IllegalStateException("Cannot record while replaying input");
+        }
+        this.inputRecorder = recorder;
+    }
+
+    public InputLog.Recorder getInputRecorder() {
+        return inputRecorder;
+    }
+
+    /**
+     * Starts or stops replaying external input.
+     * 
+     * @param player player or <code>null</code> to stop replaying
+     * @see InputLog
+     */
+    public void setInputPlayer(InputLog.Player player) 
+    {
+        if ( player != null && inputRecorder != null ) {
+            throw new IllegalStateException("Cannot replay while recording input");
+        }
+        this.inputPlayer = player;
+    }
+
+    public InputLog.Player getInputPlayer() {
+        return inputPlayer;
+    }
+
+    /**
+     * Starts or stops tracing instructions executed by the CPU.
+     * 
+     * @param tracer tracer or <code>null</code> to stop tracing
+     */
+    public void setInstructionTracer(InstructionTracer tracer) {
+        this.instructionTracer = tracer;
+    }
+
+    public InstructionTracer getInstructionTracer() {
+        return instructionTracer;
+    }
+
+    /**
+     * Starts or stops profiling code executed by the CPU.
+     * 
+     * @param profiler profiler or <code>null</code> to stop profiling
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Starts or stops measuring the time spent in each chip.
+     * 
+     * @param metrics metrics or <code>null</code> to stop measuring
+     * @see EmulatorDriver#setMetrics(EmulatorMetrics)
+     */
+    public void setMetrics(EmulatorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public EmulatorMetrics getMetrics() {
+        return metrics;
+    }
+
     public void setExternalHwBreakpointReached() {
         externalHwBreakpointReached = true;
     }
@@ -6,6 +6,7 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -20,6 +21,12 @@ public abstract class EmulatorDriver extends Thread
 {
     private static final AtomicLong CMD_ID = new AtomicLong(0);
 
+    // wall-clock time one batch of cycles takes on real hardware
+    private static final long NANOS_PER_BATCH = Constants.EMULATORDRIVER_TRUE_SPEED_BATCH_CYCLES * 1_000_000_000L / Constants.EMULATORDRIVER_TRUE_SPEED_HZ;
+
+    // how far the emulation may fall behind real-time before giving up on catching up
+    private static final long MAX_LAG_NANOS = 4 * NANOS_PER_BATCH;
+
     public final AtomicReference<Throwable> mostRecentException = new AtomicReference<Throwable>();
 
     public static enum Mode { SINGLE_STEP , CONTINOUS; }
@@ -28,10 +35,16 @@ public abstract class EmulatorDriver extends Thread
 
     protected final Emulator emulator;
 
-    public double dummyValue; // just used to prevent the compiler from optimizing away our delay loop
-
     protected final ArrayBlockingQueue<Cmd> requestQueue = new ArrayBlockingQueue<>(10);
 
+    // set when a command got enqueued, polled by the emulation thread after each cycle
+    // so it doesn't need to touch the queue's lock while running
+    private volatile boolean commandsPending;
+
+    // only accessed by the emulation thread
+    private RewindBuffer rewindBuffer;
+    private EmulatorMetrics metrics;
+
     public interface ThrowingConsumer<X> 
     {
         public void accept(X obj) throws Exception;
@@ -144,6 +157,8 @@ public abstract class EmulatorDriver extends Thread
         
         private final CountDownLatch ackLatch = new CountDownLatch(1);
 
+        private long enqueueTime;
+
         public Cmd(CmdType type,boolean ackRequired) {
             this(type,ackRequired,null);
         }
@@ -179,10 +194,13 @@ public abstract class EmulatorDriver extends Thread
             if ( Constants.EMULATORDRIVER_DEBUG_CMDS ) {
                 System.out.println("EmulatorDriver: enqueing "+this);
             }
+            enqueueTime = System.nanoTime();
             while( true ) 
             {
                 try {
                     requestQueue.put( this );
+                    commandsPending = true;
+                    LockSupport.unpark( EmulatorDriver.this ); // wake up emulation thread if it's sleeping in sleepUntil()
                     break;
                 } catch (final InterruptedException e) {
                     e.printStackTrace();
@@ -346,15 +364,16 @@ public abstract class EmulatorDriver extends Thread
     {
         boolean isRunnable = false;
 
-        long startTime = System.currentTimeMillis();
+        long startTime = System.nanoTime();
         long cyclesUntilNextTick = Constants.EMULATORDRIVER_CALLBACK_INVOKE_CYCLES;
-
-        int delayIterationsCount=90;
-
-        boolean adjustDelayLoop = currentMode.get() == Mode.CONTINOUS;
+        long cyclesSinceMetricsUpdate = 0;
 
         boolean runAtTrueSpeed = true;
 
+        // time by which the current batch of cycles should be done when running at true speed
+        long batchDeadline = startTime;
+        int cyclesUntilBatchEnd = Constants.EMULATORDRIVER_TRUE_SPEED_BATCH_CYCLES;
+
         Cmd cmd = null;
 
         BreakpointsController brkCtrl = getBreakPointsController();
@@ -364,35 +383,49 @@ public abstract class EmulatorDriver extends Thread
             {
                 if ( isRunnable )
                 {
-                    cmd = requestQueue.poll();
-                    if ( cmd != null )
+                    if ( commandsPending ) 
                     {
-                        if ( Constants.EMULATORDRIVER_DEBUG_CMDS ) {
-                            System.out.println("EmulatorDriver: (runnable) Received cmd "+cmd);
-                        }
-                        try 
+                        // clear flag before draining the queue so that commands enqueued concurrently are not missed
+                        commandsPending = false;
+                        while ( isRunnable && ( cmd = requestQueue.poll() ) != null )
                         {
-                            switch( cmd.type )
+                            if ( Constants.EMULATORDRIVER_DEBUG_CMDS ) {
+                                System.out.println("EmulatorDriver: (runnable) Received cmd "+cmd);
+                            }
+                            try 
                             {
-                                case MAX_SPEED:
-                                    runAtTrueSpeed = false;
-                                    continue;
-                                case STOP:
-                                    isRunnable = false;                            
-                                    continue;
-                                case TRUE_SPEED:
-                                    runAtTrueSpeed = true;
-                                    continue;
-                                case RUNNABLE:
-                                    ((RunnableCmd) cmd).visitor.accept( emulator );
-                                    continue; // start over as the Runnable might've issued a new command that needs processing
-                                case START:
-                                    break;
-                                default:
-                                    throw new RuntimeException("Unreachable code reached");
-                            }       
-                        } finally {
-                            cmd.ackIfNecessary();
+                                switch( cmd.type )
+                                {
+                                    case MAX_SPEED:
+                                        runAtTrueSpeed = false;
+                                        break;
+                                    case STOP:
+                                        isRunnable = false;                            
+                                        break;
+                                    case TRUE_SPEED:
+                                        if ( ! runAtTrueSpeed ) 
+                                        {
+                                            runAtTrueSpeed = true;
+                                            batchDeadline = System.nanoTime();
+                                            cyclesUntilBatchEnd = Constants.EMULATORDRIVER_TRUE_SPEED_BATCH_CYCLES;
+                                        }
+                                        break;
+                                    case RUNNABLE:
+                                        // the Runnable might issue new commands , these will be picked up by the loop
+                                        ((RunnableCmd) cmd).visitor.accept( emulator );
+                                        break; 
+                                    case START:
+                                        break;
+                                    default:
+                                        throw new RuntimeException("Unreachable code reached");
+                                }       
+                            } finally {
+                                commandProcessed( cmd );
+                                cmd.ackIfNecessary();
+                            }
+                        }
+                        if ( ! isRunnable ) {
+                            continue;
                         }
                     }
                 }
@@ -435,67 +468,85 @@ public abstract class EmulatorDriver extends Thread
                                     throw new RuntimeException("Unreachable code reached");
                             }
                         } finally {
+                            commandProcessed( cmd );
                             cmd.ackIfNecessary();
                         }
                     }
 
                     mostRecentException.set(null);                
                     cyclesUntilNextTick = Constants.EMULATORDRIVER_CALLBACK_INVOKE_CYCLES;
-                    startTime = System.currentTimeMillis();
-                    adjustDelayLoop = currentMode.get() == Mode.CONTINOUS;
+                    startTime = System.nanoTime();
+                    cyclesSinceMetricsUpdate = 0;
+                    batchDeadline = startTime;
+                    cyclesUntilBatchEnd = Constants.EMULATORDRIVER_TRUE_SPEED_BATCH_CYCLES;
                     brkCtrl = getBreakPointsController();
 
                     onStart();
                 }
 
-                // delay loop
-                if ( runAtTrueSpeed ) 
+                // run cycles until the next callback invocation/sleep is due, a breakpoint is hit
+                // or a command needs processing
+                int batchSize = (int) ( runAtTrueSpeed ? Math.min( cyclesUntilNextTick , cyclesUntilBatchEnd ) : cyclesUntilNextTick );
+                final RewindBuffer rewind = rewindBuffer;
+                if ( rewind != null ) {
+                    batchSize = Math.min( batchSize , rewind.getCyclesUntilNextFrame() );
+                }
+                int cyclesExecuted = 0;
+                while ( cyclesExecuted < batchSize ) 
                 {
-                    double dummy = 0;
-                    for ( int i = delayIterationsCount ; i > 0 ; i-- ) {
-                        dummy += Math.sqrt( i );
+                    emulator.doOneCycle(this);
+                    cyclesExecuted++;
+
+                    if ( brkCtrl.checkIsAtBreakpoint() ) 
+                    {
+                        isRunnable = false;
+                        cmd = stopCommand( false , true ); // assign to cmd so that next loop iteration will know why we stopped execution
+                        sendCmd( cmd );
+                        break;
+                    }
+                    if ( commandsPending ) {
+                        break;
                     }
-                    this.dummyValue=dummy;
                 }
 
-                emulator.doOneCycle(this);
+                cyclesUntilNextTick -= cyclesExecuted;
+                cyclesSinceMetricsUpdate += cyclesExecuted;
 
-                cyclesUntilNextTick--;
+                if ( rewind != null ) {
+                    rewind.cyclesExecuted( cyclesExecuted );
+                }
 
-                if ( brkCtrl.checkIsAtBreakpoint() ) 
+                if ( runAtTrueSpeed && ( cyclesUntilBatchEnd -= cyclesExecuted ) <= 0 ) 
                 {
-                    isRunnable = false;
-                    cmd = stopCommand( false , true ); // assign to cmd so that next loop iteration will know why we stopped execution
-                    sendCmd( cmd );                        
+                    // batch done, sleep until real hardware would've finished it as well
+                    cyclesUntilBatchEnd = Constants.EMULATORDRIVER_TRUE_SPEED_BATCH_CYCLES;
+                    batchDeadline += NANOS_PER_BATCH;
+                    final long lag = System.nanoTime() - batchDeadline;
+                    if ( lag > MAX_LAG_NANOS ) {
+                        batchDeadline += lag; // host too slow or got suspended , resynchronize instead of running at max. speed to catch up
+                    } else {
+                        sleepUntil( batchDeadline );
+                    }
                 }
 
-                if ( cyclesUntilNextTick < 0 )
+                if ( cyclesUntilNextTick <= 0 )
                 {
                     if ( Constants.EMULATORDRIVER_INVOKE_CALLBACK ) {
                         tick();
                     }
 
-                    // adjust delay loop
-                    final long now = System.currentTimeMillis();
-                    final float cyclesPerSecond = Constants.EMULATORDRIVER_CALLBACK_INVOKE_CYCLES / ( (now - startTime ) / 1000f );
-                    final float khz = cyclesPerSecond / 1000f;
+                    final long now = System.nanoTime();
                     if ( Constants.EMULATORDRIVER_PRINT_SPEED )
                     {
-                        System.out.println("CPU frequency: "+khz+" kHz (delay iterations: "+delayIterationsCount+") "+this.dummyValue);
+                        final float cyclesPerSecond = Constants.EMULATORDRIVER_CALLBACK_INVOKE_CYCLES / ( (now - startTime ) / 1_000_000_000f );
+                        System.out.println("CPU frequency: "+(cyclesPerSecond / 1000f)+" kHz");
                     }
-                    if ( adjustDelayLoop && runAtTrueSpeed )
-                    {
-                        if ( khz >= 1000 ) {
-                            delayIterationsCount++;
-                        }
-                        else if ( khz < 950 )
-                        {
-                            delayIterationsCount--;
-                        }
+                    if ( metrics != null ) {
+                        metrics.update( cyclesSinceMetricsUpdate , now - startTime , emulator.getVIC() );
                     }
+                    cyclesSinceMetricsUpdate = 0;
                     startTime = now;
                     cyclesUntilNextTick = Constants.EMULATORDRIVER_CALLBACK_INVOKE_CYCLES;
-                    adjustDelayLoop = currentMode.get() == Mode.CONTINOUS;
                     brkCtrl = getBreakPointsController();
                 }
             }
@@ -513,6 +564,26 @@ public abstract class EmulatorDriver extends Thread
         } // end while (true)
     }
 
+    /**
+     * Sleeps until a given point in time, returns early if a command got enqueued.
+     *
+     * @param deadline {@link System#nanoTime()} value to sleep until
+     */
+    private void sleepUntil(long deadline)
+    {
+        long remaining;
+        while ( ( remaining = deadline - System.nanoTime() ) > 0 && ! commandsPending ) {
+            LockSupport.parkNanos( this , remaining );
+        }
+    }
+
+    private void commandProcessed(Cmd cmd) 
+    {
+        if ( metrics != null ) {
+            metrics.commandProcessed( System.nanoTime() - cmd.enqueueTime );
+        }
+    }
+
     public void singleStep(CPU cpu) throws RuntimeException
     {
         setMode(Mode.SINGLE_STEP);
@@ -522,11 +593,15 @@ public abstract class EmulatorDriver extends Thread
             try 
             {
                 long cycles = cpu.cycles;
+                final int cyclesExecuted = (int) cycles + 1;
                 while ( cycles > 0 ) {
                     emulator.doOneCycle(this);
                     cycles--;
                 }
                 emulator.doOneCycle(this);
+                if ( rewindBuffer != null ) {
+                    rewindBuffer.cyclesExecuted( cyclesExecuted );
+                }
             } 
             catch(RuntimeException e) 
             {
@@ -536,6 +611,75 @@ public abstract class EmulatorDriver extends Thread
         });
     }
 
+    /**
+     * Enables or disables recording emulation state for rewinding.
+     *
+     * @param enabled
+     */
+    public void setRewindEnabled(boolean enabled)
+    {
+        invokeAndWait( emulator -> 
+        {
+            if ( enabled && rewindBuffer == null ) {
+                rewindBuffer = new RewindBuffer( emulator );
+            } else if ( ! enabled ) {
+                rewindBuffer = null;
+            }
+        });
+    }
+
+    /**
+     * Starts or stops collecting runtime metrics.
+     *
+     * @param metrics metrics to update or <code>null</code> to stop collecting
+     */
+    public void setMetrics(EmulatorMetrics metrics)
+    {
+        invokeAndWait( emulator -> 
+        {
+            this.metrics = metrics;
+            emulator.setMetrics( metrics );
+        });
+    }
+
+    public boolean isRewindEnabled()
+    {
+        final CallbackWithResult<Boolean> callback = new CallbackWithResult<>( emulator -> rewindBuffer != null );
+        invokeAndWait( callback );
+        return callback.getResult();
+    }
+
+    /**
+     * Stops the emulation and rewinds it by a number of frames.
+     *
+     * @param frames
+     * @return <code>false</code> if rewinding is disabled or nothing has been recorded yet
+     * @see #setRewindEnabled(boolean)
+     */
+    public boolean stepBack(int frames)
+    {
+        setMode(Mode.SINGLE_STEP);
+        final CallbackWithResult<Boolean> callback = new CallbackWithResult<>( emulator -> rewindBuffer != null && rewindBuffer.stepBack( frames ) );
+        invokeAndWait( callback );
+        return callback.getResult();
+    }
+
+    /**
+     * Stops the emulation and rewinds it to the most recent point in time when the
+     * program counter changed to a given address.
+     *
+     * @param pc
+     * @return <code>false</code> if rewinding is disabled or the address could not be found in the recorded history
+     * @see #setRewindEnabled(boolean)
+     */
+    public boolean runBackTo(int pc)
+    {
+        setMode(Mode.SINGLE_STEP);
+        final CallbackWithResult<Boolean> callback = new CallbackWithResult<>( emulator -> rewindBuffer != null && rewindBuffer.runBackTo( pc , this ) );
+        invokeAndWait( callback );
+        return callback.getResult();
+    }
+
     public Throwable getMostRecentException() {
         return mostRecentException.get();
     }
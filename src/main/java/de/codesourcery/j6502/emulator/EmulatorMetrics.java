@@ -0,0 +1,341 @@
+package de.codesourcery.j6502.emulator;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import de.codesourcery.j6502.Constants;
+
+/**
+ * Collects runtime metrics about the emulation itself (emulated clock speed , time spent per chip ,
+ * frame rate , command latency and GC activity).
+ *
+ * <p>Counters are updated by the emulation thread only and get published as an immutable {@link Snapshot}
+ * every time the {@link EmulatorDriver} invokes its periodic callback, so polling {@link #getSnapshot()} (or the
+ * {@link EmulatorMetricsMXBean JMX attributes}) from any thread is cheap and never slows down the emulation.</p>
+ *
+ * <p>Time spent per chip is not measured on every cycle, only every {@link Constants#METRICS_SAMPLE_INTERVAL}-th cycle gets
+ * timed and the results are reported as shares of the sampled total.</p>
+ *
+ * @see EmulatorDriver#setMetrics(EmulatorMetrics)
+ */
+public final class EmulatorMetrics implements EmulatorMetricsMXBean
+{
+    public static final String OBJECT_NAME = "de.codesourcery.j6502:type=EmulatorMetrics";
+
+    public static enum Chip { CPU , VIC , CIA , IEC , DRIVE }
+
+    private static final Chip[] CHIPS = Chip.values();
+
+    /**
+     * Metrics at a point in time, rates refer to the period since the previous snapshot.
+     */
+    public static final class Snapshot
+    {
+        public final long timestamp;
+        public final long emulatedCycles;
+        public final double emulatedMHz;
+        public final double hostNanosPerCycle;
+        private final double[] timeShares;
+        public final long framesRendered;
+        public final long framesSkipped;
+        public final double framesPerSecond;
+        public final double averageCommandLatencyMicros;
+        public final double maxCommandLatencyMicros;
+        public final long gcCount;
+        public final long gcTimeMillis;
+        public final double allocationRateBytesPerSecond;
+
+        private Snapshot(long timestamp, long emulatedCycles, double emulatedMHz, double hostNanosPerCycle, double[] timeShares,
+                long framesRendered, long framesSkipped, double framesPerSecond, double averageCommandLatencyMicros,
+                double maxCommandLatencyMicros, long gcCount, long gcTimeMillis, double allocationRateBytesPerSecond)
+        {
+            this.timestamp = timestamp;
+            this.emulatedCycles = emulatedCycles;
+            this.emulatedMHz = emulatedMHz;
+            this.hostNanosPerCycle = hostNanosPerCycle;
+            this.timeShares = timeShares;
+            this.framesRendered = framesRendered;
+            this.framesSkipped = framesSkipped;
+            this.framesPerSecond = framesPerSecond;
+            this.averageCommandLatencyMicros = averageCommandLatencyMicros;
+            this.maxCommandLatencyMicros = maxCommandLatencyMicros;
+            this.gcCount = gcCount;
+            this.gcTimeMillis = gcTimeMillis;
+            this.allocationRateBytesPerSecond = allocationRateBytesPerSecond;
+        }
+
+        /**
+         * Returns the share of the sampled execution time spent in a chip.
+         *
+         * @param chip
+         * @return value between 0 and 1
+         */
+        public double getTimeShare(Chip chip) {
+            return timeShares[ chip.ordinal() ];
+        }
+
+        @Override
+        public String toString()
+        {
+            final StringBuilder result = new StringBuilder();
+            result.append( String.format( "%.3f MHz , %.1f ns/cycle , %.1f fps (%d rendered , %d skipped)" ,
+                    emulatedMHz , hostNanosPerCycle , framesPerSecond , framesRendered , framesSkipped ) );
+            for ( Chip chip : CHIPS ) {
+                result.append( String.format( " , %s %.1f%%" , chip , getTimeShare( chip ) * 100 ) );
+            }
+            result.append( String.format( " , command latency avg/max %.1f/%.1f us" , averageCommandLatencyMicros , maxCommandLatencyMicros ) );
+            result.append( String.format( " , GC %d collections / %d ms , %.1f MB/s allocated" , gcCount , gcTimeMillis , allocationRateBytesPerSecond / ( 1024*1024 ) ) );
+            return result.toString();
+        }
+    }
+
+    private static final Snapshot EMPTY = new Snapshot( 0 , 0 , 0 , 0 , new double[ CHIPS.length ] , 0 , 0 , 0 , 0 , 0 , 0 , 0 , 0 );
+
+    private volatile Snapshot snapshot = EMPTY;
+
+    // only accessed by the emulation thread
+    private int cyclesUntilSample = Constants.METRICS_SAMPLE_INTERVAL;
+    private final long[] chipNanos = new long[ CHIPS.length ];
+
+    private long totalCycles;
+    private long lastFramesRendered = -1;
+    private long commandCount;
+    private long commandLatencySum;
+    private long commandLatencyMax;
+    private long lastAllocatedBytes = -1;
+
+    private ObjectName registeredName;
+
+    /**
+     * Invoked by the emulator once per cycle.
+     *
+     * @return <code>true</code> if the execution time of each chip should be measured during the current cycle
+     */
+    boolean isSampleCycle()
+    {
+        if ( --cyclesUntilSample == 0 )
+        {
+            cyclesUntilSample = Constants.METRICS_SAMPLE_INTERVAL;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds time spent in a chip during a sampled cycle.
+     *
+     * @param chip
+     * @param nanos
+     */
+    void addChipTime(Chip chip,long nanos) {
+        chipNanos[ chip.ordinal() ] += nanos;
+    }
+
+    /**
+     * Invoked by the emulation thread after a command has been processed.
+     *
+     * @param latencyNanos time between enqueueing and processing the command
+     */
+    void commandProcessed(long latencyNanos)
+    {
+        commandCount++;
+        commandLatencySum += latencyNanos;
+        if ( latencyNanos > commandLatencyMax ) {
+            commandLatencyMax = latencyNanos;
+        }
+    }
+
+    /**
+     * Publishes a new snapshot.
+     *
+     * Must be invoked by the emulation thread.
+     *
+     * @param cycles number of cycles executed since the previous update
+     * @param elapsedNanos wall-clock time since the previous update
+     * @param vic
+     */
+    void update(long cycles,long elapsedNanos,VIC vic)
+    {
+        totalCycles += cycles;
+        final double seconds = Math.max( 1 , elapsedNanos ) / 1_000_000_000d;
+
+        long sampledNanos = 0;
+        for ( long value : chipNanos ) {
+            sampledNanos += value;
+        }
+        final double[] timeShares = new double[ CHIPS.length ];
+        for ( int i = 0 ; i < CHIPS.length ; i++ )
+        {
+            timeShares[i] = sampledNanos == 0 ? 0 : chipNanos[i] / (double) sampledNanos;
+            chipNanos[i] = 0;
+        }
+
+        final long framesRendered = vic.getFramesRendered();
+        final double framesPerSecond = lastFramesRendered == -1 ? 0 : ( framesRendered - lastFramesRendered ) / seconds;
+        lastFramesRendered = framesRendered;
+
+        long gcCount = 0;
+        long gcTime = 0;
+        for ( GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans() )
+        {
+            gcCount += Math.max( 0 , bean.getCollectionCount() );
+            gcTime += Math.max( 0 , bean.getCollectionTime() );
+        }
+
+        final long allocatedBytes = getAllocatedBytes();
+        final double allocationRate = lastAllocatedBytes == -1 || allocatedBytes == -1 ? 0 : ( allocatedBytes - lastAllocatedBytes ) / seconds;
+        lastAllocatedBytes = allocatedBytes;
+
+        snapshot = new Snapshot( System.currentTimeMillis() , totalCycles , cycles / seconds / 1_000_000d , elapsedNanos / (double) Math.max( 1 , cycles ) ,
+                timeShares , framesRendered , Math.max( 0 , framesRendered - vic.getFramesDisplayed() ) , framesPerSecond ,
+                commandCount == 0 ? 0 : commandLatencySum / (double) commandCount / 1000d , commandLatencyMax / 1000d ,
+                gcCount , gcTime , allocationRate );
+
+        commandCount = 0;
+        commandLatencySum = 0;
+        commandLatencyMax = 0;
+    }
+
+    private static long getAllocatedBytes()
+    {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if ( bean instanceof com.sun.management.ThreadMXBean )
+        {
+            final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if ( sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled() ) {
+                return sunBean.getThreadAllocatedBytes( Thread.currentThread().getId() );
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the most recent metrics.
+     *
+     * @return
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Registers this instance with the platform MBean server as {@link #OBJECT_NAME}.
+     *
+     * An already registered instance gets replaced.
+     */
+    public synchronized void register()
+    {
+        try
+        {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName( OBJECT_NAME );
+            if ( server.isRegistered( name ) ) {
+                server.unregisterMBean( name );
+            }
+            server.registerMBean( this , name );
+            registeredName = name;
+        }
+        catch(JMException e) {
+            throw new RuntimeException("Failed to register "+OBJECT_NAME,e);
+        }
+    }
+
+    public synchronized void unregister()
+    {
+        if ( registeredName != null )
+        {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean( registeredName );
+            }
+            catch(JMException e) {
+                throw new RuntimeException("Failed to unregister "+OBJECT_NAME,e);
+            }
+            registeredName = null;
+        }
+    }
+
+    @Override
+    public long getEmulatedCycles() {
+        return snapshot.emulatedCycles;
+    }
+
+    @Override
+    public double getEmulatedMHz() {
+        return snapshot.emulatedMHz;
+    }
+
+    @Override
+    public double getHostNanosPerCycle() {
+        return snapshot.hostNanosPerCycle;
+    }
+
+    @Override
+    public double getCpuTimeShare() {
+        return snapshot.getTimeShare( Chip.CPU );
+    }
+
+    @Override
+    public double getVicTimeShare() {
+        return snapshot.getTimeShare( Chip.VIC );
+    }
+
+    @Override
+    public double getCiaTimeShare() {
+        return snapshot.getTimeShare( Chip.CIA );
+    }
+
+    @Override
+    public double getIecTimeShare() {
+        return snapshot.getTimeShare( Chip.IEC );
+    }
+
+    @Override
+    public double getDriveTimeShare() {
+        return snapshot.getTimeShare( Chip.DRIVE );
+    }
+
+    @Override
+    public long getFramesRendered() {
+        return snapshot.framesRendered;
+    }
+
+    @Override
+    public long getFramesSkipped() {
+        return snapshot.framesSkipped;
+    }
+
+    @Override
+    public double getFramesPerSecond() {
+        return snapshot.framesPerSecond;
+    }
+
+    @Override
+    public double getAverageCommandLatencyMicros() {
+        return snapshot.averageCommandLatencyMicros;
+    }
+
+    @Override
+    public double getMaxCommandLatencyMicros() {
+        return snapshot.maxCommandLatencyMicros;
+    }
+
+    @Override
+    public long getGcCount() {
+        return snapshot.gcCount;
+    }
+
+    @Override
+    public long getGcTimeMillis() {
+        return snapshot.gcTimeMillis;
+    }
+
+    @Override
+    public double getAllocationRateBytesPerSecond() {
+        return snapshot.allocationRateBytesPerSecond;
+    }
+}
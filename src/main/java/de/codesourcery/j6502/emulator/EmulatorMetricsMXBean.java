@@ -0,0 +1,41 @@
+package de.codesourcery.j6502.emulator;
+
+/**
+ * JMX view of {@link EmulatorMetrics}.
+ *
+ * <p>All values are taken from the most recent {@link EmulatorMetrics.Snapshot}.</p>
+ */
+public interface EmulatorMetricsMXBean
+{
+    public long getEmulatedCycles();
+
+    public double getEmulatedMHz();
+
+    public double getHostNanosPerCycle();
+
+    public double getCpuTimeShare();
+
+    public double getVicTimeShare();
+
+    public double getCiaTimeShare();
+
+    public double getIecTimeShare();
+
+    public double getDriveTimeShare();
+
+    public long getFramesRendered();
+
+    public long getFramesSkipped();
+
+    public double getFramesPerSecond();
+
+    public double getAverageCommandLatencyMicros();
+
+    public double getMaxCommandLatencyMicros();
+
+    public long getGcCount();
+
+    public long getGcTimeMillis();
+
+    public double getAllocationRateBytesPerSecond();
+}
@@ -13,7 +13,6 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,72 +42,6 @@ public class G64File
 
 	private static final boolean DEBUG = false;
 
-	/*
-Nybble  Quintuple
-0000    01010 = 10
-0001    01011 = 11
-0010    10010 = 18
-0011    10011 = 19
-0100    01110 = 14
-0101    01111 = 15
-0110    10110 = 22
-0111    10111 = 23
-1000    01001 =  9
-1001    11001 = 25
-1010    11010 = 26
-1011    11011 = 27
-1100    01101 = 13
-1101    11101 = 29
-1110    11110 = 30
-1111    10101 = 21
-	 */
-
-	private static final int INVALID_GCR = 0xffffffff;
-
-	protected static final int[] TO_GCR = new int[] {
-			0b01010,
-			0b01011,
-			0b10010,
-			0b10011,
-			0b01110,
-			0b01111,
-			0b10110,
-			0b10111,
-			0b01001,
-			0b11001,
-			0b11010,
-			0b11011,
-			0b01101,
-			0b11101,
-			0b11110,
-			0b10101
-	};
-
-	protected static final int[] FROM_GCR;
-
-	static
-	{
-		FROM_GCR = new int[32];
-		Arrays.fill(FROM_GCR, INVALID_GCR );
-
-		FROM_GCR[ 10 ] = 0b0000;
-		FROM_GCR[ 11 ] = 0b0001;
-		FROM_GCR[ 18 ] = 0b0010;
-		FROM_GCR[ 19 ] = 0b0011;
-		FROM_GCR[ 14 ] = 0b0100;
-		FROM_GCR[ 15 ] = 0b0101;
-		FROM_GCR[ 22 ] = 0b0110;
-		FROM_GCR[ 23 ] = 0b0111;
-		FROM_GCR[  9 ] = 0b1000;
-		FROM_GCR[ 25 ] = 0b1001;
-		FROM_GCR[ 26 ] = 0b1010;
-		FROM_GCR[ 27 ] = 0b1011;
-		FROM_GCR[ 13 ] = 0b1100;
-		FROM_GCR[ 29 ] = 0b1101;
-		FROM_GCR[ 30 ] = 0b1110;
-		FROM_GCR[ 21 ] = 0b1111;
-	}
-
 	public static enum PartType { HEADER, DATA , SYNC , GAP , UNKNOWN  }
 
 	public static enum ErrorType { CHECKSUM_ERROR , UNKNOWN_BLOCK_ID , INVALID_GCR ,
@@ -486,16 +419,16 @@ a speed zone block for the track.
 
 	protected static final class GCRDecodingResult
 	{
-		public int[] decodedData;
-		public int[] nibblesWithDecodingErrors; // nibble offset, 0 = hi-nibble of first byte, 1 = lo-nibble of first byte, 2 = hi-nibble of second byte, ...
+		public final int xor; // XOR over all decoded bytes
+		public final int[] nibblesWithDecodingErrors; // nibble offset, 0 = hi-nibble of first byte, 1 = lo-nibble of first byte, 2 = hi-nibble of second byte, ...
 
-		public GCRDecodingResult(int[] decodedData, int[] nibblesWithDecodingErrors) {
-			this.decodedData = decodedData;
+		public GCRDecodingResult(int xor, int[] nibblesWithDecodingErrors) {
+			this.xor = xor;
 			this.nibblesWithDecodingErrors = nibblesWithDecodingErrors;
 		}
 
-		public GCRDecodingResult(int[] decodedData) {
-			this.decodedData = decodedData;
+		public GCRDecodingResult(int xor) {
+			this.xor = xor;
 			this.nibblesWithDecodingErrors = EMPTY_ARRAY;
 		}
 	}
@@ -503,6 +436,7 @@ a speed zone block for the track.
 	public final class HeaderPart extends TrackPart
 	{
 		private GCRDecodingResult decodingResult;
+		private boolean checksumValid;
 		private int blockId;
 		private int headerBlockChecksum;
 		private int sector;
@@ -533,8 +467,7 @@ a speed zone block for the track.
 				result.add( new Error(ErrorType.UNKNOWN_BLOCK_ID , 0 ) );
 			}
 
-			final int expectedCheckSum = xor( sector , track , formatIdLo , formatIdHi );
-			if ( headerBlockChecksum != ( expectedCheckSum & 0xff) )
+			if ( ! checksumValid )
 			{
 				result.add( new Error(ErrorType.CHECKSUM_ERROR , 0 ) );
 			}
@@ -552,16 +485,18 @@ a speed zone block for the track.
 		@Override
 		public void read(BitStream bitStream)
 		{
-			decodingResult = readGCRBytes( bitStream , 6 );
+			final byte[] data = new byte[6];
+			decodingResult = readGCRBytes( bitStream , data );
 
-			final int[] data = decodingResult.decodedData;
+			blockId = data[0] & 0xff;
+			headerBlockChecksum = data[1] & 0xff;
+			sector = data[2] & 0xff;
+			track = data[3] & 0xff;
+			formatIdLo = data[4] & 0xff;
+			formatIdHi = data[5] & 0xff;
 
-			blockId = data[0];
-			headerBlockChecksum = data[1];
-			sector = data[2];
-			track = data[3];
-			formatIdLo = data[4];
-			formatIdHi = data[5];
+			// XOR over checksum,sector,track and format ID is zero if the checksum is correct
+			checksumValid = ( decodingResult.xor ^ blockId ) == 0;
 		}
 	}
 
@@ -591,6 +526,7 @@ a speed zone block for the track.
 
 		public HeaderPart header;
 		private GCRDecodingResult decodingResult;
+		private boolean checksumValid;
 		private int blockId;
 		private final byte[] sectorData = new byte[256];
 		private int checksum;
@@ -607,7 +543,8 @@ a speed zone block for the track.
 		@Override
 		public void read(BitStream bitStream)
 		{
-			decodingResult = readGCRBytes( bitStream, 256+2 );
+			final byte[] data = new byte[ 256+2 ];
+			decodingResult = readGCRBytes( bitStream, data );
 
 			/*
 The 325 byte data block (#5) is GCR encoded and must be  decoded  to  its
@@ -620,15 +557,12 @@ Byte    $00 - data block ID ($07)
   101 - data block checksum (EOR of $01-100)
 102-103 - $00 ("off" bytes, to make the sector size a multiple of 5)
 			 */
-			final int[] data = decodingResult.decodedData;
-			blockId = data[0];
-			checksum = data[257];
+			blockId = data[0] & 0xff;
+			checksum = data[257] & 0xff;
+			System.arraycopy( data , 1 , sectorData , 0 , 256 );
 
-			for ( int i = 0 ; i < 256 ; i++ )
-			{
-				final int value = data[i+1];
-				sectorData[i] = (byte) value;
-			}
+			// XOR over data and checksum is zero if the checksum is correct
+			checksumValid = ( decodingResult.xor ^ blockId ) == 0;
 		}
 
 		@Override
@@ -640,14 +574,7 @@ Byte    $00 - data block ID ($07)
 				result.add( new Error(ErrorType.UNKNOWN_BLOCK_ID , 0 ) );
 			}
 
-			int expectedChecksum = 0;
-			for ( int i = 0 ; i < 256 ; i++ )
-			{
-				final int value = sectorData[i] & 0xff;
-				expectedChecksum ^= value;
-			}
-
-			if ( expectedChecksum != checksum )
+			if ( ! checksumValid )
 			{
 				result.add( new Error(ErrorType.CHECKSUM_ERROR , 0 ) );
 			}
@@ -687,10 +614,15 @@ Byte    $00 - data block ID ($07)
 		}
 
 		public boolean isTrackComplete()
+		{
+			return isTrackComplete( getParts() );
+		}
+
+		private boolean isTrackComplete(List<TrackPart> parts)
 		{
 			final Map<Integer,Integer> sectorNumbersByCount = new HashMap<>();
 
-			getParts().stream()
+			parts.stream()
 			.filter( TrackPart::isHeader )
 			.mapToInt( h -> ((HeaderPart) h).sector )
 			.forEach( sectorNum -> sectorNumbersByCount.merge( sectorNum  , 1 , (a,b) -> a.intValue() + b.intValue() ) );
@@ -715,34 +647,31 @@ Byte    $00 - data block ID ($07)
 
 		public byte[] getSectorData() {
 
-			if ( ! isTrackComplete() ) {
+			final List<TrackPart> parts = getParts();
+			if ( ! isTrackComplete( parts ) ) {
 				throw new RuntimeException("Cannot get sector from track "+trackNo+" , track is not complete");
 			}
 
-			final List<DataPart> data = getParts().stream().filter( p -> p.type == PartType.DATA ).map( a -> (DataPart) a ).collect( Collectors.toList() );
+			final int truncatedTrackNo = ( (int) (trackNo*10)) / 10 ;
+			final int sectorCount = D64File.getSectorsOnTrack( truncatedTrackNo );
+			final byte[] result = new byte[ sectorCount * 256 ];
 
-			// sort ascending by sector
-			final Comparator<? super DataPart> comp = (a,b) ->
+			// place data blocks according to the sector number from the preceding header,
+			// fall back to track order for data blocks without a header
+			int nextSector = 0;
+			for ( TrackPart part : parts )
 			{
-				if ( a.header != null && b.header != null ) {
-					return Integer.compare(a.header.sector , a.header.sector );
-				}
-				if ( a.header != null ) {
-					return 1;
-				}
-				return b.header != null ? -1 : 0;
-			};
-			data.sort( comp );
-
-			final ByteArrayOutputStream out = new ByteArrayOutputStream();
-			data.forEach( s -> {
-				try {
-					out.write( s.sectorData );
-				} catch (Exception e) {
-					e.printStackTrace();
+				if ( part.isData() )
+				{
+					final DataPart data = part.asData();
+					final int sector = data.header != null ? data.header.sector : nextSector;
+					if ( sector < sectorCount ) {
+						System.arraycopy( data.sectorData , 0 , result , sector * 256 , 256 );
+					}
+					nextSector = sector+1;
 				}
-			});
-			return out.toByteArray();
+			}
+			return result;
 		}
 
 		public List<TrackPart> getParts()
@@ -771,6 +700,7 @@ Byte    $00 - data block ID ($07)
 
 		public void parse(int offset,int lengthInBytes )
 		{
+			HeaderPart currentHeader = null;
 			firstSyncFound = false;
 			partsList.clear();
 			bitStream.reset();
@@ -839,6 +769,13 @@ Byte    $00 - data block ID ($07)
 
 						part.read(bitStream);
 
+						if ( part.isHeader() ) {
+							currentHeader = part.asHeader();
+						} else if ( part.isData() ) {
+							part.asData().header = currentHeader;
+							currentHeader = null;
+						}
+
 						if ( DEBUG ) {
 							System.out.println("READ: "+part);
 						}
@@ -998,6 +935,14 @@ Byte    $00 - data block ID ($07)
 		getFileHeader().assertSupportedFileFormat();
 	}
 
+	public G64File(byte[] data,String source)
+	{
+		Validate.notNull(data, "data must not be NULL");
+		this.source = source;
+		this.data = data;
+		getFileHeader().assertSupportedFileFormat();
+	}
+
 	public static void main(String[] args) throws IOException, InvocationTargetException, InterruptedException
 	{
 	    final BitStream stream = new BitStream(new byte[]{ 0x52,0x57,0x35,0x2d,0x72 });
@@ -1034,17 +979,16 @@ Byte    $00 - data block ID ($07)
 	protected static int readGCRByte(BitStream bitStream) throws GCRDecodingException
 	{
 		// FIRST read data so bitstream gets advanced even if GCR decoding later fails
-		final int hiNibble = readNibble(bitStream);
-		final int loNibble = readNibble(bitStream);
-		return gcrDecode( hiNibble , loNibble );
-	}
-
-	protected static void gcrEncode(int byteValue,BitOutputStream out)
-	{
-		int lo = TO_GCR[ byteValue & 0b1111 ];
-		int hi = TO_GCR[ (byteValue & 0b1111_0000) >> 4 ];
-		out.writeBits( hi ,  5 );
-		out.writeBits( lo ,  5 );
+		int value = bitStream.readBit();
+		for ( int i = 0 ; i < 9 ; i++ ) {
+			value <<= 1;
+			value |= bitStream.readBit();
+		}
+		final int result = GCRCodec.decode( value );
+		if ( ( result & GCRCodec.INVALID_GCR ) != 0 ) {
+			throw new GCRDecodingException( value );
+		}
+		return result;
 	}
 
 	protected static int gcrDecode(int hiNibble,int loNibble) throws GCRDecodingException
@@ -1053,71 +997,26 @@ Byte    $00 - data block ID ($07)
 		final int lo = gcrDecode( loNibble );
 		return hi << 4 | lo;
 	}
-	
-	protected static int readNibble(BitStream bitStream)
-	{
-		int hiValue = bitStream.readBit();
-		for ( int i = 0 ; i < 4 ; i++) {
-			hiValue <<= 1;
-			hiValue |= bitStream.readBit();
-		}
-		return hiValue;
-	}
 
-	protected static GCRDecodingResult readGCRBytes(BitStream bitStream,int count) throws GCRDecodingException
+	/**
+	 * Reads and decodes as many GCR bytes as the output buffer can hold.
+	 *
+	 * @param bitStream
+	 * @param decoded output buffer
+	 * @return decoding result
+	 */
+	protected static GCRDecodingResult readGCRBytes(BitStream bitStream,byte[] decoded)
 	{
-		int[] result = new int[count];
-		final int[] nibbles = new int[ count*2 ];
+		final int count = decoded.length;
 		// FIRST read data so bitstream gets advanced even if GCR decoding later fails
-		for ( int i = 0 , j = 0 ; i < count ; i++ , j+= 2 ) {
-			nibbles[j] = readNibble(bitStream); // hi nibble
-			nibbles[j+1] = readNibble(bitStream); // low nibble
-		}
-		// now try to decode it
-		List<Integer> decodingErrors = null;
-		for ( int i = 0 , j = 0 ; i < count ; i++ )
-		{
-			int hiNibble = 0;
-			int loNibble = 0;
-			try
-			{
-				hiNibble = gcrDecode( nibbles[j] );
-			}
-			catch(GCRDecodingException e)
-			{
-				if ( decodingErrors == null )
-				{
-					decodingErrors = new ArrayList<>();
-				}
-				decodingErrors.add( Integer.valueOf(j ) );
-			}
-			j++;
-
-			try {
-				loNibble = gcrDecode( nibbles[j] );
-			}
-			catch(GCRDecodingException e)
-			{
-				if ( decodingErrors == null )
-				{
-					decodingErrors = new ArrayList<>();
-				}
-				decodingErrors.add( Integer.valueOf(j ) );
-			}
-			j++;
-
-			result[i] = hiNibble << 4 | loNibble;
-		}
+		final byte[] encoded = new byte[ GCRCodec.getEncodedSize( count ) ];
+		bitStream.readBits( encoded , count*10 );
 
-		if ( decodingErrors == null ) {
-			return new GCRDecodingResult( result );
-		}
-		final int[] errors = new int[ decodingErrors.size() ];
-		for ( int i = 0 ; i < decodingErrors.size() ; i++ )
-		{
-			errors[i] = decodingErrors.get(i).intValue();
+		final int result = GCRCodec.decode( encoded , 0 , decoded , 0 , count );
+		if ( ( result & GCRCodec.INVALID_GCR ) == 0 ) {
+			return new GCRDecodingResult( result & 0xff );
 		}
-		return new GCRDecodingResult( result , errors );
+		return new GCRDecodingResult( result & 0xff , GCRCodec.getInvalidNibbles( encoded , 0 , count ) );
 	}
 
 	protected static int gcrDecode(int value) throws GCRDecodingException
@@ -1125,32 +1024,30 @@ Byte    $00 - data block ID ($07)
 		if ( value < 0 || value > 32 ) {
 			throw new IllegalArgumentException("Nibble out of range (0...32) for GCR-decode: "+value);
 		}
-		final int result = FROM_GCR[ value ];
-		String binary = Integer.toBinaryString( result );
-		while ( binary.length() < 4 ) {
-			binary = "0"+binary;
-		}
-		if ( result == INVALID_GCR ) {
+		final int result = GCRCodec.decodeQuintuple( value );
+		if ( result == -1 ) {
 			throw new GCRDecodingException( value );
 		}
 		return result;
 	}
-	
-	public static byte[] gcrDecode(BitStream stream) 
+
+	public static byte[] gcrDecode(BitStream stream)
 	{
-	    final ByteArrayOutputStream out = new ByteArrayOutputStream();
-	    stream.mark();
-	    while ( ! stream.hasWrapped() ) 
-	    {
-	        int value = 0;
-	        for ( int i = 0 ; i < 10 ; i++ ) 
-	        {
-	            value = value << 1;
-	            value |= stream.readBit();
-	        }
-	        out.write( gcrDecode( (value & 0b1111100000) >> 5 , value & 0b11111 ) );
-	    }
-	    return out.toByteArray();
+		// decode until we're back at the current position
+		stream.mark();
+		final int count = ( stream.size() + 9 ) / 10;
+		final byte[] encoded = new byte[ GCRCodec.getEncodedSize( count )+1 ];
+		stream.readBits( encoded , count*10 );
+
+		final byte[] result = new byte[ count ];
+		if ( ( GCRCodec.decode( encoded , 0 , result , 0 , count ) & GCRCodec.INVALID_GCR ) != 0 )
+		{
+			final int nibble = GCRCodec.getInvalidNibbles( encoded , 0 , count )[0];
+			final int bitOffset = (nibble/2)*10 + (nibble%2)*5;
+			final int twoBytes = (encoded[bitOffset >>> 3] & 0xff) << 8 | (encoded[(bitOffset >>> 3)+1] & 0xff);
+			throw new GCRDecodingException( ( twoBytes >>> ( 11 - (bitOffset & 7) ) ) & 0b11111 );
+		}
+		return result;
 	}
 
 	protected static int toBigEndian( int lo , int hi ) {
@@ -1274,16 +1171,6 @@ Byte    $00 - data block ID ($07)
 		final int maxTrackNum = file.getTrackCount();
 		System.out.println("Disk has "+maxTrackNum+" tracks.");
 
-		for ( int track = 1 ; track <= maxTrackNum ; track++)
-		{
-			final int sectors = D64File.getSectorsOnTrack( track );
-			final byte[] image = new byte[ sectors * 256 ];
-			for ( int sector = 0 ; sector < sectors ; sector++ )
-			{
-				file.getRawData( track , sector , image , sector*256 );
-			}
-		}
-
 		/*
 Bytes: $0000-0007: File signature "GCR-1541"
                0008: G64 version (presently only $00 defined)
@@ -1433,12 +1320,14 @@ speeds. On a normal 1541 disk, these zones are as follows:
 		final int formatIdLo = 0x30;
 		final int formatIdHi = 0x30;
 
-		gcrEncode( 0x08 , stream ); // header block id: 0x08
-		gcrEncode( xor( sector , track , formatIdLo , formatIdHi ) , stream ); // checksum
-		gcrEncode( sector , stream );
-		gcrEncode( track , stream );
-		gcrEncode( formatIdLo, stream );
-		gcrEncode( formatIdHi, stream );
+		final byte[] header = new byte[6];
+		header[0] = 0x08; // header block id: 0x08
+		header[1] = (byte) xor( sector , track , formatIdLo , formatIdHi ); // checksum
+		header[2] = (byte) sector;
+		header[3] = (byte) track;
+		header[4] = (byte) formatIdLo;
+		header[5] = (byte) formatIdHi;
+		writeGCR( header , stream );
 
 		// write header gap
 		for ( int len = 0 ; len < 9 ; len++) {
@@ -1448,17 +1337,18 @@ speeds. On a normal 1541 disk, these zones are as follows:
 		// ============= data ===========
 		writeSync( stream ); // write data sync
 
-		gcrEncode( 0x07 , stream ); // data block id: 0x07
-
-		// write GCR-encoded data block
+		final byte[] block = new byte[ 256+2 ];
+		block[0] = 0x07; // data block id: 0x07
 		int checksum = 0;
 		for ( int i = 0 ; i < 256 ; i++ )
 		{
-			final int value = sectorData[i] & 0xff;
-			checksum ^= value;
-			gcrEncode( value , stream );
+			checksum ^= sectorData[i];
 		}
-		gcrEncode( checksum , stream );
+		System.arraycopy( sectorData , 0 , block , 1 , 256 );
+		block[257] = (byte) checksum;
+
+		// write GCR-encoded data block
+		writeGCR( block , stream );
 
 		// inter-sector gap
 		for ( int len = 0 ; len < 12 ; len++) {
@@ -1466,15 +1356,62 @@ speeds. On a normal 1541 disk, these zones are as follows:
 		}
 	}
 
+	protected static void writeGCR(byte[] data,BitOutputStream stream)
+	{
+		final byte[] encoded = new byte[ GCRCodec.getEncodedSize( data.length ) ];
+		GCRCodec.encode( data , 0 , encoded , 0 , data.length );
+		stream.writeBits( encoded , data.length*10 );
+	}
+
 	protected static void writeSync(BitOutputStream stream)
 	{
-		for ( int i = 0 ; i < 40 ; i++ )
+		for ( int i = 0 ; i < 5 ; i++ ) // 40 'on' bits
 		{
-			stream.writeBit(1);
+			stream.writeByte( 0xff );
 		}
 	}
 	
+	/**
+	 * Returns a copy of this G64 image where the raw bytes of some tracks have been replaced.
+	 *
+	 * @param tracks replacement data, keyed by half-track index (<code>track*2</code>). A
+	 * replacement may differ in length from the track it replaces as long as it does not exceed
+	 * the track size from the file header, the length stored in the image is adjusted accordingly.
+	 * @return
+	 */
+	public byte[] toByteArray(Map<Integer,byte[]> tracks)
+	{
+		final int maxTrackSize = getFileHeader().getTrackSizeInBytes();
+		final byte[] result = Arrays.copyOf( data , data.length );
+		for ( Map.Entry<Integer,byte[]> entry : tracks.entrySet() )
+		{
+			final float trackNo = entry.getKey().intValue() / 2f;
+			final TrackData track = getTrackData( trackNo ).orElseThrow( () -> new IllegalArgumentException("G64 file holds no data for track "+trackNo ) );
+			final byte[] trackBytes = entry.getValue();
+			if ( trackBytes.length > maxTrackSize || track.offset + trackBytes.length > result.length ) {
+				throw new IllegalArgumentException("Track "+trackNo+" has room for at most "+maxTrackSize+" bytes but replacement has "+trackBytes.length);
+			}
+			// track length is stored in LO/HI format right before the track data
+			result[ track.offset - 2 ] = (byte) trackBytes.length;
+			result[ track.offset - 1 ] = (byte) ( trackBytes.length >>> 8 );
+			System.arraycopy( trackBytes , 0 , result , track.offset , trackBytes.length );
+			if ( trackBytes.length < track.lengthInBytes ) {
+				Arrays.fill( result , track.offset + trackBytes.length , track.offset + track.lengthInBytes , (byte) 0x55 );
+			}
+		}
+		return result;
+	}
+
 	public String getSource() {
         return source;
     }
+
+	/**
+	 * Returns the unmodified contents of the .g64 file this disk was loaded from.
+	 *
+	 * @return
+	 */
+	public byte[] getRawData() {
+	    return data;
+	}
 }
\ No newline at end of file
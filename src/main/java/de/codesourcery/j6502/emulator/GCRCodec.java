@@ -0,0 +1,288 @@
+package de.codesourcery.j6502.emulator;
+
+import java.util.Arrays;
+
+/**
+ * Table-driven GCR encoder/decoder.
+ *
+ * Each data byte is stored on disk as 10 bits (two 5-bit quintuples, high nibble first), so
+ * 4 data bytes occupy exactly 5 GCR bytes. The bulk methods of this class work on plain
+ * byte arrays where the GCR data starts at bit 7 of the first byte.
+ */
+public final class GCRCodec
+{
+    /*
+Nybble  Quintuple
+0000    01010 = 10
+0001    01011 = 11
+0010    10010 = 18
+0011    10011 = 19
+0100    01110 = 14
+0101    01111 = 15
+0110    10110 = 22
+0111    10111 = 23
+1000    01001 =  9
+1001    11001 = 25
+1010    11010 = 26
+1011    11011 = 27
+1100    01101 = 13
+1101    11101 = 29
+1110    11110 = 30
+1111    10101 = 21
+     */
+    protected static final int[] TO_GCR = new int[] {
+            0b01010,
+            0b01011,
+            0b10010,
+            0b10011,
+            0b01110,
+            0b01111,
+            0b10110,
+            0b10111,
+            0b01001,
+            0b11001,
+            0b11010,
+            0b11011,
+            0b01101,
+            0b11101,
+            0b11110,
+            0b10101
+    };
+
+    /**
+     * Flag set in the result of {@link #decode(int)} when the high nibble is no valid GCR quintuple.
+     */
+    public static final int INVALID_HI_NIBBLE = 1<<8;
+
+    /**
+     * Flag set in the result of {@link #decode(int)} when the low nibble is no valid GCR quintuple.
+     */
+    public static final int INVALID_LO_NIBBLE = 1<<9;
+
+    /**
+     * Flag set in the result of the bulk decode methods when at least one nibble could not be decoded.
+     */
+    public static final int INVALID_GCR = INVALID_HI_NIBBLE | INVALID_LO_NIBBLE;
+
+    private static final int INVALID_QUINTUPLE = -1;
+
+    // 5-bit quintuple => nibble
+    private static final int[] FROM_GCR = new int[32];
+
+    // 10-bit GCR value => decoded byte in bits 0-7 plus INVALID_HI_NIBBLE/INVALID_LO_NIBBLE flags
+    private static final short[] DECODE_TABLE = new short[1024];
+
+    // byte => 10-bit GCR value
+    private static final short[] ENCODE_TABLE = new short[256];
+
+    static
+    {
+        Arrays.fill( FROM_GCR , INVALID_QUINTUPLE );
+        for ( int nibble = 0 ; nibble < 16 ; nibble++ ) {
+            FROM_GCR[ TO_GCR[ nibble ] ] = nibble;
+        }
+
+        for ( int value = 0 ; value < 256 ; value++ ) {
+            ENCODE_TABLE[ value ] = (short) ( TO_GCR[ value >>> 4 ] << 5 | TO_GCR[ value & 0x0f ] );
+        }
+
+        for ( int gcr = 0 ; gcr < 1024 ; gcr++ )
+        {
+            final int hi = FROM_GCR[ gcr >>> 5 ];
+            final int lo = FROM_GCR[ gcr & 0b11111 ];
+            int entry = 0;
+            if ( hi == INVALID_QUINTUPLE ) {
+                entry |= INVALID_HI_NIBBLE;
+            } else {
+                entry |= hi << 4;
+            }
+            if ( lo == INVALID_QUINTUPLE ) {
+                entry |= INVALID_LO_NIBBLE;
+            } else {
+                entry |= lo;
+            }
+            DECODE_TABLE[ gcr ] = (short) entry;
+        }
+    }
+
+    private GCRCodec() {
+    }
+
+    /**
+     * Decodes a single 5-bit quintuple.
+     *
+     * @param quintuple
+     * @return nibble or -1 if the input is no valid GCR quintuple
+     */
+    public static int decodeQuintuple(int quintuple) {
+        return FROM_GCR[ quintuple & 0b11111 ];
+    }
+
+    /**
+     * Decodes a single 10-bit GCR value.
+     *
+     * @param gcr
+     * @return decoded byte in bits 0-7, with {@link #INVALID_HI_NIBBLE} and/or {@link #INVALID_LO_NIBBLE} set
+     * if decoding failed
+     */
+    public static int decode(int gcr) {
+        return DECODE_TABLE[ gcr & 0x3ff ];
+    }
+
+    /**
+     * Encodes a single byte.
+     *
+     * @param value
+     * @return 10-bit GCR value
+     */
+    public static int encode(int value) {
+        return ENCODE_TABLE[ value & 0xff ];
+    }
+
+    /**
+     * Returns the number of bytes needed to hold a given number of GCR-encoded bytes.
+     *
+     * @param decodedBytes
+     * @return
+     */
+    public static int getEncodedSize(int decodedBytes) {
+        return ( decodedBytes*10 + 7 ) >>> 3;
+    }
+
+    /**
+     * Decodes GCR data.
+     *
+     * @param src GCR data, must hold at least <code>getEncodedSize(count)</code> bytes starting at <code>srcOffset</code>
+     * @param srcOffset
+     * @param dst
+     * @param dstOffset
+     * @param count number of bytes to decode
+     * @return XOR over all decoded bytes in bits 0-7, {@link #INVALID_GCR} is set if any nibble could not be decoded
+     * (the corresponding bits in the output are zero)
+     */
+    public static int decode(byte[] src,int srcOffset,byte[] dst,int dstOffset,int count)
+    {
+        int xor = 0;
+        int flags = 0;
+
+        // 5 GCR bytes => 4 data bytes
+        int in = srcOffset;
+        int out = dstOffset;
+        final int groupEnd = dstOffset + (count & ~3);
+        for ( ; out < groupEnd ; in += 5 , out += 4 )
+        {
+            final long bits = (long) (src[in  ] & 0xff) << 32 |
+                    (long) (src[in+1] & 0xff) << 24 |
+                    (long) (src[in+2] & 0xff) << 16 |
+                    (long) (src[in+3] & 0xff) <<  8 |
+                    (long) (src[in+4] & 0xff);
+
+            final int v0 = DECODE_TABLE[ (int) (bits >>> 30) & 0x3ff ];
+            final int v1 = DECODE_TABLE[ (int) (bits >>> 20) & 0x3ff ];
+            final int v2 = DECODE_TABLE[ (int) (bits >>> 10) & 0x3ff ];
+            final int v3 = DECODE_TABLE[ (int)  bits         & 0x3ff ];
+
+            dst[out  ] = (byte) v0;
+            dst[out+1] = (byte) v1;
+            dst[out+2] = (byte) v2;
+            dst[out+3] = (byte) v3;
+
+            xor ^= v0 ^ v1 ^ v2 ^ v3;
+            flags |= v0 | v1 | v2 | v3;
+        }
+
+        // remaining 1-3 bytes, bit offsets within the group are 0,10,20 so two bytes always suffice
+        for ( int i = 0 , remaining = count & 3 ; i < remaining ; i++ )
+        {
+            final int bitOffset = i*10;
+            final int index = in + (bitOffset >>> 3);
+            final int twoBytes = (src[index] & 0xff) << 8 | (src[index+1] & 0xff);
+            final int value = DECODE_TABLE[ ( twoBytes >>> ( 6 - (bitOffset & 7) ) ) & 0x3ff ];
+            dst[out++] = (byte) value;
+            xor ^= value;
+            flags |= value;
+        }
+        return (xor & 0xff) | (flags & INVALID_GCR);
+    }
+
+    /**
+     * Returns the offsets of all nibbles that could not be decoded.
+     *
+     * @param src
+     * @param srcOffset
+     * @param count number of encoded bytes
+     * @return nibble offsets, 0 = hi-nibble of first byte, 1 = lo-nibble of first byte, 2 = hi-nibble of second byte, ...
+     */
+    public static int[] getInvalidNibbles(byte[] src,int srcOffset,int count)
+    {
+        int[] result = new int[0];
+        for ( int i = 0 ; i < count ; i++ )
+        {
+            final int bitOffset = i*10;
+            final int index = srcOffset + (bitOffset >>> 3);
+            final int twoBytes = (src[index] & 0xff) << 8 | (src[index+1] & 0xff);
+            final int value = DECODE_TABLE[ ( twoBytes >>> ( 6 - (bitOffset & 7) ) ) & 0x3ff ];
+            if ( (value & INVALID_HI_NIBBLE) != 0 ) {
+                result = Arrays.copyOf( result , result.length+1 );
+                result[ result.length-1 ] = i*2;
+            }
+            if ( (value & INVALID_LO_NIBBLE) != 0 ) {
+                result = Arrays.copyOf( result , result.length+1 );
+                result[ result.length-1 ] = i*2+1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * GCR-encodes data.
+     *
+     * @param src
+     * @param srcOffset
+     * @param dst output buffer, must hold at least <code>getEncodedSize(count)</code> zero bytes starting at <code>dstOffset</code>
+     * @param dstOffset
+     * @param count number of bytes to encode
+     * @return XOR over all input bytes
+     */
+    public static int encode(byte[] src,int srcOffset,byte[] dst,int dstOffset,int count)
+    {
+        int xor = 0;
+
+        // 4 data bytes => 5 GCR bytes
+        int in = srcOffset;
+        int out = dstOffset;
+        final int groupEnd = srcOffset + (count & ~3);
+        for ( ; in < groupEnd ; in += 4 , out += 5 )
+        {
+            final int b0 = src[in  ] & 0xff;
+            final int b1 = src[in+1] & 0xff;
+            final int b2 = src[in+2] & 0xff;
+            final int b3 = src[in+3] & 0xff;
+            xor ^= b0 ^ b1 ^ b2 ^ b3;
+
+            final long bits = (long) ENCODE_TABLE[ b0 ] << 30 |
+                    (long) ENCODE_TABLE[ b1 ] << 20 |
+                    (long) ENCODE_TABLE[ b2 ] << 10 |
+                    (long) ENCODE_TABLE[ b3 ];
+
+            dst[out  ] = (byte) (bits >>> 32);
+            dst[out+1] = (byte) (bits >>> 24);
+            dst[out+2] = (byte) (bits >>> 16);
+            dst[out+3] = (byte) (bits >>>  8);
+            dst[out+4] = (byte)  bits;
+        }
+
+        // remaining 1-3 bytes
+        for ( int i = 0 , remaining = count & 3 ; i < remaining ; i++ )
+        {
+            final int value = src[in++] & 0xff;
+            xor ^= value;
+            final int bitOffset = i*10;
+            final int index = out + (bitOffset >>> 3);
+            final int twoBytes = ENCODE_TABLE[ value ] << ( 6 - (bitOffset & 7) );
+            dst[index  ] |= (byte) (twoBytes >>> 8);
+            dst[index+1] |= (byte)  twoBytes;
+        }
+        return xor;
+    }
+}
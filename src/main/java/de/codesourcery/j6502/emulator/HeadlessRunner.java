@@ -0,0 +1,122 @@
+package de.codesourcery.j6502.emulator;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+
+/**
+ * Replays an {@link InputLog} without any UI, as fast as possible.
+ *
+ * <pre>
+ * Usage: HeadlessRunner [-state &lt;file&gt;] [-cycles &lt;count&gt;] [-dump &lt;file&gt;] &lt;input log&gt;
+ *
+ * -state  emulation state to restore before replaying (default: replay on a freshly created emulator)
+ * -cycles number of cycles to keep running after the log has been replayed
+ * -dump   file to write the emulation state to once the replay has finished
+ * </pre>
+ */
+public class HeadlessRunner
+{
+    private final Emulator emulator = new Emulator();
+
+    public static void main(String[] args) throws IOException
+    {
+        String stateFile = null;
+        String dumpFile = null;
+        String logFile = null;
+        long extraCycles = 0;
+        for ( int i = 0 ; i < args.length ; i++ )
+        {
+            switch( args[i] )
+            {
+                case "-state":
+                    stateFile = argument( args , ++i );
+                    break;
+                case "-dump":
+                    dumpFile = argument( args , ++i );
+                    break;
+                case "-cycles":
+                    extraCycles = Long.parseLong( argument( args , ++i ) );
+                    break;
+                default:
+                    if ( logFile != null || args[i].startsWith("-") ) {
+                        usage();
+                    }
+                    logFile = args[i];
+            }
+        }
+        if ( logFile == null ) {
+            usage();
+        }
+
+        final HeadlessRunner runner = new HeadlessRunner();
+        if ( stateFile != null ) {
+            EmulationStateManager.applyEmulationState( runner.emulator , EmulationState.read( Paths.get( stateFile ) ) );
+        }
+
+        final long start = System.nanoTime();
+        final long cycles;
+        try ( InputStream in = new BufferedInputStream( new FileInputStream( logFile ) ) ) {
+            cycles = runner.replay( in , extraCycles );
+        }
+        final long elapsedMillis = Math.max( 1 , ( System.nanoTime() - start ) / 1_000_000 );
+
+        System.out.println("Replayed "+cycles+" cycles in "+elapsedMillis+" ms ("+( cycles / elapsedMillis / 1000f )+" MHz)");
+        System.out.println( runner.emulator.getCPU() );
+
+        if ( dumpFile != null )
+        {
+            EmulationStateManager.captureEmulationState( runner.emulator ).write( Paths.get( dumpFile ) );
+            System.out.println("Emulation state written to "+dumpFile);
+        }
+    }
+
+    private static String argument(String[] args,int index)
+    {
+        if ( index >= args.length ) {
+            usage();
+        }
+        return args[index];
+    }
+
+    private static void usage()
+    {
+        System.err.println("Usage: HeadlessRunner [-state <file>] [-cycles <count>] [-dump <file>] <input log>");
+        System.exit(1);
+    }
+
+    /**
+     * Replays an input log.
+     *
+     * @param in
+     * @param extraCycles number of cycles to keep running after the log has been replayed
+     * @return number of cycles executed
+     * @throws IOException
+     */
+    public long replay(InputStream in,long extraCycles) throws IOException
+    {
+        try ( InputLog.Player player = new InputLog.Player( in , emulator ) )
+        {
+            emulator.setInputPlayer( player );
+            try
+            {
+                while ( ! player.isFinished() ) {
+                    emulator.doOneCycle( null );
+                }
+            }
+            finally {
+                emulator.setInputPlayer( null );
+            }
+            for ( long i = 0 ; i < extraCycles ; i++ ) {
+                emulator.doOneCycle( null );
+            }
+            return player.getCycle() + extraCycles;
+        }
+    }
+
+    public Emulator getEmulator() {
+        return emulator;
+    }
+}
@@ -1,10 +1,14 @@
 package de.codesourcery.j6502.emulator;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
 import de.codesourcery.j6502.Constants;
 import de.codesourcery.j6502.emulator.diskdrive.DiskDrive;
+import de.codesourcery.j6502.emulator.diskdrive.DiskHardware;
 import de.codesourcery.j6502.ui.BusStateContainer;
 
 public class IECBus implements Bus
@@ -19,11 +23,16 @@ public class IECBus implements Bus
 	private final SerialDevice cpu;
 	private final List<SerialDevice> devices = new ArrayList<>();
 	private final SerialDevice[] deviceArray = new SerialDevice[32];
+	private SerialDevice[] tickDevices = new SerialDevice[0];
+	private int deviceCount;
 
 	private boolean atn=true;
 	private boolean clkSum=true;
 	private boolean dataSum=true;
 
+	// set when a device announced a change of its output lines
+	private boolean outputsChanged = true;
+
 	public boolean getATN() {
 		return atn;
 	}
@@ -43,6 +52,9 @@ public class IECBus implements Bus
 		}
 		devices.add( device );
 		deviceArray[ device.getPrimaryAddress() ] = device;
+		tickDevices = devices.toArray( new SerialDevice[ devices.size() ] );
+		deviceCount = tickDevices.length;
+		outputsChanged = true;
 	}
 
 	/**
@@ -74,12 +86,58 @@ public class IECBus implements Bus
 		return "[BUS: "+identifier+"] ATN: "+getATN()+" | CLK: "+clkSum+" | DATA: "+dataSum;
 	}
 
+	/**
+	 * Must be invoked by a device whenever its clock, data or ATN output changed.
+	 *
+	 * The new bus state becomes visible at the end of the current {@link #tick(Emulator)}.
+	 */
+	public void outputChanged()
+	{
+		outputsChanged = true;
+	}
+
 	public void tick(Emulator emulator)
 	{
         /*
          * Method must ONLY be called when ph2 == HIGH
          */
+		for (int i = 0, len = deviceCount ; i < len ; i++)
+		{
+			tickDevices[i].tick( emulator , this );
+		}
 
+		if ( outputsChanged )
+		{
+			outputsChanged = false;
+			resolveLines();
+		}
+		cycle++;
+	}
+
+	/**
+	 * Same as {@link #tick(Emulator)} but measures the time spent in disk drives and on the bus itself.
+	 */
+	void tickSampled(Emulator emulator,EmulatorMetrics metrics)
+	{
+		for (int i = 0, len = deviceCount ; i < len ; i++)
+		{
+			final long start = System.nanoTime();
+			tickDevices[i].tick( emulator , this );
+			metrics.addChipTime( tickDevices[i] instanceof DiskHardware ? EmulatorMetrics.Chip.DRIVE : EmulatorMetrics.Chip.IEC , System.nanoTime() - start );
+		}
+
+		final long start = System.nanoTime();
+		if ( outputsChanged )
+		{
+			outputsChanged = false;
+			resolveLines();
+		}
+		cycle++;
+		metrics.addChipTime( EmulatorMetrics.Chip.IEC , System.nanoTime() - start );
+	}
+
+	private void resolveLines()
+	{
 		/*
 		 * High = Logical false
 		 * Low  = Logical true
@@ -87,33 +145,57 @@ public class IECBus implements Bus
 		 * - A line will become LOW ("true") (LOW / PULLED DOWN, or 0V) if one or more devices signal true (LOW);
          * - A line will become HIGH ("false") (HIGH / RELEASED, or 5V) only if all devices signal false (HIGH).
 		 */
-
 		boolean sumClk = true;
 		boolean sumData = true;
-
-		for (int i = 0, len = devices.size() ; i < len ; i++)
+		for (int i = 0, len = deviceCount ; i < len ; i++)
 		{
-			final SerialDevice dev = devices.get(i);
-			dev.tick( emulator , this );
+			final SerialDevice dev = tickDevices[i];
 			sumData &= dev.getData();
 			sumClk &= dev.getClock();
 		}
+		final boolean newATN = cpu.getATN();
 
-		if ( Constants.IEC_CAPTURE_BUS_SNAPSHOTS )
+		if ( sumClk != clkSum || sumData != dataSum || newATN != atn )
 		{
-			if ( sumClk != clkSum || sumData != dataSum || this.atn != cpu.getATN() )
-			{
-				this.atn = cpu.getATN();
-				this.clkSum = sumClk;
-				this.dataSum = sumData;
-				busStateContainer.sampleBus();
-			}
-		} else {
-			this.atn = cpu.getATN();
+			this.atn = newATN;
 			this.clkSum = sumClk;
 			this.dataSum = sumData;
+			if ( Constants.IEC_CAPTURE_BUS_SNAPSHOTS ) {
+				busStateContainer.record( cycle , read() );
+			}
 		}
-		cycle++;
+	}
+
+	/**
+	 * Writes the bus state.
+	 *
+	 * The state of the attached devices is not included.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void saveState(OutputStream out) throws IOException
+	{
+		SerializationHelper.writeLong( cycle , out );
+		SerializationHelper.writeBoolean( atn , out );
+		SerializationHelper.writeBoolean( clkSum , out );
+		SerializationHelper.writeBoolean( dataSum , out );
+	}
+
+	/**
+	 * Restores state written by {@link #saveState(OutputStream)}.
+	 *
+	 * @param in
+	 * @throws IOException
+	 */
+	public void restoreState(InputStream in) throws IOException
+	{
+		cycle = SerializationHelper.readLong( in );
+		atn = SerializationHelper.readBoolean( in );
+		clkSum = SerializationHelper.readBoolean( in );
+		dataSum = SerializationHelper.readBoolean( in );
+		outputsChanged = true;
+		busStateContainer.reset();
 	}
 
 	public void reset()
@@ -125,6 +207,7 @@ public class IECBus implements Bus
 		devices.forEach( device -> device.reset() );
 		busStateContainer.reset();
 		cycle = 0;
+		outputsChanged = true;
 	}
 
 	@Override
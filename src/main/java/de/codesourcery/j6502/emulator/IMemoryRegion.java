@@ -86,6 +86,17 @@ public abstract class IMemoryRegion
 	 */
 	public abstract int readByteNoSideEffects(int offset);
 
+	/**
+	 * Returns a counter that changes whenever the contents of a 256-byte page
+	 * as seen through this region may have changed.
+	 *
+	 * @param page page number (address >> 8)
+	 * @return version of the page or -1 if this region does not track writes
+	 */
+	public int getPageVersion(int page) {
+		return -1;
+	}
+
 	@Override
 	public String toString() {
 		return addressRange+" - "+identifier;
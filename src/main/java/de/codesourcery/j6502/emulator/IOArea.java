@@ -46,6 +46,12 @@ public class IOArea extends Memory implements IStatefulPart
     protected int joy1Mask = 0xff;
     protected int joy2Mask = 0xff;
 
+    // joystick changes get queued by the UI thread and are applied by tick() so that
+    // they always take effect at a well-defined cycle
+    private volatile boolean joystickChanged;
+    private int pendingJoy1Mask = 0xff;
+    private int pendingJoy2Mask = 0xff;
+
     public final CIA cia1 = new CIA("CIA #1" , AddressRange.range( 0xdc00, 0xdd00 ) ) {
 
         // only CIA #1 needs to handle input from tape drive
@@ -139,14 +145,16 @@ PRB 	Data Port B 	Monitoring/control of the 8 data lines of Port B. The lines ar
 
     public void setJoystick1(JoyDirection direction,boolean fire)
     {
-        System.out.println("Joystick #2: "+direction+",fire: "+fire);
-        joy1Mask = calcJoystickMask(direction,fire);
+        System.out.println("Joystick #1: "+direction+",fire: "+fire);
+        pendingJoy1Mask = calcJoystickMask(direction,fire);
+        joystickChanged = true;
     }
 
     public void setJoystick2(JoyDirection direction,boolean fire)
     {
         System.out.println("Joystick #2: "+direction+",fire: "+fire);
-        joy2Mask = calcJoystickMask(direction,fire);
+        pendingJoy2Mask = calcJoystickMask(direction,fire);
+        joystickChanged = true;
     }
 
     private int calcJoystickMask(JoyDirection direction,boolean fire)
@@ -257,6 +265,10 @@ PRB 	Data Port B 	Monitoring/control of the 8 data lines of Port B. The lines ar
                     vic.setCurrentBankNo( value & 0b11 );
                 }
 
+                if ( ( (oldValue ^ value) & 0b0011_1000 ) != 0 ) { // ATN/CLOCK/DATA out changed
+                    iecBus.outputChanged();
+                }
+
                 if ( Constants.IEC_DEBUG_WIRE_LEVEL )
                 {
                     final boolean atn = (value     & 0b0000_1000) == 0;
@@ -280,6 +292,7 @@ PRB 	Data Port B 	Monitoring/control of the 8 data lines of Port B. The lines ar
         {
             final int oldValue = super.readByteNoSideEffects(CIA_PRA);
             vic.setCurrentBankNo( oldValue & 0b11 );
+            iecBus.outputChanged();
         }
 
         private String toLogical(String msg,boolean level) {
@@ -429,6 +442,14 @@ PRB 	Data Port B 	Monitoring/control of the 8 data lines of Port B. The lines ar
         }
     }
 
+    int getKeyboardColumn(int column) {
+        return keyboardColumns[column];
+    }
+
+    void setKeyboardColumn(int column,int rowBits) {
+        keyboardColumns[column] = rowBits;
+    }
+
     @Override
     public void writeByte(int address, byte value)
     {
@@ -517,6 +538,9 @@ PRB 	Data Port B 	Monitoring/control of the 8 data lines of Port B. The lines ar
 
         joy1Mask = 0xff;
         joy2Mask = 0xff;
+        pendingJoy1Mask = 0xff;
+        pendingJoy2Mask = 0xff;
+        joystickChanged = false;
 
         keyboardBuffer.reset();
         vic.reset();
@@ -529,7 +553,7 @@ PRB 	Data Port B 	Monitoring/control of the 8 data lines of Port B. The lines ar
     {
         if ( clockHigh ) 
         {
-            keyboardBuffer.tick( this );
+            tickInput();
             if ( ! Constants.CIAS_DISABLED ) {
                 cia1.tick( cpu );
                 cia2.tick( cpu );
@@ -543,6 +567,43 @@ PRB 	Data Port B 	Monitoring/control of the 8 data lines of Port B. The lines ar
         vic.tick( cpu , clockHigh );
     }
 
+    /**
+     * Same as {@link #tick(Emulator, CPU, boolean)} but measures the time spent in each chip.
+     */
+    void tickSampled(Emulator emulator,CPU cpu,boolean clockHigh,EmulatorMetrics metrics)
+    {
+        if ( clockHigh ) 
+        {
+            tickInput();
+            if ( ! Constants.CIAS_DISABLED ) 
+            {
+                final long start = System.nanoTime();
+                cia1.tick( cpu );
+                cia2.tick( cpu );
+                metrics.addChipTime( EmulatorMetrics.Chip.CIA , System.nanoTime() - start );
+            }
+
+            if (Constants.IEC_BUS_ENABLED) {
+                iecBus.tickSampled( emulator , metrics );
+            }
+        }
+
+        final long start = System.nanoTime();
+        vic.tick( cpu , clockHigh );
+        metrics.addChipTime( EmulatorMetrics.Chip.VIC , System.nanoTime() - start );
+    }
+
+    private void tickInput()
+    {
+        keyboardBuffer.tick( this );
+        if ( joystickChanged ) 
+        {
+            joystickChanged = false;
+            joy1Mask = pendingJoy1Mask;
+            joy2Mask = pendingJoy2Mask;
+        }
+    }
+
     protected static String toBinaryString(int value)
     {
         final String string = Integer.toBinaryString( value & 0xff );
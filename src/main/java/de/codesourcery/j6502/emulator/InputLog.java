@@ -0,0 +1,538 @@
+package de.codesourcery.j6502.emulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.lang.Validate;
+
+import de.codesourcery.j6502.emulator.diskdrive.DiskHardware;
+import de.codesourcery.j6502.emulator.tapedrive.T64File;
+import de.codesourcery.j6502.emulator.tapedrive.TAPFile;
+import de.codesourcery.j6502.emulator.tapedrive.TapeFile;
+
+/**
+ * Records and replays all external input (keyboard, joysticks, tape and disk drives , resets)
+ * so that an emulation run can be reproduced cycle-exactly.
+ *
+ * <p>Input is not recorded as it is generated by the UI but as it is seen by the emulation: the {@link Recorder}
+ * compares the keyboard matrix, joystick ports, tape drive and disk drives against their previous state at the start of
+ * each cycle and logs any changes, stamped with the number of cycles executed since recording started.
+ * The {@link Player} applies those changes at exactly the same cycles. Disk and tape images
+ * are stored in the log, so a replay does not depend on any other files. Resets are logged together with the
+ * host time the CIA real-time clocks got initialized with.</p>
+ *
+ * <p>Replaying reproduces the original run only when the emulation starts from the same state. Installing a recorder and then resetting the emulator
+ * (as the debugger does) records the media inserted at that time followed by the reset, so the log can be replayed on
+ * a freshly created {@link Emulator}. Modifications made to a disk before recording started are not part of the log.</p>
+ *
+ * File format (all values big-endian):
+ * <pre>
+ * magic           4 bytes ("J6IN")
+ * format version  1 byte
+ * events          deflated, each event is:
+ *                   cycles since previous event (variable length, 7 bits per byte, MSB set on all bytes but the last) ,
+ *                   event type (1 byte) , payload
+ * </pre>
+ *
+ * Both classes must only be used by the emulation thread.
+ *
+ * @see Emulator#setInputRecorder(Recorder)
+ * @see Emulator#setInputPlayer(Player)
+ * @see HeadlessRunner
+ */
+public final class InputLog
+{
+    private static final byte[] MAGIC = { 'J' , '6' , 'I' , 'N' };
+
+    private static final int FORMAT_VERSION = 1;
+
+    // event types
+    private static final int EVENT_END = 0;            // no payload
+    private static final int EVENT_RESET = 1;          // CIA #1 time of day (4 bytes) , CIA #2 time of day (4 bytes)
+    private static final int EVENT_KEYBOARD = 2;       // column (1 byte) , row bits (1 byte)
+    private static final int EVENT_JOYSTICK1 = 3;      // mask (1 byte)
+    private static final int EVENT_JOYSTICK2 = 4;      // mask (1 byte)
+    private static final int EVENT_TAPE_KEY = 5;       // pressed (1 byte)
+    private static final int EVENT_TAPE_INSERT = 6;    // tape type (1 byte) , length (variable length) , data
+    private static final int EVENT_TAPE_EJECT = 7;     // no payload
+    private static final int EVENT_DISK_INSERT = 8;    // drive (1 byte) , source (UTF) , length (variable length) , data
+    private static final int EVENT_DISK_EJECT = 9;     // drive (1 byte)
+
+    private static final int TAPE_T64 = 0;
+    private static final int TAPE_TAP = 1;
+
+    private InputLog() {
+    }
+
+    /**
+     * Records changes to the external input state of an emulator.
+     *
+     * The recorder does not close the output stream before {@link #close()} is called, all events are flushed
+     * as soon as they've been recorded so a log is usable even if the application terminates unexpectedly.
+     */
+    public static final class Recorder implements AutoCloseable
+    {
+        private final Emulator emulator;
+        private final DeflaterOutputStream deflater;
+        private final DataOutputStream out;
+        private final DiskHardware[] drives;
+
+        private long cycle;
+        private long previousEventCycle;
+        private boolean eventsWritten;
+
+        // state as of previous tick
+        private final int[] keyboardColumns = { 0xff,0xff,0xff,0xff,0xff,0xff,0xff,0xff };
+        private int joy1Mask = 0xff;
+        private int joy2Mask = 0xff;
+        private boolean tapeKeyPressed;
+        private TapeFile tape;
+        private final G64File[] disks;
+
+        /**
+         * Creates a recorder.
+         *
+         * The media currently inserted into the tape and disk drives are recorded immediately.
+         *
+         * @param out stream to write the log to
+         * @param emulator emulator whose input should be recorded
+         * @throws IOException
+         */
+        public Recorder(OutputStream out,Emulator emulator) throws IOException
+        {
+            Validate.notNull(out, "out must not be NULL");
+            Validate.notNull(emulator, "emulator must not be NULL");
+            this.emulator = emulator;
+            this.drives = getDrives( emulator );
+            this.disks = new G64File[ drives.length ];
+
+            out.write( MAGIC );
+            out.write( FORMAT_VERSION );
+            this.deflater = new DeflaterOutputStream( out , true );
+            this.out = new DataOutputStream( deflater );
+
+            try {
+                recordChanges();
+            }
+            finally {
+                flush();
+            }
+        }
+
+        /**
+         * Returns the number of cycles recorded so far.
+         *
+         * @return
+         */
+        public long getCycle() {
+            return cycle;
+        }
+
+        /**
+         * Invoked by the emulator before executing a cycle.
+         */
+        void tick()
+        {
+            recordChanges();
+            if ( eventsWritten ) {
+                flush();
+            }
+            cycle++;
+        }
+
+        /**
+         * Invoked by the emulator before it performs a reset.
+         */
+        void beforeReset()
+        {
+            recordChanges();
+        }
+
+        /**
+         * Invoked by the emulator after it performed a reset.
+         */
+        void afterReset()
+        {
+            // the CIAs initialize their real-time clocks from the host's clock
+            final IOArea ioArea = emulator.getMemory().ioArea;
+            try
+            {
+                writeEventHeader( EVENT_RESET );
+                out.writeInt( ioArea.cia1.getTimeOfDay() );
+                out.writeInt( ioArea.cia2.getTimeOfDay() );
+            }
+            catch(IOException e) {
+                throw new RuntimeException("Failed to write input log",e);
+            }
+            flush();
+        }
+
+        private void recordChanges()
+        {
+            final IOArea ioArea = emulator.getMemory().ioArea;
+            for ( int col = 0 ; col < 8 ; col++ )
+            {
+                final int rowBits = ioArea.getKeyboardColumn( col );
+                if ( rowBits != keyboardColumns[col] )
+                {
+                    keyboardColumns[col] = rowBits;
+                    writeEvent( EVENT_KEYBOARD , col , rowBits );
+                }
+            }
+            if ( ioArea.joy1Mask != joy1Mask )
+            {
+                joy1Mask = ioArea.joy1Mask;
+                writeEvent( EVENT_JOYSTICK1 , joy1Mask );
+            }
+            if ( ioArea.joy2Mask != joy2Mask )
+            {
+                joy2Mask = ioArea.joy2Mask;
+                writeEvent( EVENT_JOYSTICK2 , joy2Mask );
+            }
+
+            final TapeFile currentTape = emulator.tapeDrive.getTape();
+            if ( currentTape != tape )
+            {
+                tape = currentTape;
+                if ( currentTape == null ) {
+                    writeEvent( EVENT_TAPE_EJECT );
+                } else {
+                    writeTapeInserted( currentTape );
+                }
+            }
+            // must come after tape insertion since inserting a tape resets the drive
+            if ( emulator.tapeDrive.isKeyPressed() != tapeKeyPressed )
+            {
+                tapeKeyPressed = ! tapeKeyPressed;
+                writeEvent( EVENT_TAPE_KEY , tapeKeyPressed ? 1 : 0 );
+            }
+
+            for ( int i = 0 ; i < drives.length ; i++ )
+            {
+                final G64File currentDisk = drives[i].getDisk().orElse( null );
+                if ( currentDisk != disks[i] )
+                {
+                    disks[i] = currentDisk;
+                    if ( currentDisk == null ) {
+                        writeEvent( EVENT_DISK_EJECT , drives[i].getPrimaryAddress() );
+                    } else {
+                        writeDiskInserted( drives[i].getPrimaryAddress() , currentDisk );
+                    }
+                }
+            }
+        }
+
+        private void writeTapeInserted(TapeFile tape)
+        {
+            final byte[] data;
+            final int type;
+            if ( tape instanceof T64File ) {
+                type = TAPE_T64;
+                data = ((T64File) tape).data;
+            } else if ( tape instanceof TAPFile ) {
+                type = TAPE_TAP;
+                data = ((TAPFile) tape).getRawData();
+            } else {
+                throw new IllegalArgumentException("Unhandled tape type: "+tape.getClass().getName());
+            }
+            try
+            {
+                writeEventHeader( EVENT_TAPE_INSERT );
+                out.writeByte( type );
+                writeVarLong( data.length , out );
+                out.write( data );
+            }
+            catch(IOException e) {
+                throw new RuntimeException("Failed to write input log",e);
+            }
+        }
+
+        private void writeDiskInserted(int driveAddress,G64File disk)
+        {
+            final byte[] data = disk.getRawData();
+            try
+            {
+                writeEventHeader( EVENT_DISK_INSERT );
+                out.writeByte( driveAddress );
+                out.writeUTF( disk.getSource() == null ? "" : disk.getSource() );
+                writeVarLong( data.length , out );
+                out.write( data );
+            }
+            catch(IOException e) {
+                throw new RuntimeException("Failed to write input log",e);
+            }
+        }
+
+        private void writeEvent(int type,int... payload)
+        {
+            try
+            {
+                writeEventHeader( type );
+                for ( int value : payload ) {
+                    out.writeByte( value );
+                }
+            }
+            catch(IOException e) {
+                throw new RuntimeException("Failed to write input log",e);
+            }
+        }
+
+        private void writeEventHeader(int type) throws IOException
+        {
+            writeVarLong( cycle - previousEventCycle , out );
+            out.writeByte( type );
+            previousEventCycle = cycle;
+            eventsWritten = true;
+        }
+
+        private void flush()
+        {
+            try {
+                out.flush();
+            } catch(IOException e) {
+                throw new RuntimeException("Failed to write input log",e);
+            }
+            eventsWritten = false;
+        }
+
+        /**
+         * Writes the end marker and closes the underlying output stream.
+         *
+         * The recorder must be removed from the emulator before or right after calling this method.
+         */
+        @Override
+        public void close() throws IOException
+        {
+            try {
+                writeEventHeader( EVENT_END );
+                out.flush();
+                deflater.finish();
+            }
+            finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Replays a log written by {@link Recorder}.
+     */
+    public static final class Player implements AutoCloseable
+    {
+        private final Emulator emulator;
+        private final DataInputStream in;
+        private final DiskHardware[] drives;
+
+        private long cycle;
+        private long nextEventCycle;
+        private int nextEventType;
+        private boolean finished;
+
+        /**
+         * Creates a player.
+         *
+         * @param in stream to read the log from
+         * @param emulator emulator to apply input to
+         * @throws IOException
+         */
+        public Player(InputStream in,Emulator emulator) throws IOException
+        {
+            Validate.notNull(in, "in must not be NULL");
+            Validate.notNull(emulator, "emulator must not be NULL");
+            this.emulator = emulator;
+            this.drives = getDrives( emulator );
+
+            final byte[] magic = new byte[ MAGIC.length ];
+            new DataInputStream( in ).readFully( magic );
+            for ( int i = 0 ; i < MAGIC.length ; i++ )
+            {
+                if ( magic[i] != MAGIC[i] ) {
+                    throw new IOException("Not an input log");
+                }
+            }
+            final int version = in.read();
+            if ( version != FORMAT_VERSION ) {
+                throw new IOException("Unsupported input log version "+version);
+            }
+            this.in = new DataInputStream( new InflaterInputStream( in ) );
+            readEventHeader();
+        }
+
+        /**
+         * Returns whether all recorded cycles have been replayed.
+         *
+         * @return
+         */
+        public boolean isFinished() {
+            return finished || ( nextEventType == EVENT_END && cycle >= nextEventCycle );
+        }
+
+        /**
+         * Returns the number of cycles replayed so far.
+         *
+         * @return
+         */
+        public long getCycle() {
+            return cycle;
+        }
+
+        /**
+         * Invoked by the emulator before executing a cycle.
+         */
+        void tick()
+        {
+            if ( cycle == nextEventCycle )
+            {
+                try
+                {
+                    do {
+                        applyEvent();
+                        readEventHeader();
+                    } while ( cycle == nextEventCycle );
+                }
+                catch(IOException e) {
+                    throw new RuntimeException("Failed to read input log",e);
+                }
+            }
+            cycle++;
+        }
+
+        private void readEventHeader() throws IOException
+        {
+            if ( finished ) {
+                return;
+            }
+            final long delta;
+            try {
+                delta = readVarLong( in );
+            } catch(EOFException e) {
+                // truncated log , recording was not closed properly
+                finished = true;
+                nextEventCycle = Long.MAX_VALUE;
+                return;
+            }
+            nextEventCycle += delta;
+            nextEventType = in.readUnsignedByte();
+        }
+
+        private void applyEvent() throws IOException
+        {
+            final IOArea ioArea = emulator.getMemory().ioArea;
+            switch( nextEventType )
+            {
+                case EVENT_END:
+                    finished = true;
+                    nextEventCycle = Long.MAX_VALUE;
+                    break;
+                case EVENT_RESET:
+                    emulator.reset();
+                    ioArea.cia1.setTimeOfDay( in.readInt() );
+                    ioArea.cia2.setTimeOfDay( in.readInt() );
+                    break;
+                case EVENT_KEYBOARD:
+                    final int column = in.readUnsignedByte();
+                    ioArea.setKeyboardColumn( column , in.readUnsignedByte() );
+                    break;
+                case EVENT_JOYSTICK1:
+                    ioArea.joy1Mask = in.readUnsignedByte();
+                    break;
+                case EVENT_JOYSTICK2:
+                    ioArea.joy2Mask = in.readUnsignedByte();
+                    break;
+                case EVENT_TAPE_KEY:
+                    emulator.tapeDrive.setKeyPressed( in.readUnsignedByte() != 0 );
+                    break;
+                case EVENT_TAPE_INSERT:
+                    final int tapeType = in.readUnsignedByte();
+                    final byte[] tapeData = readBytes();
+                    emulator.tapeDrive.insert( tapeType == TAPE_T64 ? new T64File( new ByteArrayInputStream( tapeData ) ) : new TAPFile( tapeData ) );
+                    break;
+                case EVENT_TAPE_EJECT:
+                    emulator.tapeDrive.eject();
+                    break;
+                case EVENT_DISK_INSERT:
+                    final DiskHardware drive = getDrive( in.readUnsignedByte() );
+                    final String source = in.readUTF();
+                    drive.loadDisk( new G64File( readBytes() , source ) );
+                    break;
+                case EVENT_DISK_EJECT:
+                    getDrive( in.readUnsignedByte() ).ejectDisk();
+                    break;
+                default:
+                    throw new IOException("Unknown event type "+nextEventType+" in cycle "+cycle);
+            }
+        }
+
+        private byte[] readBytes() throws IOException
+        {
+            final byte[] result = new byte[ (int) readVarLong( in ) ];
+            in.readFully( result );
+            return result;
+        }
+
+        private DiskHardware getDrive(int driveAddress) throws IOException
+        {
+            for ( DiskHardware drive : drives )
+            {
+                if ( drive.getPrimaryAddress() == driveAddress ) {
+                    return drive;
+                }
+            }
+            throw new IOException("Log refers to drive #"+driveAddress+" that does not exist");
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static DiskHardware[] getDrives(Emulator emulator)
+    {
+        final List<DiskHardware> result = new ArrayList<>();
+        for ( SerialDevice device : emulator.getBus().getDevices() )
+        {
+            if ( device instanceof DiskHardware ) {
+                result.add( (DiskHardware) device );
+            }
+        }
+        return result.toArray( new DiskHardware[ result.size() ] );
+    }
+
+    private static void writeVarLong(long value,DataOutputStream out) throws IOException
+    {
+        long remaining = value;
+        while ( ( remaining & ~0x7fL ) != 0 )
+        {
+            out.writeByte( (int) ( ( remaining & 0x7f ) | 0x80 ) );
+            remaining >>>= 7;
+        }
+        out.writeByte( (int) remaining );
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException
+    {
+        long result = 0;
+        int shift = 0;
+        int value;
+        do
+        {
+            value = in.read();
+            if ( value == -1 ) {
+                throw new EOFException();
+            }
+            result |= (long) ( value & 0x7f ) << shift;
+            shift += 7;
+        } while ( ( value & 0x80 ) != 0 );
+        return result;
+    }
+}
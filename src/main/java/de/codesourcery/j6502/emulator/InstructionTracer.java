@@ -0,0 +1,193 @@
+package de.codesourcery.j6502.emulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Records every instruction executed by the C64 CPU into a preallocated ring buffer.
+ *
+ * <p>Each instruction is stored as a fixed-size binary record, recording does not allocate any memory and
+ * costs a handful of memory writes. The buffer either lives on the heap or is a memory-mapped file, in the latter case
+ * the trace survives even if the JVM crashes and the OS takes care of writing it to disk.
+ * Once the buffer is full, the oldest records get overwritten. Traces are turned into text by {@link TraceDecoder}.</p>
+ *
+ * Trace layout (little-endian):
+ * <pre>
+ * header (32 bytes):
+ *   magic            4 bytes ("J6TR")
+ *   format version   4 bytes
+ *   capacity         4 bytes (number of records)
+ *   record size      4 bytes
+ *   records written  8 bytes (total , including the ones that have been overwritten)
+ *   reserved         8 bytes
+ * records (16 bytes each):
+ *   bits  0-15  PC
+ *   bits 16-63  cycle (number of cycles since the last reset)
+ *   bits 64-71  opcode
+ *   bits 72-87  the two bytes following the opcode
+ *   bits 88-95  A
+ *   bits 96-103 X
+ *   bits 104-111 Y
+ *   bits 112-119 SP
+ *   bits 120-127 processor flags
+ * </pre>
+ *
+ * Must only be used by the emulation thread.
+ *
+ * @see Emulator#setInstructionTracer(InstructionTracer)
+ */
+public final class InstructionTracer implements AutoCloseable
+{
+    static final byte[] MAGIC = { 'J' , '6' , 'T' , 'R' };
+    static final int FORMAT_VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 16;
+
+    static final int OFFSET_CAPACITY = 8;
+    static final int OFFSET_RECORD_SIZE = 12;
+    static final int OFFSET_RECORDS_WRITTEN = 16;
+
+    private final ByteBuffer buffer;
+    private final FileChannel channel;
+    private final int endOffset;
+
+    private int writeOffset = HEADER_SIZE;
+    private long recordsWritten;
+
+    private InstructionTracer(ByteBuffer buffer,FileChannel channel,int capacity)
+    {
+        this.buffer = buffer.order( ByteOrder.LITTLE_ENDIAN );
+        this.channel = channel;
+        this.endOffset = HEADER_SIZE + capacity * RECORD_SIZE;
+
+        buffer.put( MAGIC );
+        buffer.putInt( FORMAT_VERSION );
+        buffer.putInt( capacity );
+        buffer.putInt( RECORD_SIZE );
+        buffer.putLong( 0 );
+        buffer.putLong( 0 );
+    }
+
+    /**
+     * Creates a tracer that keeps the trace on the heap.
+     *
+     * @param capacity number of instructions to keep
+     * @return
+     * @see #writeTo(Path)
+     */
+    public static InstructionTracer inMemory(int capacity)
+    {
+        validateCapacity( capacity );
+        return new InstructionTracer( ByteBuffer.allocate( HEADER_SIZE + capacity * RECORD_SIZE ) , null , capacity );
+    }
+
+    /**
+     * Creates a tracer that writes the trace to a memory-mapped file.
+     *
+     * @param file file to write to, will be overwritten
+     * @param capacity number of instructions to keep
+     * @return
+     * @throws IOException
+     */
+    public static InstructionTracer mapFile(Path file,int capacity) throws IOException
+    {
+        validateCapacity( capacity );
+        final FileChannel channel = FileChannel.open( file , StandardOpenOption.CREATE , StandardOpenOption.TRUNCATE_EXISTING ,
+                StandardOpenOption.READ , StandardOpenOption.WRITE );
+        try
+        {
+            final MappedByteBuffer buffer = channel.map( MapMode.READ_WRITE , 0 , HEADER_SIZE + (long) capacity * RECORD_SIZE );
+            return new InstructionTracer( buffer , channel , capacity );
+        }
+        catch(IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void validateCapacity(int capacity)
+    {
+        Validate.isTrue( capacity > 0 , "capacity must be > 0");
+        Validate.isTrue( capacity <= ( Integer.MAX_VALUE - HEADER_SIZE ) / RECORD_SIZE , "capacity too large");
+    }
+
+    /**
+     * Invoked by the emulator right before an instruction gets executed.
+     *
+     * @param cpu
+     * @param memory
+     * @param cycle
+     */
+    void trace(CPU cpu,IMemoryRegion memory,long cycle)
+    {
+        final int pc = cpu.pc();
+        final long opcodes = memory.readByteNoSideEffects( pc ) |
+                memory.readByteNoSideEffects( ( pc + 1 ) & 0xffff ) << 8 |
+                memory.readByteNoSideEffects( ( pc + 2 ) & 0xffff ) << 16;
+        final long registers = cpu.getAccumulator() | cpu.getX() << 8 | cpu.getY() << 16;
+
+        final int offset = writeOffset;
+        buffer.putLong( offset , cycle << 16 | pc );
+        buffer.putLong( offset + 8 , opcodes | registers << 24 | (long) cpu.getSP() << 48 | ( cpu.getFlagBits() & 0xffL ) << 56 );
+        buffer.putLong( OFFSET_RECORDS_WRITTEN , ++recordsWritten );
+
+        final int nextOffset = offset + RECORD_SIZE;
+        writeOffset = nextOffset == endOffset ? HEADER_SIZE : nextOffset;
+    }
+
+    /**
+     * Returns the total number of instructions traced so far.
+     *
+     * @return
+     */
+    public long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    /**
+     * Writes the trace to a file that can be read by {@link TraceDecoder}.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void writeTo(Path file) throws IOException
+    {
+        final ByteBuffer copy = buffer.duplicate();
+        copy.clear();
+        try ( FileChannel out = FileChannel.open( file , StandardOpenOption.CREATE , StandardOpenOption.TRUNCATE_EXISTING , StandardOpenOption.WRITE ) )
+        {
+            while ( copy.hasRemaining() ) {
+                out.write( copy );
+            }
+        }
+    }
+
+    /**
+     * Returns a read-only view of the trace.
+     *
+     * @return
+     */
+    ByteBuffer getBuffer() {
+        return buffer.asReadOnlyBuffer().order( ByteOrder.LITTLE_ENDIAN );
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if ( channel != null )
+        {
+            ((MappedByteBuffer) buffer).force();
+            channel.close();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package de.codesourcery.j6502.emulator;
 
+import java.util.Arrays;
+
 import de.codesourcery.j6502.Constants;
 import de.codesourcery.j6502.utils.HexDump;
 
@@ -11,11 +13,20 @@ import de.codesourcery.j6502.utils.HexDump;
  */
 public class Memory extends IMemoryRegion
 {
+    /**
+     * Size of the pages used for dirty tracking , see {@link #isPageDirty(int)}.
+     */
+    public static final int PAGE_SIZE = 256;
+
     private final int[] data;
 
+    // one bit per page, set whenever the page gets written to
+    private final long[] dirtyPages;
+
     public Memory(String identifier, MemoryType type,AddressRange range) {
         super(identifier, type , range);
         this.data = new int[ range.getSizeInBytes() ];
+        this.dirtyPages = new long[ ( getPageCount() + 63 ) / 64 ];
     }
 
     @Override
@@ -51,12 +62,76 @@ public class Memory extends IMemoryRegion
         if ( Constants.MEMORY_SUPPORT_BREAKPOINTS ) {
             getBreakpointsContainer().write( offset );
         }
-        data[offset & 0xffff]=value & 0xff;
+        final int index = offset & 0xffff;
+        data[index]=value & 0xff;
+        dirtyPages[ index >>> 14 ] |= 1L << ( index >>> 8 );
     }
     
     @Override
     public void writeByteNoSideEffects(int offset, byte value) {
-        data[offset & 0xffff]=value & 0xff;
+        final int index = offset & 0xffff;
+        data[index]=value & 0xff;
+        dirtyPages[ index >>> 14 ] |= 1L << ( index >>> 8 );
+    }
+
+    /**
+     * Returns the number of {@link #PAGE_SIZE} pages this region consists of.
+     *
+     * The last page may be shorter than {@link #PAGE_SIZE} bytes.
+     * 
+     * @return
+     */
+    public final int getPageCount() {
+        return ( data.length + PAGE_SIZE - 1 ) / PAGE_SIZE;
+    }
+
+    /**
+     * Returns whether a page has been written to since the last call to {@link #clearDirtyPages()}.
+     * 
+     * @param page
+     * @return
+     */
+    public final boolean isPageDirty(int page) {
+        return ( dirtyPages[ page >>> 6 ] & 1L << page ) != 0;
+    }
+
+    public final void clearDirtyPages() {
+        Arrays.fill( dirtyPages , 0 );
+    }
+
+    /**
+     * Copies the contents of a page.
+     * 
+     * @param page
+     * @param dst array receiving the page's bytes (values 0...255), if the page is shorter than {@link #PAGE_SIZE}
+     * the remaining elements are set to zero
+     * @param dstOffset
+     * @return number of bytes copied
+     */
+    public final int savePage(int page,int[] dst,int dstOffset) 
+    {
+        final int start = page * PAGE_SIZE;
+        final int len = Math.min( PAGE_SIZE , data.length - start );
+        System.arraycopy( data , start , dst , dstOffset , len );
+        if ( len < PAGE_SIZE ) {
+            Arrays.fill( dst , dstOffset + len , dstOffset + PAGE_SIZE , 0 );
+        }
+        return len;
+    }
+
+    /**
+     * Overwrites the contents of a page, bypassing any side-effects.
+     * 
+     * Does not mark the page as dirty.
+     * 
+     * @param page
+     * @param src array holding the page's bytes (values 0...255) , as written by {@link #savePage(int, int[], int)}
+     * @param srcOffset
+     */
+    public final void restorePage(int page,int[] src,int srcOffset) 
+    {
+        final int start = page * PAGE_SIZE;
+        System.arraycopy( src , srcOffset , data , start , Math.min( PAGE_SIZE , data.length - start ) );
     }
 
     @Override
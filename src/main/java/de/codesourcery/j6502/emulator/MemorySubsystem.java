@@ -236,6 +236,9 @@ public final class MemorySubsystem extends IMemoryRegion implements IStatefulPar
     // mapping from memory addresses to writeRegions
     private final int[] writeMap = new int[65536];
 
+    // incremented on every write to a page (or bank switch) , see getPageVersion(int)
+    private final int[] pageVersions = new int[256];
+
     public MemorySubsystem(TapeDrive tapeDrive)
     {
         super("main memory" , MemoryType.RAM , new AddressRange(0,65536 ) );
@@ -294,6 +297,25 @@ public final class MemorySubsystem extends IMemoryRegion implements IStatefulPar
         ram4.reset();
         ram5.reset();
         ram6.reset();
+        touchAllPages();
+    }
+
+    private void touchAllPages()
+    {
+        for ( int i = 0 ; i < pageVersions.length ; i++ ) {
+            pageVersions[i]++;
+        }
+    }
+
+    /**
+     * Returns a counter that gets incremented on every write to a page through this memory subsystem
+     * and whenever the memory layout changes.
+     *
+     * Writes that bypass this class (for example to I/O registers by the chips themselves) are not tracked.
+     */
+    @Override
+    public int getPageVersion(int page) {
+        return pageVersions[ page & 0xff ];
     }
 
     public void setMemoryLayout( byte latchBits) {
@@ -336,6 +358,7 @@ public final class MemorySubsystem extends IMemoryRegion implements IStatefulPar
         }
 
         createRegions( index );
+        touchAllPages();
 
         // setup memory mappings (see http://www.c64-wiki.com/index.php/Bank_Switching)
         switch(index)
@@ -637,6 +660,7 @@ public final class MemorySubsystem extends IMemoryRegion implements IStatefulPar
         final IMemoryRegion writeRegion = writeRegions[ writeMap[ wrappedOffset ] ];
         final int result = readRegion.readByte( translatedOffset );
         writeRegion.writeByte( translatedOffset , (byte) result );
+        pageVersions[ wrappedOffset >>> 8 ]++;
         return result;
     }
 
@@ -647,6 +671,7 @@ public final class MemorySubsystem extends IMemoryRegion implements IStatefulPar
         final IMemoryRegion region = writeRegions[ writeMap[ wrappedOffset ] ];
         final int realOffset = wrappedOffset - region.getAddressRange().getStartAddress();
         region.writeByte( realOffset , value );
+        pageVersions[ wrappedOffset >>> 8 ]++;
     }
 
     @Override
@@ -655,6 +680,7 @@ public final class MemorySubsystem extends IMemoryRegion implements IStatefulPar
         final IMemoryRegion region = writeRegions[ writeMap[ wrappedOffset ] ];
         final int realOffset = wrappedOffset - region.getAddressRange().getStartAddress();
         region.writeByteNoSideEffects( realOffset , value );
+        pageVersions[ wrappedOffset >>> 8 ]++;
     }
 
     @Override
@@ -755,6 +781,7 @@ public final class MemorySubsystem extends IMemoryRegion implements IStatefulPar
             final IMemoryRegion region = ramRegions[ writeMap[ wrappedOffset ] ];
             final int realOffset = wrappedOffset - region.getAddressRange().getStartAddress();
             region.writeByteNoSideEffects( realOffset , value );
+            pageVersions[ wrappedOffset >>> 8 ]++;
         }
 
         @Override
@@ -764,6 +791,7 @@ public final class MemorySubsystem extends IMemoryRegion implements IStatefulPar
             final IMemoryRegion region = ramRegions[ writeMap[ wrappedOffset ] ];
             final int realOffset = wrappedOffset - region.getAddressRange().getStartAddress();
             region.writeByte( realOffset , value );
+            pageVersions[ wrappedOffset >>> 8 ]++;
         }
 
         @Override
@@ -831,6 +859,7 @@ public final class MemorySubsystem extends IMemoryRegion implements IStatefulPar
             return bytesLoaded;
         } finally {
             in.close();
+            touchAllPages();
         }
     }
 
@@ -871,5 +900,36 @@ public final class MemorySubsystem extends IMemoryRegion implements IStatefulPar
         catch (IOException e) {
             throw new RuntimeException(e);
         }
-    }            
-}
\ No newline at end of file
+    }
+
+    /**
+     * Writes the state of the PLA/cartridge lines.
+     *
+     * RAM contents are not included.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void saveState(OutputStream out) throws IOException 
+    {
+        SerializationHelper.writeBoolean( exrom , out );
+        SerializationHelper.writeBoolean( game , out );
+        SerializationHelper.writeByte( plaDataDirection , out );
+        SerializationHelper.writeByte( plaLatchBits , out );
+    }
+
+    /**
+     * Restores state written by {@link #saveState(OutputStream)}.
+     *
+     * @param in
+     * @throws IOException
+     */
+    public void restoreState(InputStream in) throws IOException 
+    {
+        exrom = SerializationHelper.readBoolean( in );
+        game = SerializationHelper.readBoolean( in );
+        plaDataDirection = (byte) SerializationHelper.readByte( in );
+        plaLatchBits = (byte) SerializationHelper.readByte( in );
+        setupMemoryLayout();
+    }
+}
@@ -0,0 +1,482 @@
+package de.codesourcery.j6502.emulator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+import de.codesourcery.j6502.assembler.ISymbol;
+import de.codesourcery.j6502.assembler.ISymbolTable;
+import de.codesourcery.j6502.assembler.Label;
+import de.codesourcery.j6502.assembler.SourceMap;
+import de.codesourcery.j6502.utils.Misc;
+
+/**
+ * Profiles code executed by the C64 CPU.
+ *
+ * <p>The profiler keeps the number of instructions and cycles spent at each address. Subroutine calls (JSR) and
+ * interrupts are tracked on a shadow call stack so that the inclusive time spent in each subroutine (including everything
+ * it calls) is known and cycles can be attributed to complete call stacks.</p>
+ *
+ * <p>Reports can be written as plain text, as CSV or as 'collapsed stacks' that can be fed to
+ * flamegraph.pl . Addresses are printed as labels and source line numbers when
+ * {@link #setSymbols(ISymbolTable, SourceMap) symbols} are available.</p>
+ *
+ * <p>The call stack is always tracked exactly but the per-address histograms may optionally be sampled,
+ * see {@link #Profiler(int)}.</p>
+ *
+ * Must only be used by the emulation thread.
+ *
+ * @see Emulator#setProfiler(Profiler)
+ */
+public final class Profiler
+{
+    private static final int MAX_CALL_DEPTH = 256;
+
+    private static final int OPCODE_JSR = 0x20;
+    private static final int OPCODE_RTS = 0x60;
+    private static final int OPCODE_RTI = 0x40;
+
+    private final int sampleInterval;
+    private int samplesToSkip;
+
+    private final long[] instructionCounts = new long[65536];
+    private final long[] cycleCounts = new long[65536];
+    private final long[] callCounts = new long[65536];
+    private final long[] inclusiveCycles = new long[65536];
+
+    private long totalInstructions;
+    private long totalCycles;
+
+    // shadow call stack
+    private final int[] stackPointers = new int[ MAX_CALL_DEPTH ];
+    private final long[] entryCycles = new long[ MAX_CALL_DEPTH ];
+    private final CallNode[] callNodes = new CallNode[ MAX_CALL_DEPTH ];
+    private int callDepth;
+
+    private final CallNode root = new CallNode( null , -1 );
+    private CallNode currentNode = root;
+
+    // symbols
+    private final TreeMap<Integer,String> labels = new TreeMap<>();
+    private SourceMap sourceMap;
+
+    /**
+     * A node in the call tree.
+     */
+    protected static final class CallNode
+    {
+        private static final CallNode[] NO_CHILDREN = new CallNode[0];
+
+        public final CallNode parent;
+        public final int address;
+        public long selfCycles;
+
+        private CallNode[] children = NO_CHILDREN;
+        private int childCount;
+
+        public CallNode(CallNode parent,int address)
+        {
+            this.parent = parent;
+            this.address = address;
+        }
+
+        public CallNode getChild(int address)
+        {
+            for ( int i = 0 ; i < childCount ; i++ )
+            {
+                if ( children[i].address == address ) {
+                    return children[i];
+                }
+            }
+            if ( childCount == children.length ) {
+                children = Arrays.copyOf( children , Math.max( 4 , childCount * 2 ) );
+            }
+            final CallNode result = new CallNode( this , address );
+            children[ childCount++ ] = result;
+            return result;
+        }
+    }
+
+    /**
+     * Creates a profiler that accounts for every executed instruction.
+     */
+    public Profiler() {
+        this(1);
+    }
+
+    /**
+     * Creates a profiler.
+     *
+     * @param sampleInterval only every n-th instruction is added to the per-address histograms and the call tree
+     * (with its cycles scaled by n), <code>1</code> records every instruction. Total , call count and inclusive subroutine timings are always exact.
+     */
+    public Profiler(int sampleInterval)
+    {
+        Validate.isTrue( sampleInterval >= 1 , "sample interval must be >= 1");
+        this.sampleInterval = sampleInterval;
+        this.samplesToSkip = sampleInterval - 1;
+    }
+
+    /**
+     * Invoked by the emulator after an instruction has been executed.
+     *
+     * @param pc address of the instruction
+     * @param opcode the instruction's opcode
+     * @param spBeforeExecution stack pointer before the instruction was executed
+     * @param cpu CPU , <code>cpu.cycles</code> holds the number of cycles the instruction took
+     */
+    void instructionExecuted(int pc,int opcode,int spBeforeExecution,CPU cpu)
+    {
+        final long cycles = cpu.cycles;
+        totalInstructions++;
+        totalCycles += cycles;
+
+        if ( samplesToSkip == 0 )
+        {
+            samplesToSkip = sampleInterval - 1;
+            final long weightedCycles = cycles * sampleInterval;
+            instructionCounts[pc] += sampleInterval;
+            cycleCounts[pc] += weightedCycles;
+            currentNode.selfCycles += weightedCycles;
+        } else {
+            samplesToSkip--;
+        }
+
+        switch( opcode )
+        {
+            case OPCODE_JSR:
+                enter( cpu.pc() , spBeforeExecution );
+                break;
+            case OPCODE_RTS:
+            case OPCODE_RTI:
+                leave( cpu.getSP() );
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Invoked by the emulator after the CPU jumped to an interrupt handler.
+     *
+     * @param cpu CPU , the PC points to the interrupt handler
+     * @param cycles number of cycles the CPU took to jump to the handler
+     */
+    void interruptTaken(CPU cpu,int cycles)
+    {
+        totalCycles += cycles;
+        // handler was entered with PC (2 bytes) and flags pushed on the stack
+        enter( cpu.pc() , ( cpu.getSP() + 3 ) & 0xff );
+    }
+
+    private void enter(int address,int stackPointer)
+    {
+        callCounts[address]++;
+        if ( callDepth == MAX_CALL_DEPTH ) {
+            return; // runaway recursion or code that doesn't use RTS to return, don't bother tracking it
+        }
+        stackPointers[ callDepth ] = stackPointer;
+        entryCycles[ callDepth ] = totalCycles;
+        callNodes[ callDepth ] = currentNode;
+        callDepth++;
+        currentNode = currentNode.getChild( address );
+    }
+
+    private void leave(int stackPointer)
+    {
+        /*
+         * Pop all frames that are no longer on the CPU stack, this also
+         * cleans up after code that manipulates the stack or returns via RTS without a matching JSR.
+         */
+        while ( callDepth > 0 && stackPointers[ callDepth - 1 ] <= stackPointer )
+        {
+            callDepth--;
+            inclusiveCycles[ currentNode.address ] += totalCycles - entryCycles[ callDepth ];
+            currentNode = callNodes[ callDepth ];
+            callNodes[ callDepth ] = null;
+        }
+    }
+
+    /**
+     * Discards all data collected so far.
+     */
+    public void reset()
+    {
+        Arrays.fill( instructionCounts , 0 );
+        Arrays.fill( cycleCounts , 0 );
+        Arrays.fill( callCounts , 0 );
+        Arrays.fill( inclusiveCycles , 0 );
+        Arrays.fill( callNodes , null );
+        totalInstructions = 0;
+        totalCycles = 0;
+        callDepth = 0;
+        samplesToSkip = sampleInterval - 1;
+        root.children = CallNode.NO_CHILDREN;
+        root.childCount = 0;
+        root.selfCycles = 0;
+        currentNode = root;
+    }
+
+    /**
+     * Sets the symbols used to print addresses.
+     *
+     * @param symbolTable symbol table or <code>null</code>
+     * @param sourceMap source map or <code>null</code>
+     */
+    public void setSymbols(ISymbolTable symbolTable,SourceMap sourceMap)
+    {
+        labels.clear();
+        this.sourceMap = sourceMap;
+        if ( symbolTable != null )
+        {
+            for ( ISymbol<?> global : symbolTable.getGlobalSymbols() )
+            {
+                addLabel( global , null );
+                for ( ISymbol<?> local : symbolTable.getLocalSymbols( global.getIdentifier() ) ) {
+                    addLabel( local , global.getIdentifier().value );
+                }
+            }
+        }
+    }
+
+    private void addLabel(ISymbol<?> symbol,String parentName)
+    {
+        if ( symbol instanceof Label && symbol.hasValue() )
+        {
+            final int address = ((Label) symbol).getValue() & 0xffff;
+            // prefer global labels over local ones
+            if ( parentName == null || ! labels.containsKey( address ) ) {
+                labels.put( address , parentName == null ? symbol.getIdentifier().value : parentName+"."+symbol.getIdentifier().value );
+            }
+        }
+    }
+
+    public long getTotalInstructions() {
+        return totalInstructions;
+    }
+
+    public long getTotalCycles() {
+        return totalCycles;
+    }
+
+    public long getInstructionCount(int address) {
+        return instructionCounts[ address & 0xffff ];
+    }
+
+    public long getCycleCount(int address) {
+        return cycleCounts[ address & 0xffff ];
+    }
+
+    /**
+     * Returns how often a subroutine or interrupt handler has been entered.
+     *
+     * @param address
+     * @return
+     */
+    public long getCallCount(int address) {
+        return callCounts[ address & 0xffff ];
+    }
+
+    /**
+     * Returns the number of cycles spent in a subroutine or interrupt handler , including
+     * all subroutines it called.
+     *
+     * <p>Only returns cycles of calls that already returned.</p>
+     * @param address
+     * @return
+     */
+    public long getInclusiveCycles(int address) {
+        return inclusiveCycles[ address & 0xffff ];
+    }
+
+    /**
+     * Returns the number of cycles spent executing code in a memory page.
+     *
+     * @param page page number (0-255)
+     * @return
+     */
+    public long getPageCycles(int page)
+    {
+        long result = 0;
+        for ( int adr = ( page & 0xff ) << 8 , end = adr + 256 ; adr < end ; adr++ ) {
+            result += cycleCounts[adr];
+        }
+        return result;
+    }
+
+    /**
+     * Returns a printable name for an address.
+     *
+     * @param address
+     * @return label , label+offset or hex address
+     */
+    public String getName(int address)
+    {
+        final Map.Entry<Integer,String> label = labels.floorEntry( address & 0xffff );
+        if ( label != null )
+        {
+            final int offset = ( address & 0xffff ) - label.getKey();
+            if ( offset == 0 ) {
+                return label.getValue();
+            }
+            if ( offset < 256 ) {
+                return label.getValue()+"+"+offset;
+            }
+        }
+        return Misc.to16BitHex( address );
+    }
+
+    private String getLineNumber(int address)
+    {
+        if ( sourceMap != null )
+        {
+            final int line = sourceMap.getLineNumber( address );
+            if ( line != -1 ) {
+                return Integer.toString( line );
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Writes a human-readable report.
+     *
+     * @param out
+     * @param limit max. number of entries to print per section
+     */
+    public void writeText(PrintWriter out,int limit)
+    {
+        out.println( "Instructions: "+totalInstructions+" , cycles: "+totalCycles+( sampleInterval > 1 ? " (sampled every "+sampleInterval+" instructions)" : "" ) );
+
+        out.println();
+        out.println( "Hottest instructions:" );
+        out.println( "address  instructions        cycles       %  line   symbol" );
+        for ( int adr : topN( cycleCounts , limit ) )
+        {
+            out.println( Misc.to16BitHex( adr )+"  "+StringUtils.leftPad( Long.toString( instructionCounts[adr] ) , 12 )+
+                    "  "+StringUtils.leftPad( Long.toString( cycleCounts[adr] ) , 12 )+"  "+percent( cycleCounts[adr] )+
+                    "  "+StringUtils.rightPad( getLineNumber( adr ) , 5 )+"  "+getName( adr ) );
+        }
+
+        out.println();
+        out.println( "Hottest subroutines (inclusive):" );
+        out.println( "address         calls        cycles       %  line   symbol" );
+        for ( int adr : topN( inclusiveCycles , limit ) )
+        {
+            out.println( Misc.to16BitHex( adr )+"  "+StringUtils.leftPad( Long.toString( callCounts[adr] ) , 12 )+
+                    "  "+StringUtils.leftPad( Long.toString( inclusiveCycles[adr] ) , 12 )+"  "+percent( inclusiveCycles[adr] )+
+                    "  "+StringUtils.rightPad( getLineNumber( adr ) , 5 )+"  "+getName( adr ) );
+        }
+
+        final long[] pageCycles = new long[256];
+        for ( int page = 0 ; page < 256 ; page++ ) {
+            pageCycles[page] = getPageCycles( page );
+        }
+        out.println();
+        out.println( "Hottest pages:" );
+        out.println( "page          cycles       %" );
+        for ( int page : topN( pageCycles , limit ) ) {
+            out.println( Misc.to16BitHex( page << 8 )+"  "+StringUtils.leftPad( Long.toString( pageCycles[page] ) , 12 )+"  "+percent( pageCycles[page] ) );
+        }
+        out.flush();
+    }
+
+    private String percent(long cycles)
+    {
+        final float percent = totalCycles == 0 ? 0 : cycles*100f / totalCycles;
+        return StringUtils.leftPad( String.format( "%.2f" , percent ) , 6 );
+    }
+
+    private static int[] topN(long[] values,int limit)
+    {
+        final List<Integer> indices = new ArrayList<>();
+        for ( int i = 0 ; i < values.length ; i++ )
+        {
+            if ( values[i] != 0 ) {
+                indices.add( i );
+            }
+        }
+        indices.sort( (a,b) -> Long.compare( values[b] , values[a] ) );
+        return indices.stream().limit( limit ).mapToInt( Integer::intValue ).toArray();
+    }
+
+    /**
+     * Writes one line per address that has been executed or called.
+     *
+     * @param out
+     */
+    public void writeCSV(PrintWriter out)
+    {
+        out.println( "address,symbol,line,instructions,cycles,calls,inclusive_cycles" );
+        for ( int adr = 0 ; adr < 65536 ; adr++ )
+        {
+            if ( instructionCounts[adr] != 0 || callCounts[adr] != 0 )
+            {
+                out.println( Misc.to16BitHex( adr )+","+getName( adr )+","+getLineNumber( adr )+","+instructionCounts[adr]+","+
+                        cycleCounts[adr]+","+callCounts[adr]+","+inclusiveCycles[adr] );
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the call tree in the 'collapsed stack' format understood by flamegraph.pl ,
+     * one line per call stack with the number of cycles spent in the innermost frame.
+     *
+     * @param out
+     */
+    public void writeCollapsedStacks(PrintWriter out)
+    {
+        writeCollapsedStacks( root , new StringBuilder() , out );
+        out.flush();
+    }
+
+    private void writeCollapsedStacks(CallNode node,StringBuilder path,PrintWriter out)
+    {
+        final int pathLength = path.length();
+        if ( node != root )
+        {
+            if ( pathLength > 0 ) {
+                path.append(';');
+            }
+            path.append( getName( node.address ) );
+        }
+        if ( node.selfCycles != 0 ) {
+            out.println( ( node == root ? "<unknown>" : path )+" "+node.selfCycles );
+        }
+        for ( int i = 0 ; i < node.childCount ; i++ ) {
+            writeCollapsedStacks( node.children[i] , path , out );
+        }
+        path.setLength( pathLength );
+    }
+
+    /**
+     * Writes text , CSV and collapsed stacks reports to <code>baseName.txt</code> ,
+     * <code>baseName.csv</code> and <code>baseName.folded</code>.
+     *
+     * @param directory
+     * @param baseName
+     * @throws IOException
+     */
+    public void writeReports(Path directory,String baseName) throws IOException
+    {
+        try ( PrintWriter out = new PrintWriter( Files.newBufferedWriter( directory.resolve( baseName+".txt" ) , StandardCharsets.UTF_8 ) ) ) {
+            writeText( out , 50 );
+        }
+        try ( PrintWriter out = new PrintWriter( Files.newBufferedWriter( directory.resolve( baseName+".csv" ) , StandardCharsets.UTF_8 ) ) ) {
+            writeCSV( out );
+        }
+        try ( PrintWriter out = new PrintWriter( Files.newBufferedWriter( directory.resolve( baseName+".folded" ) , StandardCharsets.UTF_8 ) ) ) {
+            writeCollapsedStacks( out );
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package de.codesourcery.j6502.emulator;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang.Validate;
+
+import de.codesourcery.j6502.Constants;
+import de.codesourcery.j6502.emulator.SnapshotEngine.Snapshot;
+
+/**
+ * Bounded ring of emulation snapshots taken every {@link Constants#REWIND_CYCLES_PER_FRAME} cycles,
+ * used to travel back in time.
+ *
+ * Every {@link #getKeyframeInterval()}th frame is a full snapshot (keyframe), all other frames
+ * only hold the memory pages that changed since the previous frame.
+ * Frames are stored XOR'ed against the previous frame and run-length encoded, so unchanged bytes
+ * cost next to nothing.
+ *
+ * When either the memory budget or the max. number of frames is exceeded, the oldest keyframe
+ * along with all frames depending on it is discarded.
+ *
+ * Input that is not part of the {@link SnapshotEngine} state (keyboard , tape) is not recorded,
+ * so replaying frames while searching with {@link #runBackTo(int, EmulatorDriver)} only yields the
+ * original execution as long as no such input happened.
+ *
+ * All methods must be called from the emulation thread.
+ */
+public final class RewindBuffer
+{
+    // RLE control bytes: 0x00...0x7f = run of (n+1) zero bytes , 0x80...0xff = (n-0x7f) literal bytes follow
+    private static final int MAX_ZERO_RUN = 128;
+    private static final int MAX_LITERAL_RUN = 128;
+
+    // approx. per-frame overhead (object header , array header , references)
+    private static final int FRAME_OVERHEAD = 48;
+
+    private final Emulator emulator;
+    private final SnapshotEngine engine;
+
+    private final long maxBytes;
+    private final int keyframeInterval;
+
+    // ring of recorded frames, oldest first
+    private final Frame[] frames;
+    private int first;
+    private int size;
+
+    private long bytesUsed;
+    private int framesSinceKeyframe;
+
+    // number of cycles executed since the most recent frame got recorded
+    private int cyclesSinceFrame;
+
+    // state as of the most recently recorded frame , used as XOR base when encoding the next frame
+    private final Snapshot current;
+    private final Snapshot scratch;
+
+    private byte[] encodeBuffer = new byte[ 64*1024 ];
+    private int encodePtr;
+
+    private static final class Frame
+    {
+        public final boolean keyframe;
+        public final byte[] data;
+
+        public Frame(boolean keyframe, byte[] data)
+        {
+            this.keyframe = keyframe;
+            this.data = data;
+        }
+    }
+
+    public RewindBuffer(Emulator emulator)
+    {
+        this( emulator , Constants.REWIND_MAX_BYTES , Constants.REWIND_MAX_SECONDS , Constants.REWIND_KEYFRAME_INTERVAL );
+    }
+
+    /**
+     *
+     * @param emulator
+     * @param maxBytes max. number of bytes to use for storing frames
+     * @param maxSeconds max. number of seconds (emulated time) to keep
+     * @param keyframeInterval number of frames between full snapshots
+     */
+    public RewindBuffer(Emulator emulator,long maxBytes,int maxSeconds,int keyframeInterval)
+    {
+        Validate.notNull(emulator, "emulator must not be NULL");
+        Validate.isTrue( maxBytes > 0 , "maxBytes must be > 0");
+        Validate.isTrue( maxSeconds > 0 , "maxSeconds must be > 0");
+        Validate.isTrue( keyframeInterval > 0 , "keyframeInterval must be > 0");
+
+        this.emulator = emulator;
+        this.engine = new SnapshotEngine( emulator );
+        this.maxBytes = maxBytes;
+        this.keyframeInterval = keyframeInterval;
+
+        final long framesPerSecond = Constants.EMULATORDRIVER_TRUE_SPEED_HZ / Constants.REWIND_CYCLES_PER_FRAME;
+        this.frames = new Frame[ (int) ( maxSeconds * framesPerSecond ) ];
+
+        this.current = engine.createSnapshot();
+        this.scratch = engine.createSnapshot();
+    }
+
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * Returns the number of frames available for rewinding.
+     *
+     * @return
+     */
+    public int getFrameCount() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes currently used to store frames.
+     *
+     * @return
+     */
+    public long getBytesUsed() {
+        return bytesUsed;
+    }
+
+    /**
+     * Returns the number of cycles that may be executed before the next frame
+     * needs to be recorded.
+     *
+     * @return
+     */
+    public int getCyclesUntilNextFrame() {
+        return Constants.REWIND_CYCLES_PER_FRAME - cyclesSinceFrame;
+    }
+
+    /**
+     * Discards all recorded frames , the next frame will be a keyframe.
+     */
+    public void clear()
+    {
+        Arrays.fill( frames , null );
+        first = 0;
+        size = 0;
+        bytesUsed = 0;
+        framesSinceKeyframe = 0;
+        cyclesSinceFrame = 0;
+    }
+
+    /**
+     * Advances the internal cycle counter, recording a frame whenever
+     * {@link Constants#REWIND_CYCLES_PER_FRAME} cycles have passed.
+     *
+     * Callers should make sure to not skip past the end of a frame , see {@link #getCyclesUntilNextFrame()}.
+     *
+     * @param cycles number of cycles executed since the last invocation
+     */
+    public void cyclesExecuted(int cycles)
+    {
+        cyclesSinceFrame += cycles;
+        if ( cyclesSinceFrame >= Constants.REWIND_CYCLES_PER_FRAME )
+        {
+            cyclesSinceFrame = 0;
+            recordFrame();
+        }
+    }
+
+    private void recordFrame()
+    {
+        final boolean keyframe = size == 0 || framesSinceKeyframe >= keyframeInterval-1;
+        encodePtr = 0;
+        if ( keyframe )
+        {
+            engine.captureFull( current );
+            encodeKeyframe();
+            framesSinceKeyframe = 0;
+        }
+        else
+        {
+            engine.capture( scratch );
+            encodeDelta();
+            framesSinceKeyframe++;
+        }
+        add( new Frame( keyframe , Arrays.copyOf( encodeBuffer , encodePtr ) ) );
+
+        while ( size > 1 && ( bytesUsed > maxBytes || size == frames.length ) ) {
+            discardOldestKeyframe();
+        }
+    }
+
+    private void add(Frame frame)
+    {
+        if ( size == frames.length ) {
+            // only possible if all frames depend on a single keyframe
+            discardOldestKeyframe();
+        }
+        frames[ ( first + size ) % frames.length ] = frame;
+        size++;
+        bytesUsed += frame.data.length + FRAME_OVERHEAD;
+    }
+
+    private Frame frame(int index) {
+        return frames[ ( first + index ) % frames.length ];
+    }
+
+    private void discardOldestKeyframe()
+    {
+        do
+        {
+            final Frame frame = frames[first];
+            frames[first] = null;
+            first = ( first + 1 ) % frames.length;
+            size--;
+            bytesUsed -= frame.data.length + FRAME_OVERHEAD;
+        } while ( size > 0 && ! frame(0).keyframe );
+
+        if ( size == 0 ) {
+            framesSinceKeyframe = 0;
+        }
+    }
+
+    /**
+     * Rewinds the emulation by a number of frames.
+     *
+     * If the emulation is currently in the middle of a frame , rewinding by one frame
+     * returns to the start of that frame.
+     *
+     * @param count number of frames to go back, values larger than the number of available frames
+     * rewind to the oldest frame
+     * @return <code>false</code> if no frames have been recorded yet
+     */
+    public boolean stepBack(int count)
+    {
+        Validate.isTrue( count > 0 , "count must be > 0");
+        if ( size == 0 ) {
+            return false;
+        }
+        final int newest = size - 1;
+        final int index = cyclesSinceFrame > 0 ? newest - ( count - 1 ) : newest - count;
+        restoreFrame( Math.max( 0 , index ) );
+        return true;
+    }
+
+    /**
+     * Rewinds the emulation to the most recent point in time when the CPU's program counter
+     * changed to a given address.
+     *
+     * Frames are replayed newest-first until a match is found, which takes time
+     * proportional to how far back the match is.
+     *
+     * @param pc address to look for
+     * @param driver driver passed to {@link Emulator#doOneCycle(EmulatorDriver)} while replaying
+     * @return <code>true</code> if the emulation got rewound, <code>false</code> if the address was not
+     * found within the recorded frames (emulation state is unchanged in this case)
+     */
+    public boolean runBackTo(int pc,EmulatorDriver driver)
+    {
+        if ( size == 0 ) {
+            return false;
+        }
+
+        final int address = pc & 0xffff;
+        final CPU cpu = emulator.getCPU();
+        final int originalOffset = cyclesSinceFrame;
+
+        // the current position itself does not count as a match
+        int limit = originalOffset - 1;
+        for ( int index = size - 1 ; index >= 0 ; index-- )
+        {
+            decodeFrame( index );
+            engine.restore( current );
+
+            int match = -1;
+            int previousPC = cpu.pc();
+            for ( int offset = 1 ; offset <= limit ; offset++ )
+            {
+                emulator.doOneCycle( driver );
+                final int newPC = cpu.pc();
+                if ( newPC == address && previousPC != address ) {
+                    match = offset;
+                }
+                previousPC = newPC;
+            }
+
+            if ( match != -1 )
+            {
+                restoreFrame( index );
+                runCycles( match , driver );
+                return true;
+            }
+            // running a full frame ends up at the start of the next frame, which is the current position
+            // if we started right at a frame boundary
+            limit = index == size - 1 && originalOffset == 0 ? Constants.REWIND_CYCLES_PER_FRAME - 1 : Constants.REWIND_CYCLES_PER_FRAME;
+        }
+
+        // not found, go back to where we started
+        restoreFrame( size - 1 );
+        runCycles( originalOffset , driver );
+        return false;
+    }
+
+    private void runCycles(int cycles,EmulatorDriver driver)
+    {
+        for ( int i = 0 ; i < cycles ; i++ ) {
+            emulator.doOneCycle( driver );
+        }
+        cyclesSinceFrame = cycles;
+    }
+
+    /**
+     * Restores a frame and discards all frames recorded after it.
+     *
+     * @param index
+     */
+    private void restoreFrame(int index)
+    {
+        decodeFrame( index );
+        engine.restore( current );
+
+        // discard newer frames
+        while ( size > index + 1 )
+        {
+            size--;
+            final int slot = ( first + size ) % frames.length;
+            bytesUsed -= frames[slot].data.length + FRAME_OVERHEAD;
+            frames[slot] = null;
+        }
+
+        int keyframe = index;
+        while ( ! frame( keyframe ).keyframe ) {
+            keyframe--;
+        }
+        framesSinceKeyframe = index - keyframe;
+        cyclesSinceFrame = 0;
+    }
+
+    /**
+     * Decodes a frame into {@link #current}.
+     *
+     * @param index
+     */
+    private void decodeFrame(int index)
+    {
+        int keyframe = index;
+        while ( ! frame( keyframe ).keyframe ) {
+            keyframe--;
+        }
+        decodeKeyframe( frame( keyframe ).data );
+        for ( int i = keyframe + 1 ; i <= index ; i++ ) {
+            decodeDelta( frame( i ).data );
+        }
+    }
+
+    // ---------------- encoding ----------------
+
+    private void encodeKeyframe()
+    {
+        final int[] data = current.pageData;
+        final int pageCount = current.pageCount;
+        for ( int i = 0 ; i < pageCount ; i++ ) {
+            encodeXOR( data , i * Memory.PAGE_SIZE , null , 0 , Memory.PAGE_SIZE );
+        }
+        writeInt( current.fieldsLength );
+        encodeXOR( current.fields , null , current.fieldsLength );
+    }
+
+    private void encodeDelta()
+    {
+        final int pageCount = scratch.pageCount;
+        writeInt( pageCount );
+        for ( int i = 0 ; i < pageCount ; i++ )
+        {
+            final int page = scratch.pages[i];
+            writeInt( page );
+            encodeXOR( scratch.pageData , i * Memory.PAGE_SIZE , current.pageData , page * Memory.PAGE_SIZE , Memory.PAGE_SIZE );
+            System.arraycopy( scratch.pageData , i * Memory.PAGE_SIZE , current.pageData , page * Memory.PAGE_SIZE , Memory.PAGE_SIZE );
+        }
+
+        final int len = scratch.fieldsLength;
+        if ( current.fields.length < len ) {
+            current.fields = Arrays.copyOf( current.fields , len );
+        }
+        if ( current.fieldsLength > len ) {
+            Arrays.fill( current.fields , len , current.fieldsLength , (byte) 0 );
+        }
+        writeInt( len );
+        encodeXOR( scratch.fields , current.fields , len );
+        System.arraycopy( scratch.fields , 0 , current.fields , 0 , len );
+        current.fieldsLength = len;
+    }
+
+    private void encodeXOR(int[] data,int offset,int[] base,int baseOffset,int len)
+    {
+        int i = 0;
+        while ( i < len )
+        {
+            int zeros = 0;
+            while ( i < len && zeros < MAX_ZERO_RUN && ( data[offset+i] ^ ( base == null ? 0 : base[baseOffset+i] ) ) == 0 ) {
+                zeros++;
+                i++;
+            }
+            if ( zeros > 0 ) {
+                writeByte( zeros - 1 );
+                continue;
+            }
+            final int start = i;
+            while ( i < len && i - start < MAX_LITERAL_RUN && ( data[offset+i] ^ ( base == null ? 0 : base[baseOffset+i] ) ) != 0 ) {
+                i++;
+            }
+            writeByte( 0x7f + ( i - start ) );
+            for ( int j = start ; j < i ; j++ ) {
+                writeByte( data[offset+j] ^ ( base == null ? 0 : base[baseOffset+j] ) );
+            }
+        }
+    }
+
+    private void encodeXOR(byte[] data,byte[] base,int len)
+    {
+        int i = 0;
+        while ( i < len )
+        {
+            int zeros = 0;
+            while ( i < len && zeros < MAX_ZERO_RUN && ( data[i] ^ ( base == null ? 0 : base[i] ) ) == 0 ) {
+                zeros++;
+                i++;
+            }
+            if ( zeros > 0 ) {
+                writeByte( zeros - 1 );
+                continue;
+            }
+            final int start = i;
+            while ( i < len && i - start < MAX_LITERAL_RUN && ( data[i] ^ ( base == null ? 0 : base[i] ) ) != 0 ) {
+                i++;
+            }
+            writeByte( 0x7f + ( i - start ) );
+            for ( int j = start ; j < i ; j++ ) {
+                writeByte( data[j] ^ ( base == null ? 0 : base[j] ) );
+            }
+        }
+    }
+
+    private void writeInt(int value)
+    {
+        writeByte( value >>> 24 );
+        writeByte( value >>> 16 );
+        writeByte( value >>>  8 );
+        writeByte( value );
+    }
+
+    private void writeByte(int value)
+    {
+        if ( encodePtr == encodeBuffer.length ) {
+            encodeBuffer = Arrays.copyOf( encodeBuffer , encodeBuffer.length * 2 );
+        }
+        encodeBuffer[ encodePtr++ ] = (byte) value;
+    }
+
+    // ---------------- decoding ----------------
+
+    private void decodeKeyframe(byte[] data)
+    {
+        final int pageCount = engine.getTotalPageCount();
+        final int[] pageData = current.pageData;
+        int ptr = 0;
+        for ( int i = 0 ; i < pageCount ; i++ )
+        {
+            current.pages[i] = i;
+            Arrays.fill( pageData , i * Memory.PAGE_SIZE , ( i + 1 ) * Memory.PAGE_SIZE , 0 );
+            ptr = decodeXOR( data , ptr , pageData , i * Memory.PAGE_SIZE , Memory.PAGE_SIZE );
+        }
+        current.pageCount = pageCount;
+        current.full = true;
+
+        final int len = readInt( data , ptr );
+        ptr += 4;
+        if ( current.fields.length < len ) {
+            current.fields = new byte[ len ];
+        }
+        Arrays.fill( current.fields , 0 , len , (byte) 0 );
+        decodeXOR( data , ptr , current.fields , len );
+        current.fieldsLength = len;
+    }
+
+    private void decodeDelta(byte[] data)
+    {
+        final int[] pageData = current.pageData;
+        int ptr = 0;
+        final int pageCount = readInt( data , ptr );
+        ptr += 4;
+        for ( int i = 0 ; i < pageCount ; i++ )
+        {
+            final int page = readInt( data , ptr );
+            ptr += 4;
+            ptr = decodeXOR( data , ptr , pageData , page * Memory.PAGE_SIZE , Memory.PAGE_SIZE );
+        }
+
+        final int len = readInt( data , ptr );
+        ptr += 4;
+        if ( current.fields.length < len ) {
+            current.fields = Arrays.copyOf( current.fields , len );
+        }
+        if ( current.fieldsLength > len ) {
+            Arrays.fill( current.fields , len , current.fieldsLength , (byte) 0 );
+        }
+        decodeXOR( data , ptr , current.fields , len );
+        current.fieldsLength = len;
+    }
+
+    private static int decodeXOR(byte[] data,int ptr,int[] dst,int dstOffset,int len)
+    {
+        int i = 0;
+        while ( i < len )
+        {
+            final int control = data[ptr++] & 0xff;
+            if ( control < 0x80 ) {
+                i += control + 1;
+            }
+            else
+            {
+                for ( int count = control - 0x7f ; count > 0 ; count-- , i++ ) {
+                    dst[ dstOffset + i ] ^= data[ptr++] & 0xff;
+                }
+            }
+        }
+        return ptr;
+    }
+
+    private static int decodeXOR(byte[] data,int ptr,byte[] dst,int len)
+    {
+        int i = 0;
+        while ( i < len )
+        {
+            final int control = data[ptr++] & 0xff;
+            if ( control < 0x80 ) {
+                i += control + 1;
+            }
+            else
+            {
+                for ( int count = control - 0x7f ; count > 0 ; count-- , i++ ) {
+                    dst[i] ^= data[ptr++];
+                }
+            }
+        }
+        return ptr;
+    }
+
+    private static int readInt(byte[] data,int ptr)
+    {
+        return ( data[ptr] & 0xff ) << 24 | ( data[ptr+1] & 0xff ) << 16 | ( data[ptr+2] & 0xff ) << 8 | ( data[ptr+3] & 0xff );
+    }
+}
@@ -146,8 +146,8 @@ public class SerializationHelper
     
     static long readLongNoTag(InputStream in) throws IOException 
     {
-        final long hi = readIntNoTag( in ) & 0xffffffff;
-        final long lo = readIntNoTag( in ) & 0xffffffff;
+        final long hi = readIntNoTag( in ) & 0xffffffffL;
+        final long lo = readIntNoTag( in ) & 0xffffffffL;
         return hi << 32 | lo;
     }    
     
@@ -0,0 +1,319 @@
+package de.codesourcery.j6502.emulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+import de.codesourcery.j6502.emulator.diskdrive.DiskDrive;
+import de.codesourcery.j6502.emulator.diskdrive.DiskHardware;
+
+/**
+ * Captures and restores the emulation state in-memory, cheap enough to be done once per frame.
+ *
+ * Memory is tracked in {@link Memory#PAGE_SIZE} pages, {@link #capture(Snapshot)} only copies pages that were
+ * written to since the previous capture/restore while {@link #captureFull(Snapshot)} copies all of them.
+ * Dirty pages are tracked by the {@link Memory} regions themselves, so only one component should 
+ * use {@link #capture(Snapshot)} and {@link #restore(Snapshot...)} at any given time.
+ * Internal state of the CPUs, VIC, CIAs, VIAs and the IEC bus is always captured completely.
+ *
+ * Snapshots are preallocated by {@link #createSnapshot()} and may be reused, capturing into an existing
+ * snapshot does not allocate any memory.
+ *
+ * Not captured are: the keyboard buffer, the tape drive, the disk contents
+ * and the frame currently being rendered by the VIC.
+ *
+ * All methods must be called from the emulation thread.
+ */
+public final class SnapshotEngine
+{
+    private final Emulator emulator;
+    private final DiskDrive[] drives;
+
+    // all tracked memory regions, a region's first page has the global
+    // page number firstPage[ index ]
+    private final Memory[] regions;
+    private final int[] firstPage;
+    private final int totalPageCount;
+
+    private final FieldsBuffer fieldsBuffer = new FieldsBuffer();
+
+    public static final class Snapshot
+    {
+        // global page numbers, ascending
+        final int[] pages;
+        final int[] pageData;
+        int pageCount;
+
+        byte[] fields = new byte[0];
+        int fieldsLength;
+        boolean full;
+
+        private Snapshot(int maxPages) {
+            this.pages = new int[ maxPages ];
+            this.pageData = new int[ maxPages * Memory.PAGE_SIZE ];
+        }
+
+        /**
+         * Returns whether this snapshot holds all memory pages (as opposed to just the ones that changed).
+         *
+         * @return
+         */
+        public boolean isFull() {
+            return full;
+        }
+
+        /**
+         * Returns the number of memory pages stored in this snapshot.
+         *
+         * @return
+         */
+        public int getPageCount() {
+            return pageCount;
+        }
+
+        /**
+         * Returns the global page number of a page stored in this snapshot.
+         *
+         * @param index 0...{@link #getPageCount()}-1
+         * @return
+         */
+        public int getPageNumber(int index) {
+            return pages[index];
+        }
+
+        /**
+         * Returns the array holding the data of all pages stored in this snapshot.
+         *
+         * Page at <code>index</code> starts at offset <code>index*Memory.PAGE_SIZE</code>.
+         *
+         * @return
+         */
+        public int[] getPageData() {
+            return pageData;
+        }
+
+        /**
+         * Returns the serialized internal state of all components.
+         *
+         * @return buffer, only the first {@link #getFieldsLength()} bytes are valid
+         */
+        public byte[] getFields() {
+            return fields;
+        }
+
+        public int getFieldsLength() {
+            return fieldsLength;
+        }
+
+        /**
+         * Returns the approximate number of bytes occupied by this snapshot's data.
+         *
+         * @return
+         */
+        public int getSizeInBytes() {
+            return pageCount * ( Memory.PAGE_SIZE + 1 ) * 4 + fieldsLength;
+        }
+    }
+
+    private static final class FieldsBuffer extends ByteArrayOutputStream
+    {
+        public FieldsBuffer() {
+            super(16*1024);
+        }
+
+        public void copyTo(Snapshot dst)
+        {
+            if ( dst.fields.length < count ) {
+                dst.fields = new byte[ count ];
+            }
+            System.arraycopy( buf , 0 , dst.fields , 0 , count );
+            dst.fieldsLength = count;
+        }
+    }
+
+    public SnapshotEngine(Emulator emulator)
+    {
+        Validate.notNull(emulator, "emulator must not be NULL");
+        this.emulator = emulator;
+
+        final MemorySubsystem memory = emulator.getMemory();
+        final List<Memory> list = new ArrayList<>();
+        for ( IMemoryRegion region : memory.getRAMRegions() ) {
+            list.add( (Memory) region );
+        }
+        list.add( memory.ioArea );
+        list.add( memory.ioArea.cia1 );
+        list.add( memory.ioArea.cia2 );
+
+        final List<DiskDrive> driveList = new ArrayList<>();
+        for ( SerialDevice device : memory.ioArea.iecBus.getDevices() )
+        {
+            if ( device instanceof DiskHardware )
+            {
+                final DiskDrive drive = ((DiskHardware) device).getDiskDrive();
+                driveList.add( drive );
+                for ( Memory region : drive.getWriteableRegions() ) {
+                    list.add( region );
+                }
+            }
+        }
+        this.drives = driveList.toArray( new DiskDrive[ driveList.size() ] );
+        this.regions = list.toArray( new Memory[ list.size() ] );
+        this.firstPage = new int[ regions.length ];
+
+        int pages = 0;
+        for ( int i = 0 ; i < regions.length ; i++ ) {
+            firstPage[i] = pages;
+            pages += regions[i].getPageCount();
+        }
+        this.totalPageCount = pages;
+    }
+
+    /**
+     * Returns the total number of memory pages tracked by this engine.
+     *
+     * @return
+     */
+    public int getTotalPageCount() {
+        return totalPageCount;
+    }
+
+    /**
+     * Allocates a snapshot large enough to hold a full capture.
+     *
+     * @return
+     */
+    public Snapshot createSnapshot() {
+        return new Snapshot( totalPageCount );
+    }
+
+    /**
+     * Captures all memory pages and internal state.
+     *
+     * Does not affect which pages will be captured by the next call to {@link #capture(Snapshot)}.
+     *
+     * @param dst
+     */
+    public void captureFull(Snapshot dst) {
+        capture( dst , true );
+    }
+
+    /**
+     * Captures the memory pages that changed since the last call to this method or {@link #restore(Snapshot...)} along
+     * with all internal state.
+     *
+     * @param dst
+     */
+    public void capture(Snapshot dst) {
+        capture( dst , false );
+    }
+
+    private void capture(Snapshot dst,boolean full)
+    {
+        int count = 0;
+        for ( int i = 0 ; i < regions.length ; i++ )
+        {
+            final Memory region = regions[i];
+            final int pages = region.getPageCount();
+            for ( int page = 0 ; page < pages ; page++ )
+            {
+                if ( full || region.isPageDirty( page ) )
+                {
+                    dst.pages[ count ] = firstPage[i] + page;
+                    region.savePage( page , dst.pageData , count * Memory.PAGE_SIZE );
+                    count++;
+                }
+            }
+            if ( ! full ) {
+                region.clearDirtyPages();
+            }
+        }
+        dst.pageCount = count;
+        dst.full = full;
+
+        fieldsBuffer.reset();
+        try
+        {
+            saveFields( fieldsBuffer );
+        }
+        catch(IOException e) {
+            throw new RuntimeException(e); // can't happen with a ByteArrayOutputStream
+        }
+        fieldsBuffer.copyTo( dst );
+    }
+
+    private void saveFields(ByteArrayOutputStream out) throws IOException
+    {
+        final MemorySubsystem memory = emulator.getMemory();
+        memory.saveState( out );
+        emulator.getCPU().saveState( out );
+        memory.ioArea.vic.saveState( out , false );
+        memory.ioArea.cia1.saveFields( out );
+        memory.ioArea.cia2.saveFields( out );
+        memory.ioArea.iecBus.saveState( out );
+        for ( DiskDrive drive : drives ) {
+            drive.saveState( out );
+        }
+    }
+
+    /**
+     * Restores the emulation state.
+     *
+     * @param snapshots a full snapshot followed by any number of snapshots
+     * captured (in this order) right after it. Internal state is restored from the last snapshot.
+     */
+    public void restore(Snapshot... snapshots)
+    {
+        Validate.isTrue( snapshots.length > 0 , "Need at least one snapshot");
+        Validate.isTrue( snapshots[0].full , "First snapshot needs to be a full snapshot");
+
+        for ( Snapshot snapshot : snapshots ) {
+            restorePages( snapshot );
+        }
+        for ( Memory region : regions ) {
+            region.clearDirtyPages();
+        }
+
+        final Snapshot last = snapshots[ snapshots.length - 1 ];
+        try
+        {
+            restoreFields( new ByteArrayInputStream( last.fields , 0 , last.fieldsLength ) );
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void restorePages(Snapshot snapshot)
+    {
+        int region = 0;
+        for ( int i = 0 ; i < snapshot.pageCount ; i++ )
+        {
+            final int page = snapshot.pages[i];
+            // pages are sorted ascending
+            while ( region+1 < regions.length && firstPage[ region+1 ] <= page ) {
+                region++;
+            }
+            regions[region].restorePage( page - firstPage[region] , snapshot.pageData , i * Memory.PAGE_SIZE );
+        }
+    }
+
+    private void restoreFields(InputStream in) throws IOException
+    {
+        final MemorySubsystem memory = emulator.getMemory();
+        memory.restoreState( in );
+        emulator.getCPU().restoreState( in );
+        memory.ioArea.vic.restoreState( in , false );
+        memory.ioArea.cia1.restoreFields( in );
+        memory.ioArea.cia2.restoreFields( in );
+        memory.ioArea.iecBus.restoreState( in );
+        for ( DiskDrive drive : drives ) {
+            drive.restoreState( in );
+        }
+    }
+}
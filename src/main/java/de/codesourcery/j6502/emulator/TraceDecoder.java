@@ -0,0 +1,248 @@
+package de.codesourcery.j6502.emulator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import de.codesourcery.j6502.disassembler.FastDisassembler;
+import de.codesourcery.j6502.disassembler.OpcodeTable;
+import de.codesourcery.j6502.emulator.CPU.Flag;
+import de.codesourcery.j6502.utils.HexDump;
+import de.codesourcery.j6502.utils.Misc;
+
+/**
+ * Turns a trace written by {@link InstructionTracer} into text.
+ *
+ * <pre>
+ * Usage: TraceDecoder [-from &lt;hex address&gt;] [-to &lt;hex address&gt;] [-last &lt;count&gt;] &lt;trace file&gt;
+ *
+ * -from , -to  only print instructions with a PC in this range (inclusive)
+ * -last        only look at the most recent &lt;count&gt; instructions
+ * </pre>
+ */
+public class TraceDecoder
+{
+    private static final Flag[] FLAGS = Flag.values();
+
+    private final FastDisassembler disassembler = new FastDisassembler();
+
+    // buffers reused for every record , decoding does not allocate
+    private final StringBuilder line = new StringBuilder( 80 );
+    private char[] chars = new char[ 80 ];
+
+    private int fromPC = 0;
+    private int toPC = 0xffff;
+    private long last = Long.MAX_VALUE;
+
+    public static void main(String[] args) throws IOException
+    {
+        final TraceDecoder decoder = new TraceDecoder();
+        String file = null;
+        for ( int i = 0 ; i < args.length ; i++ )
+        {
+            switch( args[i] )
+            {
+                case "-from":
+                    decoder.setFromPC( parseAddress( argument( args , ++i ) ) );
+                    break;
+                case "-to":
+                    decoder.setToPC( parseAddress( argument( args , ++i ) ) );
+                    break;
+                case "-last":
+                    decoder.setLast( Long.parseLong( argument( args , ++i ) ) );
+                    break;
+                default:
+                    if ( file != null || args[i].startsWith("-") ) {
+                        usage();
+                    }
+                    file = args[i];
+            }
+        }
+        if ( file == null ) {
+            usage();
+        }
+        final PrintWriter out = new PrintWriter( new BufferedWriter( new OutputStreamWriter( System.out ) , 64*1024 ) );
+        decoder.decode( Paths.get( file ) , out );
+        out.flush();
+    }
+
+    private static int parseAddress(String value)
+    {
+        final Integer result = Misc.parseHexAddress( value );
+        if ( result == null ) {
+            usage();
+        }
+        return result;
+    }
+
+    private static String argument(String[] args,int index)
+    {
+        if ( index >= args.length ) {
+            usage();
+        }
+        return args[index];
+    }
+
+    private static void usage()
+    {
+        System.err.println("Usage: TraceDecoder [-from <hex address>] [-to <hex address>] [-last <count>] <trace file>");
+        System.exit(1);
+    }
+
+    public void setFromPC(int fromPC) {
+        this.fromPC = fromPC;
+    }
+
+    public void setToPC(int toPC) {
+        this.toPC = toPC;
+    }
+
+    /**
+     * Only look at the most recent instructions.
+     *
+     * @param last
+     */
+    public void setLast(long last) {
+        this.last = last;
+    }
+
+    /**
+     * Decodes a trace file.
+     *
+     * @param file
+     * @param out
+     * @return number of instructions printed
+     * @throws IOException
+     */
+    public long decode(Path file,PrintWriter out) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( file , StandardOpenOption.READ ) ) {
+            return decode( channel.map( MapMode.READ_ONLY , 0 , channel.size() ) , out );
+        }
+    }
+
+    /**
+     * Decodes the trace currently held by a tracer.
+     *
+     * @param tracer
+     * @param out
+     * @return number of instructions printed
+     * @throws IOException
+     */
+    public long decode(InstructionTracer tracer,PrintWriter out) throws IOException {
+        return decode( tracer.getBuffer() , out );
+    }
+
+    private long decode(ByteBuffer trace,PrintWriter out) throws IOException
+    {
+        trace.order( ByteOrder.LITTLE_ENDIAN );
+        for ( int i = 0 ; i < InstructionTracer.MAGIC.length ; i++ )
+        {
+            if ( trace.get( i ) != InstructionTracer.MAGIC[i] ) {
+                throw new IOException("Not an instruction trace");
+            }
+        }
+        final int version = trace.getInt( InstructionTracer.MAGIC.length );
+        if ( version != InstructionTracer.FORMAT_VERSION || trace.getInt( InstructionTracer.OFFSET_RECORD_SIZE ) != InstructionTracer.RECORD_SIZE ) {
+            throw new IOException("Unsupported trace format version "+version);
+        }
+        final int capacity = trace.getInt( InstructionTracer.OFFSET_CAPACITY );
+        final long recordsWritten = trace.getLong( InstructionTracer.OFFSET_RECORDS_WRITTEN );
+
+        final long available = Math.min( recordsWritten , capacity );
+        final long count = Math.min( available , last );
+        // index of the oldest record to print
+        long index = ( recordsWritten - count ) % capacity;
+
+        long printed = 0;
+        for ( long i = 0 ; i < count ; i++ )
+        {
+            final int offset = InstructionTracer.HEADER_SIZE + (int) index * InstructionTracer.RECORD_SIZE;
+            final long word0 = trace.getLong( offset );
+            final int pc = (int) ( word0 & 0xffff );
+            if ( pc >= fromPC && pc <= toPC )
+            {
+                printRecord( word0 >>> 16 , pc , trace.getLong( offset + 8 ) , out );
+                printed++;
+            }
+            if ( ++index == capacity ) {
+                index = 0;
+            }
+        }
+        return printed;
+    }
+
+    private void printRecord(long cycle,int pc,long word1,PrintWriter out)
+    {
+        final StringBuilder line = this.line;
+        line.setLength( 0 );
+
+        padLeft( line , cycle , 12 );
+        line.append( "  $" );
+        HexDump.appendHex16( line , pc );
+        line.append( "  " );
+
+        final int opcode = (int) word1 & 0xff;
+        final int operand1 = (int) ( word1 >>> 8 ) & 0xff;
+        final int operand2 = (int) ( word1 >>> 16 ) & 0xff;
+        final int length = OpcodeTable.get( opcode ).length;
+        int column = line.length();
+        for ( int i = 0 ; i < length ; i++ ) {
+            HexDump.appendHex8( line , (int) ( word1 >>> ( i * 8 ) ) );
+            line.append( ' ' );
+        }
+        padRight( line , column + 10 );
+
+        column = line.length();
+        disassembler.disassemble( pc , opcode , operand1 , operand2 , line );
+        padRight( line , column + 24 );
+
+        line.append( "A=" );
+        HexDump.appendHex8( line , (int) ( word1 >>> 24 ) );
+        line.append( " X=" );
+        HexDump.appendHex8( line , (int) ( word1 >>> 32 ) );
+        line.append( " Y=" );
+        HexDump.appendHex8( line , (int) ( word1 >>> 40 ) );
+        line.append( " SP=" );
+        HexDump.appendHex8( line , (int) ( word1 >>> 48 ) );
+        line.append( ' ' );
+        final byte flags = (byte) ( word1 >>> 56 );
+        for ( Flag flag : FLAGS ) {
+            line.append( flag.isSet( flags ) ? flag.symbol : '.' );
+        }
+
+        if ( chars.length < line.length() ) {
+            chars = new char[ line.length() * 2 ];
+        }
+        line.getChars( 0 , line.length() , chars , 0 );
+        out.write( chars , 0 , line.length() );
+        out.println();
+    }
+
+    private static void padLeft(StringBuilder buffer,long value,int width)
+    {
+        int digits = 1;
+        for ( long v = value ; v >= 10 ; v /= 10 ) {
+            digits++;
+        }
+        for ( int i = digits ; i < width ; i++ ) {
+            buffer.append( ' ' );
+        }
+        buffer.append( value );
+    }
+
+    private static void padRight(StringBuilder buffer,int length)
+    {
+        while ( buffer.length() < length ) {
+            buffer.append( ' ' );
+        }
+    }
+}
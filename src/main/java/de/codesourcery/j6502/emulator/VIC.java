@@ -6,9 +6,10 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 
 import de.codesourcery.j6502.Constants;
@@ -1167,6 +1168,11 @@ public class VIC extends IMemoryRegion implements IStatefulPart
     private float fps; // TODO: DEBUG code
     private long totalFrameTime; // TODO: DEBUG code
 
+    // number of frames completed by the emulation thread / drawn by render() , used for metrics
+    private volatile long framesRendered;
+    private volatile long framesDisplayed;
+    private long lastDisplayedFrame;
+
     // END: frame buffer
 
     protected boolean charROMHidden;
@@ -1824,6 +1830,8 @@ display window.
                 gfx.drawString( "FPS: "+(int) fps , 15 ,15 );
             }
 
+            framesRendered++;
+
             final BufferedImage tmp = frontBuffer;
             final Graphics2D tmpGfx = frontBufferGfx;
 
@@ -1844,9 +1852,34 @@ display window.
         synchronized( frontBuffer )
         {
             graphics.drawImage( frontBuffer , 0 , 0 , width, height , null );
+            final long frame = framesRendered;
+            if ( frame != lastDisplayedFrame ) 
+            {
+                lastDisplayedFrame = frame;
+                framesDisplayed++;
+            }
         }
     }
 
+    /**
+     * Returns the number of frames the VIC has completed so far.
+     * 
+     * @return
+     */
+    public long getFramesRendered() {
+        return framesRendered;
+    }
+
+    /**
+     * Returns the number of frames that have actually been drawn by {@link #render(Graphics2D, int, int)} , 
+     * frames that got replaced before they could be drawn are not counted.
+     * 
+     * @return
+     */
+    public long getFramesDisplayed() {
+        return framesDisplayed;
+    }
+
     @Override
     public int readByte(int offset) {
         return readByte(offset,true);
@@ -2235,92 +2268,105 @@ display window.
     {
         state.getEntry(EntryType.VIC_RAM).applyPayload(  vicAddressView , false );
 
-        final ByteArrayInputStream out = state.getEntry(EntryType.VIC_FIELDS).toByteArrayInputStream();
-
         try 
         {
-            xOffset = readInt( out );
-            yOffset = readInt( out );
-            
-            memoryMapping = readInt( out );            
-            vicCtrl1 = readInt( out );
-            vicCtrl2 = readInt( out  );
+            restoreState( state.getEntry(EntryType.VIC_FIELDS).toByteArrayInputStream() , true );
 
-            displayEnabled = readBoolean( out  );
-            displayEnabledNewState = readBoolean( out  );
-            displayEnabledChanged = readBoolean( out  );        
-            graphicsMode = GraphicsMode.fromIdentifier( readInt( out ) );
+            System.out.println("*** after restore ***");
+            System.out.println( graphicsMode );
+        } 
+        catch(IOException e) 
+        {
+            throw new RuntimeException(e);
+        }
+    }
 
-            recalculateHorizontalBorders();
-            recalculateVerticalBorders();
+    /**
+     * Restores internal state written by {@link #saveState(OutputStream, boolean)}.
+     * 
+     * @param in
+     * @param includeFrameBuffer whether the input contains the frame currently being rendered
+     * @throws IOException
+     */
+    public void restoreState(InputStream in,boolean includeFrameBuffer) throws IOException
+    {
+        xOffset = readInt( in );
+        yOffset = readInt( in );
+        
+        memoryMapping = readInt( in );            
+        vicCtrl1 = readInt( in );
+        vicCtrl2 = readInt( in  );
 
-            triggeredInterruptFlags = readInt( out  ); // no interrupts triggered
-            enabledInterruptFlags = readInt( out  ); // all IRQs disabled
+        displayEnabled = readBoolean( in  );
+        displayEnabledNewState = readBoolean( in  );
+        displayEnabledChanged = readBoolean( in  );        
+        graphicsMode = GraphicsMode.fromIdentifier( readInt( in ) );
 
-            rasterIRQLine = readInt( out );
+        recalculateHorizontalBorders();
+        recalculateVerticalBorders();
 
-            imagePixelPtr = readInt( out );
-            populateIntArray( imagePixelData , out );
-            
-            beamX = readInt( out );
-            beamY = readInt( out );
+        triggeredInterruptFlags = readInt( in  ); // no interrupts triggered
+        enabledInterruptFlags = readInt( in  ); // all IRQs disabled
 
-            lightpenX = readInt( out  );
-            lightpenY  = readInt( out );
+        rasterIRQLine = readInt( in );
 
-            backgroundColor = readInt( out );
-            rgbBackgroundColor = RGB_BG_COLORS[ backgroundColor ];
+        imagePixelPtr = readInt( in );
+        if ( includeFrameBuffer ) {
+            populateIntArray( imagePixelData , in );
+        }
+        
+        beamX = readInt( in );
+        beamY = readInt( in );
 
-            backgroundExt0Color = readInt( out  );
-            rgbBackgroundExt0Color = RGB_BG_COLORS[backgroundExt0Color];
+        lightpenX = readInt( in  );
+        lightpenY  = readInt( in );
 
-            backgroundExt1Color = readInt( out );
-            rgbBackgroundExt1Color = RGB_FG_COLORS[backgroundExt1Color];
+        backgroundColor = readInt( in );
+        rgbBackgroundColor = RGB_BG_COLORS[ backgroundColor ];
 
-            backgroundExt2Color = readInt( out );
-            rgbBackgroundExt2Color = RGB_FG_COLORS[backgroundExt2Color];
+        backgroundExt0Color = readInt( in  );
+        rgbBackgroundExt0Color = RGB_BG_COLORS[backgroundExt0Color];
 
-            borderColor = readInt( out  );
-            rgbBorderColor = RGB_BG_COLORS[ borderColor ];
+        backgroundExt1Color = readInt( in );
+        rgbBackgroundExt1Color = RGB_FG_COLORS[backgroundExt1Color];
 
-            bankAdr = readInt(  out );
-            charROMHidden = readBoolean( out );
-            builtinCharRomStart = readInt( out );
+        backgroundExt2Color = readInt( in );
+        rgbBackgroundExt2Color = RGB_FG_COLORS[backgroundExt2Color];
 
-            spritesEnabled = readInt( out );
-            spritesDoubleWidth = readInt( out  );
-            spritesDoubleHeight = readInt( out  );
-            spritesMultiColorMode = readInt( out );
-            spritesBehindBackground = readInt( out );
+        borderColor = readInt( in  );
+        rgbBorderColor = RGB_BG_COLORS[ borderColor ];
 
-            spriteBackgroundCollision = readInt( out );
-            spriteSpriteCollision = readInt( out  );
+        bankAdr = readInt(  in );
+        charROMHidden = readBoolean( in );
+        builtinCharRomStart = readInt( in );
 
-            spriteSpriteCollisionDetected = readBoolean( out  );
-            spriteBackgroundCollisionDetected = readBoolean( out  );
+        spritesEnabled = readInt( in );
+        spritesDoubleWidth = readInt( in  );
+        spritesDoubleHeight = readInt( in  );
+        spritesMultiColorMode = readInt( in );
+        spritesBehindBackground = readInt( in );
 
-            populateIntArray( spriteMainColor , out );
-            populateIntArray( spriteMainColorRGB , out );
+        spriteBackgroundCollision = readInt( in );
+        spriteSpriteCollision = readInt( in  );
 
-            spriteMultiColor01   = readInt( out );
-            spriteMultiColor01RGB = RGB_FG_COLORS[ spriteMultiColor01 ];
+        spriteSpriteCollisionDetected = readBoolean( in  );
+        spriteBackgroundCollisionDetected = readBoolean( in  );
 
-            spriteMultiColor11 = readInt( out  );
-            spriteMultiColor11RGB = RGB_FG_COLORS[spriteMultiColor11];
+        populateIntArray( spriteMainColor , in );
+        populateIntArray( spriteMainColorRGB , in );
 
-            populateIntArray( spriteXLow ,out );
-            spriteXhi = readInt( out );
+        spriteMultiColor01   = readInt( in );
+        spriteMultiColor01RGB = RGB_FG_COLORS[ spriteMultiColor01 ];
 
-            populateIntArray( spriteY , out );
-            
-            System.out.println("*** after restore ***");
-            System.out.println( graphicsMode );
-            updateMemoryMapping();
-        } 
-        catch(IOException e) 
-        {
-            throw new RuntimeException(e);
-        }
+        spriteMultiColor11 = readInt( in  );
+        spriteMultiColor11RGB = RGB_FG_COLORS[spriteMultiColor11];
+
+        populateIntArray( spriteXLow ,in );
+        spriteXhi = readInt( in );
+
+        populateIntArray( spriteY , in );
+
+        updateMemoryMapping();
     }
 
     @Override
@@ -2331,78 +2377,91 @@ display window.
         final ByteArrayOutputStream out = new ByteArrayOutputStream();
         try 
         {
-            writeInt( xOffset , out );
-            writeInt( yOffset , out );
-            
-            writeInt( memoryMapping , out );
-            
-            writeInt( vicCtrl1 , out );
-            writeInt( vicCtrl2 , out );
-
-            writeBoolean( displayEnabled , out );
-            writeBoolean( displayEnabledNewState , out );
-            writeBoolean( displayEnabledChanged , out );        
-            writeInt( graphicsMode.identifier() , out );
-            
             System.out.println("*** during save: "+graphicsMode);
 
-            writeInt( triggeredInterruptFlags , out );; // no interrupts triggered
-            writeInt( enabledInterruptFlags , out ); // all IRQs disabled
+            saveState( out , true );
+            new EmulationStateEntry(EntryType.VIC_FIELDS, 1 ).setPayload( out.toByteArray() ).addTo( state );
+        } 
+        catch (IOException e) 
+        {
+            throw new RuntimeException(e);
+        }        
+    }
+
+    /**
+     * Writes internal state.
+     * 
+     * @param out
+     * @param includeFrameBuffer whether to include the frame currently being rendered (~600 KB) 
+     * @throws IOException
+     */
+    public void saveState(OutputStream out,boolean includeFrameBuffer) throws IOException
+    {
+        writeInt( xOffset , out );
+        writeInt( yOffset , out );
+        
+        writeInt( memoryMapping , out );
+        
+        writeInt( vicCtrl1 , out );
+        writeInt( vicCtrl2 , out );
 
-            writeInt( rasterIRQLine , out );
+        writeBoolean( displayEnabled , out );
+        writeBoolean( displayEnabledNewState , out );
+        writeBoolean( displayEnabledChanged , out );        
+        writeInt( graphicsMode.identifier() , out );
+        
+        writeInt( triggeredInterruptFlags , out );; // no interrupts triggered
+        writeInt( enabledInterruptFlags , out ); // all IRQs disabled
 
-            writeInt( imagePixelPtr , out );
-            writeIntArray( imagePixelData , out );
-            
-            writeInt( beamX , out );
-            writeInt( beamY , out );
+        writeInt( rasterIRQLine , out );
 
-            writeInt( lightpenX , out );
-            writeInt( lightpenY , out );
+        writeInt( imagePixelPtr , out );
+        if ( includeFrameBuffer ) {
+            writeIntArray( imagePixelData , out );
+        }
+        
+        writeInt( beamX , out );
+        writeInt( beamY , out );
 
-            writeInt(backgroundColor , out );
+        writeInt( lightpenX , out );
+        writeInt( lightpenY , out );
 
-            writeInt(backgroundExt0Color , out );
+        writeInt(backgroundColor , out );
 
-            writeInt( backgroundExt1Color , out );
+        writeInt(backgroundExt0Color , out );
 
-            writeInt( backgroundExt2Color , out );
+        writeInt( backgroundExt1Color , out );
 
-            writeInt( borderColor , out );
+        writeInt( backgroundExt2Color , out );
 
-            writeInt( bankAdr , out );
-            writeBoolean( charROMHidden  , out );
-            writeInt( builtinCharRomStart ,out );
+        writeInt( borderColor , out );
 
-            writeInt( spritesEnabled , out );
-            writeInt( spritesDoubleWidth , out );
-            writeInt( spritesDoubleHeight , out );
-            writeInt( spritesMultiColorMode , out );
-            writeInt( spritesBehindBackground , out );
+        writeInt( bankAdr , out );
+        writeBoolean( charROMHidden  , out );
+        writeInt( builtinCharRomStart ,out );
 
-            writeInt( spriteBackgroundCollision , out );
-            writeInt( spriteSpriteCollision , out );
+        writeInt( spritesEnabled , out );
+        writeInt( spritesDoubleWidth , out );
+        writeInt( spritesDoubleHeight , out );
+        writeInt( spritesMultiColorMode , out );
+        writeInt( spritesBehindBackground , out );
 
-            writeBoolean( spriteSpriteCollisionDetected , out );
-            writeBoolean( spriteBackgroundCollisionDetected , out );
+        writeInt( spriteBackgroundCollision , out );
+        writeInt( spriteSpriteCollision , out );
 
-            writeIntArray( spriteMainColor , out );
-            writeIntArray( spriteMainColorRGB , out );
+        writeBoolean( spriteSpriteCollisionDetected , out );
+        writeBoolean( spriteBackgroundCollisionDetected , out );
 
-            writeInt( spriteMultiColor01 , out );
-            writeInt( spriteMultiColor11 , out );
+        writeIntArray( spriteMainColor , out );
+        writeIntArray( spriteMainColorRGB , out );
 
-            writeIntArray( spriteXLow , out );
-            writeInt( spriteXhi , out );
+        writeInt( spriteMultiColor01 , out );
+        writeInt( spriteMultiColor11 , out );
 
-            writeIntArray( spriteY , out );
+        writeIntArray( spriteXLow , out );
+        writeInt( spriteXhi , out );
 
-            new EmulationStateEntry(EntryType.VIC_FIELDS, 1 ).setPayload( out.toByteArray() ).addTo( state );
-        } 
-        catch (IOException e) 
-        {
-            throw new RuntimeException(e);
-        }        
+        writeIntArray( spriteY , out );
     }
     
     protected boolean isAnySpriteEnabled() {
@@ -1,5 +1,11 @@
 package de.codesourcery.j6502.emulator.diskdrive;
 
+import static de.codesourcery.j6502.emulator.SerializationHelper.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 import de.codesourcery.j6502.Constants;
 import de.codesourcery.j6502.emulator.AddressRange;
 import de.codesourcery.j6502.emulator.CPU;
@@ -27,7 +33,10 @@ public class DiskDrive extends IMemoryRegion
     private final CPU cpu = new CPU( this );
     private final CPUImpl cpuImpl = new CPUImpl( cpu , this );
 
-    private final VIA busController = new VIA("BusController VIA 6522 #1", new AddressRange( 0x1800 , 0x1810 ) , cpu ) {
+    // number of drive cycles executed so far, used as clock by the VIAs
+    private long cycle;
+
+    private final VIA busController = new VIA("BusController VIA 6522 #1", new AddressRange( 0x1800 , 0x1810 ) , cpu , () -> cycle ) {
 
         protected String getNamePortB(int bit) {
             /*
@@ -58,7 +67,7 @@ public class DiskDrive extends IMemoryRegion
         }
     };
 
-    private final VIA diskController = new VIA("DiskController VIA 6522 #2", AddressRange.range( 0x1c00 , 0x1c10) , cpu ) {
+    private final VIA diskController = new VIA("DiskController VIA 6522 #2", AddressRange.range( 0x1c00 , 0x1c10) , cpu , () -> cycle ) {
 
         protected String getNamePortB(int bit) {
             /*
@@ -256,6 +265,21 @@ public class DiskDrive extends IMemoryRegion
         cpu.reset();
     }
 
+    /**
+     * Advances the drive clock by one cycle and lets the VIAs
+     * handle any timer underflows that became due.
+     */
+    public void tickVIAs()
+    {
+        final long now = ++cycle;
+        if ( now >= busController.getNextEventCycle() ) {
+            busController.processEvents();
+        }
+        if ( now >= diskController.getNextEventCycle() ) {
+            diskController.processEvents();
+        }
+    }
+
     /**
      * 
      * @return false if HW breakpoint reached, otherwise true
@@ -332,6 +356,53 @@ public class DiskDrive extends IMemoryRegion
         return hardware;
     }
 
+    /**
+     * Returns all writeable memory regions of this drive.
+     * 
+     * @return RAM , bus controller VIA , disk controller VIA
+     */
+    public Memory[] getWriteableRegions() {
+        return new Memory[] { (Memory) ram , busController , diskController };
+    }
+
+    /**
+     * Writes the drive's CPU, VIA and mechanics state.
+     * 
+     * The contents of the regions returned by {@link #getWriteableRegions()} are
+     * not included and need to be saved separately.
+     * 
+     * @param out
+     * @throws IOException
+     */
+    public void saveState(OutputStream out) throws IOException 
+    {
+        writeLong( cycle , out );
+        cpu.saveState( out );
+        busController.saveState( out );
+        diskController.saveState( out );
+        hardware.saveState( out );
+    }
+
+    /**
+     * Restores state written by {@link #saveState(OutputStream)}.
+     * 
+     * Memory contents must've been restored before calling this method.
+     * 
+     * @param in
+     * @throws IOException
+     */
+    public void restoreState(InputStream in) throws IOException 
+    {
+        cycle = readLong( in );
+        cpu.restoreState( in );
+        busController.restoreState( in );
+        diskController.restoreState( in );
+        hardware.restoreState( in );
+        for ( JobQueue entry : queueEntries ) {
+            entry.update( this );
+        }
+    }
+
     public CPU getCPU() {
         return cpu;
     }
@@ -0,0 +1,298 @@
+package de.codesourcery.j6502.emulator.diskdrive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.Validate;
+
+import de.codesourcery.j6502.emulator.D64File;
+import de.codesourcery.j6502.emulator.G64File;
+
+/**
+ * Writes modified tracks of a disk back to a .g64 or .d64 file on a background thread.
+ *
+ * Every flush first writes the location of the disk image the tracks belong to along with all
+ * tracks modified so far to a journal file (<code>&lt;target&gt;.journal</code>) and syncs it to disk
+ * before the image file gets atomically replaced. If the emulator crashes while the image is being written,
+ * {@link #recover(File)} replays the journal the next time the image gets loaded.
+ *
+ * Submitting a flush never blocks, all I/O happens on the flusher thread.
+ */
+public final class DiskFlusher
+{
+    private static final int JOURNAL_HEADER_MAGIC = 0x4743524a; // 'GCRJ'
+    private static final int JOURNAL_MAGIC = 0x47435231; // 'GCR1'
+
+    private static final DiskFlusher INSTANCE = new DiskFlusher();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor( r ->
+    {
+        final Thread t = new Thread(r,"disk-flusher-thread");
+        t.setDaemon( true );
+        return t;
+    });
+
+    // only accessed by the flusher thread
+    private G64File currentDisk;
+    private File currentTarget;
+    private final Map<Integer,byte[]> writtenTracks = new HashMap<>();
+
+    private DiskFlusher() {
+    }
+
+    public static DiskFlusher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Asynchronously writes modified tracks to a file.
+     *
+     * Tracks from previous flushes of the same disk to the same file are retained, so
+     * passing only the tracks that changed since the last flush is sufficient.
+     *
+     * @param disk original disk image the tracks belong to
+     * @param target file to write, images are stored in .d64 format if the file name ends with '.d64', G64 format otherwise
+     * @param tracks modified tracks keyed by half-track index (<code>track*2</code>). The caller must not alter these arrays afterwards.
+     */
+    public void flush(G64File disk,File target,Map<Integer,byte[]> tracks)
+    {
+        Validate.notNull(disk, "disk must not be NULL");
+        Validate.notNull(target, "target must not be NULL");
+        Validate.notNull(tracks, "tracks must not be NULL");
+
+        executor.execute( () ->
+        {
+            try {
+                doFlush(disk,target,tracks);
+            } catch (Exception e) {
+                System.err.println("Failed to write disk image "+target.getAbsolutePath());
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Blocks until all flushes submitted so far have been completed.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitCompletion() throws InterruptedException
+    {
+        try {
+            executor.submit( () -> {} ).get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException( e.getCause() );
+        }
+    }
+
+    private void doFlush(G64File disk,File target,Map<Integer,byte[]> tracks) throws IOException
+    {
+        if ( disk != currentDisk || ! target.equals( currentTarget ) ) {
+            currentDisk = disk;
+            currentTarget = target;
+            writtenTracks.clear();
+        }
+        writtenTracks.putAll( tracks );
+
+        // journal all tracks written so far, together with the original image they are a complete copy of the disk
+        final File journal = getJournalFile( target );
+        writeJournal( journal , disk.getSource() , writtenTracks );
+
+        writeImage( target , disk.toByteArray( writtenTracks ) );
+
+        if ( ! journal.delete() ) {
+            throw new IOException("Failed to delete journal "+journal.getAbsolutePath());
+        }
+        System.out.println("Wrote "+tracks.size()+" modified track(s) to "+target.getAbsolutePath());
+    }
+
+    /**
+     * Replays a left-over journal file for a disk image.
+     *
+     * Must be invoked before loading the image, does nothing if there is no journal.
+     * The journalled tracks are applied to the disk image they were originally read from,
+     * the target file itself is only used if that image no longer exists (so a crash during
+     * the very first write of a new file can still be recovered).
+     *
+     * @param target
+     * @return number of tracks recovered from the journal
+     * @throws IOException
+     */
+    public static int recover(File target) throws IOException
+    {
+        final File journal = getJournalFile( target );
+        if ( ! journal.exists() ) {
+            return 0;
+        }
+
+        final Map<Integer,byte[]> tracks = new HashMap<>();
+        final String source = readJournal( journal , tracks );
+        if ( ! tracks.isEmpty() )
+        {
+            final File base;
+            if ( source != null && new File( source ).isFile() ) {
+                base = new File( source );
+            } else if ( target.isFile() ) {
+                base = target;
+            } else {
+                throw new IOException("Cannot recover journal "+journal.getAbsolutePath()+", neither the original image ("+source+") nor "+target.getAbsolutePath()+" exist");
+            }
+            writeImage( target , loadImage( base ).toByteArray( tracks ) );
+            System.out.println("Recovered "+tracks.size()+" track(s) from journal "+journal.getAbsolutePath());
+        }
+        if ( ! journal.delete() ) {
+            throw new IOException("Failed to delete journal "+journal.getAbsolutePath());
+        }
+        return tracks.size();
+    }
+
+    private static File getJournalFile(File target) {
+        return new File( target.getAbsolutePath()+".journal" );
+    }
+
+    private static boolean isD64(File file) {
+        return file.getName().toLowerCase().endsWith(".d64");
+    }
+
+    /**
+     * Loads a disk image the same way the emulator does, .d64 files are converted to G64.
+     */
+    private static G64File loadImage(File file) throws IOException
+    {
+        if ( isD64( file ) ) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            G64File.toG64( new D64File( file ) , out );
+            return new G64File( out.toByteArray() , file.getAbsolutePath() );
+        }
+        return new G64File( new FileInputStream( file ) , file.getAbsolutePath() );
+    }
+
+    static void writeJournal(File journal,String source,Map<Integer,byte[]> tracks) throws IOException
+    {
+        try ( FileOutputStream fileOut = new FileOutputStream( journal ) )
+        {
+            final DataOutputStream out = new DataOutputStream( fileOut );
+            out.writeInt( JOURNAL_HEADER_MAGIC );
+            out.writeUTF( source == null ? "" : source );
+
+            final CRC32 crc = new CRC32();
+            for ( Map.Entry<Integer,byte[]> entry : tracks.entrySet() )
+            {
+                final int halfTrack = entry.getKey().intValue();
+                final byte[] data = entry.getValue();
+
+                crc.reset();
+                crc.update( halfTrack );
+                crc.update( data );
+
+                out.writeInt( JOURNAL_MAGIC );
+                out.writeInt( halfTrack );
+                out.writeInt( data.length );
+                out.write( data );
+                out.writeLong( crc.getValue() );
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+    }
+
+    /**
+     * Reads all intact track records from a journal.
+     *
+     * @param journal
+     * @param result map to store tracks in
+     * @return location of the disk image the tracks belong to, <code>null</code> if unknown
+     * @throws IOException
+     */
+    private static String readJournal(File journal,Map<Integer,byte[]> result) throws IOException
+    {
+        String source = null;
+        try ( DataInputStream in = new DataInputStream( new ByteArrayInputStream( Files.readAllBytes( journal.toPath() ) ) ) )
+        {
+            final CRC32 crc = new CRC32();
+            boolean firstRecord = true;
+            while ( true )
+            {
+                try
+                {
+                    int magic = in.readInt();
+                    if ( firstRecord && magic == JOURNAL_HEADER_MAGIC )
+                    {
+                        final String s = in.readUTF();
+                        source = s.isEmpty() ? null : s;
+                        magic = in.readInt();
+                    }
+                    firstRecord = false;
+                    if ( magic != JOURNAL_MAGIC ) {
+                        break;
+                    }
+                    final int halfTrack = in.readInt();
+                    final int length = in.readInt();
+                    if ( length < 0 || length > 65536 ) {
+                        break;
+                    }
+                    final byte[] data = new byte[ length ];
+                    in.readFully( data );
+
+                    crc.reset();
+                    crc.update( halfTrack );
+                    crc.update( data );
+                    if ( in.readLong() != crc.getValue() ) {
+                        break;
+                    }
+                    result.put( Integer.valueOf( halfTrack ) , data );
+                }
+                catch(EOFException e) {
+                    // incomplete last record, got interrupted while writing the journal
+                    break;
+                }
+            }
+        }
+        return source;
+    }
+
+    private static void writeImage(File target,byte[] g64Data) throws IOException
+    {
+        final File tmpFile = new File( target.getAbsolutePath()+".tmp" );
+        final FileOutputStream fileOut = new FileOutputStream( tmpFile );
+        try
+        {
+            if ( isD64( target ) ) {
+                // toD64() closes the stream it writes to, convert into a buffer first
+                final ByteArrayOutputStream d64 = new ByteArrayOutputStream();
+                new G64File( g64Data , target.getAbsolutePath() ).toD64( d64 );
+                fileOut.write( d64.toByteArray() );
+            } else {
+                fileOut.write( g64Data );
+            }
+            fileOut.flush();
+            fileOut.getFD().sync();
+        }
+        finally {
+            IOUtils.closeQuietly( fileOut );
+        }
+
+        try {
+            Files.move( tmpFile.toPath() , target.toPath() , StandardCopyOption.REPLACE_EXISTING , StandardCopyOption.ATOMIC_MOVE );
+        } catch(AtomicMoveNotSupportedException e) {
+            Files.move( tmpFile.toPath() , target.toPath() , StandardCopyOption.REPLACE_EXISTING );
+        }
+    }
+}
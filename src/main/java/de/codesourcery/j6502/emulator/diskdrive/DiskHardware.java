@@ -1,12 +1,17 @@
 package de.codesourcery.j6502.emulator.diskdrive;
 
+import static de.codesourcery.j6502.emulator.SerializationHelper.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Optional;
 
 import de.codesourcery.j6502.emulator.CPU;
 import de.codesourcery.j6502.emulator.CPU.Flag;
 import de.codesourcery.j6502.emulator.Emulator;
 import de.codesourcery.j6502.emulator.G64File;
-import de.codesourcery.j6502.emulator.G64File.TrackData;
 import de.codesourcery.j6502.emulator.IECBus;
 import de.codesourcery.j6502.emulator.IMemoryRegion;
 import de.codesourcery.j6502.emulator.SerialDevice;
@@ -39,6 +44,29 @@ public class DiskHardware implements SerialDevice
         protected final void restartCycleCounter() {
             cycles = cyclesPerByte;
         }
+
+        protected final void byteNotReady() {
+            via2.getPortB().setControlLine1( false , false ); // byte not ready
+        }
+
+        protected final void byteReady() 
+        {
+            // final boolean byteLost = cpu.isSet( Flag.OVERFLOW );
+            cpu.setFlag( Flag.OVERFLOW ); // byte ready
+            
+            restartCycleCounter();
+
+            /* Das Byte Ready Signal kann nur mit SOE abgestellt werden,ansonsten kommt es regelmässig nach 8 Bits.
+             * Das ist unabhängig davon ob sich das Laufwerk dreht oder nicht. Das ist ein Zähler auf der Platine der vom SYNC Signal
+             * mit 0 geladen wird und immer wenn die Zeit für ein Bit abgelaufen ist eins hoch zählt.
+             * Wenn sich nichts tut (Kein Flusswechel am Lesekopf) denkt das Laufwerk, dass es ein "0" Bit ist.
+             */
+
+            if ( via2.getPortA().getControlLine2() ) // Trigger byte read signal ?
+            {
+                via2.getPortB().setControlLine1( true , false ); // byte ready
+            }            
+        }
         
         public abstract void processByte();
 
@@ -71,29 +99,6 @@ public class DiskHardware implements SerialDevice
             via2.getPortB().setInputPin(7, true ); // no sync found (PB7 expects INVERTED signal !!)
         }        
 
-        private void byteNotReady() {
-            via2.getPortB().setControlLine1( false , false ); // byte not ready
-        }
-
-        private void byteReady() 
-        {
-            // final boolean byteLost = cpu.isSet( Flag.OVERFLOW );
-            cpu.setFlag( Flag.OVERFLOW ); // byte ready
-            
-            restartCycleCounter();
-
-            /* Das Byte Ready Signal kann nur mit SOE abgestellt werden,ansonsten kommt es regelmässig nach 8 Bits.
-             * Das ist unabhängig davon ob sich das Laufwerk dreht oder nicht. Das ist ein Zähler auf der Platine der vom SYNC Signal
-             * mit 0 geladen wird und immer wenn die Zeit für ein Bit abgelaufen ist eins hoch zählt.
-             * Wenn sich nichts tut (Kein Flusswechel am Lesekopf) denkt das Laufwerk, dass es ein "0" Bit ist.
-             */
-
-            if ( via2.getPortA().getControlLine2() ) // Trigger byte read signal ?
-            {
-                via2.getPortB().setControlLine1( true , false ); // byte ready
-            }            
-        }
-        
         @Override
         public void processByte()
         {
@@ -153,21 +158,37 @@ public class DiskHardware implements SerialDevice
     public final class WriteMode extends DriveMode
     {
         @Override
-        public void processByte() {
-            // TODO: Implement writing
-            throw new RuntimeException("Write mode not implemented yet");
+        public void processByte() 
+        {
+            if ( ! motorsRunning )
+            {
+                return;
+            }
+            
+            byteNotReady();
+
+            // DOS switches port A to output while writing
+            final int value = via2.getPortA().getPins();
+            if ( writeProtectOn || overlay == null || currentTrackBytes == null ) 
+            {
+                bitStream.advance( 8 );
+            } 
+            else 
+            {
+                overlay.markDirty( headPosition , currentTrackBytes );
+                bitStream.writeByte( value );
+            }
+            byteReady();
         }
 
         @Override
         public void onEnterHook() {
-            // TODO: Implement writing
-            throw new RuntimeException("Write mode not implemented yet");
+            /* nothing to do here */
         }
 
         @Override
         public void trackChanged() {
-            // TODO Auto-generated method stub
-
+            /* nothing to do here */
         }
     }
 
@@ -183,7 +204,9 @@ public class DiskHardware implements SerialDevice
     protected boolean writeProtectOn;
 
     protected G64File disk;
-    protected Optional<TrackData> currentTrackData;
+    protected TrackOverlay overlay;
+    protected File writeTarget;
+    protected byte[] currentTrackBytes;
     protected BitStream bitStream = new BitStream( new byte[] {0x55} , 8 );
 
     protected final ReadMode READ = new ReadMode();
@@ -398,6 +421,9 @@ public class DiskHardware implements SerialDevice
      *  	 */
 
     private VIA via1;
+
+    // CLOCK/DATA output last announced to the bus
+    private int busOutputs = -1;
     private VIA via2;
 
     private final VIAChangeListener via1Listener = new VIAChangeListener()
@@ -574,13 +600,15 @@ public class DiskHardware implements SerialDevice
     {
         diskDrive.reset();
 
+        busOutputs = -1;
+
         setDriveMode( READ );
         
         driveLED = false;
 
         motorsRunning = false;
 
-        writeProtectOn = true; // TODO: Set to 'false' once writing to disk is enabled
+        writeProtectOn = false;
         
         warmupFinished = false;
         previousStepMotorCycle = 3;
@@ -628,52 +656,156 @@ public class DiskHardware implements SerialDevice
          */
         via2.getPortB().setInputPin( 7 , false ); // clear sync detected signal
         via2.getPortB().setControlLine1(false,false); // clear 'Byte read/written' signal
-        via2.getPortB().setInputPin( 4 , writeProtectOn ); // => disk is write protected
+        via2.getPortB().setInputPin( 4 , ! writeProtectOn ); // PB4 is LOW when the disk is write protected
     }
 
     public void setDriveMode(DriveMode mode)
     {
         if ( mode != this.driveMode )
         {
+            if ( this.driveMode == WRITE ) {
+                flushDirtyTracks(); // write finished
+            }
             this.driveMode = mode;
             mode.onEnter();
         }
     }
 
-    public void ejectDisk() {
-        currentTrackData = Optional.empty();
-        bitStream = new BitStream(new byte[0] , 0 );
+    public void ejectDisk() 
+    {
+        flushDirtyTracks();
+        disk = null;
+        overlay = null;
+        writeTarget = null;
+        setTrack( headPosition );
     }
 
     private void setTrack(float track)
     {
-        this.headPosition = track;
+        flushDirtyTracks();
+        
+        loadTrack( track );
+        driveMode.trackChanged();
+    }
 
-        if ( disk != null )
-        {
-            currentTrackData = disk.getTrackData( track );
-        }
-        else {
-            currentTrackData = Optional.empty();
-        }
+    private void loadTrack(float track) 
+    {
+        this.headPosition = track;
 
-        if ( currentTrackData.isPresent() )
+        currentTrackBytes = overlay != null ? overlay.getTrackBytes( track ).orElse( null ) : null;
+        if ( currentTrackBytes != null )
         {
-            final byte[] data = currentTrackData.get().getRawBytes();
-            bitStream = new BitStream( data , data.length*8 );
+            bitStream = new BitStream( currentTrackBytes , currentTrackBytes.length*8 );
         } else {
             bitStream = new BitStream(new byte[0x55] , 8 ); // fake bitstream
         }
-        driveMode.trackChanged();
+    }
+
+    /**
+     * Writes the state of the drive mechanics.
+     * 
+     * Neither the disk contents nor the VIAs are included.
+     * 
+     * @param out
+     * @throws IOException
+     */
+    public void saveState(OutputStream out) throws IOException 
+    {
+        writeInt( Float.floatToIntBits( headPosition ) , out );
+        writeInt( bitStream.currentBitOffset() , out );
+        writeInt( headMovement.ordinal() , out );
+        writeInt( previousStepMotorCycle , out );
+        writeInt( cyclesPerByte , out );
+        writeBoolean( driveLED , out );
+        writeBoolean( motorsRunning , out );
+        writeBoolean( writeProtectOn , out );
+        writeBoolean( warmupFinished , out );
+
+        writeBoolean( driveMode == WRITE , out );
+        writeLong( ((DriveMode) READ).cycles , out );
+        writeLong( ((DriveMode) WRITE).cycles , out );
+        writeInt( READ.oneBits , out );
+        writeInt( READ.syncState.ordinal() , out );
+    }
+
+    /**
+     * Restores state written by {@link #saveState(OutputStream)}.
+     * 
+     * Does not alter the VIAs.
+     * 
+     * @param in
+     * @throws IOException
+     */
+    public void restoreState(InputStream in) throws IOException 
+    {
+        final float track = Float.intBitsToFloat( readInt( in ) );
+        final int bitOffset = readInt( in );
+        flushDirtyTracks();
+        loadTrack( track );
+        if ( bitOffset < bitStream.size() ) {
+            bitStream.setCurrentBitOffset( bitOffset );
+        }
+        headMovement = HeadMovement.values()[ readInt( in ) ];
+        previousStepMotorCycle = readInt( in );
+        cyclesPerByte = readInt( in );
+        driveLED = readBoolean( in );
+        motorsRunning = readBoolean( in );
+        writeProtectOn = readBoolean( in );
+        warmupFinished = readBoolean( in );
+
+        driveMode = readBoolean( in ) ? WRITE : READ;
+        ((DriveMode) READ).cycles = readLong( in );
+        ((DriveMode) WRITE).cycles = readLong( in );
+        READ.oneBits = readInt( in );
+        READ.syncState = SyncMode.values()[ readInt( in ) ];
+
+        busOutputs = -1;
     }
 
     public void loadDisk(G64File disk) 
     {
         System.out.println("Loaded disk "+(disk==null?"<no disk>" : disk.getSource() ) );
+        flushDirtyTracks();
         this.disk = disk;
+        this.overlay = disk != null ? new TrackOverlay( disk ) : null;
+        this.writeTarget = null;
         setTrack( 18 );
     }
 
+    /**
+     * Saves the current disk (including all modifications) to a file.
+     * 
+     * Writing happens asynchronously, once this method has been called any tracks
+     * subsequently written by the drive will be saved to the same file as well.
+     *
+     * @param file file to write to, the disk is stored in .d64 format if the file name ends with '.d64', .g64 format otherwise
+     * @see DiskFlusher
+     */
+    public void saveDisk(File file) 
+    {
+        if ( disk == null ) {
+            throw new IllegalStateException("No disk inserted");
+        }
+        this.writeTarget = file;
+        DiskFlusher.getInstance().flush( disk , file , overlay.takeAllTracks() );
+    }
+
+    /**
+     * Returns whether the disk has been written to since it was loaded.
+     * 
+     * @return
+     */
+    public boolean isDiskModified() {
+        return overlay != null && overlay.isModified();
+    }
+
+    private void flushDirtyTracks() 
+    {
+        if ( writeTarget != null && overlay != null && overlay.isDirty() ) {
+            DiskFlusher.getInstance().flush( disk , writeTarget , overlay.takeDirtyTracks() );
+        }
+    }
+
     // ====== SerialDevice interface implementation ==========
 
     @Override
@@ -711,12 +843,17 @@ public class DiskHardware implements SerialDevice
 
         driveMode.tick();
 
-        this.via1.tick();
-        this.via2.tick();
+        diskDrive.tickVIAs();
 
         if ( ! diskDrive.executeOneCPUCycle() ) {
             emulator.setExternalHwBreakpointReached();
         }        
+
+        final int outputs = ( getData() ? 1 : 0 ) | ( getClock() ? 2 : 0 );
+        if ( outputs != busOutputs ) {
+            busOutputs = outputs;
+            bus.outputChanged();
+        }
     }
 
     @Override
@@ -0,0 +1,112 @@
+package de.codesourcery.j6502.emulator.diskdrive;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.apache.commons.lang.Validate;
+
+import de.codesourcery.j6502.emulator.G64File;
+import de.codesourcery.j6502.emulator.G64File.TrackData;
+
+/**
+ * Copy-on-write view of the tracks of a {@link G64File}.
+ *
+ * The underlying disk image is never modified, tracks that were written to
+ * by the drive are kept here instead. Tracks that changed since the last
+ * call to {@link #takeDirtyTracks()} are tracked so that only those need
+ * to be written back.
+ *
+ * Instances of this class are NOT thread-safe and must only be used by the emulation thread.
+ */
+public final class TrackOverlay
+{
+    private final G64File disk;
+
+    // key is half-track index (track*2)
+    private final Map<Integer,byte[]> tracks = new HashMap<>();
+    private final Set<Integer> dirtyTracks = new HashSet<>();
+
+    public TrackOverlay(G64File disk)
+    {
+        Validate.notNull(disk, "disk must not be NULL");
+        this.disk = disk;
+    }
+
+    private static Integer key(float track) {
+        return Integer.valueOf( (int) (track*2) );
+    }
+
+    public G64File getDisk() {
+        return disk;
+    }
+
+    /**
+     * Returns the raw bytes for a given track.
+     *
+     * @param track
+     * @return the track data, modified tracks are returned from this overlay while
+     * unmodified tracks are returned as a fresh copy of the data from the underlying disk image.
+     * Writes to an array returned by this method need to be announced by calling {@link #markDirty(float, byte[])}.
+     */
+    public Optional<byte[]> getTrackBytes(float track)
+    {
+        final byte[] modified = tracks.get( key( track ) );
+        if ( modified != null ) {
+            return Optional.of( modified );
+        }
+        return disk.getTrackData( track ).map( TrackData::getRawBytes );
+    }
+
+    /**
+     * Marks a track as being modified.
+     *
+     * @param track
+     * @param data array previously obtained through {@link #getTrackBytes(float)} that is being written to
+     */
+    public void markDirty(float track,byte[] data)
+    {
+        final Integer key = key( track );
+        tracks.put( key , data );
+        dirtyTracks.add( key );
+    }
+
+    public boolean isDirty() {
+        return ! dirtyTracks.isEmpty();
+    }
+
+    public boolean isModified() {
+        return ! tracks.isEmpty();
+    }
+
+    /**
+     * Returns copies of all tracks that were modified since the last time this method got called
+     * and clears the dirty flags.
+     *
+     * @return modified tracks, keyed by half-track index (<code>track*2</code>)
+     */
+    public Map<Integer,byte[]> takeDirtyTracks()
+    {
+        final Map<Integer,byte[]> result = new HashMap<>();
+        for ( Integer key : dirtyTracks ) {
+            final byte[] data = tracks.get( key );
+            result.put( key , Arrays.copyOf( data , data.length ) );
+        }
+        dirtyTracks.clear();
+        return result;
+    }
+
+    /**
+     * Returns copies of all tracks that were ever modified and clears the dirty flags.
+     *
+     * @return modified tracks, keyed by half-track index (<code>track*2</code>)
+     */
+    public Map<Integer,byte[]> takeAllTracks()
+    {
+        dirtyTracks.addAll( tracks.keySet() );
+        return takeDirtyTracks();
+    }
+}
@@ -1,5 +1,12 @@
 package de.codesourcery.j6502.emulator.diskdrive;
 
+import static de.codesourcery.j6502.emulator.SerializationHelper.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.LongSupplier;
+
 import de.codesourcery.j6502.emulator.AddressRange;
 import de.codesourcery.j6502.emulator.CPU;
 import de.codesourcery.j6502.emulator.CPU.IRQType;
@@ -227,8 +234,21 @@ public class VIA extends Memory
         public void controlLine2Changed(VIA via,VIA.Port port);
     }
 
+    /**
+     * Cycle number returned by {@link #getNextEventCycle()} when no timer is going to underflow.
+     */
+    public static final long NO_EVENT = Long.MAX_VALUE;
+
+    // internal clock, only used when no external clock was passed to the constructor
     private long cycles;
 
+    private final LongSupplier clock;
+
+    // cycle when timer #1 / timer #2 will reach zero next
+    private long timer1Event = NO_EVENT;
+    private long timer2Event = NO_EVENT;
+    private long nextEvent = NO_EVENT;
+
     private ShiftRegisterMode shiftRegisterMode = ShiftRegisterMode.DISABLED;
 
     private Timer1Mode timer1Mode=Timer1Mode.IRQ_ON_LOAD;
@@ -347,6 +367,32 @@ public class VIA extends Memory
             this.irqMaskBitsControlLine2 = irqMaskBitsControlLine2;
         }
 
+        protected final void saveState(OutputStream out) throws IOException
+        {
+            writeBoolean( latchingEnabled , out );
+            writeInt( ddr , out );
+            writeInt( ir , out );
+            writeInt( or , out );
+            writeInt( line2Mode.ordinal() , out );
+            writeInt( line1Mode.ordinal() , out );
+            writeInt( pins , out );
+            writeBoolean( controlLine1In , out );
+            writeBoolean( controlLine2In , out );
+        }
+
+        protected final void restoreState(InputStream in) throws IOException
+        {
+            latchingEnabled = readBoolean( in );
+            ddr = readInt( in );
+            ir = readInt( in );
+            or = readInt( in );
+            line2Mode = ControlLine2Mode.values()[ readInt( in ) ];
+            line1Mode = ControlLine1Mode.values()[ readInt( in ) ];
+            pins = readInt( in );
+            controlLine1In = readBoolean( in );
+            controlLine2In = readBoolean( in );
+        }
+
         public final void reset()
         {
             ddr = 0;
@@ -695,12 +741,19 @@ public class VIA extends Memory
         }
     }
 
+    /*
+     * Timers are not decremented on every cycle, instead the counter value
+     * is derived from the value the timer was loaded with and the cycle
+     * this happened.
+     */
     private int timer1;
+    private long timer1Start;
 
     private int t1latchlo;
     private int t1latchhi;
 
     private int timer2;
+    private long timer2Start;
 
     private int t2latchlo;
     private int t2latchhi;
@@ -714,10 +767,33 @@ public class VIA extends Memory
 
     private int sr;
 
+    /**
+     * Create instance that uses an internal clock advanced by {@link #tick()}.
+     *
+     * @param identifier
+     * @param range
+     * @param cpu
+     */
     public VIA(String identifier, AddressRange range,CPU cpu)
+    {
+        this(identifier,range,cpu,null);
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param identifier
+     * @param range
+     * @param cpu
+     * @param clock external clock returning the current cycle number or <code>null</code> to use the internal clock
+     * advanced by {@link #tick()}. When using an external clock, {@link #processEvents()} needs to be called
+     * as soon as the clock reaches {@link #getNextEventCycle()}.
+     */
+    public VIA(String identifier, AddressRange range,CPU cpu,LongSupplier clock)
     {
         super(identifier, MemoryType.IOAREA , range);
         this.cpu = cpu;
+        this.clock = clock != null ? clock : () -> cycles;
     }
 
     @Override
@@ -726,6 +802,8 @@ public class VIA extends Memory
         /* Clear all internal registers
          * except t1/t2 counter, latches and SR
          */
+        timer1 = readTimer1Counter();
+        timer2 = readTimer2Counter();
 
         cycles = 0;
 
@@ -739,6 +817,9 @@ public class VIA extends Memory
         
         timer1Running = false;
         timer2Running = false;
+        timer1Event = NO_EVENT;
+        timer2Event = NO_EVENT;
+        nextEvent = NO_EVENT;
     }
 
     @Override
@@ -756,18 +837,18 @@ public class VIA extends Memory
                 return portA.getDDR();
             case T1CL:
                 clearInterrupt(IRQBIT_TIMER1_TIMEOUT);
-                return timer1 & 0xff;
+                return readTimer1Counter() & 0xff;
             case T1CH:
-                return (timer1 & 0xff00) >> 8;
+                return (readTimer1Counter() & 0xff00) >> 8;
             case T1LL:
                 return t1latchlo;
             case T1LH:
                 return t1latchhi;
             case T2CL:
                 clearInterrupt(IRQBIT_TIMER2_TIMEOUT);
-                return (timer2 & 0xff);
+                return (readTimer2Counter() & 0xff);
             case T2CH:
-                return (timer2 & 0xff00) >> 8;
+                return (readTimer2Counter() & 0xff00) >> 8;
             case SR:
                 return sr;
             case ACR:
@@ -799,17 +880,17 @@ public class VIA extends Memory
             case DDRA:
                 return portA.getDDR();
             case T1CL:
-                return timer1 & 0xff;
+                return readTimer1Counter() & 0xff;
             case T1CH:
-                return (timer1 & 0xff00) >> 8;
+                return (readTimer1Counter() & 0xff00) >> 8;
             case T1LL:
                 return t1latchlo;
             case T1LH:
                 return t1latchhi;
             case T2CL:
-                return (timer2 & 0xff);
+                return (readTimer2Counter() & 0xff);
             case T2CH:
-                return (timer2 & 0xff00) >> 8;
+                return (readTimer2Counter() & 0xff00) >> 8;
             case SR:
                 return sr;
             case ACR:
@@ -827,14 +908,18 @@ public class VIA extends Memory
         }
     }
 
-    // debug
     protected int readTimer1Counter() {
-    	return timer1;
+        if ( ! timer1Running ) {
+            return timer1;
+        }
+        return (int) ( timer1 - ( clock.getAsLong() - timer1Start ) );
     }
 
-    // debug
     protected int readTimer2Counter() {
-    	return timer2;
+        if ( ! timer2Running ) {
+            return timer2;
+        }
+        return (int) ( timer2 - ( clock.getAsLong() - timer2Start ) );
     }
 
     @Override
@@ -868,8 +953,7 @@ public class VIA extends Memory
                 break;
             case T1CH:
                 t1latchhi = value & 0xff;
-                timer1 = ( (t1latchhi & 0xff) << 8 ) | t1latchlo;
-                timer1Running = true;
+                startTimer1( ( (t1latchhi & 0xff) << 8 ) | t1latchlo , clock.getAsLong() );
                 clearInterrupt(IRQBIT_TIMER1_TIMEOUT);
                 break;
             case T1LL:
@@ -896,8 +980,7 @@ public class VIA extends Memory
                     logDebug("CPU write timer #2 counter/latch high: "+HexDump.toBinaryString( value ) );
                 }
                 t2latchhi = value & 0xff;
-                timer2 = ( t2latchhi << 8 ) | t2latchlo;
-                timer2Running = true;
+                startTimer2( ( t2latchhi << 8 ) | t2latchlo , clock.getAsLong() );
                 clearInterrupt(IRQBIT_TIMER2_TIMEOUT);
                 break;
             case SR:
@@ -1089,26 +1172,130 @@ public class VIA extends Memory
         }
     }
 
+    /**
+     * Writes the internal state.
+     *
+     * Register contents are derived from the internal state, the backing memory is not included.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void saveState(OutputStream out) throws IOException
+    {
+        writeLong( cycles , out );
+        writeInt( shiftRegisterMode.ordinal() , out );
+        writeInt( timer1Mode.ordinal() , out );
+        writeInt( timer2Mode.ordinal() , out );
+
+        writeBoolean( timer1Running , out );
+        writeInt( timer1 , out );
+        writeLong( timer1Start , out );
+        writeLong( timer1Event , out );
+        writeInt( t1latchlo , out );
+        writeInt( t1latchhi , out );
+
+        writeBoolean( timer2Running , out );
+        writeInt( timer2 , out );
+        writeLong( timer2Start , out );
+        writeLong( timer2Event , out );
+        writeInt( t2latchlo , out );
+        writeInt( t2latchhi , out );
+
+        writeInt( irqEnable , out );
+        writeInt( irqFlags , out );
+        writeInt( pcr , out );
+        writeInt( acr , out );
+        writeInt( sr , out );
+
+        portA.saveState( out );
+        portB.saveState( out );
+    }
+
+    /**
+     * Restores state written by {@link #saveState(OutputStream)}.
+     *
+     * Does not notify the {@link VIAChangeListener}.
+     *
+     * @param in
+     * @throws IOException
+     */
+    public void restoreState(InputStream in) throws IOException
+    {
+        cycles = readLong( in );
+        shiftRegisterMode = ShiftRegisterMode.values()[ readInt( in ) ];
+        timer1Mode = Timer1Mode.values()[ readInt( in ) ];
+        timer2Mode = Timer2Mode.values()[ readInt( in ) ];
+
+        timer1Running = readBoolean( in );
+        timer1 = readInt( in );
+        timer1Start = readLong( in );
+        timer1Event = readLong( in );
+        t1latchlo = readInt( in );
+        t1latchhi = readInt( in );
+
+        timer2Running = readBoolean( in );
+        timer2 = readInt( in );
+        timer2Start = readLong( in );
+        timer2Event = readLong( in );
+        t2latchlo = readInt( in );
+        t2latchhi = readInt( in );
+
+        irqEnable = readInt( in );
+        irqFlags = readInt( in );
+        pcr = readInt( in );
+        acr = readInt( in );
+        sr = readInt( in );
+
+        portA.restoreState( in );
+        portB.restoreState( in );
+
+        nextEvent = Math.min( timer1Event , timer2Event );
+    }
+
+    /**
+     * Advances the internal clock by one cycle.
+     *
+     * Only to be used when this VIA has no external clock.
+     */
     public void tick()
     {
-        if ( DEBUG ) {
-            cycles++;
+        if ( ++cycles >= nextEvent ) {
+            processEvents();
         }
+    }
 
-        if ( timer1Running && --timer1 == 0 )
+    /**
+     * Returns the cycle number when one of the timers reaches zero next.
+     *
+     * @return cycle number or {@link #NO_EVENT}
+     */
+    public long getNextEventCycle() {
+        return nextEvent;
+    }
+
+    /**
+     * Handles timer underflows that are due at the current clock cycle.
+     */
+    public void processEvents()
+    {
+        final long now = clock.getAsLong();
+
+        while ( timer1Event <= now )
         {
+            final long underflow = timer1Event;
             switch( timer1Mode )
             {
                 case IRQ_ON_LOAD: // one-shot mode
-                	if ( ( irqFlags & IRQBIT_TIMER1_TIMEOUT ) == 0 )
-                	{
-                	    setInterrupt(IRQBIT_TIMER1_TIMEOUT);
-                	}
-                	// in one-shot mode, the timer continues to decrement after reaching zero with no load taking place                	    
-                	break;
+                    if ( ( irqFlags & IRQBIT_TIMER1_TIMEOUT ) == 0 )
+                    {
+                        setInterrupt(IRQBIT_TIMER1_TIMEOUT);
+                    }
+                    // in one-shot mode, the timer continues to decrement after reaching zero with no load taking place
+                    timer1Event = NO_EVENT;
+                    break;
                 case CONTINUOUS_IRQ:
                     setInterrupt(IRQBIT_TIMER1_TIMEOUT);
-                    timer1 = t1latchhi << 8 | t1latchlo;
+                    startTimer1( t1latchhi << 8 | t1latchlo , underflow );
                     break;
                 case CONTINUOUS_IRQ_PB7_SQUARE_WAVE:
                 case IRQ_ON_LOAD_PB7_ONESHOT:
@@ -1117,14 +1304,34 @@ public class VIA extends Memory
             }
         }
 
-        if ( timer2Running && --timer2 == 0 )
+        if ( timer2Event <= now )
         {
             if ( ( irqFlags & IRQBIT_TIMER2_TIMEOUT ) == 0 ) {
                 setInterrupt( IRQBIT_TIMER2_TIMEOUT );
-                // in one-shot mode, the timer continues to decrement after reaching zero with no load taking place
-                // timer2 = t2latchhi << 8 | t2latchlo;
             }
+            // in one-shot mode, the timer continues to decrement after reaching zero with no load taking place
+            timer2Event = NO_EVENT;
         }
+        nextEvent = Math.min( timer1Event , timer2Event );
+    }
+
+    private void startTimer1(int value,long startCycle)
+    {
+        timer1 = value;
+        timer1Start = startCycle;
+        timer1Running = true;
+        // a timer loaded with zero wraps around and never reaches zero again
+        timer1Event = value > 0 ? startCycle + value : NO_EVENT;
+        nextEvent = Math.min( timer1Event , timer2Event );
+    }
+
+    private void startTimer2(int value,long startCycle)
+    {
+        timer2 = value;
+        timer2Start = startCycle;
+        timer2Running = true;
+        timer2Event = value > 0 ? startCycle + value : NO_EVENT;
+        nextEvent = Math.min( timer1Event , timer2Event );
     }
 
     private void setInterrupt(int bitMask)
@@ -1161,7 +1368,7 @@ public class VIA extends Memory
 
     protected void logDebug(String message)
     {
-        System.out.println( getIdentifier()+" - cycle "+cycles+" - "+message);
+        System.out.println( getIdentifier()+" - cycle "+clock.getAsLong()+" - "+message);
         System.out.flush();
     }
 
@@ -1177,7 +1384,7 @@ public class VIA extends Memory
 
     private void debugPrint(PortName portName,String msg , int oldValue , int value,String bitSetMsg,String bitClearedMsg)
     {
-        final StringBuilder buffer = new StringBuilder( msg+"( cycle "+cycles+" , port "+portName+"): \n");
+        final StringBuilder buffer = new StringBuilder( msg+"( cycle "+clock.getAsLong()+" , port "+portName+"): \n");
         for ( int i = 0 ; i < 7 ; i++ )
         {
             final boolean bitSet0 = (oldValue & 1<<i) != 0;
@@ -1201,7 +1408,7 @@ public class VIA extends Memory
 
     private void debugPrint(PortName portName,String msg , int value,String bitSetMsg,String bitClearedMsg)
     {
-        final StringBuilder buffer = new StringBuilder( msg+"( cycle "+cycles+" , port "+portName+"): \n");
+        final StringBuilder buffer = new StringBuilder( msg+"( cycle "+clock.getAsLong()+" , port "+portName+"): \n");
         for ( int i = 0 ; i < 7 ; i++ )
         {
             boolean bitSet = (value & 1<<i) != 0;
@@ -1221,7 +1428,7 @@ public class VIA extends Memory
 
     private void debugPrint(PortName portName,String msg , int value,int bitNum)
     {
-        final StringBuilder buffer = new StringBuilder( msg+"( cycle "+cycles+", port "+portName+"): \n");
+        final StringBuilder buffer = new StringBuilder( msg+"( cycle "+clock.getAsLong()+", port "+portName+"): \n");
         boolean bitSet = (value & 1<<bitNum) != 0;
         switch( portName )
         {
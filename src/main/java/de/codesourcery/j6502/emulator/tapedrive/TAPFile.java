@@ -44,9 +44,16 @@ public class TAPFile implements TapeFile
     
     private final List<WavePeriod> data = new ArrayList<>(); 
     
+    private final byte[] rawData;
+    
     public TAPFile(File file) throws IOException 
     {
-        final byte[] data = Files.readAllBytes( file.toPath() );
+        this( Files.readAllBytes( file.toPath() ) );
+    }
+    
+    public TAPFile(byte[] data) 
+    {
+        this.rawData = data;
 
         // check header
         final char[] headerChars = "C64-TAPE-RAW".toCharArray();
@@ -106,6 +113,15 @@ public class TAPFile implements TapeFile
         return data;
     }
     
+    /**
+     * Returns the contents of the .tap file.
+     * 
+     * @return
+     */
+    public byte[] getRawData() {
+        return rawData;
+    }
+    
     public static void main(String[] args) throws IOException {
         new TAPFile( new File("/home/tobi/mars_workspace/j6502/tapes/vice.tap" ) );
     }
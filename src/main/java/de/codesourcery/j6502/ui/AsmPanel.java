@@ -6,6 +6,8 @@ import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
@@ -27,6 +29,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -48,6 +51,7 @@ import javax.swing.SwingUtilities;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.table.AbstractTableModel;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultStyledDocument;
 import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
@@ -59,13 +63,12 @@ import javax.swing.tree.TreeNode;
 
 import org.apache.commons.lang.StringUtils;
 
-import de.codesourcery.j6502.assembler.Assembler;
+import de.codesourcery.j6502.assembler.IncrementalAssembler;
+import de.codesourcery.j6502.assembler.IncrementalAssembler.Result;
 import de.codesourcery.j6502.assembler.ISymbol;
 import de.codesourcery.j6502.assembler.ISymbolTable;
+import de.codesourcery.j6502.assembler.SourceMap;
 import de.codesourcery.j6502.assembler.exceptions.ParseException;
-import de.codesourcery.j6502.assembler.parser.Lexer;
-import de.codesourcery.j6502.assembler.parser.Parser;
-import de.codesourcery.j6502.assembler.parser.Scanner;
 import de.codesourcery.j6502.assembler.parser.ast.AST;
 import de.codesourcery.j6502.assembler.parser.ast.CommentNode;
 import de.codesourcery.j6502.assembler.parser.ast.IASTNode;
@@ -76,13 +79,13 @@ import de.codesourcery.j6502.emulator.EmulatorDriver;
 import de.codesourcery.j6502.ui.WindowLocationHelper.IDebuggerView;
 import de.codesourcery.j6502.utils.HexDump;
 import de.codesourcery.j6502.utils.ITextRegion;
-import de.codesourcery.j6502.utils.SourceHelper;
 import de.codesourcery.j6502.utils.SourceHelper.TextLocation;
 
 public abstract class AsmPanel extends JPanel implements IDebuggerView
 {
 	public static final String PANEL_TITLE = "ASM";
 	protected static final int RECOMPILATION_MILLIS = 250;
+	protected static final int HIGHLIGHT_CHUNK_SIZE = 500;
 
 	public static final int INDENT_SPACES = 4;
 	protected static final String INDENT = StringUtils.repeat(" ", INDENT_SPACES );
@@ -123,10 +126,14 @@ public abstract class AsmPanel extends JPanel implements IDebuggerView
 	{
 	    private final int binaryStartAddress;
 	    private final byte[] binary;
+	    private final ISymbolTable symbolTable;
+	    private final SourceMap sourceMap;
 	    
-        private Binary(int binaryStartAddress, byte[] binary) {
+        private Binary(int binaryStartAddress, byte[] binary,ISymbolTable symbolTable,SourceMap sourceMap) {
             this.binaryStartAddress = binaryStartAddress;
             this.binary = binary;
+            this.symbolTable = symbolTable;
+            this.sourceMap = sourceMap;
         }
 	}
 	
@@ -145,6 +152,14 @@ public abstract class AsmPanel extends JPanel implements IDebuggerView
 
 	private final RecompilationThread recompilationThread = new RecompilationThread();
 
+	// keeps the parsed lines of the last compilation so that only edited lines need to be parsed again
+	private final IncrementalAssembler incrementalAssembler = new IncrementalAssembler();
+
+	// incremented on every change to the source , compilation results for an older generation get discarded
+	private final AtomicInteger sourceGeneration = new AtomicInteger();
+
+	private volatile AST lastAST;
+
 	private final Map<String,String> configProperties = new HashMap<>();
 
 	protected final class RecompilationThread extends Thread {
@@ -175,7 +190,7 @@ public abstract class AsmPanel extends JPanel implements IDebuggerView
 					{
 						recompilationNeeded.set(false);
 						timeout.set( RECOMPILATION_MILLIS );
-						SwingUtilities.invokeLater( () -> compile() );
+						compileInBackground();
 					}
 				}
 			}
@@ -183,6 +198,7 @@ public abstract class AsmPanel extends JPanel implements IDebuggerView
 
 		public void textChanged()
 		{
+			sourceGeneration.incrementAndGet(); // cancels compilation in progress
 			recompilationNeeded.set( true );
 			timeout.set( RECOMPILATION_MILLIS );
 		}
@@ -342,6 +358,8 @@ public abstract class AsmPanel extends JPanel implements IDebuggerView
 	protected final class SymbolTableModel extends AbstractTableModel
 	{
 		private final List<ISymbol<?>> symbols = new ArrayList<>();
+		// values formatted once per update , getValueAt() gets called on every repaint
+		private final List<String> formattedValues = new ArrayList<>();
 
 		@Override
 		public int getRowCount() {
@@ -351,6 +369,7 @@ public abstract class AsmPanel extends JPanel implements IDebuggerView
 		public void update(ISymbolTable symbolTable)
 		{
 			symbols.clear();
+			formattedValues.clear();
 
 			if ( symbolTable != null )
 			{
@@ -361,6 +380,9 @@ public abstract class AsmPanel extends JPanel implements IDebuggerView
 				}
 				// sort ascending by identifier
 				symbols.sort( (a,b) -> a.getIdentifier().value.compareTo( b.getIdentifier().value ) );
+				for ( ISymbol<?> symbol : symbols ) {
+					formattedValues.add( formatValue( symbol ) );
+				}
 			}
 			super.fireTableDataChanged();
 		}
@@ -400,6 +422,30 @@ public abstract class AsmPanel extends JPanel implements IDebuggerView
 			return result;
 		}
 
+		private String formatValue(ISymbol<?> value)
+		{
+			if ( value.getValue() == null ) {
+				return "<NULL>";
+			}
+			if ( value.getValue() instanceof Number)
+			{
+				if ( value.getValue() instanceof Long) {
+					return value.getValue()+" / $"+leftPad( Long.toHexString( (Long) value.getValue() ) , 16 );
+				}
+				if ( value.getValue() instanceof Integer)
+				{
+					return value.getValue()+" / $"+leftPad( Integer.toHexString( (Integer) value.getValue() ) , 8 );
+				}
+				if ( value.getValue() instanceof Short ) {
+					return value.getValue()+" / $"+leftPad( Integer.toHexString( ((Short) value.getValue()) & 0xffff ) , 4 );
+				}
+				if ( value.getValue() instanceof Byte ) {
+					return value.getValue()+" / $"+leftPad( Integer.toHexString( ((Byte) value.getValue()) & 0xff ) , 2 );
+				}
+			}
+			return value.getValue().toString();
+		}
+
 		@Override
 		public Object getValueAt(int rowIndex, int columnIndex)
 		{
@@ -417,26 +463,7 @@ public abstract class AsmPanel extends JPanel implements IDebuggerView
 					}
 					return "<"+value.getType().toString()+">";
 				case 2:
-					if ( value.getValue() == null ) {
-						return "<NULL>";
-					}
-					if ( value.getValue() instanceof Number)
-					{
-						if ( value.getValue() instanceof Long) {
-							return value.getValue()+" / $"+leftPad( Long.toHexString( (Long) value.getValue() ) , 16 );
-						}
-						if ( value.getValue() instanceof Integer)
-						{
-							return value.getValue()+" / $"+leftPad( Integer.toHexString( (Integer) value.getValue() ) , 8 );
-						}
-						if ( value.getValue() instanceof Short ) {
-							return value.getValue()+" / $"+leftPad( Integer.toHexString( ((Short) value.getValue()) & 0xffff ) , 4 );
-						}
-						if ( value.getValue() instanceof Byte ) {
-							return value.getValue()+" / $"+leftPad( Integer.toHexString( ((Byte) value.getValue()) & 0xff ) , 2 );
-						}
-					}
-					return value.getValue().toString();
+					return formattedValues.get( rowIndex );
 				default:
 					throw new UnsupportedOperationException("getValueAt not implemented yet");
 			}
@@ -676,6 +703,9 @@ public abstract class AsmPanel extends JPanel implements IDebuggerView
 	private void toggleASTView()
 	{
 		toggleVisibility( astView );
+		if ( astView.isVisible() ) {
+			astView.setAST( lastAST );
+		}
 	}
 
 	private void toggleSymbolTableView()
@@ -856,9 +886,97 @@ public abstract class AsmPanel extends JPanel implements IDebuggerView
 		return Optional.of( file );
 	}
 
-	private void doSyntaxHighlighting(AST ast)
+	/**
+	 * Highlights the statements in a changed part of the document.
+	 *
+	 * Statements that are currently visible get highlighted right away , the rest in chunks
+	 * on later EDT turns so that large changes (like loading a file) don't block the UI. Pending chunks are dropped
+	 * when the source changes again.
+	 */
+	private void doSyntaxHighlighting(AST ast,ITextRegion changedRegion,int generation)
 	{
-		doWithDocumentListenerDisabled( () -> doSyntaxHighlighting( ast , editor.getStyledDocument() ) );
+		final StyledDocument document = editor.getStyledDocument();
+		final int start = Math.min( changedRegion.getStartingOffset() , document.getLength() );
+		final int end = Math.min( changedRegion.getEndOffset() , document.getLength() );
+		if ( start >= end ) {
+			return;
+		}
+
+		final List<IASTNode> statements = getStatements( ast , start , end );
+
+		// figure out which part of the document is visible
+		final Rectangle visible = editor.getVisibleRect();
+		final int visibleStart = Math.max( start , editor.viewToModel( visible.getLocation() ) );
+		final int visibleEnd = Math.min( end , editor.viewToModel( new Point( visible.x + visible.width , visible.y + visible.height ) ) + 1 );
+
+		final List<IASTNode> later = new ArrayList<>();
+		doWithDocumentListenerDisabled( () ->
+		{
+			document.setCharacterAttributes( start , end - start , styleContext.getStyle(StyleContext.DEFAULT_STYLE) , true );
+			for ( IASTNode statement : statements )
+			{
+				final ITextRegion region = statement.getTextRegionIncludingChildren();
+				if ( region.getEndOffset() >= visibleStart && region.getStartingOffset() <= visibleEnd ) {
+					doSyntaxHighlighting( statement , document );
+				} else {
+					later.add( statement );
+				}
+			}
+		});
+		highlightLater( later , 0 , generation );
+	}
+
+	private void highlightLater(List<IASTNode> statements,int startIndex,int generation)
+	{
+		if ( startIndex >= statements.size() ) {
+			return;
+		}
+		SwingUtilities.invokeLater( () ->
+		{
+			if ( sourceGeneration.get() != generation ) {
+				return; // outdated
+			}
+			final int end = Math.min( startIndex + HIGHLIGHT_CHUNK_SIZE , statements.size() );
+			doWithDocumentListenerDisabled( () ->
+			{
+				for ( int i = startIndex ; i < end ; i++ ) {
+					doSyntaxHighlighting( statements.get( i ) , editor.getStyledDocument() );
+				}
+			});
+			highlightLater( statements , end , generation );
+		});
+	}
+
+	/**
+	 * Returns all top-level statements overlapping a part of the document.
+	 */
+	private static List<IASTNode> getStatements(AST ast,int start,int end)
+	{
+		final List<IASTNode> children = ast.getChildren();
+
+		// binary search for the first statement ending after 'start'
+		int low = 0;
+		int high = children.size();
+		while ( low < high )
+		{
+			final int mid = ( low + high ) >>> 1;
+			if ( children.get( mid ).getTextRegionIncludingChildren().getEndOffset() <= start ) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		final List<IASTNode> result = new ArrayList<>();
+		for ( int i = low ; i < children.size() ; i++ )
+		{
+			final IASTNode statement = children.get( i );
+			if ( statement.getTextRegionIncludingChildren().getStartingOffset() >= end ) {
+				break;
+			}
+			result.add( statement );
+		}
+		return result;
 	}
 
 	private void doWithDocumentListenerDisabled(Runnable r)
@@ -888,7 +1006,9 @@ public abstract class AsmPanel extends JPanel implements IDebuggerView
 			} else {
 				style = styleContext.getStyle(StyleContext.DEFAULT_STYLE);
 			}
-			document.setCharacterAttributes( region.getStartingOffset() , region.getLength() , style , true );
+			final int start = Math.min( region.getStartingOffset() , document.getLength() );
+			final int end = Math.min( region.getEndOffset() , document.getLength() );
+			document.setCharacterAttributes( start , end - start , style , true );
 		}
 
 		for ( IASTNode child : current.getChildren() ) {
@@ -904,31 +1024,86 @@ public abstract class AsmPanel extends JPanel implements IDebuggerView
 		return style;
 	}
 
+	/**
+	 * Returns the symbol table of the last successfully compiled program.
+	 * 
+	 * @return symbol table or <code>null</code>
+	 */
+	public ISymbolTable getSymbolTable() {
+	    final Binary current = binary;
+	    return current == null ? null : current.symbolTable;
+	}
+
+	/**
+	 * Returns the source map of the last successfully compiled program.
+	 * 
+	 * @return source map or <code>null</code>
+	 */
+	public SourceMap getSourceMap() {
+	    final Binary current = binary;
+	    return current == null ? null : current.sourceMap;
+	}
+
+	/**
+	 * Compiles the current source on the calling thread , used by the recompilation thread.
+	 *
+	 * The result gets discarded if the source changes while compiling.
+	 */
+	private void compileInBackground()
+	{
+		final int generation = sourceGeneration.get();
+		final String[] source = { null };
+		styledDocument.render( () ->
+		{
+			try {
+				source[0] = styledDocument.getText( 0 , styledDocument.getLength() );
+			} catch (BadLocationException e) {
+				throw new RuntimeException(e);
+			}
+		});
+
+		final Result result;
+		try {
+			result = incrementalAssembler.assemble( source[0] , () -> sourceGeneration.get() != generation );
+		}
+		catch(CancellationException e) {
+			return; // source got edited again , another compilation will follow
+		}
+
+		SwingUtilities.invokeLater( () ->
+		{
+			if ( sourceGeneration.get() == generation ) {
+				compilationFinished( result , generation );
+			}
+		});
+	}
+
 	private boolean compile()
 	{
-	    binary = null;
-	    
-		symbolTableView.setSymbolTable( null );
+		final int generation = sourceGeneration.incrementAndGet(); // drop results of background compilation
+		return compilationFinished( incrementalAssembler.assemble( editor.getText() ) , generation );
+	}
 
-		final String source = editor.getText();
-		final Parser p = new Parser(new Lexer(new Scanner(source)));
+	private boolean compilationFinished(Result result,int generation)
+	{
+		binary = null;
 
 		compilationMessageModel.clearMessages();
 
-		final Assembler a = new Assembler();
-		final SourceHelper sourceHelper = new SourceHelper(source);
-		try
-		{
-			final AST ast = p.parse();
-			astView.setAST( ast );
-			doSyntaxHighlighting( ast );
+		lastAST = result.ast;
+		if ( astView.isVisible() ) {
+			astView.setAST( result.ast );
+		}
+		doSyntaxHighlighting( result.ast , result.changedRegion , generation );
 
-			final byte[] binary = a.assemble( ast , sourceHelper );
-			final int binaryStartAddress = a.getOrigin();
+		if ( result.isSuccess() )
+		{
+			final byte[] binary = result.binary;
+			final int binaryStartAddress = result.origin;
 
-			this.binary = new Binary(binaryStartAddress, binary);
+			this.binary = new Binary(binaryStartAddress, binary, result.symbolTable , result.sourceMap );
 
-			symbolTableView.setSymbolTable( a.getSymbolTable() );
+			symbolTableView.setSymbolTable( result.symbolTable );
 
 			// TODO: Remove debug code, just a quick hack to get the binary into Vice64 via Copy&Paste
 			System.out.println("10 for x=0 to "+(binary.length-1)+" : read a : poke "+binaryStartAddress+"+x,a : next");
@@ -952,20 +1127,24 @@ public abstract class AsmPanel extends JPanel implements IDebuggerView
             System.out.print( lineNo+" SYS "+binaryStartAddress);			
 			// TODO: End debug code
 
-			compilationMessageModel.addMessage( new CompilationMessage("Code compiled ok ("+binary.length+" bytes)", Severity.INFO ) );
+			compilationMessageModel.addMessage( new CompilationMessage("Code compiled ok ("+binary.length+" bytes, "+result.linesParsed+" lines parsed)", Severity.INFO ) );
 			info("Compilation finished");
 			return true;
 		}
-		catch(ParseException e) {
-			TextLocation location = sourceHelper.getLocation( e.offset );
+
+		symbolTableView.setSymbolTable( null );
+		final Exception e = result.error;
+		if ( e instanceof ParseException )
+		{
+			final TextLocation location = result.sourceHelper.getLocation( ((ParseException) e).offset );
 			e.printStackTrace();
 			if ( location == null ) {
-				compilationMessageModel.addMessage( new CompilationMessage(e.getMessage() , Severity.ERROR, -1 , -1  , e.offset ) );
+				compilationMessageModel.addMessage( new CompilationMessage(e.getMessage() , Severity.ERROR, -1 , -1  , ((ParseException) e).offset ) );
 			} else {
-				compilationMessageModel.addMessage( new CompilationMessage(e.getMessage() , Severity.ERROR, location.lineNumber , location.columnNumber , e.offset ) );
+				compilationMessageModel.addMessage( new CompilationMessage(e.getMessage() , Severity.ERROR, location.lineNumber , location.columnNumber , ((ParseException) e).offset ) );
 			}
 		}
-		catch(Exception e)
+		else
 		{
 			e.printStackTrace();
 			compilationMessageModel.addMessage( new CompilationMessage(e.getMessage() , Severity.ERROR ) );
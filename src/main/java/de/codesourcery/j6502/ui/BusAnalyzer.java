@@ -46,7 +46,12 @@ public class BusAnalyzer extends JPanel implements IDebuggerView
 
     private int maxWireNameWidthPixels;
 
-    private int windowOffset = 0; // offset relative to oldestStatePtr
+    // copy of the recorded states, only accessed while painting
+    private final long[] timestamps = new long[ BusStateContainer.MAX_STATES ];
+    private final int[] states = new int[ BusStateContainer.MAX_STATES ];
+    private int stateCount;
+
+    private int windowOffset = 0; // offset relative to oldest state
     private int windowSize = MAX_STATES; // number of states to render
     
     private boolean invert;
@@ -233,43 +238,41 @@ public class BusAnalyzer extends JPanel implements IDebuggerView
 
         if ( busStateContainer != null )
         {
-        	synchronized( busStateContainer )
+        	stateCount = busStateContainer.copyTo( timestamps , states );
+
+        	final FontMetrics fm = getGraphics().getFontMetrics();
+        	final String[] wireNames = busStateContainer.getBus().getWireNames();
+        	int maxWidth = 0;
+        	final int busWidth = busStateContainer.getBus().getWidth();
+        	for ( int i = 0 ; i < busWidth; i++ )
         	{
+        	    int thisWidth = fm.stringWidth( wireNames[i] );
+        	    maxWidth = Math.max( maxWidth , thisWidth  );
+        	}
+        	this.maxWireNameWidthPixels = maxWidth;
 
-        		final FontMetrics fm = getGraphics().getFontMetrics();
-        		final String[] wireNames = busStateContainer.getBus().getWireNames();
-        		int maxWidth = 0;
-        		final int busWidth = busStateContainer.getBus().getWidth();
-        		for ( int i = 0 ; i < busWidth; i++ )
-        		{
-        		    int thisWidth = fm.stringWidth( wireNames[i] );
-        		    maxWidth = Math.max( maxWidth , thisWidth  );
-        		}
-        		this.maxWireNameWidthPixels = maxWidth;
-
-        		final int wireCount = busStateContainer.getBus().getWidth();
-        		final int heightPerWire = getHeight() / wireCount;
-
-        		final Rectangle r = new Rectangle();
-        		r.width = getWidth();
-        		r.height = heightPerWire;
-        		for ( int i = 0 ; i < wireCount ; i++ )
-        		{
-        			renderWire(i,r, g);
-        			r.y += heightPerWire;
-        		}
-
-        		final String msg = "Displaying events "+windowOffset+" - "+(windowOffset+windowSize)+" from "+busStateContainer.sampleCount()+" total";
-        		final int width = fm.stringWidth( msg );
-        		final int x = Math.max(0 , getWidth()/2 - width/2 );
-        		final Rectangle box = new Rectangle( x , 0 , width , 20 );
-   				g.setColor( Color.WHITE );
-        		g.fill(box);
+        	final int wireCount = busStateContainer.getBus().getWidth();
+        	final int heightPerWire = getHeight() / wireCount;
 
-        		g.setColor( Color.BLACK);
-        		g.draw(box);
-        		drawCentered( msg , box , g );
+        	final Rectangle r = new Rectangle();
+        	r.width = getWidth();
+        	r.height = heightPerWire;
+        	for ( int i = 0 ; i < wireCount ; i++ )
+        	{
+        		renderWire(i,r, g);
+        		r.y += heightPerWire;
         	}
+
+        	final String msg = "Displaying events "+windowOffset+" - "+(windowOffset+windowSize)+" from "+stateCount+" total";
+        	final int width = fm.stringWidth( msg );
+        	final int x = Math.max(0 , getWidth()/2 - width/2 );
+        	final Rectangle box = new Rectangle( x , 0 , width , 20 );
+   				g.setColor( Color.WHITE );
+        	g.fill(box);
+
+        	g.setColor( Color.BLACK);
+        	g.draw(box);
+        	drawCentered( msg , box , g );
         }
     }
 
@@ -325,29 +328,26 @@ public class BusAnalyzer extends JPanel implements IDebuggerView
         graphics.setStroke(oldStroke);
 
         // render signal levels
-        final BusStateContainer container = busStateContainer;
-        final int stateCount = container.sampleCount();
-        if ( stateCount > 1 )
+        final int stateCount = this.stateCount;
+        if ( stateCount > 1 && windowOffset < stateCount )
         {
-        	final int oldestStatePtr = container.firstPtr();
-
             graphics.setColor(Color.BLUE);
 
             final int mask = 1 << wireIndex;
-            int previousState = container.state( (oldestStatePtr + windowOffset) % MAX_STATES ) & mask;
-            long previousTimestamp = container.timestamp( (oldestStatePtr + windowOffset) % MAX_STATES );
+            int previousState = states[ windowOffset ] & mask;
+            long previousTimestamp = timestamps[ windowOffset ];
             int previousY = previousState == 0 ? yLow : yHigh;
             double previousX = originX;
 
-            final int len = windowSize >= stateCount ? stateCount : windowSize;
-            final long totalCycles = Math.abs( container.timestamp( (oldestStatePtr + windowOffset + len - 1 ) % MAX_STATES ) - previousTimestamp );
+            final int len = Math.min( windowSize , stateCount - windowOffset );
+            final long totalCycles = Math.abs( timestamps[ windowOffset + len - 1 ] - previousTimestamp );
 
             double xIncrement = xAxisWidth / (double) totalCycles;
 
-            for ( int i = 1 , ptr = (oldestStatePtr + windowOffset+1) % MAX_STATES ; i < len ; i++ , ptr = (ptr+1) % MAX_STATES )
+            for ( int i = 1 , ptr = windowOffset+1 ; i < len ; i++ , ptr++ )
             {
-                final int currentState = container.state( ptr ) & mask;
-                final long currentTimestamp = container.timestamp( ptr );
+                final int currentState = states[ ptr ] & mask;
+                final long currentTimestamp = timestamps[ ptr ];
                 final long cycleDelta = Math.abs( currentTimestamp - previousTimestamp );
                 final double currentX = previousX + (cycleDelta*xIncrement);
 
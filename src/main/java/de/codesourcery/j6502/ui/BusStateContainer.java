@@ -1,24 +1,36 @@
 package de.codesourcery.j6502.ui;
 
-import java.util.Arrays;
-
 import org.apache.commons.lang.Validate;
 
 import de.codesourcery.j6502.emulator.Bus;
 
+/**
+ * Ring buffer holding the most recent bus state changes.
+ *
+ * At most <code>{@link #MAX_STATES}-1</code> states are visible, the slot of the oldest entry is
+ * kept free so that the recording thread can write the next state without overwriting
+ * an entry that a reader might be copying.
+ *
+ * Lock-free, states must only be recorded by a single thread (the emulation thread) while
+ * any number of threads may concurrently read using {@link #copyTo(long[], int[])}.
+ */
 public class BusStateContainer
 {
-	public static final int MAX_STATES = 256;
+	public static final int MAX_STATES = 256; // must be a power of 2
+
+	private static final int INDEX_MASK = MAX_STATES-1;
 
-	private int oldestStatePtr;
-	private int latestStatePtr;
+	private final long[] timestamps = new long[ MAX_STATES ];
+	private final int[] wireStates = new int[ MAX_STATES ];
 
-	private long cycles;
+	// total number of states ever recorded, only written by the recording thread
+	private volatile long writeCount;
 
-	private int stateCount;
+	// states recorded before this one are hidden, see reset()
+	private volatile long firstVisible;
 
-	private final long[] timestamps;
-	private final int[] wireStates;
+	// timestamp used by sampleBus()
+	private long sampleCounter;
 
 	private final Bus bus;
 
@@ -26,67 +38,85 @@ public class BusStateContainer
 	{
 		Validate.notNull(bus, "bus must not be NULL");
 		this.bus = bus;
-		timestamps = new long[ MAX_STATES ];
-		wireStates = new int[ MAX_STATES ];
-	}
-
-	public synchronized void reset()
-	{
-		cycles = 0;
-		stateCount = 0;
-		oldestStatePtr = latestStatePtr = 0;
-		Arrays.fill( timestamps,0);
-		Arrays.fill( wireStates,0);
-	}
-
-	public synchronized int firstPtr() {
-		return oldestStatePtr;
 	}
 
-	public synchronized int lastPtr()
+	/**
+	 * Discards all recorded states.
+	 *
+	 * May be called from any thread.
+	 */
+	public void reset()
 	{
-		return latestStatePtr;
+		firstVisible = writeCount;
 	}
 
-	public synchronized int sampleCount()
+	public int sampleCount()
 	{
-		return stateCount;
+		return (int) Math.min( MAX_STATES-1 , writeCount - firstVisible );
 	}
 
 	public Bus getBus() {
 		return bus;
 	}
 
-	public synchronized int state(int index)
-	{
-		return wireStates[ index % MAX_STATES ];
-	}
-
-	public synchronized long timestamp(int index)
+	/**
+	 * Records a new bus state.
+	 *
+	 * Must only be called by the recording thread.
+	 *
+	 * @param timestamp
+	 * @param state
+	 */
+	public void record(long timestamp,int state)
 	{
-		return timestamps[ index % MAX_STATES ];
+		final long count = writeCount;
+		final int index = (int) count & INDEX_MASK;
+		timestamps[ index ] = timestamp;
+		wireStates[ index ] = state;
+		writeCount = count+1; // volatile write publishes the entry
 	}
 
-	public synchronized void sampleBus()
+	/**
+	 * Records the current bus state if it differs from the previously recorded state.
+	 *
+	 * Each invocation advances the timestamp by one.
+	 */
+	public void sampleBus()
 	{
 		final int newValue = bus.read();
-
-		if ( stateCount != 0 && wireStates[ (oldestStatePtr+stateCount) % MAX_STATES ] == newValue ) 
-		{ 
-	        return; // wire state did not change
+		final long count = writeCount;
+		if ( count == firstVisible || wireStates[ (int) (count-1) & INDEX_MASK ] != newValue )
+		{
+			record( sampleCounter , newValue );
 		}
+		sampleCounter++;
+	}
 
-		timestamps[latestStatePtr] = cycles;
-		wireStates[latestStatePtr] = newValue;
-
-		latestStatePtr = (latestStatePtr+1) % MAX_STATES;
-		if ( stateCount < MAX_STATES )
+	/**
+	 * Copies up to <code>{@link #MAX_STATES}-1</code> recorded states, oldest first.
+	 *
+	 * @param timestamps array of at least {@link #MAX_STATES} elements
+	 * @param states array of at least {@link #MAX_STATES} elements
+	 * @return number of states copied
+	 */
+	public int copyTo(long[] timestamps,int[] states)
+	{
+		while ( true )
 		{
-			stateCount++;
-		} else {
-			oldestStatePtr = (oldestStatePtr+1) % MAX_STATES;
+			final long end = writeCount;
+			final long start = Math.max( firstVisible , end - (MAX_STATES-1) );
+			final int count = (int) ( end - start );
+			for ( int i = 0 ; i < count ; i++ )
+			{
+				final int index = (int) (start+i) & INDEX_MASK;
+				timestamps[i] = this.timestamps[ index ];
+				states[i] = this.wireStates[ index ];
+			}
+			// retry if the recording thread overwrote (or is about to overwrite) entries while we were copying them ,
+			// writing entry N replaces entry N-MAX_STATES
+			if ( writeCount - MAX_STATES < start ) {
+				return count;
+			}
 		}
-		cycles++;
 	}
-
 }
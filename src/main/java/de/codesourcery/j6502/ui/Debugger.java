@@ -21,6 +21,7 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -29,6 +30,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.text.DecimalFormat;
@@ -95,12 +97,17 @@ import de.codesourcery.j6502.emulator.EmulatorDriver;
 import de.codesourcery.j6502.emulator.EmulatorDriver.CallbackWithResult;
 import de.codesourcery.j6502.emulator.EmulatorDriver.IEmulationListener;
 import de.codesourcery.j6502.emulator.EmulatorDriver.Mode;
+import de.codesourcery.j6502.emulator.EmulatorMetrics;
 import de.codesourcery.j6502.emulator.EmulatorTest;
 import de.codesourcery.j6502.emulator.G64File;
 import de.codesourcery.j6502.emulator.IMemoryProvider;
 import de.codesourcery.j6502.emulator.IMemoryRegion;
+import de.codesourcery.j6502.emulator.InputLog;
+import de.codesourcery.j6502.emulator.InstructionTracer;
+import de.codesourcery.j6502.emulator.Profiler;
 import de.codesourcery.j6502.emulator.SerialDevice;
 import de.codesourcery.j6502.emulator.VIC;
+import de.codesourcery.j6502.emulator.diskdrive.DiskFlusher;
 import de.codesourcery.j6502.emulator.diskdrive.DiskHardware;
 import de.codesourcery.j6502.emulator.tapedrive.TapeFile;
 import de.codesourcery.j6502.ui.KeyboardInputListener.JoystickPort;
@@ -119,6 +126,9 @@ public class Debugger
     protected static final Font MONO_FONT = new Font("Monospaced", Font.PLAIN, 12);
 
     protected static final String CONFIG_KEY_LAST_STATE_FILE = "last.state.file";
+    protected static final String CONFIG_KEY_LAST_INPUT_LOG = "last.input.log";
+    protected static final String CONFIG_KEY_LAST_TRACE_FILE = "last.trace.file";
+    protected static final String CONFIG_KEY_LAST_PROFILE_FILE = "last.profile.file";
     protected static final String CONFIG_KEY_LAST_MEMORY_FILE = "last.memory.file";
     
     protected static enum DebugTarget {
@@ -226,6 +236,8 @@ public class Debugger
     private final ScreenPanel screenPanel = new ScreenPanel();
     private final BlockAllocationPanel bamPanel = new BlockAllocationPanel();
     private final CalculatorPanel calculatorPanel = new CalculatorPanel();
+    private final EmulatorMetrics metrics = new EmulatorMetrics();
+    private final MetricsPanel metricsPanel = new MetricsPanel(metrics);
     private final CommentedCodeViewer codeViewer = new CommentedCodeViewer(driver);
 
     private final AsmPanel asmPanel = new AsmPanel(desktop, driver) {
@@ -319,6 +331,12 @@ public class Debugger
         final JInternalFrame busPanelFrame = wrap("IEC", busPanel);
         desktop.add(busPanelFrame);
 
+        final JInternalFrame metricsPanelFrame = wrap("Metrics", metricsPanel);
+        desktop.add(metricsPanelFrame);
+
+        metrics.register();
+        driver.setMetrics(metrics);
+
         final JFrame frame = new JFrame("");
 
         // register fake IDebuggerView to also track size and location
@@ -728,11 +746,9 @@ public class Debugger
         if (chooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) 
         {
             final File file = chooser.getSelectedFile();
-            try (FileOutputStream out = new FileOutputStream(file)) {
-                emulationStateManager.saveEmulationState(out);
-                info("Saved state to " + file.getAbsolutePath());
-                rememberFile(CONFIG_KEY_LAST_STATE_FILE , file );
-            }
+            emulationStateManager.saveEmulationState(file.toPath());
+            info("Saved state to " + file.getAbsolutePath());
+            rememberFile(CONFIG_KEY_LAST_STATE_FILE , file );
         }
     }
     
@@ -748,15 +764,118 @@ public class Debugger
         if (chooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) 
         {
             final File file = chooser.getSelectedFile();
-            try (FileInputStream in = new FileInputStream(file)) 
+            emulationStateManager.restoreEmulationState(file.toPath());
+            info("Restored state from " + chooser.getSelectedFile().getAbsolutePath());
+            rememberFile(CONFIG_KEY_LAST_STATE_FILE,file);
+        }
+    }
+    
+    private void startInputRecording() 
+    {
+        final JFileChooser chooser = createFileChooser( getFile(CONFIG_KEY_LAST_INPUT_LOG) );
+        if (chooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) 
+        {
+            final File file = chooser.getSelectedFile();
+            driver.invokeAndWait( emulator -> 
+            {
+                if ( emulator.getInputRecorder() != null ) {
+                    throw new IllegalStateException("Already recording input");
+                }
+                final OutputStream out = new BufferedOutputStream( new FileOutputStream( file ) );
+                final InputLog.Recorder recorder;
+                try {
+                    recorder = new InputLog.Recorder( out , emulator );
+                } catch(IOException | RuntimeException e) {
+                    IOUtils.closeQuietly( out );
+                    throw e;
+                }
+                // reset so that the log can be replayed on a freshly created emulator
+                emulator.setInputRecorder( recorder );
+                emulator.reset();
+            });
+            info("Recording input to " + file.getAbsolutePath());
+            rememberFile(CONFIG_KEY_LAST_INPUT_LOG , file );
+        }
+    }
+
+    private void stopInputRecording() 
+    {
+        driver.invokeAndWait( emulator -> 
+        {
+            final InputLog.Recorder recorder = emulator.getInputRecorder();
+            if ( recorder != null ) 
             {
-                emulationStateManager.restoreEmulationState(in);
-                info("Restored state from " + chooser.getSelectedFile().getAbsolutePath());
-                rememberFile(CONFIG_KEY_LAST_STATE_FILE,file);
+                emulator.setInputRecorder( null );
+                recorder.close();
+                System.out.println("Recorded "+recorder.getCycle()+" cycles of input");
             }
+        });
+    }
+
+    private void startInstructionTrace() throws IOException 
+    {
+        final JFileChooser chooser = createFileChooser( getFile(CONFIG_KEY_LAST_TRACE_FILE) );
+        if (chooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) 
+        {
+            final File file = chooser.getSelectedFile();
+            final InstructionTracer tracer = InstructionTracer.mapFile( file.toPath() , Constants.TRACE_CAPACITY );
+            driver.invokeAndWait( emulator -> 
+            {
+                final InstructionTracer previous = emulator.getInstructionTracer();
+                emulator.setInstructionTracer( tracer );
+                if ( previous != null ) {
+                    previous.close();
+                }
+            });
+            info("Tracing instructions to " + file.getAbsolutePath());
+            rememberFile(CONFIG_KEY_LAST_TRACE_FILE , file );
         }
     }
-    
+
+    private void stopInstructionTrace() 
+    {
+        driver.invokeAndWait( emulator -> 
+        {
+            final InstructionTracer tracer = emulator.getInstructionTracer();
+            if ( tracer != null ) 
+            {
+                emulator.setInstructionTracer( null );
+                tracer.close();
+                System.out.println("Traced "+tracer.getRecordsWritten()+" instructions");
+            }
+        });
+    }
+
+    private void startProfiling() 
+    {
+        final Profiler profiler = new Profiler();
+        profiler.setSymbols( asmPanel.getSymbolTable() , asmPanel.getSourceMap() );
+        driver.invokeAndWait( emulator -> emulator.setProfiler( profiler ) );
+        info("Profiling started");
+    }
+
+    private void stopProfiling() throws IOException 
+    {
+        final AtomicReference<Profiler> profiler = new AtomicReference<>();
+        driver.invokeAndWait( emulator -> 
+        {
+            profiler.set( emulator.getProfiler() );
+            emulator.setProfiler( null );
+        });
+        if ( profiler.get() == null ) {
+            return;
+        }
+        final JFileChooser chooser = createFileChooser( getFile(CONFIG_KEY_LAST_PROFILE_FILE) );
+        if (chooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) 
+        {
+            final File file = chooser.getSelectedFile();
+            final String baseName = file.getName().replaceFirst("\\.(txt|csv|folded)$" , "" );
+            profiler.get().writeReports( file.getAbsoluteFile().getParentFile().toPath() , baseName );
+            info("Profile written to " + baseName + ".txt/.csv/.folded");
+            rememberFile(CONFIG_KEY_LAST_PROFILE_FILE , file );
+        }
+    }
+
     private Optional<File> getFile(String key) 
     {
         final String file = loc.getConfigProperties().get( key );
@@ -810,11 +929,72 @@ public class Debugger
 
         menu.addSeparator();
 
+        // input recording
+        item = new JMenuItem("Record input...");
+        item.addActionListener(event -> {
+            try {
+                startInputRecording();
+            } catch (Exception e) {
+                showError("Failed to start recording", e);
+            }
+        });
+        menu.add(item);
+
+        item = new JMenuItem("Stop recording input");
+        item.addActionListener(event -> {
+            try {
+                stopInputRecording();
+            } catch (Exception e) {
+                showError("Failed to stop recording", e);
+            }
+        });
+        menu.add(item);
+
+        item = new JMenuItem("Trace instructions...");
+        item.addActionListener(event -> {
+            try {
+                startInstructionTrace();
+            } catch (Exception e) {
+                showError("Failed to start tracing", e);
+            }
+        });
+        menu.add(item);
+
+        item = new JMenuItem("Stop tracing instructions");
+        item.addActionListener(event -> {
+            try {
+                stopInstructionTrace();
+            } catch (Exception e) {
+                showError("Failed to stop tracing", e);
+            }
+        });
+        menu.add(item);
+
+        item = new JMenuItem("Start profiling");
+        item.addActionListener(event -> startProfiling());
+        menu.add(item);
+
+        item = new JMenuItem("Stop profiling...");
+        item.addActionListener(event -> {
+            try {
+                stopProfiling();
+            } catch (Exception e) {
+                showError("Failed to write profile", e);
+            }
+        });
+        menu.add(item);
+
+        menu.addSeparator();
+
         // disk handling
         item = new JMenuItem("Insert disk...");
         item.addActionListener(event -> insertDisk());
         menu.add(item);
 
+        item = new JMenuItem("Save disk as...");
+        item.addActionListener(event -> saveDisk());
+        menu.add(item);
+
         item = new JMenuItem("Eject disk...");
         item.addActionListener(event -> ejectDisk());
         menu.add(item);
@@ -953,6 +1133,22 @@ public class Debugger
         }
     }
 
+    private void saveDisk() 
+    {
+        final String lastFile = loc.getConfigProperties().get("last_d64_file");
+        final JFileChooser chooser = createFileChooser( StringUtils.isNotBlank(lastFile) ? Optional.of( new File(lastFile) ) : Optional.empty() );
+        if (chooser.showSaveDialog(null) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        final File file = chooser.getSelectedFile();
+        try {
+            doWithFloppy(floppy -> floppy.saveDisk( file ) );
+            info("Disk will be saved to " + file.getAbsolutePath());
+        } catch (Exception e) {
+            showError("Failed to save disk to " + file.getAbsolutePath(), e);
+        }
+    }
+
     private void doWithFloppy(Consumer<DiskHardware> consumer) {
         driver.invokeAndWait(emulator -> {
             emulator.getMemory().ioArea.iecBus.getDevices().stream().filter(dev -> dev instanceof DiskHardware)
@@ -1046,6 +1242,7 @@ public class Debugger
         loc.getConfigProperties().put("last_d64_file", file.getAbsolutePath());
 
         try {
+            DiskFlusher.recover( file );
             doWithFloppy(floppy -> {
                 final G64File g64File;
                 final D64File d64File;
@@ -1152,6 +1349,10 @@ public class Debugger
         public final JButton saveTape = new JButton("Save tape");
         public final JButton refreshUIButton = new JButton("Refresh UI");
         public final JButton printBacktraceButton = new JButton("Show backtrace");
+        public final JToggleButton recordRewind = new JToggleButton("Rewind: Record", false);
+        public final JButton stepBackButton = new JButton("Back 1 frame");
+        public final JButton rewindSecondButton = new JButton("Back 1s");
+        public final JButton runBackButton = new JButton("Run back to...");
 
         private final KeyAdapter keyListener = new KeyAdapter() {
             public void keyReleased(KeyEvent e) {
@@ -1348,11 +1549,37 @@ public class Debugger
                 breakOnIRQButton.setEnabled(false);
             });
 
+            recordRewind.addActionListener(ev -> {
+                driver.setRewindEnabled(recordRewind.isSelected());
+                updateButtons();
+            });
+
+            stepBackButton.addActionListener(ev -> {
+                driver.stepBack(1);
+                updateWindows(false);
+            });
+
+            rewindSecondButton.addActionListener(ev -> {
+                driver.stepBack(Constants.EMULATORDRIVER_TRUE_SPEED_HZ / Constants.REWIND_CYCLES_PER_FRAME);
+                updateWindows(false);
+            });
+
+            runBackButton.addActionListener(ev -> {
+                final String sAddress = JOptionPane.showInputDialog("Run back to last time PC was", HexDump.toAdr(getCPU().pc()));
+                final Integer address = Misc.parseHexAddress(sAddress);
+                if (address != null) {
+                    if (!driver.runBackTo(address)) {
+                        JOptionPane.showMessageDialog(null, "PC was never " + HexDump.toAdr(address) + " within the recorded history", "Not found", JOptionPane.INFORMATION_MESSAGE);
+                    }
+                    updateWindows(false);
+                }
+            });
+
             setLayout(new FlowLayout());
 
             final List<AbstractButton> allButtons = Arrays.asList(stopButton, runButton, singleStepButton,
                     stepOverButton, resetButton, breakOnIRQButton, loadButton, toggleSpeedButton, saveTape, tapePlay,
-                    refreshUIButton, toggleDisplayToolbar,printBacktraceButton);
+                    refreshUIButton, toggleDisplayToolbar,printBacktraceButton, recordRewind, stepBackButton, rewindSecondButton, runBackButton);
             for (AbstractButton button : allButtons) {
                 button.setFocusable(false);
                 add(button);
@@ -1369,6 +1596,9 @@ public class Debugger
             resetButton.setEnabled(currentMode == Mode.SINGLE_STEP);
             stepOverButton.setEnabled(getBreakPointsController().canStepOver(getMemory(), getCPU()));
             breakOnIRQButton.setEnabled(!getCPU().isBreakOnIRQ());
+            stepBackButton.setEnabled(recordRewind.isSelected());
+            rewindSecondButton.setEnabled(recordRewind.isSelected());
+            runBackButton.setEnabled(recordRewind.isSelected());
         }
 
         protected void saveTape() {
@@ -15,12 +15,11 @@ import java.awt.font.LineMetrics;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Consumer;
 
 import javax.swing.SwingUtilities;
 
 import de.codesourcery.j6502.disassembler.Disassembler;
-import de.codesourcery.j6502.disassembler.Disassembler.Line;
+import de.codesourcery.j6502.disassembler.RecursiveDisassembler;
 import de.codesourcery.j6502.emulator.Breakpoint;
 import de.codesourcery.j6502.emulator.BreakpointsController;
 import de.codesourcery.j6502.emulator.BreakpointsController.IBreakpointLister;
@@ -31,6 +30,10 @@ public abstract class DisassemblyPanel extends BufferedView implements WindowLoc
 {
     private final Disassembler dis = new Disassembler().setAnnotate(true);// .setPrintCycleTimings( true );
 
+    // caches disassembled lines per page , recreated when the memory region changes
+    private RecursiveDisassembler recursiveDisassembler;
+    private IMemoryRegion recursiveDisassemblerMemory;
+
     protected final Short TRACK_CURRENT_PC = Short.valueOf( (short) 0xdead ); // dummy value, any will do since doRefresh() just checks for != NULL
 
     protected static final int X_OFFSET = 30;
@@ -112,7 +115,8 @@ public abstract class DisassemblyPanel extends BufferedView implements WindowLoc
                 pc = currentAddress & 0xffff;
             }
 
-            maybeDisassemble( g , adrToMark );
+            // cheap unless memory has been modified , lines are cached by the disassembler
+            disassemble( g );
 
             for ( int i = 0, y = Debugger.LINE_HEIGHT ; i < lines.size() ; i++ , y+= Debugger.LINE_HEIGHT )
             {
@@ -248,65 +252,40 @@ public abstract class DisassemblyPanel extends BufferedView implements WindowLoc
         lines.clear();
     }
 
-    private void disassemble(Graphics g)
+    private RecursiveDisassembler getDisassembler()
     {
-        lines.clear();
-
-        /* Because depending on the opcode, each disassembly line may consume up to three bytes, we might not arrive
-         * at the exact location where the PC currently is .. we'll use this flag to re-try disassembling with a
-         * different offset until we succeed
-         */
-        final boolean[] alignmentCorrect = { false };
-
-        final BreakpointsController controller = getBreakpointsController();
-        final IMemoryRegion memory = controller.getMemory();
-        final short pc;
-        pc = currentAddress;
-        short offset = (short) (pc - bytesToDisassemble/2);
-        while ( offset != pc && ! alignmentCorrect[0] )
+        final IMemoryRegion memory = getBreakpointsController().getMemory();
+        if ( recursiveDisassembler == null || recursiveDisassemblerMemory != memory )
         {
-            lines.clear();
-            final Consumer<Line> lineConsumer = new Consumer<Line>()
-            {
-                private final FontMetrics fm = g.getFontMetrics();
-                private int y = Y_OFFSET;
-
-                @Override
-                public void accept(Line line) 
-                {
-                    final LineMetrics lineMetrics = fm.getLineMetrics( line.toString(),  g );
-                    final Rectangle2D stringBounds = fm.getStringBounds( line.toString(),  g );
-
-                    final Rectangle bounds = new Rectangle( X_OFFSET , (int) (y - lineMetrics.getAscent() ) , (int) stringBounds.getWidth() , (int) (lineMetrics.getHeight() ) );
-                    final LineWithBounds lwb = new LineWithBounds( line , bounds );
-                    if ( line.address == pc ) {
-                        alignmentCorrect[0]=true;
-                    }
-                    lines.add( lwb );
-                    y += Debugger.LINE_HEIGHT;
-                }
-            };
-            dis.disassemble( memory , offset, bytesToDisassemble , lineConsumer);
-            offset++;
+            recursiveDisassembler = new RecursiveDisassembler( memory , dis );
+            recursiveDisassemblerMemory = memory;
+            recursiveDisassembler.addInterruptVectors();
         }
+        return recursiveDisassembler;
     }
 
-    private void maybeDisassemble(Graphics g,Short addressToMark)
+    private void disassemble(Graphics g)
     {
-        if ( lines.isEmpty() )
-        {
-            disassemble( g );
+        lines.clear();
+
+        final short pc = currentAddress;
+        final RecursiveDisassembler disassembler = getDisassembler();
+        if ( addressToMark != null ) {
+            disassembler.addEntryPoint( pc );
         }
-        else if ( addressToMark != null ) 
+
+        final FontMetrics fm = g.getFontMetrics();
+        final int[] y = { Y_OFFSET };
+        disassembler.getLines( pc - bytesToDisassemble/2 , bytesToDisassemble , line ->
         {
-            for ( LineWithBounds line : lines) 
-            {
-                if ( line.line.address == addressToMark.shortValue() ) {
-                    return;
-                }
-            }
-            disassemble( g );
-        }
+            final String text = line.toString();
+            final LineMetrics lineMetrics = fm.getLineMetrics( text ,  g );
+            final Rectangle2D stringBounds = fm.getStringBounds( text ,  g );
+
+            final Rectangle bounds = new Rectangle( X_OFFSET , (int) (y[0] - lineMetrics.getAscent() ) , (int) stringBounds.getWidth() , (int) (lineMetrics.getHeight() ) );
+            lines.add( new LineWithBounds( line , bounds ) );
+            y[0] += Debugger.LINE_HEIGHT;
+        });
     }
 
     public Short getAddressForPoint(int x,int y)
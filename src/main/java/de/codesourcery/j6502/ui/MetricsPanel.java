@@ -0,0 +1,112 @@
+package de.codesourcery.j6502.ui;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Font;
+
+import javax.swing.JPanel;
+import javax.swing.JTextArea;
+
+import org.apache.commons.lang.StringUtils;
+
+import de.codesourcery.j6502.emulator.EmulatorMetrics;
+import de.codesourcery.j6502.emulator.EmulatorMetrics.Chip;
+import de.codesourcery.j6502.emulator.EmulatorMetrics.Snapshot;
+import de.codesourcery.j6502.ui.WindowLocationHelper.IDebuggerView;
+
+/**
+ * Displays the most recent {@link EmulatorMetrics.Snapshot}.
+ */
+public class MetricsPanel extends JPanel implements IDebuggerView
+{
+    private static final long serialVersionUID = 1L;
+
+    private Component peer;
+    private boolean isDisplayed;
+
+    private final EmulatorMetrics metrics;
+    private final JTextArea textArea = new JTextArea();
+
+    private Snapshot lastSnapshot;
+
+    public MetricsPanel(EmulatorMetrics metrics)
+    {
+        this.metrics = metrics;
+
+        textArea.setEditable( false );
+        textArea.setFont( new Font( Font.MONOSPACED , Font.PLAIN , 12 ) );
+        textArea.setBackground( Color.BLACK );
+        textArea.setForeground( Color.GREEN );
+
+        setLayout( new BorderLayout() );
+        add( textArea , BorderLayout.CENTER );
+        setPreferredSize( new Dimension( 250 , 280 ) );
+    }
+
+    @Override
+    public void refresh()
+    {
+        final Snapshot snapshot = metrics.getSnapshot();
+        if ( snapshot == lastSnapshot ) {
+            return;
+        }
+        lastSnapshot = snapshot;
+
+        final StringBuilder text = new StringBuilder();
+        line( text , "Emulated MHz" , String.format( "%.3f" , snapshot.emulatedMHz ) );
+        line( text , "Host ns/cycle" , String.format( "%.1f" , snapshot.hostNanosPerCycle ) );
+        line( text , "Cycles" , Long.toString( snapshot.emulatedCycles ) );
+        text.append("\n");
+        for ( Chip chip : Chip.values() ) {
+            line( text , chip.toString() , String.format( "%.1f %%" , snapshot.getTimeShare( chip ) * 100 ) );
+        }
+        text.append("\n");
+        line( text , "Frames/s" , String.format( "%.1f" , snapshot.framesPerSecond ) );
+        line( text , "Frames rendered" , Long.toString( snapshot.framesRendered ) );
+        line( text , "Frames skipped" , Long.toString( snapshot.framesSkipped ) );
+        text.append("\n");
+        line( text , "Cmd latency avg" , String.format( "%.1f us" , snapshot.averageCommandLatencyMicros ) );
+        line( text , "Cmd latency max" , String.format( "%.1f us" , snapshot.maxCommandLatencyMicros ) );
+        text.append("\n");
+        line( text , "GC collections" , Long.toString( snapshot.gcCount ) );
+        line( text , "GC time" , snapshot.gcTimeMillis+" ms" );
+        line( text , "Allocation rate" , String.format( "%.2f MB/s" , snapshot.allocationRateBytesPerSecond / ( 1024*1024 ) ) );
+        textArea.setText( text.toString() );
+    }
+
+    private static void line(StringBuilder buffer,String label,String value) {
+        buffer.append( StringUtils.rightPad( label+":" , 18 ) ).append( value ).append("\n");
+    }
+
+    @Override
+    public String getIdentifier() {
+        return "Metrics view";
+    }
+
+    @Override
+    public void setLocationPeer(Component frame) {
+        this.peer = frame;
+    }
+
+    @Override
+    public Component getLocationPeer() {
+        return peer;
+    }
+
+    @Override
+    public boolean isDisplayed() {
+        return isDisplayed;
+    }
+
+    @Override
+    public void setDisplayed(boolean yesNo) {
+        this.isDisplayed = yesNo;
+    }
+
+    @Override
+    public boolean isRefreshAfterTick() {
+        return true;
+    }
+}
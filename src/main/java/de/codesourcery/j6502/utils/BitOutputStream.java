@@ -23,12 +23,23 @@ public class BitOutputStream
     }
 
     public void copyFrom(BitOutputStream other) {
+        writeBits( other.buffer , other.getBitsWritten() );
+    }
 
-        final int bitsAvailable = other.getBitsWritten();
-        final BitStream in = new BitStream( other.toByteArray() , bitsAvailable );
-        for ( int i = 0 ; i < bitsAvailable ; i++ )
-        {
-            writeBit( in.readBit() );
+    /**
+     * Writes bits from a byte array.
+     *
+     * @param src bits to write, starting with bit 7 of <code>src[0]</code>
+     * @param bitCount
+     */
+    public void writeBits(byte[] src,int bitCount)
+    {
+        int i = 0;
+        for ( ; bitCount >= 8 ; bitCount -= 8 ) {
+            writeByte( src[i++] );
+        }
+        if ( bitCount > 0 ) {
+            writeBits( (src[i] & 0xff) >>> (8-bitCount) , bitCount );
         }
     }
 
@@ -84,16 +95,18 @@ public class BitOutputStream
             }
             if ( (offset << 3) == bitsWritten ) {
                 buffer[ offset ] = (byte) value;
-                bitsWritten+= 8;
-            } else
+            } 
+            else
             {
-                int mask = 0b1000_0000;
-                for ( int i = 7 ; i >= 0 ; i-- )
-                {
-                    writeBit( ( value & mask) );
-                    mask = mask >>> 1;
+                if ( offset+1 >= buffer.length ) {
+                    growBuffer();
                 }
+                // buffer is only ever appended to so bits not written yet are always zero
+                final int shift = bitsWritten & 7;
+                buffer[ offset   ] |= value >>> shift;
+                buffer[ offset+1 ] |= value << (8-shift);
             }
+            bitsWritten+= 8;
     }
 
     public int getBitsWritten() {
@@ -1,5 +1,6 @@
 package de.codesourcery.j6502.utils;
 
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 public final class BitStream
@@ -138,14 +139,97 @@ public final class BitStream
 
     public int readBit() throws NoSuchElementException
     {
-        final int byteOffset = currentBit/8;
-        final int currentMask = 1 << ( 7 - ( currentBit % 8 ) );
-        final int result = (data[ startByteOffset + byteOffset] & currentMask) == 0 ? 0 : 1;
+        final int byteOffset = currentBit >>> 3;
+        final int result = ( data[ startByteOffset + byteOffset] >>> ( 7 - ( currentBit & 7 ) ) ) & 1;
         advanceOneBit();
         return result;
     }
 
+    /**
+     * Reads bits into a byte array, advancing this stream.
+     *
+     * The first bit read ends up in bit 7 of <code>dst[0]</code>, unused trailing bits of
+     * the last output byte are cleared.
+     *
+     * @param dst
+     * @param bitCount
+     */
+    public void readBits(byte[] dst,int bitCount)
+    {
+        final int byteCount = (bitCount+7) >>> 3;
+        final int end = currentBit + bitCount;
+        if ( end >= bitsAvailable ) 
+        {
+            // wrap-around, take the slow path
+            Arrays.fill( dst , 0 , byteCount , (byte) 0 );
+            for ( int i = 0 ; i < bitCount ; i++ ) 
+            {
+                if ( readBit() != 0 ) {
+                    dst[ i >>> 3 ] |= 0x80 >>> (i & 7);
+                }
+            }
+            return;
+        }
+
+        final int srcOffset = startByteOffset + ( currentBit >>> 3 );
+        final int shift = currentBit & 7;
+        if ( shift == 0 ) 
+        {
+            System.arraycopy( data , srcOffset , dst , 0 , byteCount );
+        } 
+        else 
+        {
+            final int lastSrcByte = startByteOffset + ( (end-1) >>> 3 );
+            for ( int i = 0 , src = srcOffset ; i < byteCount ; i++ , src++ ) 
+            {
+                final int next = src+1 <= lastSrcByte ? (data[src+1] & 0xff) : 0;
+                dst[i] = (byte) ( (data[src] << shift) | ( next >>> (8-shift) ) );
+            }
+        }
+        final int trailingBits = (byteCount << 3) - bitCount;
+        if ( trailingBits != 0 ) {
+            dst[ byteCount-1 ] &= 0xff << trailingBits;
+        }
+
+        if ( mark > currentBit && mark <= end ) {
+            wrapCounter++;
+        }
+        currentBit = end;
+    }
+
+    public void writeBit(int bit)
+    {
+        final int byteOffset = startByteOffset + currentBit/8;
+        final int currentMask = 1 << ( 7 - ( currentBit % 8 ) );
+        if ( bit != 0 ) {
+            data[ byteOffset ] |= currentMask;
+        } else {
+            data[ byteOffset ] &= ~currentMask;
+        }
+        advanceOneBit();
+    }
+
+    public void writeByte(int value)
+    {
+        for ( int mask = 1<<7 ; mask != 0 ; mask >>>= 1 ) {
+            writeBit( value & mask );
+        }
+    }
+
     public int currentBitOffset() {
         return currentBit;
     }
+
+    /**
+     * Moves to an absolute bit offset.
+     * 
+     * @param bitOffset offset as returned by {@link #currentBitOffset()}
+     */
+    public void setCurrentBitOffset(int bitOffset) 
+    {
+        if ( bitOffset < 0 || bitOffset >= bitsAvailable ) {
+            throw new IllegalArgumentException("Bit offset out of range: "+bitOffset);
+        }
+        currentBit = bitOffset;
+    }
 }
\ No newline at end of file
@@ -147,6 +147,60 @@ public class HexDump {
 		} , offset , len );
 	}
 
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Appends a value as two lower-case hex digits (without '$').
+	 *
+	 * @param buffer
+	 * @param value
+	 */
+	public static void appendHex8(StringBuilder buffer,int value)
+	{
+		buffer.append( HEX_DIGITS[ ( value >>> 4 ) & 0x0f ] );
+		buffer.append( HEX_DIGITS[ value & 0x0f ] );
+	}
+
+	/**
+	 * Appends a value as four lower-case hex digits (without '$').
+	 *
+	 * @param buffer
+	 * @param value
+	 */
+	public static void appendHex16(StringBuilder buffer,int value)
+	{
+		appendHex8( buffer , value >>> 8 );
+		appendHex8( buffer , value );
+	}
+
+	/**
+	 * Writes a value as two lower-case hex digits (without '$').
+	 *
+	 * @param buffer
+	 * @param offset
+	 * @param value
+	 * @return offset after the last character written
+	 */
+	public static int putHex8(char[] buffer,int offset,int value)
+	{
+		buffer[ offset ] = HEX_DIGITS[ ( value >>> 4 ) & 0x0f ];
+		buffer[ offset + 1 ] = HEX_DIGITS[ value & 0x0f ];
+		return offset + 2;
+	}
+
+	/**
+	 * Writes a value as four lower-case hex digits (without '$').
+	 *
+	 * @param buffer
+	 * @param offset
+	 * @param value
+	 * @return offset after the last character written
+	 */
+	public static int putHex16(char[] buffer,int offset,int value)
+	{
+		return putHex8( buffer , putHex8( buffer , offset , value >>> 8 ) , value );
+	}
+
 	public static String byteToString(byte b)
 	{
 		int value = b;
@@ -55,6 +55,14 @@ public interface ITextRegion extends Serializable
      */
     public void merge(List<? extends ITextRegion> ranges);
 
+    /**
+     * Moves this text region by a number of characters.
+     *
+     * @param delta number of characters to move by , may be negative
+     * @throws IllegalArgumentException if the starting offset would become negative
+     */
+    public void shift(int delta) throws IllegalArgumentException;
+
     /**
      * Calculates the intersection of this text region with another.
      *
@@ -0,0 +1,212 @@
+package de.codesourcery.j6502.utils;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * Hash map with non-negative <code>int</code> keys and non-null values.
+ *
+ * Uses open addressing with linear probing on two plain arrays , so neither lookups nor
+ * insertions allocate (apart from growing the arrays). Iterating over {@link #values()} does not copy anything ,
+ * the map must not be modified while iterating.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class IntMap<V>
+{
+	private static final int EMPTY = -1;
+
+	private int[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+
+	private final Iterable<V> valuesView = new Iterable<V>()
+	{
+		@Override
+		public Iterator<V> iterator() {
+			return new ValueIterator();
+		}
+
+		@Override
+		public void forEach(Consumer<? super V> action)
+		{
+			final int[] k = keys;
+			final Object[] v = values;
+			for ( int i = 0 ; i < k.length ; i++ )
+			{
+				if ( k[i] != EMPTY ) {
+					action.accept( value( v[i] ) );
+				}
+			}
+		}
+	};
+
+	private final class ValueIterator implements Iterator<V>
+	{
+		private int index = advance( 0 );
+
+		private int advance(int from)
+		{
+			int i = from;
+			while ( i < keys.length && keys[i] == EMPTY ) {
+				i++;
+			}
+			return i;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return index < keys.length;
+		}
+
+		@Override
+		public V next()
+		{
+			if ( ! hasNext() ) {
+				throw new NoSuchElementException();
+			}
+			final V result = value( values[index] );
+			index = advance( index + 1 );
+			return result;
+		}
+	}
+
+	public IntMap() {
+		this( 16 );
+	}
+
+	/**
+	 * @param expectedSize number of entries the map should be able to hold without growing
+	 */
+	public IntMap(int expectedSize)
+	{
+		int capacity = 4;
+		while ( capacity < expectedSize * 2 ) {
+			capacity <<= 1;
+		}
+		allocate( capacity );
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new int[ capacity ];
+		Arrays.fill( keys , EMPTY );
+		values = new Object[ capacity ];
+		mask = capacity - 1;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> V value(Object o) {
+		return (V) o;
+	}
+
+	private static int hash(int key) {
+		// spread sequential keys (identifier ids etc.) across the table
+		return key * 0x9e3779b9;
+	}
+
+	private int indexOf(int key)
+	{
+		int i = hash( key ) & mask;
+		while ( true )
+		{
+			final int k = keys[i];
+			if ( k == key ) {
+				return i;
+			}
+			if ( k == EMPTY ) {
+				return -1;
+			}
+			i = ( i + 1 ) & mask;
+		}
+	}
+
+	public V get(int key)
+	{
+		final int index = indexOf( key );
+		return index == -1 ? null : value( values[ index ] );
+	}
+
+	public boolean containsKey(int key) {
+		return indexOf( key ) != -1;
+	}
+
+	/**
+	 * Associates a value with a key.
+	 *
+	 * @param key non-negative key
+	 * @param value value , must not be <code>null</code>
+	 * @return previous value or <code>null</code>
+	 */
+	public V put(int key,V value)
+	{
+		if ( key < 0 ) {
+			throw new IllegalArgumentException("Key must not be negative: "+key);
+		}
+		if ( value == null ) {
+			throw new IllegalArgumentException("Value must not be NULL");
+		}
+		int i = hash( key ) & mask;
+		while ( true )
+		{
+			final int k = keys[i];
+			if ( k == key )
+			{
+				final V previous = value( values[i] );
+				values[i] = value;
+				return previous;
+			}
+			if ( k == EMPTY )
+			{
+				keys[i] = key;
+				values[i] = value;
+				if ( ++size * 2 > keys.length ) {
+					grow();
+				}
+				return null;
+			}
+			i = ( i + 1 ) & mask;
+		}
+	}
+
+	private void grow()
+	{
+		final int[] oldKeys = keys;
+		final Object[] oldValues = values;
+		allocate( oldKeys.length * 2 );
+		size = 0;
+		for ( int i = 0 ; i < oldKeys.length ; i++ )
+		{
+			if ( oldKeys[i] != EMPTY ) {
+				put( oldKeys[i] , value( oldValues[i] ) );
+			}
+		}
+	}
+
+	public void clear()
+	{
+		Arrays.fill( keys , EMPTY );
+		Arrays.fill( values , null );
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns a live view of all values , in no particular order.
+	 *
+	 * @return
+	 */
+	public Iterable<V> values() {
+		return valuesView;
+	}
+}
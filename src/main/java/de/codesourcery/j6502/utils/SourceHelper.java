@@ -1,12 +1,5 @@
 package de.codesourcery.j6502.utils;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-
 import de.codesourcery.j6502.assembler.parser.Token;
 
 public class SourceHelper
@@ -46,19 +39,15 @@ public class SourceHelper
 		}
 	}
 
-	private final Map<Integer,Integer> lineStartOffsetByLineNumber = new HashMap<>();
-	private final Map<Integer,Integer> lineNumberByLineStartOffset = new HashMap<>();
+	// lineStartOffsets[ lineNo - 1 ] , ascending
+	private final int[] lineStartOffsets;
 
 	private final String source;
 
 	public SourceHelper(String source)
 	{
 		this.source = source;
-		try {
-			parse( new ByteArrayInputStream( source.getBytes() ) );
-		} catch (final IOException e) {
-			throw new RuntimeException(e);
-		}
+		this.lineStartOffsets = parse( source );
 	}
 
 	public Integer getLineStartingOffset(TextLocation loc)
@@ -68,38 +57,39 @@ public class SourceHelper
 
 	public Integer getLineStartingOffset(int lineNo)
 	{
-		return lineStartOffsetByLineNumber.get( lineNo );
+		if ( lineNo < 1 || lineNo > lineStartOffsets.length ) {
+			return null;
+		}
+		return lineStartOffsets[ lineNo - 1 ];
 	}
 
-	private void parse(InputStream in) throws IOException
+	/**
+	 * Returns the number of lines in the source.
+	 *
+	 * @return
+	 */
+	public int getLineCount() {
+		return lineStartOffsets.length;
+	}
+
+	private static int[] parse(String source)
 	{
+		int lineCount = 1;
+		for ( int i = 0 , len = source.length() ; i < len ; i++ ) {
+			if ( source.charAt( i ) == '\n' ) {
+				lineCount++;
+			}
+		}
+		final int[] result = new int[ lineCount ];
 		int currentLine = 1; // line numbers are 1-based
-		int lineStartOffset = 0;
-		int currentOffset = 0;
-		final byte[] buffer = new byte[1024];
-
-		int bytesRead = 0;
-		while ( ( bytesRead = in.read( buffer ) ) > 0 )
-		{
-			for ( int i = 0 ; i < bytesRead ; i++ ) {
-				final byte b = buffer[i];
-				if ( b == '\n' )
-				{
-					lineStartOffsetByLineNumber.put( currentLine , lineStartOffset );
-					lineNumberByLineStartOffset.put( lineStartOffset , currentLine );
-					currentLine++;
-					currentOffset++;
-					lineStartOffset = currentOffset;
-				} else {
-					currentOffset++;
-				}
+		for ( int i = 0 , len = source.length() ; i < len ; i++ ) {
+			if ( source.charAt( i ) == '\n' ) {
+				result[ currentLine++ ] = i+1;
 			}
 		}
-		lineStartOffsetByLineNumber.put( currentLine , lineStartOffset );
-		lineNumberByLineStartOffset.put( lineStartOffset , currentLine );
+		return result;
 	}
 
-
 	public TextLocation getLocation(Token token)
 	{
 		return getLocation(token.offset);
@@ -107,21 +97,23 @@ public class SourceHelper
 
 	public TextLocation getLocation(final int offset)
 	{
-		int minMaxOffset = -1;
-		for ( final Entry<Integer, Integer> entry : lineNumberByLineStartOffset.entrySet() )
+		if ( offset < 0 ) {
+			return null;
+		}
+		// binary search for the last line starting at or before the offset
+		int low = 0;
+		int high = lineStartOffsets.length - 1;
+		while ( low < high )
 		{
-			final Integer lineStartOffset = entry.getKey();
-			if ( lineStartOffset <= offset && lineStartOffset > minMaxOffset ) {
-				minMaxOffset = lineStartOffset;
+			final int mid = ( low + high + 1 ) >>> 1;
+			if ( lineStartOffsets[mid] <= offset ) {
+				low = mid;
+			} else {
+				high = mid - 1;
 			}
 		}
-
-		if ( minMaxOffset == -1 ) {
-			return null;
-		}
-		final int column = (offset - minMaxOffset);
-		final int lineNo = lineNumberByLineStartOffset.get( minMaxOffset );
-		return new TextLocation( lineNo , column+1 , offset ); // column numbers are 1-based
+		final int column = (offset - lineStartOffsets[low]);
+		return new TextLocation( low + 1 , column+1 , offset ); // line and column numbers are 1-based
 	}
 
 	public TextLocation getLocation(ITextRegion textRegion) {
@@ -84,6 +84,15 @@ public class TextRegion implements ITextRegion
         return this;
     }
 
+    @Override
+    public void shift(int delta)
+    {
+        if ( startingOffset + delta < 0 ) {
+            throw new IllegalArgumentException("Cannot shift "+this+" by "+delta);
+        }
+        this.startingOffset += delta;
+    }
+
     @Override
     public void subtract(ITextRegion other)
     {
@@ -139,7 +139,7 @@ public class AssemblerTest extends TestCase {
 
 		final ISymbolTable symbolTable = a.context.getSymbolTable();
 
-		final Identifier id = new Identifier("label");
+		final Identifier id = Identifier.of("label");
 		assertTrue( symbolTable.isDefined( id , null ) );
 		final ISymbol<?> symbol = symbolTable.getSymbol( id , null );
 		assertNotNull( symbol );
@@ -193,6 +193,143 @@ public class AssemblerTest extends TestCase {
 		assertCompilesTo("CIA2_PRA: .equ $d000\nSTA CIA2_PRA" , 0x8d , 0x00, 0xd0 );
 	}
 
+	public void testForwardsReferenceToZeroPageEQU()
+	{
+		assertCompilesTo("LDA ptr\nptr: .equ $fb" , 0xa5 , 0xfb );
+	}
+
+	public void testEQUReferencingLaterEQU()
+	{
+		assertCompilesTo("LDA first\nfirst: .equ second+1\nsecond: .equ $20" , 0xa5 , 0x21 );
+	}
+
+	public void testForwardsReferenceToZeroPageMovesFollowingLabels()
+	{
+		// LDA shrinks to zero-page addressing once 'ptr' is known , moving 'end'
+		final String s = "*= $1000\n"+
+				"  LDA ptr\n"+
+				"  JMP end\n"+
+				"  .word end\n"+
+				"end: RTS\n"+
+				"ptr: .equ $10";
+		assertCompilesTo( s , 0xa5 , 0x10 , 0x4c , 0x07 , 0x10 , 0x07 , 0x10 , 0x60 );
+	}
+
+	public void testOscillatingLayoutFails()
+	{
+		// 'e0' is zero-page if 'LDA' uses absolute addressing and vice versa
+		assertDoesNotCompile("*= $f8\n LDA e0\ng0: NOP\ne0: .equ $1fa-g0");
+	}
+
+	public void testMacroWithParameters()
+	{
+		final String s = ".macro store value , addr\n"
+				+ " LDA #value\n"
+				+ " STA addr\n"
+				+ ".endm\n"
+				+ " store 1 , $d020\n"
+				+ " store 2+3 , $fb";
+		assertCompilesTo( s , 0xa9 , 0x01 , 0x8d , 0x20 , 0xd0 , 0xa9 , 0x05 , 0x85 , 0xfb );
+	}
+
+	public void testMacroLabelsAreUniquePerExpansion()
+	{
+		final String s = ".macro wait\n"
+				+ ".loop DEX\n"
+				+ " BNE loop\n"
+				+ ".endm\n"
+				+ "main: LDX #2\n"
+				+ " wait\n"
+				+ " wait\n"
+				+ " JMP loop\n"
+				+ ".loop RTS";
+		assertCompilesTo( s , 0xa2 , 0x02 , 0xca , 0xd0 , 0xfd , 0xca , 0xd0 , 0xfd , 0x4c , 0x0b , 0x10 , 0x60 );
+	}
+
+	public void testMacroOutsideOfGlobalLabel()
+	{
+		final String s = ".macro wait\n"
+				+ "loop: DEX\n"
+				+ " BNE loop\n"
+				+ ".endm\n"
+				+ " wait\n"
+				+ " wait";
+		assertCompilesTo( s , 0xca , 0xd0 , 0xfd , 0xca , 0xd0 , 0xfd );
+	}
+
+	public void testLabelsCannotCollideWithExpandedLabels()
+	{
+		final String macro = ".macro wait\n"
+				+ "loop: DEX\n"
+				+ " BNE loop\n"
+				+ ".endm\n"
+				+ " wait\n";
+		// the expansion defines loop__1 , a label with the same name is rejected instead of clashing with it
+		assertDoesNotCompile( SET_ORIGIN_CMD+macro+"loop__1: RTS" );
+		assertDoesNotCompile( SET_ORIGIN_CMD+"loop__1: RTS" );
+		assertDoesNotCompile( SET_ORIGIN_CMD+"main: NOP\n"+macro+".loop__1 RTS" );
+		assertCompilesTo( macro+"loop_1: RTS\n JMP loop_1" , 0xca , 0xd0 , 0xfd , 0x60 , 0x4c , 0x03 , 0x10 );
+	}
+
+	public void testMacroWithWrongArgumentCountFails() {
+		assertDoesNotCompile( SET_ORIGIN_CMD+".macro store value\n LDA #value\n.endm\n store 1 , 2" );
+	}
+
+	public void testMissingEndmFails() {
+		assertDoesNotCompile( SET_ORIGIN_CMD+".macro store value\n LDA #value\n" );
+	}
+
+	public void testRepeatWithCounter()
+	{
+		final String s = ".rept 4 , ix\n"
+				+ " .byte ix*2\n"
+				+ ".endr";
+		assertCompilesTo( s , 0x00 , 0x02 , 0x04 , 0x06 );
+	}
+
+	public void testRepeatCountFromEQU()
+	{
+		final String s = "count: .equ 1+2\n"
+				+ ".rept count\n"
+				+ " NOP\n"
+				+ ".endr";
+		assertCompilesTo( s , 0xea , 0xea , 0xea );
+	}
+
+	public void testRepeatInsideMacro()
+	{
+		final String s = ".macro fill count , value\n"
+				+ ".rept count\n"
+				+ " .byte value\n"
+				+ ".endr\n"
+				+ ".endm\n"
+				+ " fill 3 , $ff\n"
+				+ " fill 2 , 1";
+		assertCompilesTo( s , 0xff , 0xff , 0xff , 0x01 , 0x01 );
+	}
+
+	public void testMacroInsideRepeat()
+	{
+		final String s = ".macro delay count\n"
+				+ " LDX #count\n"
+				+ ".wait DEX\n"
+				+ " BNE wait\n"
+				+ ".endm\n"
+				+ "start: .rept 2 , ix\n"
+				+ " delay ix+1\n"
+				+ ".endr\n"
+				+ " JMP start";
+		assertCompilesTo( s , 0xa2 , 0x01 , 0xca , 0xd0 , 0xfd , 0xa2 , 0x02 , 0xca , 0xd0 , 0xfd , 0x4c , 0x00 , 0x10 );
+	}
+
+	public void testRepeatWithUnknownCountFails() {
+		assertDoesNotCompile( SET_ORIGIN_CMD+".rept count\n NOP\n.endr\ncount: .equ 3" );
+	}
+
+	public void testEndrWithoutRepeatFails() {
+		assertDoesNotCompile( SET_ORIGIN_CMD+" NOP\n.endr" );
+	}
+
 	public void testByteInitializedMemoryWithLabel() {
 		assertCompilesTo("label: .byte $01,2,3,$4" , 1 , 2, 3, 4 );
 	}
@@ -248,7 +385,7 @@ public class AssemblerTest extends TestCase {
 
 		final ISymbolTable symbolTable = a.context.getSymbolTable();
 
-		final Identifier id = new Identifier("label");
+		final Identifier id = Identifier.of("label");
 		assertTrue( symbolTable.isDefined( id , null ) );
 		final ISymbol<?> symbol = symbolTable.getSymbol( id , null );
 		assertNotNull( symbol );
@@ -279,8 +416,8 @@ public class AssemblerTest extends TestCase {
 
 		final ISymbolTable symbolTable = a.context.getSymbolTable();
 
-		final Identifier globalName = new Identifier("global");
-		final Identifier localName = new Identifier("local1");
+		final Identifier globalName = Identifier.of("global");
+		final Identifier localName = Identifier.of("local1");
 		assertTrue( symbolTable.isDefined( globalName , null ) );
 		assertTrue( symbolTable.isDefined( localName , globalName ) );
 
@@ -0,0 +1,112 @@
+package de.codesourcery.j6502.assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import de.codesourcery.j6502.assembler.Linker.Result;
+import de.codesourcery.j6502.assembler.parser.Identifier;
+
+public class BuildCacheTest extends TestCase
+{
+    private static final int LOAD_ADDRESS = 0x1000;
+
+    private File directory;
+    private BuildCache cache;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory( "buildcache" ).toFile();
+        cache = new BuildCache( directory );
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    private Result link(CompilationUnit... units)
+    {
+        final Linker linker = new Linker( LOAD_ADDRESS );
+        linker.setCache( cache );
+        return linker.link( Arrays.asList( units ) );
+    }
+
+    private File[] cachedFiles() {
+        return directory.listFiles( (dir,name) -> name.endsWith(".obj") );
+    }
+
+    public void testCachedBuildIsIdentical()
+    {
+        final CompilationUnit main = new CompilationUnit( "main.asm" , "start: LDX #$02\n.loop JSR sub\n DEX\n BNE loop\n RTS\n" );
+        final CompilationUnit sub = new CompilationUnit( "sub.asm" , "sub: LDY #$03\n.loop DEY\n BNE loop\n RTS\n" );
+
+        final Result first = link( main , sub );
+        final int entries = cachedFiles().length;
+        assertEquals( 4 , entries );
+
+        final Result second = link( main , sub );
+        assertEquals( entries , cachedFiles().length );
+        AssemblerTest.assertArrayEquals( first.binary , second.binary );
+        assertEquals( 0x1009 , second.symbolTables.get( sub ).getSymbol( Identifier.of("sub") , null ).getValue() );
+        assertEquals( 0x100b , second.symbolTables.get( sub ).getSymbol( Identifier.of("loop") , Identifier.of("sub") ).getValue() );
+        assertEquals( first.sourceMap.getLineNumberForAddress( 0x100b ) , second.sourceMap.getLineNumberForAddress( 0x100b ) );
+    }
+
+    public void testCachedUnitIsNotParsed()
+    {
+        final CompilationUnit main = new CompilationUnit( "main.asm" , "  LDA #$01\n  RTS\n" );
+        link( main );
+
+        // a cached unit is not parsed , so tampering with the cache shows whether it got used
+        final String key = BuildCache.objectKey( main , LOAD_ADDRESS , Collections.emptyMap() );
+        final BuildCache.Entry entry = cache.get( key ).get();
+        entry.code[1] = 0x42;
+        cache.put( key , entry );
+
+        AssemblerTest.assertArrayEquals( link( main ).binary , 0xa9 , 0x42 , 0x60 );
+    }
+
+    public void testChangedImportValueInvalidatesUnit()
+    {
+        final CompilationUnit main = new CompilationUnit( "main.asm" , "  LDA ptr\n  RTS\n" );
+        AssemblerTest.assertArrayEquals( link( main , new CompilationUnit( "defs.asm" , "ptr: .equ $fb\n" ) ).binary , 0xa5 , 0xfb , 0x60 );
+        AssemblerTest.assertArrayEquals( link( main , new CompilationUnit( "defs.asm" , "ptr: .equ $fc\n" ) ).binary , 0xa5 , 0xfc , 0x60 );
+        AssemblerTest.assertArrayEquals( link( main , new CompilationUnit( "defs.asm" , "ptr: .equ $1234\n" ) ).binary , 0xad , 0x34 , 0x12 , 0x60 );
+    }
+
+    public void testMovedUnitIsAssembledAgain()
+    {
+        final CompilationUnit main = new CompilationUnit( "main.asm" , "  JSR sub\n  RTS\n" );
+        final CompilationUnit sub = new CompilationUnit( "sub.asm" , "sub: JMP sub\n" );
+        link( main , sub );
+
+        final CompilationUnit longerMain = new CompilationUnit( "main.asm" , "  NOP\n  JSR sub\n  RTS\n" );
+        AssemblerTest.assertArrayEquals( link( longerMain , sub ).binary , 0xea , 0x20 , 0x05 , 0x10 , 0x60 , 0x4c , 0x05 , 0x10 );
+    }
+
+    public void testCorruptedEntryIsIgnored() throws IOException
+    {
+        final CompilationUnit main = new CompilationUnit( "main.asm" , "  LDA #$01\n  RTS\n" );
+        link( main );
+        for ( File file : cachedFiles() )
+        {
+            final byte[] data = Files.readAllBytes( file.toPath() );
+            data[ data.length / 2 ] ^= 0xff;
+            Files.write( file.toPath() , data );
+        }
+        AssemblerTest.assertArrayEquals( link( main ).binary , 0xa9 , 0x01 , 0x60 );
+
+        for ( File file : cachedFiles() ) {
+            Files.write( file.toPath() , new byte[] { 1 , 2 , 3 } );
+        }
+        AssemblerTest.assertArrayEquals( link( main ).binary , 0xa9 , 0x01 , 0x60 );
+    }
+}
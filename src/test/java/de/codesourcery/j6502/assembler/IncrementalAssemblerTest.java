@@ -0,0 +1,162 @@
+package de.codesourcery.j6502.assembler;
+
+import java.util.concurrent.CancellationException;
+
+import junit.framework.TestCase;
+import de.codesourcery.j6502.assembler.IncrementalAssembler.Result;
+import de.codesourcery.j6502.assembler.parser.Lexer;
+import de.codesourcery.j6502.assembler.parser.Parser;
+import de.codesourcery.j6502.assembler.parser.ast.AST;
+import de.codesourcery.j6502.utils.SourceHelper;
+
+public class IncrementalAssemblerTest extends TestCase
+{
+    private static final String SOURCE = "*= $1000\n"+
+            "start: ldx #$10\n"+
+            ".loop dex\n"+
+            "      bne loop\n"+
+            "      jsr sub\n"+
+            "      rts\n"+
+            "sub:  lda data,x\n"+
+            ".loop inx\n"+
+            "      bne loop\n"+
+            "      rts\n"+
+            "data: .byte 1,2,3\n";
+
+    private IncrementalAssembler assembler;
+
+    @Override
+    protected void setUp() throws Exception {
+        assembler = new IncrementalAssembler();
+    }
+
+    public void testInitialRunParsesEverything()
+    {
+        final Result result = assembler.assemble( SOURCE );
+        assertTrue( result.isSuccess() );
+        assertEquals( 12 , result.linesParsed );
+        AssemblerTest.assertArrayEquals( assembleFully( SOURCE ) , result.binary );
+    }
+
+    public void testEditParsesChangedLineOnly()
+    {
+        assembler.assemble( SOURCE );
+
+        final String changed = SOURCE.replace( "ldx #$10" , "ldx #$20 ; more" );
+        final Result result = assembler.assemble( changed );
+        assertTrue( result.isSuccess() );
+        assertEquals( 1 , result.linesParsed );
+        assertEquals( changed.indexOf( "start:" ) , result.changedRegion.getStartingOffset() );
+        AssemblerTest.assertArrayEquals( assembleFully( changed ) , result.binary );
+    }
+
+    public void testInsertedLineShiftsFollowingLines()
+    {
+        assembler.assemble( SOURCE );
+
+        final String changed = SOURCE.replace( "      rts\nsub:" , "      rts\n      nop\n      nop\nsub:" );
+        final Result result = assembler.assemble( changed );
+        assertTrue( result.isSuccess() );
+        assertEquals( 2 , result.linesParsed );
+        AssemblerTest.assertArrayEquals( assembleFully( changed ) , result.binary );
+
+        // text regions of lines after the insertion must have moved
+        final int expectedOffset = changed.indexOf( "data:" );
+        final int[] actualOffset = { -1 };
+        result.ast.visitParentFirst( node ->
+        {
+            if ( node.getTextRegion() != null && node.toString().startsWith("data") ) {
+                actualOffset[0] = node.getTextRegion().getStartingOffset();
+            }
+        });
+        assertEquals( expectedOffset , actualOffset[0] );
+    }
+
+    public void testRenamingGlobalLabelReparsesLocalLabels()
+    {
+        assembler.assemble( SOURCE );
+
+        final String changed = SOURCE.replace( "sub:" , "sub2:" ).replace( "jsr sub" , "jsr sub2" );
+        final Result result = assembler.assemble( changed );
+        assertTrue( ""+result.error , result.isSuccess() );
+        // lines from 'jsr' to 'sub2:' plus the following ones up to and including the next global label
+        assertEquals( 7 , result.linesParsed );
+        AssemblerTest.assertArrayEquals( assembleFully( changed ) , result.binary );
+    }
+
+    public void testParseErrorIsReported()
+    {
+        assembler.assemble( SOURCE );
+
+        final String broken = SOURCE.replace( "jsr sub" , "jsr (" );
+        final Result result = assembler.assemble( broken );
+        assertFalse( result.isSuccess() );
+        assertNull( result.binary );
+
+        final Result fixed = assembler.assemble( SOURCE );
+        assertTrue( fixed.isSuccess() );
+        assertEquals( 1 , fixed.linesParsed );
+    }
+
+    public void testCancelledRunKeepsCache()
+    {
+        assembler.assemble( SOURCE );
+        final String changed = SOURCE.replace( "ldx #$10" , "ldx #$20" );
+        try {
+            assembler.assemble( changed , () -> true );
+            fail("Should've been cancelled");
+        } catch(CancellationException e) {
+            // ok
+        }
+        final Result result = assembler.assemble( changed );
+        assertEquals( 1 , result.linesParsed );
+        AssemblerTest.assertArrayEquals( assembleFully( changed ) , result.binary );
+    }
+
+    private static byte[] assembleFully(String source)
+    {
+        final AST ast = new Parser( new Lexer( source ) ).parse();
+        return new Assembler().assemble( ast , new SourceHelper( source ) );
+    }
+
+    public void testSourceWithMacrosIsParsedAsAWhole()
+    {
+        final String source = "*= $1000\n"+
+                ".macro twice value\n"+
+                "      lda #value\n"+
+                "      lda #value\n"+
+                ".endm\n"+
+                "      twice 1\n";
+        final Result result = assembler.assemble( source );
+        assertTrue( result.isSuccess() );
+        AssemblerTest.assertArrayEquals( result.binary , 0xa9 , 0x01 , 0xa9 , 0x01 );
+
+        final String changed = source.replace( "twice 1" , "twice 2" );
+        AssemblerTest.assertArrayEquals( assembler.assemble( changed ).binary , 0xa9 , 0x02 , 0xa9 , 0x02 );
+
+        // back to parsing only what changed once the macros are gone
+        assertTrue( assembler.assemble( SOURCE ).isSuccess() );
+        final Result incremental = assembler.assemble( SOURCE.replace( "ldx #$10" , "ldx #$20" ) );
+        assertTrue( incremental.isSuccess() );
+        assertEquals( 1 , incremental.linesParsed );
+    }
+
+    public void testBlockDirectivesInCommentsAndStringsAreIgnored()
+    {
+        final String source = SOURCE.replace( "rts\ndata:" , "rts ; no .macro here\ndata:" ).replace( ".byte 1,2,3" , ".byte \".rept\"" );
+        assertTrue( assembler.assemble( source ).isSuccess() );
+
+        final Result result = assembler.assemble( source.replace( "ldx #$10" , "ldx #$20" ) );
+        assertTrue( result.isSuccess() );
+        assertEquals( 1 , result.linesParsed );
+    }
+
+    public void testLabelledRepeatBlockIsParsedAsAWhole()
+    {
+        assertTrue( assembler.assemble( SOURCE ).isSuccess() );
+
+        final Result result = assembler.assemble( SOURCE.replace( "data: .byte 1,2,3" , "data: .rept 2\n nop\n.endr" ) );
+        assertTrue( result.isSuccess() );
+        assertEquals( 14 , result.linesParsed );
+    }
+}
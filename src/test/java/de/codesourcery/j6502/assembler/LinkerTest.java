@@ -0,0 +1,140 @@
+package de.codesourcery.j6502.assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import de.codesourcery.j6502.assembler.Linker.Result;
+
+public class LinkerTest extends TestCase
+{
+    private static final int LOAD_ADDRESS = 0x1000;
+
+    private final Linker linker = new Linker( LOAD_ADDRESS );
+
+    private static CompilationUnit unit(String name,String source) {
+        return new CompilationUnit( name , source );
+    }
+
+    public void testRelocatableUnitsArePlacedInOrder()
+    {
+        final CompilationUnit main = unit( "main.asm" , "start: JSR sub\n RTS\n" );
+        final CompilationUnit sub = unit( "sub.asm" , "sub: LDA #$01\n RTS\n" );
+
+        final Result result = linker.link( Arrays.asList( main , sub ) );
+
+        assertEquals( LOAD_ADDRESS , result.loadAddress );
+        AssemblerTest.assertArrayEquals( result.binary , 0x20 , 0x04 , 0x10 , 0x60 , 0xa9 , 0x01 , 0x60 );
+        assertEquals( 2 , result.segments.size() );
+        assertSame( sub , result.getSegment( 0x1004 ).get().unit );
+    }
+
+    public void testReferenceToLabelOfLaterUnitWithLocalLabels()
+    {
+        final CompilationUnit main = unit( "main.asm" , "start: LDX #$02\n.loop JSR sub\n DEX\n BNE loop\n RTS\n" );
+        final CompilationUnit sub = unit( "sub.asm" , "sub: LDY #$03\n.loop DEY\n BNE loop\n RTS\n" );
+
+        final Result result = linker.link( Arrays.asList( main , sub ) );
+
+        AssemblerTest.assertArrayEquals( result.binary ,
+                0xa2 , 0x02 , 0x20 , 0x09 , 0x10 , 0xca , 0xd0 , 0xfa , 0x60 ,
+                0xa0 , 0x03 , 0x88 , 0xd0 , 0xfd , 0x60 );
+    }
+
+    public void testImportedZeroPageEquShrinksCode()
+    {
+        final CompilationUnit main = unit( "main.asm" , "  LDA ptr\n  JMP end\nend: RTS\n" );
+        final CompilationUnit defs = unit( "defs.asm" , "ptr: .equ $fb\n" );
+
+        final Result result = linker.link( Arrays.asList( main , defs ) );
+
+        AssemblerTest.assertArrayEquals( result.binary , 0xa5 , 0xfb , 0x4c , 0x05 , 0x10 , 0x60 );
+    }
+
+    public void testAbsoluteUnitKeepsItsOrigin()
+    {
+        final CompilationUnit main = unit( "main.asm" , "  JMP irq\n" );
+        final CompilationUnit irq = unit( "irq.asm" , "*= $1010\nirq: RTI\n" );
+
+        final Result result = linker.link( Arrays.asList( main , irq ) );
+
+        assertEquals( LOAD_ADDRESS , result.loadAddress );
+        assertEquals( 0x11 , result.binary.length );
+        assertEquals( (byte) 0x4c , result.binary[0] );
+        assertEquals( (byte) 0x10 , result.binary[1] );
+        assertEquals( (byte) 0x10 , result.binary[2] );
+        assertEquals( (byte) 0x40 , result.binary[0x10] );
+
+        final byte[] prg = result.toPRG();
+        assertEquals( 0x13 , prg.length );
+        assertEquals( 0x00 , prg[0] );
+        assertEquals( 0x10 , prg[1] );
+    }
+
+    public void testOverlappingSegmentsFail()
+    {
+        final CompilationUnit main = unit( "main.asm" , "  NOP\n  NOP\n" );
+        final CompilationUnit other = unit( "other.asm" , "*= $1001\n  RTS\n" );
+        try {
+            linker.link( Arrays.asList( main , other ) );
+            fail("Should've failed");
+        } catch(RuntimeException e) {
+            assertTrue( e.getMessage() , e.getMessage().contains("overlaps") );
+        }
+    }
+
+    public void testUnresolvedSymbolFails()
+    {
+        try {
+            linker.link( Arrays.asList( unit( "main.asm" , "  JMP nowhere\n" ) ) );
+            fail("Should've failed");
+        } catch(RuntimeException e) {
+            assertTrue( e.getMessage() , e.getMessage().contains("nowhere") );
+        }
+    }
+
+    public void testSymbolDefinedTwiceFailsOnlyIfUsed()
+    {
+        final CompilationUnit a = unit( "a.asm" , "loop: RTS\n" );
+        final CompilationUnit b = unit( "b.asm" , "loop: RTS\n" );
+        linker.link( Arrays.asList( a , b ) );
+
+        final CompilationUnit c = unit( "c.asm" , "  JMP loop\n" );
+        try {
+            linker.link( Arrays.asList( a , b , c ) );
+            fail("Should've failed");
+        } catch(RuntimeException e) {
+            assertTrue( e.getMessage() , e.getMessage().contains("more than one unit") );
+        }
+    }
+
+    public void testSyntaxErrorNamesUnit()
+    {
+        try {
+            linker.link( Arrays.asList( unit( "ok.asm" , "  RTS\n" ) , unit( "broken.asm" , "  JMP (\n" ) ) );
+            fail("Should've failed");
+        } catch(RuntimeException e) {
+            assertTrue( e.getMessage() , e.getMessage().contains("broken.asm") );
+        }
+    }
+
+    public void testWritePRGStoresSourceMapAlongside() throws IOException
+    {
+        final Result result = linker.link( Arrays.asList( unit( "main.asm" , "  NOP\n  RTS\n" ) ) );
+        final File prg = File.createTempFile( "linked" , ".prg" );
+        final File map = SourceMap.getFileFor( prg );
+        try
+        {
+            result.writePRG( prg );
+            AssemblerTest.assertArrayEquals( Files.readAllBytes( prg.toPath() ) , 0x00 , 0x10 , 0xea , 0x60 );
+            assertEquals( 2 , SourceMap.load( map ).getLineNumber( 0x1001 ) );
+        }
+        finally
+        {
+            prg.delete();
+            map.delete();
+        }
+    }
+}
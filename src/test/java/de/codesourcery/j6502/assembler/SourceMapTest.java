@@ -0,0 +1,127 @@
+package de.codesourcery.j6502.assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import junit.framework.TestCase;
+import de.codesourcery.j6502.assembler.parser.Lexer;
+import de.codesourcery.j6502.assembler.parser.Parser;
+import de.codesourcery.j6502.emulator.AddressRange;
+import de.codesourcery.j6502.utils.SourceHelper;
+
+public class SourceMapTest extends TestCase
+{
+    public void testLookupInAscendingRanges()
+    {
+        final SourceMap map = new SourceMap();
+        map.addAddressRange( 0x1000 , 2 , 1 );
+        map.addAddressRange( 0x1002 , 3 , 2 );
+        map.addAddressRange( 0x1010 , 1 , 5 );
+
+        assertEquals( -1 , map.getLineNumber( 0x0fff ) );
+        assertEquals( 1 , map.getLineNumber( 0x1000 ) );
+        assertEquals( 1 , map.getLineNumber( 0x1001 ) );
+        assertEquals( 2 , map.getLineNumber( 0x1004 ) );
+        assertEquals( -1 , map.getLineNumber( 0x1005 ) );
+        assertEquals( 5 , map.getLineNumber( 0x1010 ) );
+        assertEquals( -1 , map.getLineNumber( 0x1011 ) );
+        assertEquals( Optional.of( 2 ) , map.getLineNumberForAddress( 0x1003 ) );
+        assertEquals( Optional.empty() , map.getLineNumberForAddress( 0x2000 ) );
+    }
+
+    public void testLookupInRangesAddedOutOfOrder()
+    {
+        final SourceMap map = new SourceMap();
+        map.addAddressRange( 0xfff0 , 16 , 3 );
+        map.addAddressRange( 0x0801 , 3 , 1 );
+        map.addAddressRange( 0x0000 , 1 , 2 );
+
+        assertEquals( 2 , map.getLineNumber( 0 ) );
+        assertEquals( 1 , map.getLineNumber( 0x0803 ) );
+        assertEquals( 3 , map.getLineNumber( 0xffff ) );
+
+        map.addAddressRange( 0x0900 , 1 , 4 );
+        assertEquals( 4 , map.getLineNumber( 0x0900 ) );
+    }
+
+    public void testOverlappingRangesPreferLaterStart()
+    {
+        final SourceMap map = new SourceMap();
+        map.addAddressRange( 0x1000 , 16 , 1 );
+        map.addAddressRange( 0x1004 , 2 , 2 );
+
+        assertEquals( 1 , map.getLineNumber( 0x1003 ) );
+        assertEquals( 2 , map.getLineNumber( 0x1005 ) );
+        assertEquals( 1 , map.getLineNumber( 0x1006 ) );
+    }
+
+    public void testReverseLookup()
+    {
+        final SourceMap map = new SourceMap();
+        map.addAddressRange( 0x1000 , 2 , 7 );
+        map.addAddressRange( 0x1002 , 3 , 8 );
+        map.addAddressRange( 0x1005 , 1 , 7 );
+
+        assertEquals( Arrays.asList( new AddressRange( 0x1000 , 2 ) , new AddressRange( 0x1005 , 1 ) ) , map.getAddressRanges( 7 ) );
+        assertEquals( Arrays.asList( new AddressRange( 0x1002 , 3 ) ) , map.getAddressRanges( 8 ) );
+        assertTrue( map.getAddressRanges( 6 ).isEmpty() );
+        assertTrue( map.getAddressRanges( 9 ).isEmpty() );
+    }
+
+    public void testAssembledSource()
+    {
+        final String source = "*= $1000\n"
+                + "start: LDX #$10\n"
+                + "       JSR sub\n"
+                + "       RTS\n"
+                + "sub:   NOP\n"
+                + "       RTS\n";
+        final Assembler assembler = new Assembler();
+        assembler.assemble( new Parser( new Lexer( source ) ).parse() , new SourceHelper( source ) );
+        final SourceMap map = assembler.getSourceMap();
+
+        assertEquals( 2 , map.getLineNumber( 0x1001 ) );
+        assertEquals( 3 , map.getLineNumber( 0x1002 ) );
+        assertEquals( 5 , map.getLineNumber( 0x1006 ) );
+        final List<AddressRange> ranges = map.getAddressRanges( 6 );
+        assertEquals( 1 , ranges.size() );
+        assertEquals( 0x1007 , ranges.get(0).getStartAddress() );
+    }
+
+    public void testSaveAndLoad() throws IOException
+    {
+        final SourceMap map = new SourceMap();
+        map.addAddressRange( 0x1000 , 2 , 1 );
+        map.addAddressRange( 0x2000 , 0x100 , 100000 );
+
+        final File file = File.createTempFile( "sourcemap" , ".map" );
+        try
+        {
+            map.save( file );
+            final SourceMap loaded = SourceMap.load( file );
+            assertEquals( 2 , loaded.size() );
+            assertEquals( 1 , loaded.getLineNumber( 0x1001 ) );
+            assertEquals( 100000 , loaded.getLineNumber( 0x20ff ) );
+
+            Files.write( file.toPath() , new byte[] { 1 , 2 , 3 , 4 } );
+            try {
+                SourceMap.load( file );
+                fail("Should've failed");
+            } catch(IOException e) {
+                // ok
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testFileNextToPRG()
+    {
+        assertEquals( new File( "/tmp/game.map" ) , SourceMap.getFileFor( new File( "/tmp/game.prg" ) ) );
+        assertEquals( new File( "/tmp/game.map" ) , SourceMap.getFileFor( new File( "/tmp/game" ) ) );
+    }
+}
@@ -0,0 +1,95 @@
+package de.codesourcery.j6502.assembler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import de.codesourcery.j6502.assembler.exceptions.DuplicateSymbolException;
+import de.codesourcery.j6502.assembler.exceptions.UnknownSymbolException;
+import de.codesourcery.j6502.assembler.parser.Identifier;
+
+public class SymbolTableTest extends TestCase
+{
+    public void testIdentifiersAreInterned()
+    {
+        final Identifier id = Identifier.of( "start" );
+        assertSame( Identifier.of( "start" ) , Identifier.of( "start" ) );
+        assertEquals( Identifier.of( "start" ) , id );
+        assertEquals( Identifier.of( "start" ).id , id.id );
+        assertFalse( id.equals( Identifier.of( "start2" ) ) );
+        try {
+            Identifier.of( "1abc" );
+            fail("Should've failed");
+        } catch(IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    public void testIdsOfUnreferencedIdentifiersAreReused() throws InterruptedException
+    {
+        final int firstId = Identifier.of( "unreferenced0" ).id;
+        for ( int i = 1 ; i < 1000 ; i++ ) {
+            Identifier.of( "unreferenced"+i );
+        }
+        for ( int attempt = 0 ; attempt < 100 ; attempt++ )
+        {
+            System.gc();
+            Thread.sleep( 10 );
+            if ( Identifier.of( "reused"+attempt ).id < firstId + 1000 ) {
+                return;
+            }
+        }
+        fail("Ids of unreferenced identifiers were never reused");
+    }
+
+    public void testDefineAndLookup()
+    {
+        final SymbolTable table = new SymbolTable();
+        final Identifier main = Identifier.of( "main" );
+        final Identifier loop = Identifier.of( "loop" );
+        table.defineSymbol( new Label( main ) );
+        table.defineSymbol( new Label( loop , main ) );
+
+        assertTrue( table.isDefined( main , null ) );
+        assertTrue( table.isDefined( loop , main ) );
+        assertFalse( table.isDefined( loop , null ) );
+        assertSame( loop , table.getSymbol( loop , main ).getIdentifier() );
+        try {
+            table.getSymbol( loop , null );
+            fail("Should've failed");
+        } catch(UnknownSymbolException e) {
+            // ok
+        }
+        try {
+            table.defineSymbol( new Label( loop , main ) );
+            fail("Should've failed");
+        } catch(DuplicateSymbolException e) {
+            // ok
+        }
+    }
+
+    public void testViewsSkipDeclaredSymbols()
+    {
+        final SymbolTable table = new SymbolTable();
+        final Identifier main = Identifier.of( "main" );
+        table.declareSymbol( Identifier.of( "later" ) , null );
+        table.declareSymbol( Identifier.of( "inner" ) , main );
+
+        final Iterable<ISymbol<?>> globals = table.getGlobalSymbols();
+        assertFalse( globals.iterator().hasNext() );
+        assertFalse( table.getLocalSymbols( main ).iterator().hasNext() );
+
+        table.defineSymbol( new Label( main ) );
+        table.defineSymbol( new Label( Identifier.of( "inner" ) , main ) );
+        // views are live
+        final List<ISymbol<?>> symbols = new ArrayList<>();
+        globals.forEach( symbols::add );
+        table.getLocalSymbols( main ).forEach( symbols::add );
+        assertEquals( 2 , symbols.size() );
+        assertSame( globals , table.getGlobalSymbols() );
+
+        // declaring a defined symbol again must not drop it
+        table.declareSymbol( main , null );
+        assertTrue( table.isDefined( main , null ) );
+    }
+}
@@ -0,0 +1,57 @@
+package de.codesourcery.j6502.disassembler;
+
+import java.nio.CharBuffer;
+import java.util.List;
+
+import junit.framework.TestCase;
+import de.codesourcery.j6502.disassembler.Disassembler.Line;
+import de.codesourcery.j6502.disassembler.OpcodeTable.Mode;
+
+public class FastDisassemblerTest extends TestCase
+{
+    public void testSameOutputAsDisassembler()
+    {
+        final Disassembler linear = new Disassembler().setWriteAddresses( false );
+        final FastDisassembler fast = new FastDisassembler();
+        final StringBuilder buffer = new StringBuilder();
+        final int[][] operands = { { 0x00 , 0x00 } , { 0x12 , 0x34 } , { 0xff , 0xff } , { 0x80 , 0x7f } };
+        for ( int pc : new int[] { 0x0000 , 0x1000 , 0xff00 } )
+        {
+            for ( int[] operand : operands )
+            {
+                for ( int opcode = 0 ; opcode < 256 ; opcode++ )
+                {
+                    final byte[] data = { (byte) opcode , (byte) operand[0] , (byte) operand[1] };
+                    final List<Line> lines = linear.disassemble( pc , data , 0 , data.length );
+
+                    buffer.setLength( 0 );
+                    final int length = fast.disassemble( pc , opcode , operand[0] , operand[1] , buffer );
+                    assertEquals( "Opcode "+opcode , lines.get(0).toString() , buffer.toString() );
+                    final int expectedLength = lines.size() > 1 ? ( lines.get(1).address - pc ) & 0xffff : 3;
+                    assertEquals( "Opcode "+opcode , expectedLength , length );
+                }
+            }
+        }
+    }
+
+    public void testCharBuffer()
+    {
+        final CharBuffer buffer = CharBuffer.allocate( 64 );
+        final FastDisassembler fast = new FastDisassembler();
+        assertEquals( 2 , fast.disassemble( 0x1000 , 0xb1 , 0xfb , 0 , buffer ) ); // LDA ($fb) , Y
+        assertEquals( 2 , fast.disassemble( 0x1000 , 0xd0 , 0xfe , 0 , buffer ) ); // BNE $1000
+        buffer.flip();
+        assertEquals( "LDA    ($fb) , YBNE    $1000" , buffer.toString() );
+    }
+
+    public void testDescriptorTable()
+    {
+        final OpcodeTable.Descriptor jmp = OpcodeTable.get( 0x6c );
+        assertEquals( "JMP" , jmp.mnemonic );
+        assertEquals( Mode.INDIRECT , jmp.mode );
+        assertEquals( 3 , jmp.length );
+        assertEquals( 5 , jmp.cycles );
+        assertEquals( Mode.RELATIVE , OpcodeTable.get( 0x10 ).mode );
+        assertEquals( 1 , OpcodeTable.get( 0xea ).length );
+    }
+}
@@ -0,0 +1,107 @@
+package de.codesourcery.j6502.disassembler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import de.codesourcery.j6502.disassembler.Disassembler.Line;
+import de.codesourcery.j6502.emulator.AddressRange;
+import de.codesourcery.j6502.emulator.CPU;
+import de.codesourcery.j6502.emulator.CPUImpl;
+import de.codesourcery.j6502.emulator.IMemoryRegion.MemoryType;
+import de.codesourcery.j6502.emulator.Memory;
+
+public class RecursiveDisassemblerTest extends TestCase
+{
+    private Memory memory;
+    private RecursiveDisassembler disassembler;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        memory = new Memory("test", MemoryType.RAM , AddressRange.range( 0 , 65535 ) );
+        disassembler = new RecursiveDisassembler( memory );
+    }
+
+    private void write(int address,int... data)
+    {
+        for ( int i = 0 ; i < data.length ; i++ ) {
+            memory.writeByte( address + i , (byte) data[i] );
+        }
+    }
+
+    private List<String> lines(int start,int len)
+    {
+        final List<String> result = new ArrayList<>();
+        disassembler.getLines( start , len , line -> result.add( line.toString() ) );
+        return result;
+    }
+
+    public void testInstructionLengthMatchesLinearDisassembler()
+    {
+        final CPUImpl cpu = new CPUImpl( new CPU( memory ) , memory );
+        final Disassembler linear = new Disassembler();
+        for ( int opcode = 0 ; opcode < 256 ; opcode++ )
+        {
+            final byte[] data = { (byte) opcode , 0x12 , 0x34 , (byte) 0xea , (byte) 0xea , (byte) 0xea };
+            final List<Line> decoded = linear.disassemble( 0 , data , 0 , data.length );
+            assertEquals( "Opcode "+opcode , decoded.get(1).address , cpu.getInstructionLength( opcode ) );
+        }
+    }
+
+    public void testSeparatesCodeFromData()
+    {
+        write( 0x1000 , 0x4c , 0x06 , 0x10 ); // JMP $1006
+        write( 0x1003 , 0x01 , 0x02 , 0x03 ); // data
+        write( 0x1006 , 0xa9 , 0x00 );        // LDA #$00
+        write( 0x1008 , 0xf0 , 0x01 );        // BEQ $100b
+        write( 0x100a , 0x60 );               // RTS
+        write( 0x100b , 0x20 , 0x20 , 0x10 ); // JSR $1020
+        write( 0x100e , 0x60 );               // RTS
+        write( 0x1020 , 0xe8 , 0x60 );        // INX , RTS
+
+        disassembler.addEntryPoint( 0x1000 );
+
+        assertTrue( disassembler.isInstruction( 0x1000 ) );
+        assertTrue( disassembler.isCode( 0x1002 ) );
+        assertFalse( disassembler.isCode( 0x1003 ) );
+        assertTrue( disassembler.isInstruction( 0x100b ) );
+        assertTrue( disassembler.isInstruction( 0x1021 ) );
+        assertFalse( disassembler.isCode( 0x100f ) );
+
+        final List<String> lines = lines( 0x1000 , 0x0f );
+        assertEquals( "1000:  JMP    $1006" , lines.get(0) );
+        assertEquals( "1003:  .byte  $01,$02,$03" , lines.get(1) );
+        assertEquals( "1006:  LDA    #$00" , lines.get(2) );
+        assertEquals( "100b:  JSR    $1020" , lines.get(5) );
+        assertEquals( 7 , lines.size() );
+    }
+
+    public void testInstructionCrossingPageBoundary()
+    {
+        write( 0x10fe , 0xad , 0x00 , 0x20 ); // LDA $2000
+        write( 0x1101 , 0x60 );               // RTS
+        disassembler.addEntryPoint( 0x10fe );
+
+        final List<Line> next = disassembler.getLines( 0x11 );
+        assertEquals( 0x1101 , next.get(0).address );
+        assertEquals( "1101:  RTS" , next.get(0).toString() );
+    }
+
+    public void testPagesAreCachedUntilModified()
+    {
+        write( 0x1000 , 0xea , 0x60 ); // NOP , RTS
+        disassembler.addEntryPoint( 0x1000 );
+
+        final List<Line> lines = disassembler.getLines( 0x10 );
+        assertSame( lines , disassembler.getLines( 0x10 ) );
+        assertSame( disassembler.getLines( 0x20 ) , disassembler.getLines( 0x20 ) );
+
+        write( 0x1001 , 0xe8 ); // INX , falls through into what is now data
+        write( 0x1002 , 0x60 );
+        final List<Line> modified = disassembler.getLines( 0x10 );
+        assertNotSame( lines , modified );
+        assertEquals( "1001:  INX" , modified.get(1).toString() );
+        assertEquals( "1002:  RTS" , modified.get(2).toString() );
+    }
+}
@@ -4,7 +4,9 @@ import static org.junit.Assert.assertArrayEquals;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.commons.io.HexDump;
 
@@ -39,6 +41,21 @@ public class EmulationStateTest extends TestCase
         assertArrayEquals( test, test2 );
     }    
     
+    public void testStoreLong() throws IOException 
+    {
+        final long[] test = { 0 , 1 , -1 , 0xffffffffL , 0x80000000L , Long.MAX_VALUE , Long.MIN_VALUE };
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for ( long value : test ) {
+            writeLong( value , out );
+        }
+        
+        final ByteArrayInputStream byteIn = new ByteArrayInputStream( out.toByteArray() );
+        for ( long value : test ) {
+            assertEquals( value , readLong( byteIn ) );
+        }
+    }
+    
     public void testStoreWithOneEntry() throws IOException 
     {
         final EmulationState state = EmulationState.newInstance();
@@ -48,6 +65,73 @@ public class EmulationStateTest extends TestCase
         roundtrip( state );
     }    
     
+    public void testCompressedRoundtrip() throws IOException 
+    {
+        final EmulationState state = createState();
+        final byte[] data = state.toByteArray();
+        assertTrue( "Expected compression, got "+data.length+" bytes" , data.length < 1024 );
+        
+        final EmulationState read = EmulationState.read( new ByteArrayInputStream( data ) );
+        assertEquals( state , read );
+        assertArrayEquals( state.getEntry( EntryType.RAM ).getPayload() , read.getEntry( EntryType.RAM ).getPayload() );
+        assertArrayEquals( state.getEntry( EntryType.C64_CPU ).getPayload() , read.getEntry( EntryType.C64_CPU ).getPayload() );
+    }
+    
+    public void testReadLegacyFormat() throws IOException 
+    {
+        final EmulationState state = createState();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        state.writeV1( out );
+        
+        final EmulationState read = EmulationState.read( new ByteArrayInputStream( out.toByteArray() ) );
+        assertEquals( state , read );
+        assertArrayEquals( state.getEntry( EntryType.RAM ).getPayload() , read.getEntry( EntryType.RAM ).getPayload() );
+    }
+    
+    public void testReadFromFile() throws IOException 
+    {
+        final EmulationState state = createState();
+        final File file = File.createTempFile( "state" , ".bin" );
+        try 
+        {
+            state.write( file.toPath() );
+            assertEquals( state , EmulationState.read( file.toPath() ) );
+            
+            final EmulationStateEntry cpu = EmulationState.readEntry( file.toPath() , EntryType.C64_CPU );
+            assertArrayEquals( state.getEntry( EntryType.C64_CPU ).getPayload() , cpu.getPayload() );
+        } 
+        finally {
+            file.delete();
+        }
+    }
+    
+    public void testDetectCorruption() throws IOException 
+    {
+        final byte[] data = createState().toByteArray();
+        data[ data.length - 1 ] ^= 0xff;
+        try {
+            EmulationState.read( new ByteArrayInputStream( data ) );
+            fail("Should've failed");
+        } catch(IOException e) {
+            // ok
+        }
+    }
+    
+    private static EmulationState createState() 
+    {
+        final EmulationState state = EmulationState.newInstance();
+        final EmulationStateEntry ram = new EmulationStateEntry( EntryType.RAM , (byte) 1 );
+        final byte[] payload = new byte[65536];
+        Arrays.fill( payload , 0x400 , 0x800 , (byte) 0x20 );
+        ram.setPayload( payload );
+        state.add( ram );
+        
+        final EmulationStateEntry cpu = new EmulationStateEntry( EntryType.C64_CPU , (byte) 1 );
+        cpu.setPayload( new byte[] { 1 , 2 , 3 } );
+        state.add( cpu );
+        return state;
+    }
+    
     private void roundtrip(EmulationState state) throws IOException {
         
         ByteArrayOutputStream out = new ByteArrayOutputStream();
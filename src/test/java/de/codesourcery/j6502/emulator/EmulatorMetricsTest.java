@@ -0,0 +1,68 @@
+package de.codesourcery.j6502.emulator;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import de.codesourcery.j6502.emulator.EmulatorMetrics.Chip;
+import de.codesourcery.j6502.emulator.EmulatorMetrics.Snapshot;
+import junit.framework.TestCase;
+
+public class EmulatorMetricsTest extends TestCase
+{
+    private static final int CYCLES = 500_000;
+
+    public void testSnapshot()
+    {
+        final Emulator emulator = new Emulator();
+        emulator.reset();
+
+        final EmulatorMetrics metrics = new EmulatorMetrics();
+        assertEquals( 0 , metrics.getSnapshot().emulatedCycles );
+        emulator.setMetrics( metrics );
+
+        final long start = System.nanoTime();
+        for ( int i = 0 ; i < CYCLES ; i++ ) {
+            emulator.doOneCycle( null );
+        }
+        metrics.commandProcessed( 2000 );
+        metrics.commandProcessed( 4000 );
+        metrics.update( CYCLES , System.nanoTime() - start , emulator.getVIC() );
+        emulator.setMetrics( null );
+
+        final Snapshot snapshot = metrics.getSnapshot();
+        assertEquals( CYCLES , snapshot.emulatedCycles );
+        assertTrue( snapshot.emulatedMHz > 0 );
+        assertEquals( 1000d / snapshot.hostNanosPerCycle , snapshot.emulatedMHz , 0.001 );
+
+        double sum = 0;
+        for ( Chip chip : Chip.values() ) {
+            sum += snapshot.getTimeShare( chip );
+        }
+        assertEquals( 1.0 , sum , 0.0001 );
+        assertTrue( snapshot.getTimeShare( Chip.CPU ) > 0 );
+        assertTrue( snapshot.getTimeShare( Chip.VIC ) > 0 );
+
+        // one PAL frame is 312*63 cycles , nothing is displayed without a UI
+        assertEquals( CYCLES / ( 312*63 ) , snapshot.framesRendered , 1 );
+        assertEquals( snapshot.framesRendered , snapshot.framesSkipped );
+
+        assertEquals( 3.0 , snapshot.averageCommandLatencyMicros , 0.0001 );
+        assertEquals( 4.0 , snapshot.maxCommandLatencyMicros , 0.0001 );
+    }
+
+    public void testJMX() throws Exception
+    {
+        final EmulatorMetrics metrics = new EmulatorMetrics();
+        metrics.register();
+        try
+        {
+            final Object value = ManagementFactory.getPlatformMBeanServer().getAttribute( new ObjectName( EmulatorMetrics.OBJECT_NAME ) , "EmulatedMHz" );
+            assertEquals( 0.0 , value );
+        }
+        finally {
+            metrics.unregister();
+        }
+        assertFalse( ManagementFactory.getPlatformMBeanServer().isRegistered( new ObjectName( EmulatorMetrics.OBJECT_NAME ) ) );
+    }
+}
@@ -0,0 +1,61 @@
+package de.codesourcery.j6502.emulator;
+
+import java.util.Random;
+
+import org.junit.Assert;
+
+import junit.framework.TestCase;
+
+public class GCRCodecTest extends TestCase 
+{
+    public void testEncodeSingleByte() 
+    {
+        // $0 => 01010 , $8 => 01001
+        assertEquals( 0b01010_01001 , GCRCodec.encode( 0x08 ) );
+        assertEquals( 0x08 , GCRCodec.decode( 0b01010_01001 ) );
+    }
+    
+    public void testDecodeInvalidNibbles() 
+    {
+        final int result = GCRCodec.decode( 0b00000_01001 );
+        assertEquals( GCRCodec.INVALID_HI_NIBBLE , result & GCRCodec.INVALID_GCR );
+        assertEquals( 0x08 , result & 0xff );
+    }
+    
+    public void testRoundTrip() 
+    {
+        final Random rnd = new Random(0xdeadbeef);
+        for ( int count = 1 ; count < 20 ; count++ ) 
+        {
+            final byte[] data = new byte[count];
+            rnd.nextBytes( data );
+            
+            int expectedXor = 0;
+            for ( byte b : data ) {
+                expectedXor ^= b & 0xff;
+            }
+            
+            final byte[] encoded = new byte[ GCRCodec.getEncodedSize( count ) ];
+            assertEquals( expectedXor , GCRCodec.encode( data , 0 , encoded , 0 , count ) );
+            
+            final byte[] decoded = new byte[count];
+            assertEquals( expectedXor , GCRCodec.decode( encoded , 0 , decoded , 0 , count ) );
+            Assert.assertArrayEquals( data , decoded );
+        }
+    }
+    
+    public void testFindInvalidNibbles() 
+    {
+        final byte[] data = new byte[] { 1 , 2 , 3 , 4 , 5 , 6 };
+        final byte[] encoded = new byte[ GCRCodec.getEncodedSize( data.length ) ];
+        GCRCodec.encode( data , 0 , encoded , 0 , data.length );
+        
+        // clear bits 40..47 => both quintuples of byte #4 become invalid
+        encoded[5] = 0;
+        
+        final byte[] decoded = new byte[ data.length ];
+        final int result = GCRCodec.decode( encoded , 0 , decoded , 0 , data.length );
+        assertTrue( (result & GCRCodec.INVALID_GCR) != 0 );
+        Assert.assertArrayEquals( new int[] { 8 , 9 } , GCRCodec.getInvalidNibbles( encoded , 0 , data.length ) );
+    }
+}
@@ -0,0 +1,90 @@
+package de.codesourcery.j6502.emulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import de.codesourcery.j6502.emulator.IOArea.JoyDirection;
+import junit.framework.TestCase;
+
+public class InputLogTest extends TestCase
+{
+    public void testReplayIsDeterministic() throws Exception
+    {
+        final Emulator emulator = new Emulator();
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final InputLog.Recorder recorder = new InputLog.Recorder( log , emulator );
+        emulator.setInputRecorder( recorder );
+        emulator.reset();
+
+        // let C64 and floppy finish booting
+        run( emulator , 2_000_000 );
+        emulator.getKeyboardBuffer().fakeKeyboardInput("print 42\n");
+        run( emulator , 1_000_000 );
+        emulator.getMemory().ioArea.setJoystick2( JoyDirection.NE , true );
+        run( emulator , 12345 );
+        emulator.getMemory().ioArea.setJoystick2( JoyDirection.CENTER , false );
+        run( emulator , 100_000 );
+
+        emulator.setInputRecorder( null );
+        recorder.close();
+        assertEquals( 3_112_345 , recorder.getCycle() );
+        assertTrue( "Typed text not on screen" , screenContains( emulator , new int[] { 0x20 , 0x34 , 0x32 } ) ); // ' 42'
+        assertTrue( "Log too large: "+log.size()+" bytes" , log.size() < 1024 );
+
+        final HeadlessRunner runner = new HeadlessRunner();
+        final long cycles = runner.replay( new ByteArrayInputStream( log.toByteArray() ) , 0 );
+        assertEquals( recorder.getCycle() , cycles );
+        assertEquals( hash( emulator ) , hash( runner.getEmulator() ) );
+    }
+
+    public void testRejectsGarbage() throws Exception
+    {
+        try {
+            new InputLog.Player( new ByteArrayInputStream( new byte[] { 1 , 2 , 3 , 4 , 5 } ) , new Emulator() );
+            fail("Should've failed");
+        } catch(java.io.IOException e) {
+            // ok
+        }
+    }
+
+    private static void run(Emulator emulator,int cycles)
+    {
+        for ( int i = 0 ; i < cycles ; i++ ) {
+            emulator.doOneCycle( null );
+        }
+    }
+
+    private static boolean screenContains(Emulator emulator,int[] screenCodes)
+    {
+        final MemorySubsystem memory = emulator.getMemory();
+        outer:
+        for ( int adr = 0x400 ; adr < 0x800 - screenCodes.length ; adr++ )
+        {
+            for ( int i = 0 ; i < screenCodes.length ; i++ )
+            {
+                if ( memory.readByteNoSideEffects( adr + i ) != screenCodes[i] ) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static long hash(Emulator emulator)
+    {
+        final MemorySubsystem memory = emulator.getMemory();
+        final CPU cpu = emulator.getCPU();
+        long result = 0;
+        for ( int i = 0 ; i < 0x10000 ; i++ ) {
+            result = result*31 + memory.readByteNoSideEffects( i );
+        }
+        result = result*31 + cpu.pc();
+        result = result*31 + cpu.getAccumulator();
+        result = result*31 + cpu.getX();
+        result = result*31 + cpu.getY();
+        result = result*31 + cpu.sp;
+        result = result*31 + cpu.cycles;
+        return result;
+    }
+}
@@ -0,0 +1,107 @@
+package de.codesourcery.j6502.emulator;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+public class InstructionTracerTest extends TestCase
+{
+    private Emulator emulator;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        emulator = new Emulator();
+        emulator.reset();
+    }
+
+    private void run(int cycles)
+    {
+        for ( int i = 0 ; i < cycles ; i++ ) {
+            emulator.doOneCycle( null );
+        }
+    }
+
+    public void testRingBufferKeepsMostRecentInstructions() throws Exception
+    {
+        final InstructionTracer tracer = InstructionTracer.inMemory( 1000 );
+        emulator.setInstructionTracer( tracer );
+        run( 100_000 );
+        emulator.setInstructionTracer( null );
+
+        assertTrue( tracer.getRecordsWritten() > 1000 );
+
+        final String[] lines = decode( tracer , new TraceDecoder() );
+        assertEquals( 1000 , lines.length );
+
+        // cycles must be ascending
+        long previousCycle = -1;
+        for ( String line : lines )
+        {
+            final long cycle = Long.parseLong( line.trim().split("\\s+")[0] );
+            assertTrue( line , cycle > previousCycle );
+            previousCycle = cycle;
+        }
+        assertTrue( previousCycle < 100_000 );
+
+        final String last = lines[ lines.length - 1 ];
+        final int pc = Integer.parseInt( last.trim().split("\\s+")[1].substring(1) , 16 );
+        assertTrue( "Last traced instruction "+last+" should be close to PC "+emulator.getCPU().pc() , Math.abs( pc - emulator.getCPU().pc() ) < 0x100 );
+    }
+
+    public void testFilterByPC() throws Exception
+    {
+        final InstructionTracer tracer = InstructionTracer.inMemory( 10_000 );
+        emulator.setInstructionTracer( tracer );
+        run( 100_000 );
+        emulator.setInstructionTracer( null );
+
+        final TraceDecoder decoder = new TraceDecoder();
+        decoder.setFromPC( 0xfd6e );
+        decoder.setToPC( 0xfd88 );
+        final String[] lines = decode( tracer , decoder );
+        assertTrue( lines.length > 0 );
+        for ( String line : lines )
+        {
+            final int pc = Integer.parseInt( line.trim().split("\\s+")[1].substring(1) , 16 );
+            assertTrue( line , pc >= 0xfd6e && pc <= 0xfd88 );
+        }
+
+        decoder.setFromPC( 0 );
+        decoder.setToPC( 0xffff );
+        decoder.setLast( 10 );
+        assertEquals( 10 , decode( tracer , decoder ).length );
+    }
+
+    public void testMappedFile() throws Exception
+    {
+        final File file = File.createTempFile( "trace" , ".bin" );
+        try
+        {
+            final InstructionTracer tracer = InstructionTracer.mapFile( file.toPath() , 5000 );
+            emulator.setInstructionTracer( tracer );
+            run( 2_000 );
+            emulator.setInstructionTracer( null );
+            tracer.close();
+
+            final StringWriter out = new StringWriter();
+            final long printed = new TraceDecoder().decode( file.toPath() , new PrintWriter( out ) );
+            assertEquals( tracer.getRecordsWritten() , printed );
+            assertTrue( out.toString().startsWith( "           0  $fce2" ) ); // reset vector
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    private static String[] decode(InstructionTracer tracer,TraceDecoder decoder) throws Exception
+    {
+        final StringWriter out = new StringWriter();
+        final PrintWriter writer = new PrintWriter( out );
+        decoder.decode( tracer , writer );
+        writer.flush();
+        return out.toString().isEmpty() ? new String[0] : out.toString().split("\n");
+    }
+}
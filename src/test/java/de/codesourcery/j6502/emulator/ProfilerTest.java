@@ -0,0 +1,123 @@
+package de.codesourcery.j6502.emulator;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import de.codesourcery.j6502.assembler.Assembler;
+import de.codesourcery.j6502.assembler.parser.Lexer;
+import de.codesourcery.j6502.assembler.parser.Parser;
+import de.codesourcery.j6502.assembler.parser.Scanner;
+import de.codesourcery.j6502.utils.SourceHelper;
+import junit.framework.TestCase;
+
+public class ProfilerTest extends TestCase
+{
+    private static final String SOURCE = "*= $c000\n"+
+            "start: sei\n"+
+            "loop: jsr outer\n"+
+            "jmp loop\n"+
+            "outer: jsr inner\n"+
+            "jsr inner\n"+
+            "rts\n"+
+            "inner: ldx #10\n"+
+            "delay: dex\n"+
+            "bne delay\n"+
+            "rts\n";
+
+    private Emulator emulator;
+    private Assembler assembler;
+    private Profiler profiler;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        emulator = new Emulator();
+        emulator.reset();
+
+        assembler = new Assembler();
+        final byte[] executable = assembler.assemble( new Parser( new Lexer( new Scanner( SOURCE ) ) ).parse() , new SourceHelper( SOURCE ) );
+        emulator.getMemory().bulkWrite( assembler.getOrigin() , executable , 0 , executable.length );
+        emulator.getCPU().pc( assembler.getOrigin() );
+
+        profiler = new Profiler();
+        profiler.setSymbols( assembler.getSymbolTable() , assembler.getSourceMap() );
+        emulator.setProfiler( profiler );
+    }
+
+    private void run(int cycles)
+    {
+        for ( int i = 0 ; i < cycles ; i++ ) {
+            emulator.doOneCycle( null );
+        }
+    }
+
+    public void testCountsCallsAndCycles()
+    {
+        run( 100_000 );
+        emulator.setProfiler( null );
+
+        final int outer = 0xc007;
+        final int inner = 0xc00e;
+        final int delay = 0xc010;
+        assertEquals( "outer" , profiler.getName( outer ) );
+        assertEquals( "inner" , profiler.getName( inner ) );
+        assertEquals( "delay" , profiler.getName( delay ) );
+        assertEquals( "delay+1" , profiler.getName( delay + 1 ) );
+
+        final long outerCalls = profiler.getCallCount( outer );
+        assertTrue( outerCalls > 100 );
+        assertTrue( Math.abs( profiler.getCallCount( inner ) - 2 * outerCalls ) <= 2 );
+        assertEquals( 10 * profiler.getCallCount( inner ) , profiler.getInstructionCount( delay ) , 10 );
+
+        // LDX #imm (2) + 9 * ( DEX (2) + BNE taken (3) ) + DEX (2) + BNE not taken (2) + RTS (6)
+        final long innerCycles = 2 + 9*5 + 4 + 6;
+        assertEquals( innerCycles * ( profiler.getCallCount( inner ) - 1 ) , profiler.getInclusiveCycles( inner ) , innerCycles );
+        // JSR (6) + inner + JSR (6) + inner + RTS (6)
+        assertEquals( ( 18 + 2 * innerCycles ) * ( outerCalls - 1 ) , profiler.getInclusiveCycles( outer ) , 18 + 2 * innerCycles );
+
+        assertTrue( profiler.getTotalCycles() <= 100_000 && profiler.getTotalCycles() > 99_000 );
+        assertEquals( profiler.getTotalCycles() , profiler.getPageCycles( 0xc0 ) );
+    }
+
+    public void testReports()
+    {
+        run( 10_000 );
+        emulator.setProfiler( null );
+
+        final StringWriter text = new StringWriter();
+        profiler.writeText( new PrintWriter( text ) , 5 );
+        assertTrue( text.toString() , text.toString().contains( "delay+1" ) );
+
+        final StringWriter csv = new StringWriter();
+        profiler.writeCSV( new PrintWriter( csv ) );
+        final String[] lines = csv.toString().split("\n");
+        assertEquals( "address,symbol,line,instructions,cycles,calls,inclusive_cycles" , lines[0].trim() );
+        assertTrue( csv.toString() , csv.toString().contains( "$c00e,inner,8," ) );
+
+        final StringWriter stacks = new StringWriter();
+        profiler.writeCollapsedStacks( new PrintWriter( stacks ) );
+        long sum = 0;
+        boolean foundInner = false;
+        for ( String line : stacks.toString().split("\n") )
+        {
+            final int idx = line.trim().lastIndexOf(' ');
+            sum += Long.parseLong( line.trim().substring( idx + 1 ) );
+            foundInner |= line.startsWith( "outer;inner " );
+        }
+        assertTrue( stacks.toString() , foundInner );
+        assertEquals( profiler.getTotalCycles() , sum );
+    }
+
+    public void testSampling()
+    {
+        emulator.setProfiler( new Profiler( 7 ) );
+        final Profiler sampled = emulator.getProfiler();
+        run( 100_000 );
+        emulator.setProfiler( null );
+
+        final long total = sampled.getTotalCycles();
+        final long sampledTotal = sampled.getPageCycles( 0xc0 );
+        assertTrue( sampledTotal+" vs. "+total , Math.abs( sampledTotal - total ) < total / 20 );
+        assertEquals( 0 , sampled.getInstructionCount( 0xc000 ) % 7 );
+    }
+}
@@ -0,0 +1,110 @@
+package de.codesourcery.j6502.emulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.codesourcery.j6502.Constants;
+import junit.framework.TestCase;
+
+public class RewindBufferTest extends TestCase 
+{
+    private static final int FRAME = Constants.REWIND_CYCLES_PER_FRAME;
+    
+    // start of KERNAL IRQ handler , reached once per frame
+    private static final int IRQ_HANDLER = 0xea31;
+
+    private Emulator emulator;
+    private RewindBuffer buffer;
+    
+    // state hash at the end of each frame
+    private final List<Long> frameHashes = new ArrayList<>();
+    
+    @Override
+    protected void setUp() throws Exception 
+    {
+        emulator = new Emulator();
+        emulator.reset();
+        // let C64 and floppy finish booting 
+        for ( int i = 0 ; i < 2_000_000 ; i++ ) {
+            emulator.doOneCycle( null );
+        }
+        buffer = new RewindBuffer( emulator , 1024*1024 , 60 , 5 );
+    }
+    
+    private void runFrames(int count) 
+    {
+        for ( int i = 0 ; i < count ; i++ ) 
+        {
+            run( FRAME );
+            frameHashes.add( hash() );
+        }
+    }
+    
+    private void run(int cycles) 
+    {
+        for ( int i = 0 ; i < cycles ; i++ ) {
+            emulator.doOneCycle( null );
+            buffer.cyclesExecuted( 1 );
+        }
+    }
+    
+    private long hash() 
+    {
+        final MemorySubsystem memory = emulator.getMemory();
+        final CPU cpu = emulator.getCPU();
+        long result = 0;
+        for ( int i = 0 ; i < 0x10000 ; i++ ) {
+            result = result*31 + memory.readByteNoSideEffects( i );
+        }
+        result = result*31 + cpu.pc();
+        result = result*31 + cpu.getAccumulator();
+        result = result*31 + cpu.getX();
+        result = result*31 + cpu.getY();
+        return result*31 + cpu.cycles;
+    }
+    
+    public void testStepBack() 
+    {
+        runFrames( 30 );
+        assertEquals( 30 , buffer.getFrameCount() );
+        
+        assertTrue( buffer.stepBack( 10 ) );
+        assertEquals( 20 , buffer.getFrameCount() );
+        assertEquals( frameHashes.get( 19 ).longValue() , hash() );
+        
+        // replaying yields the same states
+        for ( int frame = 20 ; frame < 25 ; frame++ ) 
+        {
+            run( FRAME );
+            assertEquals( frameHashes.get( frame ).longValue() , hash() );
+        }
+        
+        // stepping back from the middle of a frame returns to its start
+        run( FRAME / 2 );
+        assertTrue( buffer.stepBack( 1 ) );
+        assertEquals( frameHashes.get( 24 ).longValue() , hash() );
+    }
+    
+    public void testRunBackTo() 
+    {
+        runFrames( 10 );
+        run( FRAME / 3 );
+        final long hash = hash();
+        
+        assertTrue( buffer.runBackTo( IRQ_HANDLER , null ) );
+        assertEquals( IRQ_HANDLER , emulator.getCPU().pc() );
+        assertFalse( hash == hash() );
+        
+        assertFalse( buffer.runBackTo( 0x1234 , null ) );
+        assertEquals( IRQ_HANDLER , emulator.getCPU().pc() );
+    }
+    
+    public void testMemoryBudgetIsHonored() 
+    {
+        buffer = new RewindBuffer( emulator , 16*1024 , 60 , 5 );
+        runFrames( 20 );
+        assertTrue( buffer.getBytesUsed() <= 16*1024 );
+        assertTrue( buffer.getFrameCount() > 0 );
+        assertTrue( buffer.getFrameCount() < 20 );
+    }
+}
@@ -0,0 +1,88 @@
+package de.codesourcery.j6502.emulator;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+
+import de.codesourcery.j6502.emulator.SnapshotEngine.Snapshot;
+import junit.framework.TestCase;
+
+public class SnapshotEngineTest extends TestCase 
+{
+    private static final int CYCLES_PER_FRAME = 312*63;
+    
+    private Emulator emulator;
+    private SnapshotEngine engine;
+    
+    @Override
+    protected void setUp() throws Exception 
+    {
+        emulator = new Emulator();
+        emulator.reset();
+        // let C64 and floppy finish booting 
+        run( 2_000_000 );
+        engine = new SnapshotEngine( emulator );
+    }
+    
+    private void run(int cycles) 
+    {
+        for ( int i = 0 ; i < cycles ; i++ ) {
+            emulator.doOneCycle( null );
+        }
+    }
+    
+    private Snapshot captureFull() 
+    {
+        final Snapshot result = engine.createSnapshot();
+        engine.captureFull( result );
+        return result;
+    }
+    
+    private static void assertSameState(Snapshot expected,Snapshot actual) 
+    {
+        assertEquals( expected.getPageCount() , actual.getPageCount() );
+        Assert.assertArrayEquals( expected.getPageData() , actual.getPageData() );
+        Assert.assertArrayEquals( Arrays.copyOf( expected.getFields() , expected.getFieldsLength() ) , 
+                                  Arrays.copyOf( actual.getFields() , actual.getFieldsLength() ) );
+    }
+    
+    public void testDeltaOnlyContainsChangedPages() 
+    {
+        final Snapshot full = captureFull();
+        assertTrue( full.isFull() );
+        assertEquals( engine.getTotalPageCount() , full.getPageCount() );
+        
+        emulator.getMemory().writeByte( 0x4000 , (byte) 0x12 );
+        
+        final Snapshot delta = engine.createSnapshot();
+        engine.capture( delta );
+        assertFalse( delta.isFull() );
+        assertTrue( delta.getPageCount() > 0 );
+        assertTrue( delta.getPageCount() < full.getPageCount() );
+        
+        // RAM #0 ($0000-$0fff) comes first, followed by RAM #1 ($1000-$7fff) 
+        boolean found = false;
+        for ( int i = 0 ; i < delta.getPageCount() ; i++ ) {
+            found |= delta.getPageNumber( i ) == 0x40;
+        }
+        assertTrue( found );
+    }
+    
+    public void testRestoreIsDeterministic() 
+    {
+        final Snapshot full = captureFull();
+        run( CYCLES_PER_FRAME );
+        final Snapshot delta = engine.createSnapshot();
+        engine.capture( delta );
+        run( 10 * CYCLES_PER_FRAME );
+        final Snapshot expected = captureFull();
+        
+        engine.restore( full );
+        run( 11 * CYCLES_PER_FRAME );
+        assertSameState( expected , captureFull() );
+        
+        engine.restore( full , delta );
+        run( 10 * CYCLES_PER_FRAME );
+        assertSameState( expected , captureFull() );
+    }
+}
@@ -0,0 +1,152 @@
+package de.codesourcery.j6502.emulator.diskdrive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import de.codesourcery.j6502.emulator.D64File;
+import de.codesourcery.j6502.emulator.G64File;
+import junit.framework.TestCase;
+
+public class DiskFlusherTest extends TestCase
+{
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory( "diskflusher" ).toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory( directory );
+    }
+
+    private static byte[] resource(String name) throws Exception {
+        return IOUtils.toByteArray( DiskFlusherTest.class.getResourceAsStream( name ) );
+    }
+
+    private static G64File toG64(byte[] d64) throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        G64File.toG64( new D64File( new ByteArrayInputStream( d64 ) , "test.d64" ) , out );
+        return new G64File( out.toByteArray() , "test.d64" );
+    }
+
+    private static byte[] readTrack(File g64,float track) throws Exception {
+        return new G64File( new FileInputStream( g64 ) , g64.getAbsolutePath() ).getTrackData( track ).get().getRawBytes();
+    }
+
+    private static File journal(File target) {
+        return new File( target.getAbsolutePath()+".journal" );
+    }
+
+    private static Map<Integer,byte[]> modifyTrack18(G64File disk)
+    {
+        final TrackOverlay overlay = new TrackOverlay( disk );
+        final byte[] track = overlay.getTrackBytes( 18 ).get();
+        Arrays.fill( track , 100 , 200 , (byte) 0x42 );
+        overlay.markDirty( 18 , track );
+        return overlay.takeDirtyTracks();
+    }
+
+    public void testFlushToG64() throws Exception
+    {
+        final G64File disk = new G64File( resource( "/disks/pitfall.g64" ) , "pitfall.g64" );
+        final Map<Integer,byte[]> tracks = modifyTrack18( disk );
+
+        final File target = new File( directory , "out.g64" );
+        DiskFlusher.getInstance().flush( disk , target , tracks );
+        DiskFlusher.getInstance().awaitCompletion();
+
+        assertTrue( target.exists() );
+        assertFalse( journal( target ).exists() );
+        assertTrue( Arrays.equals( tracks.get( Integer.valueOf( 36 ) ) , readTrack( target , 18 ) ) );
+        assertTrue( Arrays.equals( disk.getTrackData( 1 ).get().getRawBytes() , readTrack( target , 1 ) ) );
+    }
+
+    public void testFlushToD64() throws Exception
+    {
+        final byte[] original = resource( "/disks/test.d64" );
+
+        // change a sector and use the GCR-encoded track as if the drive had written it
+        final byte[] modified = Arrays.copyOf( original , original.length );
+        final int offset = D64File.getFirstSectorNoForTrack( 17 ) * 256;
+        Arrays.fill( modified , offset , offset + 256 , (byte) 0x42 );
+        final Map<Integer,byte[]> tracks = new HashMap<>();
+        tracks.put( Integer.valueOf( 34 ) , toG64( modified ).getTrackData( 17 ).get().getRawBytes() );
+
+        final File target = new File( directory , "out.d64" );
+        DiskFlusher.getInstance().flush( toG64( original ) , target , tracks );
+        DiskFlusher.getInstance().awaitCompletion();
+
+        assertFalse( journal( target ).exists() );
+        assertTrue( Arrays.equals( modified , Files.readAllBytes( target.toPath() ) ) );
+    }
+
+    public void testRecoverFirstWriteOfNewFile() throws Exception
+    {
+        final File source = new File( directory , "source.g64" );
+        Files.write( source.toPath() , resource( "/disks/pitfall.g64" ) );
+        final G64File disk = new G64File( new FileInputStream( source ) , source.getAbsolutePath() );
+        final Map<Integer,byte[]> tracks = modifyTrack18( disk );
+
+        // crashed before the target file was written
+        final File target = new File( directory , "new.g64" );
+        DiskFlusher.writeJournal( journal( target ) , disk.getSource() , tracks );
+
+        assertEquals( 1 , DiskFlusher.recover( target ) );
+        assertFalse( journal( target ).exists() );
+        assertTrue( Arrays.equals( tracks.get( Integer.valueOf( 36 ) ) , readTrack( target , 18 ) ) );
+        assertTrue( Arrays.equals( disk.getTrackData( 1 ).get().getRawBytes() , readTrack( target , 1 ) ) );
+    }
+
+    public void testRecoverD64WithoutSourceImage() throws Exception
+    {
+        final byte[] original = resource( "/disks/test.d64" );
+        final byte[] modified = Arrays.copyOf( original , original.length );
+        final int offset = D64File.getFirstSectorNoForTrack( 17 ) * 256;
+        Arrays.fill( modified , offset , offset + 256 , (byte) 0x42 );
+
+        // journalled track is longer than the track of a G64 image converted from the .d64 file (like tracks from real .g64 files usually are)
+        final byte[] track = toG64( modified ).getTrackData( 17 ).get().getRawBytes();
+        final byte[] longerTrack = Arrays.copyOf( track , track.length + 100 );
+        Arrays.fill( longerTrack , track.length , longerTrack.length , (byte) 0x55 );
+        final Map<Integer,byte[]> tracks = new HashMap<>();
+        tracks.put( Integer.valueOf( 34 ) , longerTrack );
+
+        final File target = new File( directory , "disk.d64" );
+        Files.write( target.toPath() , original );
+        DiskFlusher.writeJournal( journal( target ) , new File( directory , "deleted.g64" ).getAbsolutePath() , tracks );
+
+        assertEquals( 1 , DiskFlusher.recover( target ) );
+        assertFalse( journal( target ).exists() );
+        assertTrue( Arrays.equals( modified , Files.readAllBytes( target.toPath() ) ) );
+    }
+
+    public void testRecoverIgnoresTruncatedRecord() throws Exception
+    {
+        final File target = new File( directory , "disk.d64" );
+        final byte[] original = resource( "/disks/test.d64" );
+        Files.write( target.toPath() , original );
+
+        final Map<Integer,byte[]> tracks = new HashMap<>();
+        tracks.put( Integer.valueOf( 34 ) , toG64( original ).getTrackData( 17 ).get().getRawBytes() );
+        DiskFlusher.writeJournal( journal( target ) , null , tracks );
+
+        final byte[] journal = Files.readAllBytes( journal( target ).toPath() );
+        Files.write( journal( target ).toPath() , Arrays.copyOf( journal , journal.length - 10 ) );
+
+        assertEquals( 0 , DiskFlusher.recover( target ) );
+        assertFalse( journal( target ).exists() );
+        assertTrue( Arrays.equals( original , Files.readAllBytes( target.toPath() ) ) );
+    }
+}
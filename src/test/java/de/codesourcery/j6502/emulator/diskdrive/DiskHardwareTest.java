@@ -0,0 +1,56 @@
+package de.codesourcery.j6502.emulator.diskdrive;
+
+import java.util.Arrays;
+
+import de.codesourcery.j6502.emulator.G64File;
+import junit.framework.TestCase;
+
+public class DiskHardwareTest extends TestCase
+{
+    private G64File disk;
+    private DiskDrive drive;
+    private DiskHardware hardware;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        disk = new G64File( getClass().getResourceAsStream( "/disks/pitfall.g64" ) , "pitfall.g64" );
+        drive = new DiskDrive( 8 );
+        hardware = drive.getHardware();
+        hardware.loadDisk( disk );
+        hardware.motorsRunning = true;
+        drive.writeByte( 0x1c03 , (byte) 0xff ); // VIA2 port A is output while writing
+    }
+
+    private void writeByte(int value)
+    {
+        drive.writeByte( 0x1c01 , (byte) value );
+        hardware.WRITE.processByte();
+    }
+
+    public void testWriteModeWritesToOverlay()
+    {
+        final byte[] originalImage = Arrays.copyOf( disk.getRawData() , disk.getRawData().length );
+
+        writeByte( 0xa5 );
+        writeByte( 0x3c );
+
+        assertTrue( hardware.isDiskModified() );
+        final byte[] track = hardware.overlay.getTrackBytes( 18 ).get();
+        assertEquals( (byte) 0xa5 , track[0] );
+        assertEquals( (byte) 0x3c , track[1] );
+        assertTrue( Arrays.equals( originalImage , disk.getRawData() ) );
+    }
+
+    public void testWriteProtectedDiskIsNotModified()
+    {
+        final byte[] original = disk.getTrackData( 18 ).get().getRawBytes();
+
+        hardware.writeProtectOn = true;
+        writeByte( ~original[0] );
+
+        assertFalse( hardware.isDiskModified() );
+        assertEquals( 8 , hardware.bitStream.currentBitOffset() );
+        assertTrue( Arrays.equals( original , hardware.overlay.getTrackBytes( 18 ).get() ) );
+    }
+}
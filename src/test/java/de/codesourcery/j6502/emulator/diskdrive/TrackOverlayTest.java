@@ -0,0 +1,75 @@
+package de.codesourcery.j6502.emulator.diskdrive;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import de.codesourcery.j6502.emulator.G64File;
+import junit.framework.TestCase;
+
+public class TrackOverlayTest extends TestCase
+{
+    private G64File disk;
+    private byte[] originalImage;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        disk = new G64File( getClass().getResourceAsStream( "/disks/pitfall.g64" ) , "pitfall.g64" );
+        originalImage = Arrays.copyOf( disk.getRawData() , disk.getRawData().length );
+    }
+
+    public void testUnmodifiedTracksAreFreshCopies()
+    {
+        final TrackOverlay overlay = new TrackOverlay( disk );
+        final byte[] track1 = overlay.getTrackBytes( 18 ).get();
+        final byte[] track2 = overlay.getTrackBytes( 18 ).get();
+        assertNotSame( track1 , track2 );
+        assertTrue( Arrays.equals( track1 , track2 ) );
+        assertFalse( overlay.isModified() );
+        assertFalse( overlay.isDirty() );
+    }
+
+    public void testWritesDoNotAlterUnderlyingDisk()
+    {
+        final TrackOverlay overlay = new TrackOverlay( disk );
+        final byte[] track = overlay.getTrackBytes( 18 ).get();
+        Arrays.fill( track , (byte) 0x42 );
+        overlay.markDirty( 18 , track );
+
+        assertTrue( overlay.isModified() );
+        assertTrue( overlay.isDirty() );
+        assertSame( track , overlay.getTrackBytes( 18 ).get() );
+        assertTrue( Arrays.equals( originalImage , disk.getRawData() ) );
+        assertFalse( Arrays.equals( track , disk.getTrackData( 18 ).get().getRawBytes() ) );
+    }
+
+    public void testTakeDirtyTracks()
+    {
+        final TrackOverlay overlay = new TrackOverlay( disk );
+        final byte[] track18 = overlay.getTrackBytes( 18 ).get();
+        track18[0] = 1;
+        overlay.markDirty( 18 , track18 );
+
+        Map<Integer,byte[]> dirty = overlay.takeDirtyTracks();
+        assertEquals( 1 , dirty.size() );
+        final byte[] copy = dirty.get( Integer.valueOf( 36 ) );
+        assertNotSame( track18 , copy );
+        assertTrue( Arrays.equals( track18 , copy ) );
+        assertFalse( overlay.isDirty() );
+        assertTrue( overlay.isModified() );
+        assertTrue( overlay.takeDirtyTracks().isEmpty() );
+
+        final byte[] track1 = overlay.getTrackBytes( 1 ).get();
+        track1[0] = 2;
+        overlay.markDirty( 1 , track1 );
+        dirty = overlay.takeDirtyTracks();
+        assertEquals( 1 , dirty.size() );
+        assertTrue( dirty.containsKey( Integer.valueOf( 2 ) ) );
+
+        final Map<Integer,byte[]> all = overlay.takeAllTracks();
+        assertEquals( 2 , all.size() );
+        assertTrue( all.containsKey( Integer.valueOf( 2 ) ) );
+        assertTrue( all.containsKey( Integer.valueOf( 36 ) ) );
+        assertFalse( overlay.isDirty() );
+    }
+}
@@ -160,6 +160,56 @@ public class LexerTest extends TestCase
 		assertTrue( lexer.eof() );
 	}
 
+	public void testLexShiftOperators() {
+		lex( "1<<2>>3<4" );
+		assertToken(TokenType.DIGITS,"1",0);
+		assertOperator( Operator.SHIFT_LEFT , 1 );
+		assertToken(TokenType.DIGITS,"2",3);
+		assertOperator( Operator.SHIFT_RIGHT , 4 );
+		assertToken(TokenType.DIGITS,"3",6);
+		assertOperator( Operator.LOWER_BYTE , 7 );
+		assertToken(TokenType.DIGITS,"4",8);
+		assertToken(TokenType.EOF,"",9);
+		assertTrue( lexer.eof() );
+	}
+
+	public void testLoneCarriageReturnIsSeparator() {
+		lex( "a|\r%" );
+		assertToken(TokenType.CHARACTERS,"a",0);
+		assertOperator( Operator.BITWISE_OR , 1 );
+		assertToken(TokenType.PERCENTAGE,"%",3);
+		assertToken(TokenType.EOF,"",4);
+		assertTrue( lexer.eof() );
+	}
+
+	public void testWhitespaceTokens() {
+		lex( "a \t b" );
+		lexer.setSkipWhitespace( false );
+		assertToken(TokenType.CHARACTERS,"a",0);
+		assertToken(TokenType.WHITESPACE," \t ",1);
+		assertToken(TokenType.CHARACTERS,"b",4);
+		assertToken(TokenType.EOF,"",5);
+		assertTrue( lexer.eof() );
+	}
+
+	public void testPushBackManyTokens() {
+		lex( "a b" );
+		final Token first = lexer.next();
+		final Token[] pushed = new Token[100];
+		for ( int i = 0 ; i < pushed.length ; i++ ) {
+			pushed[i] = new Token(TokenType.DIGITS, Integer.toString(i), i );
+			lexer.push( pushed[i] );
+		}
+		for ( int i = pushed.length-1 ; i >= 0 ; i-- ) {
+			assertSame( pushed[i] , lexer.next() );
+		}
+		assertToken(TokenType.CHARACTERS,"b",2);
+		lexer.push( first );
+		assertToken(TokenType.CHARACTERS,"a",0);
+		assertToken(TokenType.EOF,"",3);
+		assertTrue( lexer.eof() );
+	}
+
 	private void lex(String s) {
 		lexer = new Lexer( new Scanner( s ) );
 	}
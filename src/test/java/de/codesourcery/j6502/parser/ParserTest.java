@@ -165,7 +165,7 @@ public class ParserTest extends TestCase {
 		assertTrue( ast.child(1).child(0).child(0) instanceof NumberLiteral);
 
 		EquNode node = (EquNode) ast.child(1).child(0);
-		assertEquals( new Identifier("local") , node.getIdentifier() );
+		assertEquals( Identifier.of("local") , node.getIdentifier() );
 		NumberLiteral num = (NumberLiteral) ast.child(1).child(0).child(0);
 		assertEquals( 10 , num.getWordValue() );
 	}	
@@ -182,7 +182,7 @@ public class ParserTest extends TestCase {
         assertTrue( ast.child(0).child(0).child(0) instanceof NumberLiteral);
 
         EquNode node = (EquNode) ast.child(0).child(0);
-        assertEquals( new Identifier("label") , node.getIdentifier() );
+        assertEquals( Identifier.of("label") , node.getIdentifier() );
         NumberLiteral num = (NumberLiteral) ast.child(0).child(0).child(0);
         assertEquals( 10 , num.getWordValue() );
     }
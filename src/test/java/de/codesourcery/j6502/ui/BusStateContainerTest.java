@@ -0,0 +1,80 @@
+package de.codesourcery.j6502.ui;
+
+import de.codesourcery.j6502.emulator.Bus;
+import junit.framework.TestCase;
+
+public class BusStateContainerTest extends TestCase
+{
+    private BusStateContainer container;
+
+    private final long[] timestamps = new long[ BusStateContainer.MAX_STATES ];
+    private final int[] states = new int[ BusStateContainer.MAX_STATES ];
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        container = new BusStateContainer( new Bus()
+        {
+            @Override
+            public int getWidth() {
+                return 8;
+            }
+
+            @Override
+            public String[] getWireNames() {
+                return new String[] { "0" , "1" , "2" , "3" , "4" , "5" , "6" , "7" };
+            }
+
+            @Override
+            public int read() {
+                return 0;
+            }
+        });
+    }
+
+    public void testCopyLessThanCapacity()
+    {
+        for ( int i = 0 ; i < 10 ; i++ ) {
+            container.record( i , i & 0xff );
+        }
+        assertEquals( 10 , container.sampleCount() );
+        assertEquals( 10 , container.copyTo( timestamps , states ) );
+        for ( int i = 0 ; i < 10 ; i++ ) {
+            assertEquals( i , timestamps[i] );
+            assertEquals( i , states[i] );
+        }
+    }
+
+    public void testCopyFullBufferReturnsMostRecentStates()
+    {
+        final int recorded = 300;
+        for ( int i = 0 ; i < recorded ; i++ ) {
+            container.record( i , i & 0xff );
+        }
+
+        final int expected = BusStateContainer.MAX_STATES - 1;
+        assertEquals( expected , container.sampleCount() );
+        assertEquals( expected , container.copyTo( timestamps , states ) );
+        for ( int i = 0 ; i < expected ; i++ )
+        {
+            final int value = recorded - expected + i;
+            assertEquals( value , timestamps[i] );
+            assertEquals( value & 0xff , states[i] );
+        }
+    }
+
+    public void testReset()
+    {
+        for ( int i = 0 ; i < 300 ; i++ ) {
+            container.record( i , i & 0xff );
+        }
+        container.reset();
+        assertEquals( 0 , container.sampleCount() );
+        assertEquals( 0 , container.copyTo( timestamps , states ) );
+
+        container.record( 1000 , 42 );
+        assertEquals( 1 , container.copyTo( timestamps , states ) );
+        assertEquals( 1000 , timestamps[0] );
+        assertEquals( 42 , states[0] );
+    }
+}
@@ -64,6 +64,20 @@ public class BitOutputStreamTest extends TestCase {
         assertEquals( 0b1100_1010 , data[0] & 0xff );
     }    
     
+    public void testBulkWriteUnaligned() {
+        final BitOutputStream out = new BitOutputStream(1);
+        out.writeBit( 1 );
+        out.writeBit( 0 );
+        out.writeBit( 1 );
+        out.writeByte( 0b1100_1010 );
+        
+        assertEquals( 11 , out.getBitsWritten() );
+        final byte[] data = out.toByteArray();
+        assertEquals(2,data.length );
+        assertEquals( 0b1011_1001 , data[0] & 0xff );
+        assertEquals( 0b0100_0000 , data[1] & 0xff );
+    }    
+    
     public void testWriteOneWord() {
         final BitOutputStream out = new BitOutputStream(1);
         out.writeWord( 0x1234 );
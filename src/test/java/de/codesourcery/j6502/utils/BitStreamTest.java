@@ -24,6 +24,22 @@ public class BitStreamTest extends TestCase
         Assert.assertArrayEquals( expected , actual );
     }
     
+    public void testWriteAndReadBack() 
+    {
+        final byte[] data = new byte[] { 0x55 , 0x55 , 0x55 };
+        final BitStream stream = new BitStream( data );
+        stream.advance( 4 );
+        stream.writeByte( 0xff );
+        stream.writeBit( 0 );
+        stream.writeBit( 0 );
+        
+        Assert.assertArrayEquals( new byte[] { 0x5f , (byte) 0xf1 , 0x55 } , data );
+        
+        stream.reset();
+        assertEquals( 0x5f , stream.readByte() );
+        assertEquals( 0xf1 , stream.readByte() );
+    }
+    
     public void testRewind() 
     {
         final byte[] expected = new byte[] { 1 , 2 ,3 , 4 , 5 , 6 ,7 , 8 };
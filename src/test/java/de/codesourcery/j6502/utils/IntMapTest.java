@@ -0,0 +1,56 @@
+package de.codesourcery.j6502.utils;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class IntMapTest extends TestCase
+{
+    public void testPutAndGet()
+    {
+        final IntMap<String> map = new IntMap<>(2);
+        assertNull( map.put( 1 , "a" ) );
+        assertEquals( "a" , map.put( 1 , "b" ) );
+        assertEquals( "b" , map.get( 1 ) );
+        assertNull( map.get( 2 ) );
+        assertFalse( map.containsKey( 0 ) );
+        assertEquals( 1 , map.size() );
+    }
+
+    public void testGrowKeepsEntries()
+    {
+        final IntMap<Integer> map = new IntMap<>();
+        for ( int key = 0 ; key < 10000 ; key += 7 ) {
+            map.put( key , key * 2 );
+        }
+        final Set<Integer> values = new HashSet<>();
+        for ( int key = 0 ; key < 10000 ; key++ )
+        {
+            if ( ( key % 7 ) == 0 ) {
+                assertEquals( Integer.valueOf( key * 2 ) , map.get( key ) );
+            } else {
+                assertNull( map.get( key ) );
+            }
+        }
+        map.values().forEach( values::add );
+        for ( Integer value : map.values() ) {
+            assertTrue( values.contains( value ) );
+        }
+        assertEquals( map.size() , values.size() );
+
+        map.clear();
+        assertTrue( map.isEmpty() );
+        assertFalse( map.values().iterator().hasNext() );
+    }
+
+    public void testRejectsNegativeKeys()
+    {
+        try {
+            new IntMap<String>().put( -1 , "a" );
+            fail("Should've failed");
+        } catch(IllegalArgumentException e) {
+            // ok
+        }
+    }
+}
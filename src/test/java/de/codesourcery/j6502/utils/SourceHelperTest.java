@@ -39,4 +39,19 @@ public class SourceHelperTest extends TestCase
 		assertEquals( new Integer(4) , helper.getLineStartingOffset( 2 ) );
 		assertEquals( new Integer(8) , helper.getLineStartingOffset( 3 ) );
 	}
+
+	public void testLocationByOffset() {
+
+		final String source = "xxx\n"+
+		"\n"+
+		"zzz";
+
+		final SourceHelper helper = new SourceHelper( source );
+		assertEquals( 3 , helper.getLineCount() );
+		assertEquals( new SourceHelper.TextLocation( 1 , 1 , 0 ) , helper.getLocation( 0 ) );
+		assertEquals( new SourceHelper.TextLocation( 1 , 4 , 3 ) , helper.getLocation( 3 ) );
+		assertEquals( new SourceHelper.TextLocation( 2 , 1 , 4 ) , helper.getLocation( 4 ) );
+		assertEquals( new SourceHelper.TextLocation( 3 , 2 , 6 ) , helper.getLocation( 6 ) );
+		assertNull( helper.getLocation( -1 ) );
+	}
 }